@@ -0,0 +1,202 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.UrlShortnerApplication;
+import jakarta.servlet.Filter;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.DefaultMockMvcBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.context.WebApplicationContext;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Shared setup for the benchmarks: a Redis to talk to and a running application context.
+// By default an embedded redis-server is started on a free port; -Dbenchmark.redis.host=... (and optionally
+// -Dbenchmark.redis.port=...) runs against an existing Redis instead. -Dbenchmark.redis.shards=N starts N embedded
+// redis-servers and runs the application in sharded mode (app.redis.mode=sharded) over them.
+// -Dbenchmark.redis.replicas=N adds N embedded replicas of the (single) embedded master and reads from them
+// (app.redis.read-from=replica).
+// -Dbenchmark.storage=embedded runs the application on the embedded log-structured store (the embedded profile)
+// in a temporary directory instead, without any Redis.
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static final class Environment implements AutoCloseable {
+        private final List<RedisServer> redisServers;
+        private final ConfigurableApplicationContext context;
+        // Directory of the embedded store, or null on Redis.
+        private final Path storageDirectory;
+
+        private Environment(List<RedisServer> redisServers, ConfigurableApplicationContext context,
+                            Path storageDirectory) {
+            this.redisServers = redisServers;
+            this.context = context;
+            this.storageDirectory = storageDirectory;
+        }
+
+        <T> T bean(Class<T> type) {
+            return context.getBean(type);
+        }
+
+        ConfigurableApplicationContext context() {
+            return context;
+        }
+
+        // Port Tomcat is listening on, for benchmarks that go over real HTTP.
+        int serverPort() {
+            return ((WebServerApplicationContext) context).getWebServer().getPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            context.close();
+            for (RedisServer redisServer : redisServers) {
+                redisServer.stop();
+            }
+            if (storageDirectory != null) {
+                FileSystemUtils.deleteRecursively(storageDirectory);
+            }
+        }
+    }
+
+    // Starts Redis (unless an external one is configured) and the application. The gRPC server is disabled
+    // (port -1, unless the benchmark sets grpc.server.port) and, for WebApplicationType.SERVLET, Tomcat listens on a random port.
+    static Environment start(WebApplicationType webApplicationType, String... properties) throws IOException {
+        return start(webApplicationType, new Class<?>[0], properties);
+    }
+
+    // extraSources are registered next to the application, e.g. to add probes that only a benchmark needs.
+    static Environment start(WebApplicationType webApplicationType, Class<?>[] extraSources, String... properties)
+            throws IOException {
+        return start(System.getProperty("benchmark.storage", "redis"), webApplicationType, extraSources, properties);
+    }
+
+    // storage is "redis" or "embedded", for benchmarks that compare the two engines as a parameter.
+    static Environment start(String storage, WebApplicationType webApplicationType, Class<?>[] extraSources,
+                             String... properties) throws IOException {
+        if ("embedded".equals(storage)) {
+            Path directory = Files.createTempDirectory("urlshortner-benchmark");
+            List<String> allProperties = new ArrayList<>(List.of(
+                    "spring.profiles.active=embedded",
+                    "app.storage.embedded.dir=" + directory,
+                    "grpc.server.port=-1",
+                    "server.port=0"));
+            allProperties.addAll(Arrays.asList(properties));
+            return new Environment(List.of(), run(webApplicationType, extraSources, allProperties), directory);
+        }
+
+        String host = System.getProperty("benchmark.redis.host");
+        int port = Integer.getInteger("benchmark.redis.port", 6379);
+        int shards = Integer.getInteger("benchmark.redis.shards", 1);
+        List<RedisServer> redisServers = new ArrayList<>();
+        List<String> shardNodes = new ArrayList<>();
+        if (host == null) {
+            host = "localhost";
+            for (int i = 0; i < shards; i++) {
+                int shardPort = freePort();
+                RedisServer redisServer = RedisServer.newRedisServer()
+                        .port(shardPort)
+                        .setting("save \"\"")
+                        .setting("appendonly no")
+                        .build();
+                redisServer.start();
+                redisServers.add(redisServer);
+                shardNodes.add(host + ":" + shardPort);
+            }
+            port = Integer.parseInt(shardNodes.get(0).substring(host.length() + 1));
+        }
+        List<String> replicaNodes = new ArrayList<>();
+        for (int i = 0; i < Integer.getInteger("benchmark.redis.replicas", 0) && !redisServers.isEmpty(); i++) {
+            int replicaPort = freePort();
+            RedisServer replica = RedisServer.newRedisServer()
+                    .port(replicaPort)
+                    .setting("save \"\"")
+                    .setting("appendonly no")
+                    .setting("replicaof " + host + " " + port)
+                    .build();
+            replica.start();
+            redisServers.add(replica);
+            replicaNodes.add(host + ":" + replicaPort);
+        }
+
+        List<String> allProperties = new ArrayList<>(List.of(
+                "spring.redis.host=" + host,
+                "spring.redis.port=" + port,
+                "grpc.server.port=-1",
+                "server.port=0"));
+        if (shardNodes.size() > 1) {
+            allProperties.add("app.redis.mode=sharded");
+            allProperties.add("app.redis.shards=" + String.join(",", shardNodes));
+        }
+        if (!replicaNodes.isEmpty()) {
+            allProperties.add("app.redis.read-from=replica");
+            allProperties.add("app.redis.replicas=" + String.join(",", replicaNodes));
+        }
+        allProperties.addAll(Arrays.asList(properties));
+        return new Environment(redisServers, run(webApplicationType, extraSources, allProperties), null);
+    }
+
+    private static ConfigurableApplicationContext run(WebApplicationType webApplicationType, Class<?>[] extraSources,
+                                                      List<String> properties) {
+        // Passed as command line arguments (--key=value), which override application.properties.
+        // SpringApplicationBuilder.properties() would only set defaults that application.properties wins over.
+        List<String> allProperties = new ArrayList<>(properties);
+        // A benchmark sends everything as one client, as fast as it can, so admission control would only measure
+        // itself. Benchmarks of the limiters configure them explicitly (a repeated --key would give "a,b").
+        if (properties.stream().noneMatch(property -> property.startsWith("app.rate-limit."))) {
+            allProperties.add("app.rate-limit.enabled=false");
+            allProperties.add("app.rate-limit.concurrency.enabled=false");
+        }
+        // A benchmark's own properties come after the defaults of start() and override them (e.g. grpc.server.port
+        // to run the gRPC server): keep the last value of each key.
+        Map<String, String> byKey = new LinkedHashMap<>();
+        for (String property : allProperties) {
+            byKey.put(property.substring(0, property.indexOf('=')), property);
+        }
+        String[] args = byKey.values().stream().map(property -> "--" + property).toArray(String[]::new);
+
+        return new SpringApplicationBuilder(UrlShortnerApplication.class)
+                .sources(extraSources)
+                .web(webApplicationType)
+                .run(args);
+    }
+
+    // A MockMvc over the application's Spring MVC stack. MockMvc only runs the filters it is given; add the
+    // application's, including the one that records http.server.requests, so a request takes the same path as
+    // on Tomcat.
+    static MockMvc mockMvc(Environment environment) {
+        WebApplicationContext context = (WebApplicationContext) environment.context();
+        DefaultMockMvcBuilder builder = MockMvcBuilders.webAppContextSetup(context);
+        for (FilterRegistrationBean<?> registration : context.getBeansOfType(FilterRegistrationBean.class).values()) {
+            builder.addFilters(registration.getFilter());
+        }
+        // In their @Order, as the servlet container would chain them (RedirectFastPathFilter has to come last).
+        List<Filter> filters = new ArrayList<>(context.getBeansOfType(Filter.class).values());
+        AnnotationAwareOrderComparator.sort(filters);
+        builder.addFilters(filters.toArray(new Filter[0]));
+        return builder.build();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.client.UrlShortnerClient;
+import com.example.urlshortner.grpc.GetOriginalUrlResponse;
+import com.example.urlshortner.service.UrlShortnerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// GetOriginalUrl through UrlShortnerClient from 16 threads against the application's gRPC server on localhost,
+// the way a service embedding the client calls it. channels is the size of the client's channel pool
+// (app.client.channels); cacheSize its cache of resolved codes (0: every call goes to the server). The codes are
+// 1000 links created up front and resolved in random order, all of them in the server's near-cache.
+// Client and server share the machine, so on few cores the numbers say more about the client's overhead than about
+// what the channels would do against remote servers.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(16)
+public class GrpcClientBenchmark {
+
+    private static final int CODES = 1000;
+
+    @Param({"1", "4"})
+    private int channels;
+
+    @Param({"0", "10000"})
+    private int cacheSize;
+
+    private BenchmarkSupport.Environment environment;
+    private UrlShortnerClient client;
+    private String[] shortCodes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        int port = BenchmarkSupport.freePort();
+        environment = BenchmarkSupport.start(WebApplicationType.NONE,
+                "grpc.server.port=" + port,
+                "grpc.client.url-shortener.address=static://localhost:" + port,
+                "app.client.channels=" + channels,
+                "app.client.cache.max-size=" + cacheSize,
+                "app.client.cache.ttl-ms=60000");
+        client = environment.bean(UrlShortnerClient.class);
+
+        UrlShortnerService service = environment.bean(UrlShortnerService.class);
+        shortCodes = new String[CODES];
+        for (int i = 0; i < CODES; i++) {
+            shortCodes[i] = service.shortenUrl("https://example.com/grpc-client/" + i, null, null)
+                    .getValue().getShortCode();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public GetOriginalUrlResponse getOriginalUrl() {
+        return client.getOriginalUrl(shortCodes[ThreadLocalRandom.current().nextInt(CODES)]);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.model.UrlData;
+import com.example.urlshortner.service.OffHeapUrlIndex;
+import com.example.urlshortner.service.ShortCodeGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Lookups in a near-cache of many links held on heap (a ConcurrentHashMap of String to UrlData, what the
+// Caffeine cache holds per entry minus its node) or in OffHeapUrlIndex. No Spring context or Redis.
+// Setup prints, per variant:
+//   heap bytes/entry      growth of the live heap after a full GC, divided by the entries
+//   off-heap bytes/entry  slot table plus slab used (0 for the heap variant)
+//   full GC ms            a System.gc() with the links live, the cost of tracing them
+//   young GC ms           total young collection pause while allocating 4 GB of short-lived garbage, as a
+//                         busy instance does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 5)
+// G1 as on any server-class machine; the JVM would pick the serial collector on a single CPU.
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UseG1GC", "-Xms3g", "-Xmx3g", "-XX:MaxDirectMemorySize=2g"})
+public class OffHeapIndexBenchmark {
+
+    private static final UrlData NOT_FOUND = new UrlData();
+
+    @Param({"heap", "offheap"})
+    private String index;
+
+    @Param({"2000000"})
+    private int entries;
+
+    private String[] codes;
+    private byte[][] requestedCodes;
+    private Map<String, UrlData> heapMap;
+    private OffHeapUrlIndex offHeap;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        codes = new String[entries];
+        requestedCodes = new byte[entries][];
+        for (int i = 0; i < entries; i++) {
+            codes[i] = code(i);
+            requestedCodes[i] = codes[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+        long heapBefore = liveHeap();
+        long deadline = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        if ("heap".equals(index)) {
+            heapMap = new ConcurrentHashMap<>();
+            for (int i = 0; i < entries; i++) {
+                heapMap.put(codes[i], new UrlData(url(i), codes[i]));
+            }
+        } else {
+            offHeap = new OffHeapUrlIndex(1L << 30);
+            for (int i = 0; i < entries; i++) {
+                offHeap.put(OffHeapUrlIndex.pack(codes[i]), new UrlData(url(i), codes[i]), deadline);
+            }
+        }
+        long heapBytes = liveHeap() - heapBefore;
+
+        long fullGcStarted = System.nanoTime();
+        System.gc();
+        long fullGcMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fullGcStarted);
+
+        // Kept reachable for a while, so the allocations can't be optimized away and some survive a collection.
+        long youngGcMs = -collectionMs();
+        byte[][] recent = new byte[4096][];
+        for (int i = 0; i < 4 << 20; i++) {
+            recent[i & (recent.length - 1)] = new byte[1024];
+        }
+        youngGcMs += collectionMs();
+
+        System.out.printf("%n%s: heap bytes/entry %d, off-heap bytes/entry %d, full GC %d ms, young GC %d ms%n",
+                index, heapBytes / entries, offHeap != null ? offHeap.usedBytes() / entries : 0, fullGcMs, youngGcMs);
+    }
+
+    // Every lookup gets a new String, as a request's path variable is, so neither variant finds its hash already
+    // computed or its characters in the CPU cache.
+    @Benchmark
+    public UrlData lookup() {
+        byte[] requested = requestedCodes[ThreadLocalRandom.current().nextInt(entries)];
+        String code = new String(requested, StandardCharsets.ISO_8859_1);
+        if (heapMap != null) {
+            return heapMap.get(code);
+        }
+        return offHeap.get(OffHeapUrlIndex.pack(code), code, NOT_FOUND);
+    }
+
+    private static String url(int i) {
+        return "https://example.com/articles/" + i + "/some-readable-slug";
+    }
+
+    // Distinct 6-character codes spread over the keyspace, like the random generator's.
+    private static String code(int i) {
+        long value = (i * 0x9E3779B97F4A7C15L >>> 1) % 56_800_235_584L;
+        char[] chars = new char[ShortCodeGenerator.SHORT_CODE_LENGTH];
+        for (int position = chars.length - 1; position >= 0; position--) {
+            chars[position] = ShortCodeGenerator.CHARACTERS.charAt((int) (value % 62));
+            value /= 62;
+        }
+        return new String(chars);
+    }
+
+    private static long liveHeap() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long collectionMs() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector.getName().contains("Young")) {
+                total += collector.getCollectionTime();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.service.UrlShortnerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+// GET /{shortCode} through the whole Spring MVC stack (servlet filters, DispatcherServlet, handler mapping, argument
+// resolution, RedirectController, service, near-cache) using MockMvc, so the numbers exclude socket and Tomcat overhead.
+// The metrics parameter measures what the instrumentation costs on this path (run with -prof gc to also compare
+// gc.alloc.rate.norm, the bytes allocated per redirect):
+//   app   the defaults from application.properties: the application's own meters
+//   http  additionally Spring's http.server.requests observation, which application.properties switches off
+//   none  every meter is a no-op (management.metrics.enable.all=false)
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class RedirectBenchmark {
+
+    @Param({"app", "http", "none"})
+    private String metrics;
+
+    private BenchmarkSupport.Environment environment;
+    private MockMvc mockMvc;
+    private String path;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkSupport.start(WebApplicationType.SERVLET,
+                "management.metrics.enable.all=" + !"none".equals(metrics),
+                "management.observations.enable.http.server.requests=" + "http".equals(metrics));
+        mockMvc = BenchmarkSupport.mockMvc(environment);
+
+        String shortCode = environment.bean(UrlShortnerService.class)
+                .shortenUrl("https://example.com/redirect-target", null, null).getValue().getShortCode();
+        path = "/" + shortCode;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public MvcResult redirect() throws Exception {
+        MvcResult result = mockMvc.perform(get(path)).andReturn();
+        if (result.getResponse().getStatus() != 302) {
+            throw new IllegalStateException("Expected a redirect but got " + result.getResponse().getStatus());
+        }
+        return result;
+    }
+}
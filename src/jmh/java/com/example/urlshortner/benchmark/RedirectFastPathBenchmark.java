@@ -0,0 +1,68 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.service.UrlShortnerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+// GET /{shortCode} answered by RedirectFastPathFilter (fastPath=true) against the same redirect going through the
+// DispatcherServlet to RedirectController's @GetMapping (fastPath=false). Both write the response with
+// RedirectWriter and find the link in the near-cache, so the difference is what Spring MVC costs per redirect.
+// Like RedirectBenchmark this uses MockMvc (servlet filters included, in their order), so socket and Tomcat
+// overhead are left out; run with -prof gc to also compare the bytes allocated per redirect.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class RedirectFastPathBenchmark {
+
+    @Param({"true", "false"})
+    private boolean fastPath;
+
+    private BenchmarkSupport.Environment environment;
+    private MockMvc mockMvc;
+    private String path;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkSupport.start(WebApplicationType.SERVLET, "app.redirect.fast-path=" + fastPath);
+        mockMvc = BenchmarkSupport.mockMvc(environment);
+
+        String shortCode = environment.bean(UrlShortnerService.class)
+                .shortenUrl("https://example.com/fast-path-target", null, null).getValue().getShortCode();
+        path = "/" + shortCode;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public MvcResult redirect() throws Exception {
+        MvcResult result = mockMvc.perform(get(path)).andReturn();
+        if (result.getResponse().getStatus() != 302) {
+            throw new IllegalStateException("Expected a redirect but got " + result.getResponse().getStatus());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.model.UrlData;
+import com.example.urlshortner.service.ServiceResult;
+import com.example.urlshortner.service.ShortenCommand;
+import com.example.urlshortner.service.UrlShortnerService;
+import jakarta.servlet.Filter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.annotation.Bean;
+import org.springframework.web.server.WebFilter;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Load test of GET /{shortCode} over real HTTP with many concurrent clients, comparing three stacks:
+//   platform - Tomcat + Jedis on platform threads (the default)
+//   virtual  - Tomcat + Jedis on virtual threads (spring.threads.virtual.enabled)
+//   reactive - WebFlux on Netty + Lettuce (the "reactive" profile)
+// The near-cache is kept small so most redirects go to Redis. SampleTime reports p99 latency; the teardown prints the highest
+// number of redirects the server had in flight at once and how many redirects failed.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Threads(512)
+@Fork(1)
+public class RedirectLoadBenchmark {
+
+    private static final int CODES = 10_000;
+
+    @Param({"platform", "virtual", "reactive"})
+    private String mode;
+
+    // Redirects that didn't answer 302, e.g. because a request timed out waiting for a Jedis connection.
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private BenchmarkSupport.Environment environment;
+    private HttpClient client;
+    private URI[] uris;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        boolean reactive = "reactive".equals(mode);
+        environment = BenchmarkSupport.start(reactive ? WebApplicationType.REACTIVE : WebApplicationType.SERVLET,
+                new Class<?>[]{InFlightProbe.class},
+                "spring.threads.virtual.enabled=" + "virtual".equals(mode),
+                "app.redis.client=" + (reactive ? "lettuce" : "jedis"),
+                "app.cache.max-entries=1000",
+                "app.redis.pool.max-total=64",
+                "app.redis.pool.max-idle=64");
+
+        List<ShortenCommand> commands = new ArrayList<>(CODES);
+        for (int i = 0; i < CODES; i++) {
+            commands.add(new ShortenCommand("https://example.com/load/" + i, null, null));
+        }
+        List<ServiceResult<UrlData>> results = environment.bean(UrlShortnerService.class).shortenUrls(commands);
+
+        uris = new URI[CODES];
+        for (int i = 0; i < CODES; i++) {
+            uris[i] = URI.create("http://localhost:" + environment.serverPort() + "/"
+                    + results.get(i).getValue().getShortCode());
+        }
+
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        InFlightProbe.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println();
+        System.out.println("Max concurrent in-flight redirects (" + mode + "): "
+                + InFlightProbe.MAX_IN_FLIGHT.get() + ", failed redirects: " + failures.get());
+        environment.close();
+    }
+
+    @Benchmark
+    public int redirect() throws Exception {
+        URI uri = uris[ThreadLocalRandom.current().nextInt(CODES)];
+        HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 302) {
+            failures.incrementAndGet();
+        }
+        return response.statusCode();
+    }
+
+    // Registered as an extra source for this benchmark only: filters that track how many requests are inside
+    // the application at the same time. Only the one matching the running web stack is picked up.
+    public static class InFlightProbe {
+
+        static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+        static final AtomicInteger MAX_IN_FLIGHT = new AtomicInteger();
+
+        static void reset() {
+            IN_FLIGHT.set(0);
+            MAX_IN_FLIGHT.set(0);
+        }
+
+        @Bean
+        public Filter inFlightFilter() {
+            return (request, response, chain) -> {
+                MAX_IN_FLIGHT.accumulateAndGet(IN_FLIGHT.incrementAndGet(), Math::max);
+                try {
+                    chain.doFilter(request, response);
+                } finally {
+                    IN_FLIGHT.decrementAndGet();
+                }
+            };
+        }
+
+        @Bean
+        public WebFilter inFlightWebFilter() {
+            return (exchange, chain) -> {
+                MAX_IN_FLIGHT.accumulateAndGet(IN_FLIGHT.incrementAndGet(), Math::max);
+                return chain.filter(exchange).doFinally(signal -> IN_FLIGHT.decrementAndGet());
+            };
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.service.ShortCodeGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of producing one short code with each app.shortcode.mode, with several threads competing.
+// "range" includes its periodic INCRBY lease refills against Redis.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Threads(4)
+@Fork(1)
+public class ShortCodeGeneratorBenchmark {
+
+    @Param({"random", "range"})
+    private String mode;
+
+    private BenchmarkSupport.Environment environment;
+    private ShortCodeGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkSupport.start(WebApplicationType.NONE, "app.shortcode.mode=" + mode);
+        generator = environment.bean(ShortCodeGenerator.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public String nextCode() {
+        return generator.nextCode();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.grpc.ShortenUrlRequest;
+import com.example.urlshortner.grpc.ShortenUrlResponse;
+import com.example.urlshortner.grpc.UrlShortnerGrpcService;
+import com.example.urlshortner.service.UrlShortnerService;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.WebApplicationType;
+
+import java.util.concurrent.TimeUnit;
+
+// The ShortenUrl handler when the requested custom code is already taken, which is what a bot probing custom
+// codes produces over and over. The handler is called directly with a StreamObserver that only consumes the
+// outcome, so the numbers are handler + service + one Redis round trip, without transport and serialization.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ShortenConflictBenchmark {
+
+    private BenchmarkSupport.Environment environment;
+    private UrlShortnerGrpcService grpcService;
+    private ShortenUrlRequest takenCodeRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkSupport.start(WebApplicationType.NONE);
+        grpcService = environment.bean(UrlShortnerGrpcService.class);
+
+        environment.bean(UrlShortnerService.class).shortenUrl("https://example.com/owner", "taken", null);
+        takenCodeRequest = ShortenUrlRequest.newBuilder()
+                .setOriginalUrl("https://example.com/someone-else")
+                .setCustomCode("taken")
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public void shortenTakenCustomCode(Blackhole blackhole) {
+        grpcService.shortenUrl(takenCodeRequest, new ConsumingObserver(blackhole));
+    }
+
+    private static class ConsumingObserver implements StreamObserver<ShortenUrlResponse> {
+
+        private final Blackhole blackhole;
+
+        private ConsumingObserver(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onNext(ShortenUrlResponse response) {
+            blackhole.consume(response);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            blackhole.consume(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.service.UrlShortnerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+// GET /{shortCode} through the Spring MVC stack (as in RedirectBenchmark) on each storage engine: Redis, and the
+// embedded log-structured store (app.storage.engine=embedded). The near-cache and hot-key pinning are switched off,
+// so every redirect reads its link from the store and the difference is the cost of that read: a round trip to
+// Redis against a hash lookup and a read from a memory-mapped segment.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class StorageRedirectBenchmark {
+
+    @Param({"redis", "embedded"})
+    private String storage;
+
+    @Param({"10000"})
+    private int codes;
+
+    private BenchmarkSupport.Environment environment;
+    private MockMvc mockMvc;
+    private String[] paths;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkSupport.start(storage, WebApplicationType.SERVLET, new Class<?>[0],
+                "app.cache.max-bytes=0",
+                "app.hot-keys.enabled=false");
+        mockMvc = BenchmarkSupport.mockMvc(environment);
+
+        UrlShortnerService service = environment.bean(UrlShortnerService.class);
+        paths = new String[codes];
+        for (int i = 0; i < codes; i++) {
+            paths[i] = "/" + service.shortenUrl("https://example.com/storage/" + i, null, null)
+                    .getValue().getShortCode();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public MvcResult redirect() throws Exception {
+        MvcResult result = mockMvc.perform(get(paths[ThreadLocalRandom.current().nextInt(codes)])).andReturn();
+        if (result.getResponse().getStatus() != 302) {
+            throw new IllegalStateException("Expected a redirect but got " + result.getResponse().getStatus());
+        }
+        return result;
+    }
+}
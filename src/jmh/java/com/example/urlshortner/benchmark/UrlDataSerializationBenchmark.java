@@ -0,0 +1,59 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.config.UrlDataRedisSerializer;
+import com.example.urlshortner.model.UrlData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+// Serialize / deserialize cost of one UrlData with the value serializer configured in RedisConfig,
+// in the legacy JSON format and in the binary format. Needs no Redis.
+// The stored size of each format is printed once per trial ("bytes per key").
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlDataSerializationBenchmark {
+
+    @Param({"json", "binary"})
+    private String format;
+
+    private UrlDataRedisSerializer serializer;
+    private UrlData urlData;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        serializer = new UrlDataRedisSerializer(new GenericJackson2JsonRedisSerializer(), "binary".equals(format));
+        urlData = new UrlData("https://www.example.com/articles/2024/how-to-benchmark-java?utm_source=newsletter",
+                "aB3xYz", 86400L);
+        urlData.setClickCount(1234L);
+        encoded = serializer.serialize(urlData);
+        System.out.println();
+        System.out.println("UrlData bytes per key (" + format + "): " + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(urlData);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return serializer.deserialize(encoded);
+    }
+}
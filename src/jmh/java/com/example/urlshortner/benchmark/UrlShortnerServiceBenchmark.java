@@ -0,0 +1,90 @@
+package com.example.urlshortner.benchmark;
+
+import com.example.urlshortner.model.UrlData;
+import com.example.urlshortner.service.ServiceResult;
+import com.example.urlshortner.service.ShortenCommand;
+import com.example.urlshortner.service.UrlShortnerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Benchmarks the service layer against Redis: creating links, resolving them, and reading their stats.
+// Mode.SampleTime reports latency percentiles (p50 ... p99.99) next to the throughput numbers.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class UrlShortnerServiceBenchmark {
+
+    // Number of distinct codes resolved: 1 is a single viral link, 100000 spreads lookups over many links.
+    @Param({"1", "100000"})
+    private int codes;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private BenchmarkSupport.Environment environment;
+    private UrlShortnerService service;
+    private String[] shortCodes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkSupport.start(WebApplicationType.NONE);
+        service = environment.bean(UrlShortnerService.class);
+
+        shortCodes = new String[codes];
+        for (int i = 0; i < codes; i++) {
+            shortCodes[i] = service.shortenUrl("https://example.com/resolve/" + i, null, null).getValue().getShortCode();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    // Every call creates a new link, so the dedup lookup always misses.
+    @Benchmark
+    public ServiceResult<UrlData> shortenUrl() {
+        return service.shortenUrl("https://example.com/shorten/" + sequence.incrementAndGet(), null, 3600L);
+    }
+
+    // A ShortenUrls batch of 1000 new links. With -Dbenchmark.redis.shards=N the claims are split per shard and
+    // sent in parallel.
+    @Benchmark
+    public List<ServiceResult<UrlData>> shortenUrls() {
+        List<ShortenCommand> commands = new ArrayList<>(1000);
+        long first = sequence.getAndAdd(1000);
+        for (int i = 0; i < 1000; i++) {
+            commands.add(new ShortenCommand("https://example.com/batch/" + (first + i), null, 3600L));
+        }
+        return service.shortenUrls(commands);
+    }
+
+    @Benchmark
+    public ServiceResult<UrlData> getOriginalUrl() {
+        return service.getOriginalUrl(shortCodes[ThreadLocalRandom.current().nextInt(codes)]);
+    }
+
+    @Benchmark
+    public ServiceResult<UrlData> getUrlStats() {
+        return service.getUrlStats(shortCodes[ThreadLocalRandom.current().nextInt(codes)]);
+    }
+}
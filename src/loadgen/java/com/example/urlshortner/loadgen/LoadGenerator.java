@@ -0,0 +1,435 @@
+package com.example.urlshortner.loadgen;
+
+import com.example.urlshortner.grpc.BatchShortenUrlsRequest;
+import com.example.urlshortner.grpc.BatchShortenUrlsResponse;
+import com.example.urlshortner.grpc.GetOriginalUrlRequest;
+import com.example.urlshortner.grpc.ShortenUrlRequest;
+import com.example.urlshortner.grpc.ShortenUrlResponse;
+import com.example.urlshortner.grpc.UrlShortenerServiceGrpc;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Open-loop load generator for a running instance: ShortenUrl and GetOriginalUrl over gRPC and GET /{shortCode}
+// redirects over HTTP, mixed in a configurable ratio, for sizing and soak tests. Run it with the loadgen profile
+// (see pom.xml and the readMe); options are key=value (or --key=value), see Options for the list and defaults.
+//
+// Open loop: requests are scheduled at a fixed average rate (Poisson arrivals by default) whether or not earlier
+// ones have been answered, the way independent users arrive, and every latency is measured from the time the
+// request was scheduled. A closed-loop generator (N threads, each waiting for its response before sending the
+// next request) stops sending while the server stalls and then never records the requests it didn't send
+// (coordinated omission), so its percentiles hide exactly the stalls a soak test is looking for. Calls are
+// asynchronous (gRPC async stubs, HttpClient.sendAsync), so one scheduling thread can keep thousands in flight;
+// --max-outstanding caps them, requests beyond it count as generator_saturated errors.
+//
+// Before the run, --keys links are created in batches; lookups and redirects pick one of them with Zipf-distributed
+// popularity (--zipf, 0 for uniform). Links created during the run are not looked up. The first --warmup-s seconds
+// are not measured. Every second a progress line is printed; at the end the report (per operation: count, errors
+// by kind, throughput, latency percentiles in microseconds and a per-second series) is written as JSON to --report.
+//
+// The generator is a single client whose preload batches alone exceed the default create burst, so the instance
+// must not rate-limit it: start it with --app.rate-limit.enabled=false (and app.rate-limit.concurrency.enabled=false
+// to measure the server rather than its load shedding), or list --api-key in app.rate-limit.exempt-api-keys.
+public final class LoadGenerator {
+
+    enum Operation {
+        CREATE, LOOKUP, REDIRECT
+    }
+
+    // Options and their defaults.
+    static final class Options {
+        String grpcTarget = "localhost:9090";
+        String httpUrl = "http://localhost:8080";
+        double rate = 1000;
+        int durationSeconds = 60;
+        int warmupSeconds = 10;
+        String mix = "create=1,lookup=9,redirect=90";
+        int keys = 10000;
+        double zipf = 1.0;
+        String arrival = "poisson";
+        long timeoutMs = 5000;
+        int maxOutstanding = 10000;
+        int channels = 4;
+        String apiKey = "";
+        long seed = System.nanoTime();
+        String report = "target/loadgen-report.json";
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Expected key=value, got " + arg);
+                }
+                String key = arg.substring(arg.startsWith("--") ? 2 : 0, equals);
+                String value = arg.substring(equals + 1);
+                switch (key) {
+                    case "grpc-target": options.grpcTarget = value; break;
+                    case "http-url": options.httpUrl = value; break;
+                    case "rate": options.rate = Double.parseDouble(value); break;
+                    case "duration-s": options.durationSeconds = Integer.parseInt(value); break;
+                    case "warmup-s": options.warmupSeconds = Integer.parseInt(value); break;
+                    case "mix": options.mix = value; break;
+                    case "keys": options.keys = Integer.parseInt(value); break;
+                    case "zipf": options.zipf = Double.parseDouble(value); break;
+                    case "arrival": options.arrival = value; break;
+                    case "timeout-ms": options.timeoutMs = Long.parseLong(value); break;
+                    case "max-outstanding": options.maxOutstanding = Integer.parseInt(value); break;
+                    case "channels": options.channels = Integer.parseInt(value); break;
+                    case "api-key": options.apiKey = value; break;
+                    case "seed": options.seed = Long.parseLong(value); break;
+                    case "report": options.report = value; break;
+                    default: throw new IllegalArgumentException("Unknown option --" + key);
+                }
+            }
+            if (!"poisson".equals(options.arrival) && !"constant".equals(options.arrival)) {
+                throw new IllegalArgumentException("--arrival must be poisson or constant");
+            }
+            return options;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("grpcTarget", grpcTarget);
+            map.put("httpUrl", httpUrl);
+            map.put("rate", rate);
+            map.put("durationSeconds", durationSeconds);
+            map.put("warmupSeconds", warmupSeconds);
+            map.put("mix", mix);
+            map.put("keys", keys);
+            map.put("zipf", zipf);
+            map.put("arrival", arrival);
+            map.put("timeoutMs", timeoutMs);
+            map.put("maxOutstanding", maxOutstanding);
+            map.put("channels", channels);
+            map.put("seed", seed);
+            return map;
+        }
+    }
+
+    private static final int PRELOAD_BATCH_SIZE = 500;
+
+    private static final String RATE_LIMITED_HINT = "The instance is rate-limiting the generator; start it with "
+            + "--app.rate-limit.enabled=false or list --api-key in app.rate-limit.exempt-api-keys";
+
+    private final Options options;
+    private final Random random;
+    private final ManagedChannel[] channels;
+    private final UrlShortenerServiceGrpc.UrlShortenerServiceStub[] stubs;
+    private final HttpClient httpClient;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    // Cumulative weights of CREATE, LOOKUP and REDIRECT, from --mix.
+    private final int[] mixWeights = new int[Operation.values().length];
+    private int mixTotal;
+
+    private final OperationStats[] stats = new OperationStats[Operation.values().length];
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicBoolean rateLimitedReported = new AtomicBoolean();
+    private long scheduled;
+    private long maxScheduleLagNanos;
+
+    private List<String> shortCodes;
+    private ZipfSampler zipf;
+
+    LoadGenerator(Options options) {
+        this.options = options;
+        this.random = new Random(options.seed);
+        parseMix(options.mix);
+        for (Operation operation : Operation.values()) {
+            stats[operation.ordinal()] = new OperationStats(operation.name().toLowerCase());
+        }
+        channels = new ManagedChannel[Math.max(1, options.channels)];
+        stubs = new UrlShortenerServiceGrpc.UrlShortenerServiceStub[channels.length];
+        Metadata headers = new Metadata();
+        if (!options.apiKey.isEmpty()) {
+            headers.put(Metadata.Key.of("x-api-key", Metadata.ASCII_STRING_MARSHALLER), options.apiKey);
+        }
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = ManagedChannelBuilder.forTarget(options.grpcTarget).usePlaintext().build();
+            stubs[i] = UrlShortenerServiceGrpc.newStub(channels[i])
+                    .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+        }
+        httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofMillis(options.timeoutMs))
+                .build();
+    }
+
+    private void parseMix(String mix) {
+        for (String part : mix.split(",")) {
+            String[] nameAndWeight = part.trim().split("=");
+            Operation operation = Operation.valueOf(nameAndWeight[0].trim().toUpperCase());
+            mixTotal += Integer.parseInt(nameAndWeight[1].trim());
+            mixWeights[operation.ordinal()] = Integer.parseInt(nameAndWeight[1].trim());
+        }
+        if (mixTotal <= 0) {
+            throw new IllegalArgumentException("--mix needs at least one positive weight");
+        }
+        for (int i = 1; i < mixWeights.length; i++) {
+            mixWeights[i] += mixWeights[i - 1];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        LoadGenerator generator = new LoadGenerator(options);
+        try {
+            generator.preload();
+            generator.run();
+            generator.writeReport();
+        } finally {
+            generator.close();
+        }
+    }
+
+    // Creates the links that lookups and redirects resolve, PRELOAD_BATCH_SIZE per BatchShortenUrls call, and
+    // shuffles them, so that popularity has nothing to do with creation order.
+    void preload() {
+        System.out.println("Creating " + options.keys + " links ...");
+        UrlShortenerServiceGrpc.UrlShortenerServiceBlockingStub stub =
+                UrlShortenerServiceGrpc.newBlockingStub(channels[0]);
+        shortCodes = new ArrayList<>(options.keys);
+        while (shortCodes.size() < options.keys) {
+            BatchShortenUrlsRequest.Builder batch = BatchShortenUrlsRequest.newBuilder();
+            int batchEnd = Math.min(options.keys, shortCodes.size() + PRELOAD_BATCH_SIZE);
+            for (int i = shortCodes.size(); i < batchEnd; i++) {
+                batch.addRequests(ShortenUrlRequest.newBuilder().setOriginalUrl(url("key", i)));
+            }
+            BatchShortenUrlsResponse response;
+            try {
+                response = stub.withDeadlineAfter(30, TimeUnit.SECONDS).batchShortenUrls(batch.build());
+            } catch (StatusRuntimeException e) {
+                if (e.getStatus().getCode() == Status.Code.RESOURCE_EXHAUSTED) {
+                    throw new IllegalStateException(RATE_LIMITED_HINT, e);
+                }
+                throw e;
+            }
+            for (ShortenUrlResponse item : response.getResponsesList()) {
+                if (!item.getSuccess()) {
+                    throw new IllegalStateException("Preloading failed: " + item.getMessage());
+                }
+                shortCodes.add(item.getShortCode());
+            }
+        }
+        Collections.shuffle(shortCodes, random);
+        zipf = new ZipfSampler(shortCodes.size(), options.zipf);
+        System.out.printf("Top 1%% of the keys get %.1f%% of lookups and redirects%n",
+                100 * zipf.topShare(Math.max(1, shortCodes.size() / 100)));
+    }
+
+    private String url(String kind, long n) {
+        return "https://loadgen.example.com/" + runId + "/" + kind + "/" + n;
+    }
+
+    // Schedules requests until the end of the run on this thread; a daemon thread reports every second.
+    void run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        Thread reporter = new Thread(() -> report(start, measureFrom, end), "loadgen-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / options.rate;
+        boolean poisson = "poisson".equals(options.arrival);
+        long next = start;
+        while (next < end) {
+            long now = System.nanoTime();
+            while (now < next) {
+                LockSupport.parkNanos(next - now);
+                now = System.nanoTime();
+            }
+            maxScheduleLagNanos = Math.max(maxScheduleLagNanos, now - next);
+            send(pickOperation(), next);
+            scheduled++;
+            double interval = poisson ? -Math.log(1 - random.nextDouble()) * meanIntervalNanos : meanIntervalNanos;
+            next += (long) Math.max(1, interval);
+        }
+        // Let the last requests finish (or time out) before the final report.
+        long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.timeoutMs + 1000);
+        while (outstanding.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+        reporter.join();
+    }
+
+    private Operation pickOperation() {
+        int draw = random.nextInt(mixTotal);
+        for (Operation operation : Operation.values()) {
+            if (draw < mixWeights[operation.ordinal()]) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    private void send(Operation operation, long scheduledAt) {
+        OperationStats operationStats = stats[operation.ordinal()];
+        if (outstanding.incrementAndGet() > options.maxOutstanding) {
+            outstanding.decrementAndGet();
+            operationStats.error("generator_saturated");
+            return;
+        }
+        UrlShortenerServiceGrpc.UrlShortenerServiceStub stub = stubs[(int) (scheduled % stubs.length)]
+                .withDeadlineAfter(options.timeoutMs, TimeUnit.MILLISECONDS);
+        switch (operation) {
+            case CREATE:
+                stub.shortenUrl(ShortenUrlRequest.newBuilder().setOriginalUrl(url("new", created.incrementAndGet()))
+                        .build(), completion(operationStats, scheduledAt));
+                break;
+            case LOOKUP:
+                stub.getOriginalUrl(GetOriginalUrlRequest.newBuilder().setShortCode(nextShortCode()).build(),
+                        completion(operationStats, scheduledAt));
+                break;
+            case REDIRECT:
+                URI uri = URI.create(options.httpUrl + "/" + nextShortCode());
+                HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                        .timeout(Duration.ofMillis(options.timeoutMs))
+                        .GET();
+                if (!options.apiKey.isEmpty()) {
+                    request.header("X-API-Key", options.apiKey);
+                }
+                httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((response, failure) -> {
+                            outstanding.decrementAndGet();
+                            if (failure != null) {
+                                // sendAsync wraps the cause (HttpTimeoutException, ConnectException, ...).
+                                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                                        ? failure.getCause() : failure;
+                                operationStats.error(cause.getClass().getSimpleName());
+                            } else if (response.statusCode() / 100 == 3) {
+                                operationStats.success(System.nanoTime() - scheduledAt);
+                            } else {
+                                if (response.statusCode() == 429) {
+                                    reportRateLimited();
+                                }
+                                operationStats.error("http_" + response.statusCode());
+                            }
+                        });
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation);
+        }
+    }
+
+    // Says once per run why requests are being rejected; they are still counted as errors.
+    private void reportRateLimited() {
+        if (rateLimitedReported.compareAndSet(false, true)) {
+            System.out.println(RATE_LIMITED_HINT);
+        }
+    }
+
+    private String nextShortCode() {
+        return shortCodes.get(zipf.next(random));
+    }
+
+    // Records the outcome of a unary gRPC call: latency on success, the status code on failure.
+    private <T> StreamObserver<T> completion(OperationStats operationStats, long scheduledAt) {
+        return new StreamObserver<T>() {
+            @Override
+            public void onNext(T response) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                outstanding.decrementAndGet();
+                Status.Code code = Status.fromThrowable(t).getCode();
+                if (code == Status.Code.RESOURCE_EXHAUSTED) {
+                    reportRateLimited();
+                }
+                operationStats.error(code.name());
+            }
+
+            @Override
+            public void onCompleted() {
+                outstanding.decrementAndGet();
+                operationStats.success(System.nanoTime() - scheduledAt);
+            }
+        };
+    }
+
+    // Runs on the reporter thread: every second, takes the interval histograms and prints a progress line.
+    private void report(long start, long measureFrom, long end) {
+        long second = 0;
+        long next = start;
+        while (true) {
+            next += TimeUnit.SECONDS.toNanos(1);
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+            }
+            second++;
+            boolean measured = next > measureFrom;
+            StringBuilder line = new StringBuilder(String.format("[%4ds]%s", second, measured ? " " : "w"));
+            for (OperationStats operationStats : stats) {
+                operationStats.interval(measured ? second - options.warmupSeconds : second, measured);
+                line.append(" | ").append(operationStats.progress());
+            }
+            line.append(" | in flight ").append(outstanding.get());
+            System.out.println(line);
+            if (next >= end && (outstanding.get() == 0 || next >= end + TimeUnit.MILLISECONDS.toNanos(
+                    options.timeoutMs + 1000))) {
+                return;
+            }
+        }
+    }
+
+    void writeReport() throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("finishedAt", Instant.now().toString());
+        report.put("options", options.toMap());
+        Map<String, Object> generator = new LinkedHashMap<>();
+        generator.put("scheduled", scheduled);
+        // How far behind schedule the generator fell at worst; if this is large, the generator (not the server)
+        // was the bottleneck and the latencies include its own delays.
+        generator.put("maxScheduleLagMicros", maxScheduleLagNanos / 1000);
+        generator.put("topPercentKeyShare", zipf.topShare(Math.max(1, shortCodes.size() / 100)));
+        report.put("generator", generator);
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (OperationStats operationStats : stats) {
+            operations.put(operationStats.name(), operationStats.report(options.durationSeconds));
+        }
+        report.put("operations", operations);
+
+        File file = new File(options.report);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+        System.out.println("Report written to " + file.getAbsolutePath());
+    }
+
+    void close() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.urlshortner.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latencies and errors of one operation. Responses arrive on gRPC and HttpClient threads, so successes go to an
+// HdrHistogram Recorder, which any number of threads can record into without locks while the reporter thread
+// swaps out the histogram of the last interval. Latencies are in microseconds, from the time the request was
+// scheduled to be sent (not when it was sent), so a stalled server shows up in them instead of slowing the
+// generator down (coordinated omission).
+final class OperationStats {
+
+    private final String name;
+    private final Recorder recorder = new Recorder(3);
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder intervalErrors = new LongAdder();
+
+    // Written by the reporter thread only.
+    private final Histogram total = new Histogram(3);
+    private final List<Map<String, Object>> intervals = new ArrayList<>();
+    private long totalErrors;
+    private Histogram lastInterval;
+    private long lastIntervalErrors;
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    void success(long latencyNanos) {
+        recorder.recordValue(Math.max(0, latencyNanos / 1000));
+    }
+
+    void error(String kind) {
+        errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        intervalErrors.increment();
+    }
+
+    // Takes what was recorded since the last call. Measured intervals are added to the totals and the series,
+    // warm-up intervals dropped.
+    void interval(long second, boolean measured) {
+        Histogram histogram = recorder.getIntervalHistogram();
+        long errorCount = intervalErrors.sumThenReset();
+        lastInterval = histogram;
+        lastIntervalErrors = errorCount;
+        if (!measured) {
+            errors.clear();
+            return;
+        }
+        total.add(histogram);
+        totalErrors += errorCount;
+        Map<String, Object> interval = new LinkedHashMap<>();
+        interval.put("second", second);
+        interval.put("count", histogram.getTotalCount());
+        interval.put("errors", errorCount);
+        interval.put("p50", histogram.getValueAtPercentile(50));
+        interval.put("p99", histogram.getValueAtPercentile(99));
+        interval.put("max", histogram.getMaxValue());
+        intervals.add(interval);
+    }
+
+    Map<String, Object> report(double measuredSeconds) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("count", total.getTotalCount());
+        report.put("errorCount", totalErrors);
+        Map<String, Long> errorKinds = new TreeMap<>();
+        errors.forEach((kind, count) -> errorKinds.put(kind, count.sum()));
+        report.put("errors", errorKinds);
+        report.put("throughputPerSecond", measuredSeconds > 0 ? total.getTotalCount() / measuredSeconds : 0);
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("mean", total.getMean());
+        latency.put("p50", total.getValueAtPercentile(50));
+        latency.put("p90", total.getValueAtPercentile(90));
+        latency.put("p99", total.getValueAtPercentile(99));
+        latency.put("p99.9", total.getValueAtPercentile(99.9));
+        latency.put("p99.99", total.getValueAtPercentile(99.99));
+        latency.put("max", total.getMaxValue());
+        report.put("latencyMicros", latency);
+        report.put("intervals", intervals);
+        return report;
+    }
+
+    // One column of the progress line: rate, p99 in ms and errors of the last interval.
+    String progress() {
+        return String.format("%s %d/s p99 %.2fms err %d", name, lastInterval.getTotalCount(),
+                lastInterval.getValueAtPercentile(99) / 1000.0, lastIntervalErrors);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.urlshortner.loadgen;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Draws ranks 0..n-1 with Zipf-distributed probabilities: rank k is drawn with probability proportional to
+// 1 / (k + 1)^exponent. With exponent 1 the most popular key gets ~10% of the draws out of 10000 keys and the top
+// 1% of the keys about half of them, roughly what link popularity looks like; exponent 0 is uniform.
+//
+// The cumulative distribution is computed once (8 bytes per key); a draw is a binary search over it.
+final class ZipfSampler {
+
+    private final double[] cumulative;
+
+    ZipfSampler(int n, double exponent) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Zipf needs at least one key");
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    int next(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        // Not found (the usual case): binarySearch returns -(insertion point) - 1, and the insertion point is the
+        // first rank whose cumulative probability exceeds the draw.
+        int rank = index >= 0 ? index : -index - 1;
+        return Math.min(rank, cumulative.length - 1);
+    }
+
+    // Share of the draws that go to the given number of most popular keys, for the report.
+    double topShare(int keys) {
+        return cumulative[Math.min(keys, cumulative.length) - 1];
+    }
+}
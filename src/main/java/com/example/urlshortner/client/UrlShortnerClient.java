@@ -1,71 +1,441 @@
 package com.example.urlshortner.client;
 
 import com.example.urlshortner.grpc.*;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import io.grpc.Context;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
 // @Component annotation marks UrlShortnerClient as a Spring component.
 // This means Spring's component scanning will detect this class and create a singleton instance of it,
 // making it eligible for dependency injection into other parts of your application.
+//
+// The client is meant to be embedded in other services, so everything a busy caller needs is configured here:
+//   - Target: grpc.client.url-shortener.address, e.g. static://host1:9090,host2:9090 (the "static" name resolver
+//     of grpc-spring-boot-starter) or dns:///urlshortner:9090. Calls are balanced round-robin over every address
+//     the target resolves to, instead of gRPC's default of sticking to the first one.
+//   - Channels: app.client.channels channels to the same target, used in turn. One channel keeps one HTTP/2
+//     connection per server, and a connection caps the concurrent streams (calls) and is served by a single Netty
+//     event loop on either side; several spread a heavy caller's calls over more of both.
+//   - Deadlines: every unary call gets app.client.deadline-ms (batches app.client.batch-deadline-ms) unless it
+//     passes its own, so a stuck server fails calls with DEADLINE_EXCEEDED instead of blocking callers forever.
+//   - Retries: the idempotent reads (GetOriginalUrl, GetUrlStats) are retried on UNAVAILABLE, up to
+//     app.client.retry.max-attempts attempts with exponential backoff. With app.client.hedging-delay-ms > 0 they
+//     are hedged instead: a further attempt goes out every hedging-delay-ms until one answers, which cuts tail
+//     latency at the price of extra load. Writes are never retried, a retried create could create twice.
+//   - Cache: resolved codes are kept for app.client.cache.ttl-ms (up to app.client.cache.max-size of them), so a
+//     caller that resolves the same code over and over asks the server once per TTL. A link deleted or expired
+//     elsewhere can still resolve here for up to that long; max-size=0 turns the cache off.
 @Component
 public class UrlShortnerClient {
 
+    private static final String SERVICE_NAME = UrlShortenerServiceGrpc.SERVICE_NAME;
+
+    @Value("${grpc.client.url-shortener.address:static://localhost:9090}")
+    private String target;
+
+    @Value("${app.client.channels:4}")
+    private int channelCount;
+
+    @Value("${app.client.deadline-ms:1000}")
+    private long deadlineMs;
+
+    @Value("${app.client.batch-deadline-ms:10000}")
+    private long batchDeadlineMs;
+
+    @Value("${app.client.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${app.client.hedging-delay-ms:0}")
+    private long hedgingDelayMs;
+
+    @Value("${app.client.cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    @Value("${app.client.cache.ttl-ms:5000}")
+    private long cacheTtlMs;
+
     //  ManagedChannel represents a long-lived connection to a gRPC server. It handles the underlying network
-    //  communication, including connection management, load balancing, and more
-    private final ManagedChannel channel;
+    //  communication, including connection management, load balancing, and more.
+    //  Each call takes the next channel of the pool.
+    private ManagedChannel[] channels;
+    private final AtomicInteger nextChannel = new AtomicInteger();
+
+    // Null when the cache is off. Only found codes are cached, as their GetOriginalUrl responses.
+    private Cache<String, GetOriginalUrlResponse> resolved;
+
+    @PostConstruct
+    public void init() {
+        Map<String, Object> serviceConfig = Map.of("methodConfig", List.of(readMethodConfig()));
+        channels = new ManagedChannel[Math.max(1, channelCount)];
+        for (int i = 0; i < channels.length; i++) {
+            // Channels connect lazily, on their first call, so creating the pool costs nothing up front.
+            channels[i] = ManagedChannelBuilder.forTarget(target)
+                    .usePlaintext()
+                    .defaultLoadBalancingPolicy("round_robin")
+                    .defaultServiceConfig(serviceConfig)
+                    .enableRetry()
+                    .build();
+        }
+        if (cacheMaxSize > 0) {
+            resolved = Caffeine.newBuilder()
+                    .maximumSize(cacheMaxSize)
+                    .expireAfterWrite(Duration.ofMillis(cacheTtlMs))
+                    .build();
+        }
+    }
+
+    // The retry or hedging policy of the idempotent reads, as a gRPC service config entry. Service config is parsed
+    // from JSON, so numbers have to be Doubles and durations strings like "0.05s".
+    private Map<String, Object> readMethodConfig() {
+        List<Map<String, Object>> names = List.of(
+                Map.of("service", SERVICE_NAME, "method", "GetOriginalUrl"),
+                Map.of("service", SERVICE_NAME, "method", "GetUrlStats"));
+        if (maxAttempts < 2) {
+            return Map.of("name", names);
+        }
+        if (hedgingDelayMs > 0) {
+            return Map.of("name", names, "hedgingPolicy", Map.of(
+                    "maxAttempts", (double) maxAttempts,
+                    "hedgingDelay", hedgingDelayMs / 1000.0 + "s",
+                    "nonFatalStatusCodes", List.of("UNAVAILABLE")));
+        }
+        return Map.of("name", names, "retryPolicy", Map.of(
+                "maxAttempts", (double) maxAttempts,
+                "initialBackoff", "0.05s",
+                "maxBackoff", "1s",
+                "backoffMultiplier", 2.0,
+                "retryableStatusCodes", List.of("UNAVAILABLE")));
+    }
+
+    private ManagedChannel channel() {
+        return channels[Math.floorMod(nextChannel.getAndIncrement(), channels.length)];
+    }
 
     // A gRPC stub is a client-side representation of the remote service. It provides methods that correspond to the
-    // RPC (Remote Procedure Call) methods defined in url_shortner.proto file
+    // RPC (Remote Procedure Call) methods defined in url_shortner.proto file.
     // Blocking (synchronous) RPC calls. This means the client thread will wait until the server responds
-    // to the RPC call before proceeding.
-    private final UrlShortenerServiceGrpc.UrlShortenerServiceBlockingStub stub;
+    // to the RPC call before proceeding. A deadline is fixed when the stub is made, so every call gets a new one
+    // (stubs are cheap, the channel behind it is what is expensive).
+    private UrlShortenerServiceGrpc.UrlShortenerServiceBlockingStub stub(long callDeadlineMs) {
+        return UrlShortenerServiceGrpc.newBlockingStub(channel())
+                .withDeadlineAfter(callDeadlineMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Asynchronous (non-blocking) stub on the next channel of the pool, with the default deadline. Calls return
+    // immediately and results are delivered to a StreamObserver callback; for callers that want the RPCs this
+    // class has no method for, or their own observers.
+    public UrlShortenerServiceGrpc.UrlShortenerServiceStub asyncStub() {
+        return asyncStub(deadlineMs);
+    }
 
-    public UrlShortnerClient() {
-        // This creates a ManagedChannelBuilder instance configured to connect to a gRPC server
-        // running on localhost at port 9090.
-        this.channel = ManagedChannelBuilder.forAddress("localhost", 9090)
-                .usePlaintext().build();
-        this.stub = UrlShortenerServiceGrpc.newBlockingStub(channel);
+    private UrlShortenerServiceGrpc.UrlShortenerServiceStub asyncStub(long callDeadlineMs) {
+        return UrlShortenerServiceGrpc.newStub(channel()).withDeadlineAfter(callDeadlineMs, TimeUnit.MILLISECONDS);
     }
+
     public ShortenUrlResponse shortenUrl(String originalUrl, String customCode, long expirationSeconds) {
-        ShortenUrlRequest request = ShortenUrlRequest.newBuilder()
+        return stub(deadlineMs).shortenUrl(shortenRequest(originalUrl, customCode, expirationSeconds));
+    }
+
+    public CompletableFuture<ShortenUrlResponse> shortenUrlAsync(String originalUrl, String customCode,
+                                                                 long expirationSeconds) {
+        CompletableFuture<ShortenUrlResponse> future = new CompletableFuture<>();
+        asyncStub(deadlineMs).shortenUrl(shortenRequest(originalUrl, customCode, expirationSeconds),
+                completing(future));
+        return future;
+    }
+
+    private static ShortenUrlRequest shortenRequest(String originalUrl, String customCode, long expirationSeconds) {
+        return ShortenUrlRequest.newBuilder()
                 .setOriginalUrl(originalUrl)
                 .setCustomCode(customCode != null ? customCode : "")
                 .setExpirationSeconds(expirationSeconds)
                 .build();
-
-        return stub.shortenUrl(request);
     }
 
     public GetOriginalUrlResponse getOriginalUrl(String shortCode) {
-        GetOriginalUrlRequest request = GetOriginalUrlRequest.newBuilder()
+        return getOriginalUrl(shortCode, deadlineMs);
+    }
+
+    public GetOriginalUrlResponse getOriginalUrl(String shortCode, long callDeadlineMs) {
+        GetOriginalUrlResponse cached = resolved != null ? resolved.getIfPresent(shortCode) : null;
+        if (cached != null) {
+            return cached;
+        }
+        return remember(shortCode, stub(callDeadlineMs).getOriginalUrl(originalUrlRequest(shortCode)));
+    }
+
+    public CompletableFuture<GetOriginalUrlResponse> getOriginalUrlAsync(String shortCode) {
+        return getOriginalUrlAsync(shortCode, deadlineMs);
+    }
+
+    public CompletableFuture<GetOriginalUrlResponse> getOriginalUrlAsync(String shortCode, long callDeadlineMs) {
+        GetOriginalUrlResponse cached = resolved != null ? resolved.getIfPresent(shortCode) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<GetOriginalUrlResponse> future = new CompletableFuture<>();
+        asyncStub(callDeadlineMs).getOriginalUrl(originalUrlRequest(shortCode), completing(future));
+        return future.thenApply(response -> remember(shortCode, response));
+    }
+
+    private static GetOriginalUrlRequest originalUrlRequest(String shortCode) {
+        return GetOriginalUrlRequest.newBuilder()
                 .setShortCode(shortCode)
                 .build();
+    }
 
-        return stub.getOriginalUrl(request);
+    private GetOriginalUrlResponse remember(String shortCode, GetOriginalUrlResponse response) {
+        if (resolved != null && response.getSuccess() && response.getFound()) {
+            resolved.put(shortCode, response);
+        }
+        return response;
     }
 
     public GetUrlStatsResponse getUrlStats(String shortCode) {
-        GetUrlStatsRequest request = GetUrlStatsRequest.newBuilder()
+        return getUrlStats(shortCode, deadlineMs);
+    }
+
+    public GetUrlStatsResponse getUrlStats(String shortCode, long callDeadlineMs) {
+        return stub(callDeadlineMs).getUrlStats(urlStatsRequest(shortCode));
+    }
+
+    public CompletableFuture<GetUrlStatsResponse> getUrlStatsAsync(String shortCode) {
+        CompletableFuture<GetUrlStatsResponse> future = new CompletableFuture<>();
+        asyncStub(deadlineMs).getUrlStats(urlStatsRequest(shortCode), completing(future));
+        return future;
+    }
+
+    private static GetUrlStatsRequest urlStatsRequest(String shortCode) {
+        return GetUrlStatsRequest.newBuilder()
                 .setShortCode(shortCode)
                 .build();
-
-        return stub.getUrlStats(request);
     }
 
+    // Also drops the code from this client's cache; other clients' caches keep it until their TTL runs out.
     public DeleteUrlResponse deleteUrl(String shortCode) {
         DeleteUrlRequest request = DeleteUrlRequest.newBuilder()
                 .setShortCode(shortCode)
                 .build();
 
-        return stub.deleteUrl(request);
+        if (resolved != null) {
+            resolved.invalidate(shortCode);
+        }
+        return stub(deadlineMs).deleteUrl(request);
+    }
+
+    // Shortens all requests in one RPC. responses[i] belongs to requests[i].
+    public BatchShortenUrlsResponse batchShortenUrls(List<ShortenUrlRequest> requests) {
+        BatchShortenUrlsRequest request = BatchShortenUrlsRequest.newBuilder()
+                .addAllRequests(requests)
+                .build();
+
+        return stub(batchDeadlineMs).batchShortenUrls(request);
+    }
+
+    // Resolves all codes in one RPC. responses[i] belongs to shortCodes[i].
+    public BatchGetOriginalUrlsResponse batchGetOriginalUrls(List<String> shortCodes) {
+        BatchGetOriginalUrlsRequest request = BatchGetOriginalUrlsRequest.newBuilder()
+                .addAllShortCodes(shortCodes)
+                .build();
+
+        return stub(batchDeadlineMs).batchGetOriginalUrls(request);
+    }
+
+    // Streams every request from the iterator to StreamShortenUrls and passes each response to onResponse.
+    // Requests are only written while the call is ready (the transport has buffer space), and gRPC invokes the
+    // onReady handler again once it drains, so a huge import never piles up in client memory.
+    // The returned future completes when the server has answered every request. An import takes as long as it
+    // takes, so this call has no deadline.
+    public CompletableFuture<Void> streamShortenUrls(Iterator<ShortenUrlRequest> requests,
+                                                     Consumer<ShortenUrlResponse> onResponse) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        UrlShortenerServiceGrpc.UrlShortenerServiceStub streamStub = UrlShortenerServiceGrpc.newStub(channel());
+        streamStub.streamShortenUrls(new ClientResponseObserver<ShortenUrlRequest, ShortenUrlResponse>() {
+            private boolean requestsCompleted;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<ShortenUrlRequest> requestStream) {
+                requestStream.setOnReadyHandler(() -> {
+                    while (!requestsCompleted && requestStream.isReady()) {
+                        if (requests.hasNext()) {
+                            requestStream.onNext(requests.next());
+                        } else {
+                            requestsCompleted = true;
+                            requestStream.onCompleted();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(ShortenUrlResponse response) {
+                onResponse.accept(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                done.complete(null);
+            }
+        });
+
+        return done;
+    }
+
+    // Writes a snapshot of the link database to out: the records of every ExportUrls chunk, one chunk after the other.
+    // cursor is null to start at the beginning. onCursor gets the cursor of every chunk once its records are written
+    // (null after the last one), so a caller that saves it together with the size out had at that point can resume
+    // an interrupted export: cut the file back to that size and pass the cursor here again. Returns the number of
+    // links written. The blocking stub asks for one chunk at a time, so the server reads the database only as fast
+    // as out takes it. Like streamShortenUrls this call has no deadline.
+    public long exportUrls(String cursor, int batchSize, OutputStream out, Consumer<String> onCursor)
+            throws IOException {
+        ExportUrlsRequest request = ExportUrlsRequest.newBuilder()
+                .setCursor(cursor != null ? cursor : "")
+                .setBatchSize(batchSize)
+                .build();
+
+        // Cancelling the context cancels the call, should out fail before the last chunk.
+        Context.CancellableContext context = Context.current().withCancellation();
+        Context previous = context.attach();
+        try {
+            long written = 0;
+            Iterator<ExportUrlsChunk> chunks = UrlShortenerServiceGrpc.newBlockingStub(channel()).exportUrls(request);
+            while (chunks.hasNext()) {
+                ExportUrlsChunk chunk = chunks.next();
+                chunk.getRecords().writeTo(out);
+                written += chunk.getCount();
+                onCursor.accept(chunk.getCursor().isEmpty() ? null : chunk.getCursor());
+            }
+            return written;
+        } finally {
+            context.detach(previous);
+            context.cancel(null);
+        }
+    }
+
+    // Streams a snapshot written by exportUrls to ImportUrls, recordsPerChunk records per message. As in
+    // streamShortenUrls, the snapshot is only read while the call is ready, so a file of any size is imported in
+    // constant memory. The server skips links whose code is taken, so an interrupted import can simply be run again
+    // from the start of the file (what it imported the first time is then counted as existing). The returned future
+    // completes with the server's counts; a snapshot that can't be read fails it and cancels the call.
+    public CompletableFuture<ImportUrlsResponse> importUrls(InputStream snapshot, int recordsPerChunk) {
+        CompletableFuture<ImportUrlsResponse> done = new CompletableFuture<>();
+        CodedInputStream in = CodedInputStream.newInstance(snapshot);
+
+        UrlShortenerServiceGrpc.UrlShortenerServiceStub streamStub = UrlShortenerServiceGrpc.newStub(channel());
+        streamStub.importUrls(new ClientResponseObserver<ImportUrlsChunk, ImportUrlsResponse>() {
+            private boolean requestsCompleted;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<ImportUrlsChunk> requestStream) {
+                requestStream.setOnReadyHandler(() -> {
+                    try {
+                        while (!requestsCompleted && requestStream.isReady()) {
+                            ByteString records = readRecords(in, recordsPerChunk);
+                            if (records.isEmpty()) {
+                                requestsCompleted = true;
+                                requestStream.onCompleted();
+                            } else {
+                                requestStream.onNext(ImportUrlsChunk.newBuilder().setRecords(records).build());
+                            }
+                        }
+                    } catch (IOException e) {
+                        requestsCompleted = true;
+                        done.completeExceptionally(e);
+                        requestStream.onError(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(ImportUrlsResponse response) {
+                done.complete(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+
+        return done;
+    }
+
+    // Up to count whole records of a snapshot, framed as in the file; empty at the end of the file.
+    private static ByteString readRecords(CodedInputStream in, int count) throws IOException {
+        ByteString.Output bytes = ByteString.newOutput();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        for (int i = 0; i < count && !in.isAtEnd(); i++) {
+            out.writeByteArrayNoTag(in.readByteArray());
+            // A CodedInputStream refuses to read more than 2 GB in total unless its counter is reset.
+            in.resetSizeCounter();
+        }
+        out.flush();
+        return bytes.toByteString();
+    }
+
+    // Completes the future with the single response of a unary call, or exceptionally with its
+    // StatusRuntimeException. Runs on gRPC's executor, so dependent stages should not block.
+    private static <T> StreamObserver<T> completing(CompletableFuture<T> future) {
+        return new StreamObserver<T>() {
+            @Override
+            public void onNext(T response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        };
     }
 
-    // This method is responsible for gracefully shutting down the gRPC channel.
-    // It's important to call shutdown() when the application no longer needs the gRPC connection to release resources.
+    // This method is responsible for gracefully shutting down the gRPC channels.
+    // It's important to call shutdown() when the application no longer needs the gRPC connections to release
+    // resources; Spring calls it when the context closes.
+    @PreDestroy
     public void shutdown() {
-        channel.shutdown();
+        for (ManagedChannel channel : channels) {
+            channel.shutdown();
+        }
     }
 
 }
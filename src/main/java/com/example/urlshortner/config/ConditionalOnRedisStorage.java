@@ -0,0 +1,20 @@
+package com.example.urlshortner.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks the beans that only exist when links are stored in Redis (app.storage.engine=redis, the default): the
+// Redis connection setup itself and every service built on Redis-only features (the Bloom-filtered reverse index,
+// the expiry sweeper, click analytics over Redis Streams, the near-cache invalidation channel).
+// With app.storage.engine=embedded none of them is created; see EmbeddedUrlStore.
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Documented
+@ConditionalOnProperty(name = "app.storage.engine", havingValue = "redis", matchIfMissing = true)
+public @interface ConditionalOnRedisStorage {
+}
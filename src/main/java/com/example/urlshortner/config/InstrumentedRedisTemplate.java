@@ -0,0 +1,30 @@
+package com.example.urlshortner.config;
+
+import io.micrometer.core.instrument.Timer;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+// RedisTemplate that times every call it makes to Redis.
+// All template operations (opsForValue(), scripts, pipelines, session callbacks) end up in
+// execute(RedisCallback, boolean, boolean), so overriding that one method covers them all. A sample is the whole
+// call: waiting for a pooled connection, the round trip and the reply. A pipeline is one sample.
+public class InstrumentedRedisTemplate<K, V> extends RedisTemplate<K, V> {
+
+    private final Timer timer;
+
+    public InstrumentedRedisTemplate(Timer timer) {
+        this.timer = timer;
+    }
+
+    @Override
+    public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+        long start = System.nanoTime();
+        try {
+            return super.execute(action, exposeConnection, pipeline);
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
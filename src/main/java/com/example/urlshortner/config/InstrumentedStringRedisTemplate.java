@@ -0,0 +1,30 @@
+package com.example.urlshortner.config;
+
+import io.micrometer.core.instrument.Timer;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+// StringRedisTemplate counterpart of InstrumentedRedisTemplate (injection points ask for StringRedisTemplate,
+// so it has to extend that class).
+public class InstrumentedStringRedisTemplate extends StringRedisTemplate {
+
+    private final Timer timer;
+
+    public InstrumentedStringRedisTemplate(RedisConnectionFactory connectionFactory, Timer timer) {
+        super(connectionFactory);
+        this.timer = timer;
+    }
+
+    @Override
+    public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+        long start = System.nanoTime();
+        try {
+            return super.execute(action, exposeConnection, pipeline);
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.urlshortner.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Web server for the reactive profile (spring.main.web-application-type=reactive).
+// Tomcat is on the classpath for the servlet stack, and Spring Boot would otherwise run WebFlux on Tomcat through a
+// servlet adapter. Declaring the factory explicitly makes the reactive stack run on Netty's event loops instead.
+// server.port and the other server.* properties are still applied to it by Spring Boot.
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfig {
+
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
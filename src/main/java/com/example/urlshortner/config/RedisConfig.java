@@ -1,19 +1,42 @@
 package com.example.urlshortner.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.commonspool2.CommonsObjectPool2Metrics;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.clients.jedis.Jedis;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 //@Configuration: is a class level annotation which indicates that an object is a source of bean definition.
 //@Configuration declares beans through @Bean annotated method
 //Instantiated beans have a singleton scope by default.
 @Configuration
+@ConditionalOnRedisStorage
 public class RedisConfig {
 
     //  @Value annotation is used to Inject values from Spring’s environment,
@@ -30,6 +53,57 @@ public class RedisConfig {
     @Value("${spring.redis.database:0}")
     private int redisDatabase;
 
+    //  standalone, cluster or sharded; see RedisShards.
+    @Value("${app.redis.mode:standalone}")
+    private String redisMode;
+
+    //  cluster mode: a few host:port seed nodes, the rest of the cluster is discovered from them.
+    @Value("${app.redis.cluster.nodes:}")
+    private String clusterNodes;
+
+    //  sharded mode: every node, host:port comma separated. The first one is shard 0.
+    @Value("${app.redis.shards:}")
+    private String shardNodes;
+
+    @Value("${app.redis.client:jedis}")
+    private String redisClient;
+
+    //  "master" sends every read to the master; "replica" sends lookups to the replicas below (see RedisReplicas).
+    @Value("${app.redis.read-from:master}")
+    private String readFrom;
+
+    //  Replicas of the master (standalone mode), host:port comma separated.
+    @Value("${app.redis.replicas:}")
+    private String replicaNodes;
+
+    //  A replica more than this far behind the master is not read from.
+    @Value("${app.redis.replica.max-staleness-ms:1000}")
+    private long replicaMaxStalenessMs;
+
+    @Value("${app.redis.replica.check-interval-ms:200}")
+    private long replicaCheckIntervalMs;
+
+    //  Jedis connection pool. Every Redis call borrows a connection for its duration, so maxTotal caps how many
+    //  Redis commands can be in flight at once. With platform threads Tomcat's thread pool is usually the tighter
+    //  limit; with virtual threads (spring.threads.virtual.enabled=true) thousands of requests can run at once
+    //  and the pool becomes the limit, so size it for what Redis can serve and keep maxWait bounded.
+    @Value("${app.redis.pool.max-total:8}")
+    private int poolMaxTotal;
+
+    @Value("${app.redis.pool.max-idle:8}")
+    private int poolMaxIdle;
+
+    @Value("${app.redis.pool.min-idle:0}")
+    private int poolMinIdle;
+
+    @Value("${app.redis.pool.max-wait-ms:2000}")
+    private long poolMaxWaitMs;
+
+    // "binary" writes UrlData values in the compact UrlDataRedisSerializer layout, "json" keeps the old format.
+    // Both formats are always readable.
+    @Value("${app.storage.format:json}")
+    private String storageFormat;
+
     //  @Bean annotation is used to indicate that a method instantiates, configures, and initializes a new object to be
     //  managed by Spring IoC (Inversion of Control) container.
     //  IoC is a process in which an object defines its dependencies without creating them.
@@ -37,42 +111,263 @@ public class RedisConfig {
     //  JedisConnectionFactory. This factory is responsible for creating connections to the Redis server.
     //  Jedis is a popular Java client library for Redis.
     //  return factory;: Returns the configured factory, making it available as a Spring bean named jedisConnectionFactory
+    //  Used unless app.redis.client=lettuce. Cluster mode always uses Lettuce: Spring's Jedis cluster connection
+    //  can't pipeline, and the batch paths depend on pipelines.
+    @ConditionalOnExpression("'${app.redis.client:jedis}' == 'jedis' and '${app.redis.mode:standalone}' != 'cluster'")
     public RedisConnectionFactory jedisConnectionFactory() {
+        return jedisConnectionFactory(standaloneConfiguration(primaryNode()));
+    }
+
+    private JedisConnectionFactory jedisConnectionFactory(RedisStandaloneConfiguration config) {
+        //  A virtual thread waiting for a free connection parks on the pool's lock (commons-pool2 uses
+        //  java.util.concurrent locks, not synchronized), so it releases its carrier thread while it waits.
+        GenericObjectPoolConfig<Jedis> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(poolMaxTotal);
+        poolConfig.setMaxIdle(poolMaxIdle);
+        poolConfig.setMinIdle(poolMinIdle);
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setMaxWait(Duration.ofMillis(poolMaxWaitMs));
+        //  Name under which the pool registers itself in JMX, where redisPoolMetrics() picks it up.
+        poolConfig.setJmxNamePrefix("redis-pool");
+
+        JedisClientConfiguration clientConfig = JedisClientConfiguration.builder()
+                .usePooling()
+                .poolConfig(poolConfig)
+                .build();
+
+        JedisConnectionFactory factory = new JedisConnectionFactory(config, clientConfig);
+        factory.afterPropertiesSet();
+        return factory;
+    }
+
+    //  LettuceConnectionFactory, used with app.redis.client=lettuce (the "reactive" profile).
+    //  Lettuce is built on Netty and multiplexes all commands over one non-blocking connection, so it serves both
+    //  the blocking RedisTemplate below and the ReactiveRedisTemplate used by the reactive redirect path.
+    //  The return type is LettuceConnectionFactory so Spring also sees it as a ReactiveRedisConnectionFactory.
+    //  In cluster mode it is a cluster connection (RedisClusterConfiguration) that routes every command by slot.
+    @Bean
+    @ConditionalOnExpression("'${app.redis.client:jedis}' == 'lettuce' or '${app.redis.mode:standalone}' == 'cluster'")
+    public LettuceConnectionFactory lettuceConnectionFactory() {
+        LettuceConnectionFactory factory;
+        if (mode() == RedisShards.Mode.CLUSTER) {
+            RedisClusterConfiguration config = new RedisClusterConfiguration(nodeList(clusterNodes, "app.redis.cluster.nodes"));
+            if (redisPassword != null && !redisPassword.trim().isEmpty()) {
+                config.setPassword(redisPassword);
+            }
+            factory = new LettuceConnectionFactory(config);
+        } else {
+            factory = new LettuceConnectionFactory(standaloneConfiguration(primaryNode()));
+        }
+        factory.afterPropertiesSet();
+        return factory;
+    }
+
+    //  Key routing for the configured mode. In sharded mode the primary connection factory (and the redisTemplate and
+    //  stringRedisTemplate beans built on it) serve shard 0; shards 1..n-1 get their own factory and templates here,
+    //  configured exactly like the primary ones.
+    @Bean
+    public RedisShards redisShards(RedisConnectionFactory connectionFactory, RedisTemplate<String, Object> redisTemplate,
+                                   StringRedisTemplate stringRedisTemplate, UrlDataRedisSerializer valueSerializer,
+                                   MeterRegistry meterRegistry) {
+        RedisShards.Mode mode = mode();
+        List<RedisTemplate<String, Object>> templates = new ArrayList<>(List.of(redisTemplate));
+        List<StringRedisTemplate> stringTemplates = new ArrayList<>(List.of(stringRedisTemplate));
+        List<RedisConnectionFactory> ownedFactories = new ArrayList<>();
+        List<String> nodeNames = new ArrayList<>();
+
+        if (mode == RedisShards.Mode.SHARDED) {
+            nodeNames.addAll(nodeList(shardNodes, "app.redis.shards"));
+            for (String node : nodeNames.subList(1, nodeNames.size())) {
+                RedisConnectionFactory factory = connectionFactory(standaloneConfiguration(node));
+                ownedFactories.add(factory);
+                templates.add(objectTemplate(factory, valueSerializer, meterRegistry));
+                stringTemplates.add(stringTemplate(factory, meterRegistry));
+            }
+        }
+        return new RedisShards(mode, templates, stringTemplates, ownedFactories, nodeNames);
+    }
+
+    //  Read replicas, each with its own factory and templates configured like the master's. Without
+    //  app.redis.read-from=replica the bean has no replicas and every read stays on the master.
+    @Bean
+    public RedisReplicas redisReplicas(StringRedisTemplate stringRedisTemplate, UrlDataRedisSerializer valueSerializer,
+                                       MeterRegistry meterRegistry) {
+        List<String> names = new ArrayList<>();
+        List<RedisTemplate<String, Object>> templates = new ArrayList<>();
+        List<StringRedisTemplate> stringTemplates = new ArrayList<>();
+        List<RedisConnectionFactory> ownedFactories = new ArrayList<>();
+
+        if ("replica".equals(readFrom)) {
+            //  With several masters each would need its own replicas; Redis Cluster routes replica reads itself.
+            if (mode() != RedisShards.Mode.STANDALONE) {
+                throw new IllegalStateException("app.redis.read-from=replica needs app.redis.mode=standalone");
+            }
+            names.addAll(nodeList(replicaNodes, "app.redis.replicas"));
+            for (String node : names) {
+                RedisConnectionFactory factory = connectionFactory(standaloneConfiguration(node));
+                ownedFactories.add(factory);
+                templates.add(objectTemplate(factory, valueSerializer, meterRegistry));
+                stringTemplates.add(stringTemplate(factory, meterRegistry));
+            }
+        }
+        return new RedisReplicas(stringRedisTemplate, names, templates, stringTemplates, ownedFactories,
+                replicaMaxStalenessMs, replicaCheckIntervalMs, meterRegistry);
+    }
+
+    //  Factory for one more node (a shard or a replica), of the configured client type.
+    private RedisConnectionFactory connectionFactory(RedisStandaloneConfiguration config) {
+        if ("lettuce".equals(redisClient)) {
+            LettuceConnectionFactory factory = new LettuceConnectionFactory(config);
+            factory.afterPropertiesSet();
+            return factory;
+        }
+        return jedisConnectionFactory(config);
+    }
+
+    private RedisShards.Mode mode() {
+        return RedisShards.Mode.valueOf(redisMode.trim().toUpperCase());
+    }
+
+    //  host:port of the node the primary connection factory talks to: shard 0 in sharded mode, else spring.redis.*.
+    private String primaryNode() {
+        return mode() == RedisShards.Mode.SHARDED ? nodeList(shardNodes, "app.redis.shards").get(0)
+                : redisHost + ":" + redisPort;
+    }
+
+    private static List<String> nodeList(String nodes, String property) {
+        List<String> list = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            if (!node.trim().isEmpty()) {
+                list.add(node.trim());
+            }
+        }
+        if (list.isEmpty()) {
+            throw new IllegalStateException(property + " must list at least one host:port");
+        }
+        return list;
+    }
+
+    private RedisStandaloneConfiguration standaloneConfiguration(String node) {
+        int colon = node.lastIndexOf(':');
         RedisStandaloneConfiguration config = new RedisStandaloneConfiguration();
-        config.setHostName(redisHost);
-        config.setPort(redisPort);
+        config.setHostName(node.substring(0, colon));
+        config.setPort(Integer.parseInt(node.substring(colon + 1)));
         config.setDatabase(redisDatabase);
 
         if (redisPassword != null && !redisPassword.trim().isEmpty()) {
             config.setPassword(redisPassword);
         }
+        return config;
+    }
 
-        JedisConnectionFactory factory = new JedisConnectionFactory(config);
-        factory.afterPropertiesSet();
-        return factory;
+    //  UrlData values go through UrlDataRedisSerializer, which falls back to JSON for everything else.
+    //  Shared by the blocking and the reactive template so both read and write the same format.
+    @Bean
+    public UrlDataRedisSerializer urlDataRedisSerializer() {
+        // Creates a serializer that converts Java objects to and from JSON format using the Jackson library.
+        GenericJackson2JsonRedisSerializer jsonSerializer = new GenericJackson2JsonRedisSerializer();
+        return new UrlDataRedisSerializer(jsonSerializer, "binary".equals(storageFormat));
     }
 
     //  Defines a bean that takes a RedisConnectionFactory (the one created above will be automatically
     //  injected by Spring) as a parameter. The template is configured to handle String keys and Object values.
     //  return template;: Returns the configured template, making it available as a Spring bean named redisTemplate.
     @Bean
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
-        RedisTemplate<String, Object> template = new RedisTemplate<>();
+    //  Every call is timed into urlshortner.redis.commands{template="object"} (see InstrumentedRedisTemplate).
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory,
+                                                       UrlDataRedisSerializer valueSerializer,
+                                                       MeterRegistry meterRegistry) {
+        return objectTemplate(connectionFactory, valueSerializer, meterRegistry);
+    }
+
+    //  Not a @Bean itself, so redisShards() can build one per shard: calling the @Bean method would return the
+    //  singleton instead.
+    private static RedisTemplate<String, Object> objectTemplate(RedisConnectionFactory connectionFactory,
+                                                                UrlDataRedisSerializer valueSerializer,
+                                                                MeterRegistry meterRegistry) {
+        RedisTemplate<String, Object> template = new InstrumentedRedisTemplate<>(redisCommandTimer(meterRegistry, "object"));
         template.setConnectionFactory(connectionFactory);
 
         // Use String serializer for keys
         template.setKeySerializer(new StringRedisSerializer());
         template.setHashKeySerializer(new StringRedisSerializer());
 
-        // Use JSON serializer for values
-        // Creates a serializer that converts Java objects to and from JSON format using the Jackson library.
-        GenericJackson2JsonRedisSerializer jsonSerializer = new GenericJackson2JsonRedisSerializer();
-        template.setValueSerializer(jsonSerializer);
-        template.setHashValueSerializer(jsonSerializer);
+        template.setValueSerializer(valueSerializer);
+        template.setHashValueSerializer(valueSerializer);
 
-        template.setDefaultSerializer(jsonSerializer);
+        template.setDefaultSerializer(new GenericJackson2JsonRedisSerializer());
         template.afterPropertiesSet();
 
         return template;
     }
+
+    //  Non-blocking counterpart of redisTemplate: every operation returns a Mono/Flux that completes on a Lettuce
+    //  event loop thread instead of blocking the caller. Only available with app.redis.client=lettuce.
+    @Bean
+    @ConditionalOnProperty(name = "app.redis.client", havingValue = "lettuce")
+    public ReactiveRedisTemplate<String, Object> reactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory,
+                                                                       UrlDataRedisSerializer valueSerializer) {
+        //  The reactive paths would only ever see shard 0. Redis Cluster works, it is routed by the connection.
+        if (mode() == RedisShards.Mode.SHARDED) {
+            throw new IllegalStateException("app.redis.client=lettuce with the reactive stack doesn't support "
+                    + "app.redis.mode=sharded; use app.redis.mode=cluster");
+        }
+        RedisSerializationContext<String, Object> context = RedisSerializationContext
+                .<String, Object>newSerializationContext(new StringRedisSerializer())
+                .value(valueSerializer)
+                .hashKey(new StringRedisSerializer())
+                .hashValue(valueSerializer)
+                .build();
+        return new ReactiveRedisTemplate<>(connectionFactory, context);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.redis.client", havingValue = "lettuce")
+    public ReactiveStringRedisTemplate reactiveStringRedisTemplate(ReactiveRedisConnectionFactory connectionFactory) {
+        return new ReactiveStringRedisTemplate(connectionFactory);
+    }
+
+    //  Plain String template for values that Redis itself manipulates, such as click counters updated with INCRBY.
+    //  Those values must be stored as raw numbers, not as JSON, so they bypass the JSON serializer above.
+    @Bean
+    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory, MeterRegistry meterRegistry) {
+        return stringTemplate(connectionFactory, meterRegistry);
+    }
+
+    private static StringRedisTemplate stringTemplate(RedisConnectionFactory connectionFactory, MeterRegistry meterRegistry) {
+        return new InstrumentedStringRedisTemplate(connectionFactory, redisCommandTimer(meterRegistry, "string"));
+    }
+
+    //  Latency of each template call, including the wait for a pooled connection.
+    private static Timer redisCommandTimer(MeterRegistry meterRegistry, String template) {
+        return Timer.builder("urlshortner.redis.commands")
+                .description("Time spent in RedisTemplate calls, including connection pool waits")
+                .tag("template", template)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    //  Exports commons.pool2.* gauges for every commons-pool2 pool registered in JMX, which includes the Jedis pool
+    //  above (name="redis-pool"): active/idle connections, threads waiting for one (num.waiters) and the mean and
+    //  max time spent waiting (mean.borrow.wait, max.borrow.wait). Spring Boot binds MeterBinder beans automatically.
+    @Bean
+    public CommonsObjectPool2Metrics redisPoolMetrics() {
+        return new CommonsObjectPool2Metrics();
+    }
+
+    //  Container that keeps a subscriber connection open and dispatches pub/sub messages to registered listeners.
+    //  Used to broadcast near-cache invalidations and new reverse index entries to every running instance.
+    //  The listeners only touch in-memory structures, so messages are dispatched on the subscriber thread itself:
+    //  the default executor starts a new thread per message, which costs more than handling it, and every create
+    //  publishes one.
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(new SyncTaskExecutor());
+        //  Jedis subscriptions block their thread, so the subscription itself needs its own thread
+        //  (it would otherwise run on the task executor above, i.e. block startup).
+        container.setSubscriptionExecutor(new SimpleAsyncTaskExecutor("redis-subscriber-"));
+        return container;
+    }
 }
@@ -0,0 +1,185 @@
+package com.example.urlshortner.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// RedisReplicas holds the read replicas of the master (app.redis.replicas=host:port,...) that lookups may be sent to
+// with app.redis.read-from=replica, so redirects and stats stop competing with writes for the master's CPU.
+// Writes, the create script and pub/sub always stay on the master.
+//
+// A replica is only used while its data is fresh enough. Every checkIntervalMs the checker SETs the current time
+// under HEARTBEAT_KEY on the master and reads it back from each replica: whatever the replica returns was written
+// at most (now - value) ms ago, so that is an upper bound of how far behind the replica is. A replica above
+// maxStalenessMs, or one that doesn't answer, is skipped until a later check finds it fresh again; with no usable
+// replica every read goes to the master. maxStalenessMs must therefore be well above checkIntervalMs.
+//
+// Staleness can't be bounded at zero: a code created a moment ago may not have reached the replica yet. Callers
+// confirm a replica miss on the master (see UrlShortnerService.readUrl), so a fresh link never turns into a 404;
+// only values that changed recently, such as a click counter, can be read slightly old.
+public class RedisReplicas implements DisposableBean {
+
+    static final String HEARTBEAT_KEY = "replica:heartbeat";
+
+    private final StringRedisTemplate master;
+    private final List<String> names;
+    private final List<RedisTemplate<String, Object>> templates;
+    private final List<StringRedisTemplate> stringTemplates;
+    private final List<? extends RedisConnectionFactory> ownedFactories;
+    private final long maxStalenessMs;
+
+    // Last measured staleness of each replica in ms, -1 when it didn't answer.
+    private final long[] staleness;
+    // Indices of the replicas reads may use right now.
+    private volatile int[] usable = new int[0];
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ScheduledExecutorService checker;
+
+    private static final Logger log = LoggerFactory.getLogger(RedisReplicas.class);
+    private final ThrottledWarning heartbeatFailed;
+
+    public RedisReplicas(StringRedisTemplate master, List<String> names, List<RedisTemplate<String, Object>> templates,
+                         List<StringRedisTemplate> stringTemplates, List<? extends RedisConnectionFactory> ownedFactories,
+                         long maxStalenessMs, long checkIntervalMs, MeterRegistry meterRegistry) {
+        this.master = master;
+        this.names = names;
+        this.templates = templates;
+        this.stringTemplates = stringTemplates;
+        this.ownedFactories = ownedFactories;
+        this.maxStalenessMs = maxStalenessMs;
+        this.staleness = new long[templates.size()];
+        this.heartbeatFailed = new ThrottledWarning(log, meterRegistry, "replica-heartbeat");
+
+        for (int i = 0; i < names.size(); i++) {
+            int replica = i;
+            Gauge.builder("urlshortner.redis.replica.staleness", () -> staleness[replica])
+                    .description("Upper bound of how far the replica is behind the master, in ms (-1: unreachable)")
+                    .tag("replica", names.get(i))
+                    .register(meterRegistry);
+        }
+
+        if (templates.isEmpty()) {
+            checker = null;
+            return;
+        }
+        // The first check runs before any request is served, so replicas are used from the start.
+        check();
+        checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redis-replica-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::check, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // True when lookups go to replicas (app.redis.read-from=replica).
+    public boolean isEnabled() {
+        return !templates.isEmpty();
+    }
+
+    // A replica fresh enough to read from, round robin, or -1 when reads have to go to the master.
+    public int pick() {
+        int[] current = usable;
+        if (current.length == 0) {
+            return -1;
+        }
+        return current[(next.getAndIncrement() & Integer.MAX_VALUE) % current.length];
+    }
+
+    public RedisTemplate<String, Object> template(int replica) {
+        return templates.get(replica);
+    }
+
+    public StringRedisTemplate stringTemplate(int replica) {
+        return stringTemplates.get(replica);
+    }
+
+    // A read from the replica failed: stop using it until the next check finds it answering again.
+    public void markDown(int replica) {
+        int[] current = usable;
+        int[] remaining = new int[current.length];
+        int count = 0;
+        for (int index : current) {
+            if (index != replica) {
+                remaining[count++] = index;
+            }
+        }
+        if (count != current.length) {
+            usable = Arrays.copyOf(remaining, count);
+            staleness[replica] = -1;
+            // Only logged when the replica leaves the usable set, so at most once per check interval.
+            log.warn("Redis replica {} failed a read, reading from the master", names.get(replica));
+        }
+    }
+
+    private void check() {
+        try {
+            master.opsForValue().set(HEARTBEAT_KEY, Long.toString(System.currentTimeMillis()));
+        } catch (Exception e) {
+            // Without a fresh heartbeat the replicas' staleness grows on its own, which is the right outcome.
+            heartbeatFailed.warn("Error writing the replica heartbeat", e);
+        }
+
+        List<Integer> fresh = new ArrayList<>(templates.size());
+        for (int i = 0; i < templates.size(); i++) {
+            long measured;
+            try {
+                String value = stringTemplates.get(i).opsForValue().get(HEARTBEAT_KEY);
+                measured = value != null ? Math.max(0, System.currentTimeMillis() - Long.parseLong(value)) : -1;
+            } catch (Exception e) {
+                measured = -1;
+            }
+            boolean wasUsable = contains(usable, i);
+            boolean isUsable = measured >= 0 && measured <= maxStalenessMs;
+            if (wasUsable != isUsable) {
+                log.info("Redis replica {} {}, staleness: {}; {}", names.get(i),
+                        isUsable ? "is in sync" : "is behind or down", measured >= 0 ? measured + " ms" : "unknown",
+                        isUsable ? "reading from it" : "reading from the master instead");
+            }
+            staleness[i] = measured;
+            if (isUsable) {
+                fresh.add(i);
+            }
+        }
+        usable = fresh.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void destroy() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        for (RedisConnectionFactory factory : ownedFactories) {
+            if (factory instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) factory).destroy();
+                } catch (Exception e) {
+                    log.warn("Error closing Redis replica connection: {}", e.toString());
+                }
+            }
+        }
+    }
+}
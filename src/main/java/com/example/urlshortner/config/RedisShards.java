@@ -0,0 +1,430 @@
+package com.example.urlshortner.config;
+
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.api.async.RedisKeyAsyncCommands;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+// RedisShards tells the services which Redis node holds a key, according to app.redis.mode:
+//
+//   standalone  one node (spring.redis.host/port) holds everything. The default.
+//   cluster     Redis Cluster (app.redis.cluster.nodes). The Lettuce cluster connection behind the single template
+//               sends each command to the node that owns the key's slot, splits multi-key commands by slot, follows
+//               MOVED redirects and refreshes the topology, so there is only one "shard" here. Scans are the
+//               exception: SCAN only sees one node, so scan() visits every master.
+//   sharded     independent standalone nodes (app.redis.shards=host:port,...), with keys placed by a consistent-hash
+//               ring on the client. Adding a node only moves about 1/n of the keys. Shard 0, the first node
+//               listed, is what the plain redisTemplate/stringRedisTemplate beans talk to, so it also carries
+//               pub/sub and the few global keys (the RangeLeasingShortCodeGenerator counter).
+//
+// Keys that must live together use a hash tag, the Redis Cluster convention: only the part between the first
+// { and } is hashed. In the distributed modes the keys of a short code are tagged with the code (url:{abc},
+// clicks:{abc}), so a link and its counter always share a slot/shard. The ring hashes the same tag, so one key
+// layout works for both modes. Standalone keeps the untagged names of existing data.
+//
+// Batch operations (MGET, pipelines) are split into one group per shard with groupByShard and run with
+// runPerShard: the groups are sent in parallel, so a batch costs the slowest shard's round trip, not the sum.
+public class RedisShards implements DisposableBean {
+
+    public enum Mode {
+        STANDALONE, CLUSTER, SHARDED
+    }
+
+    // Points per node on the ring. More points spread the keys more evenly between nodes.
+    private static final int VIRTUAL_NODES = 160;
+
+    private static final Logger log = LoggerFactory.getLogger(RedisShards.class);
+
+    private final Mode mode;
+    private final List<RedisTemplate<String, Object>> templates;
+    private final List<StringRedisTemplate> stringTemplates;
+    // Connection factories of shards 1..n-1, which are not beans, so this class closes them.
+    private final List<? extends RedisConnectionFactory> ownedFactories;
+    private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+    private final ExecutorService executor;
+
+    public RedisShards(Mode mode, List<RedisTemplate<String, Object>> templates,
+                       List<StringRedisTemplate> stringTemplates, List<? extends RedisConnectionFactory> ownedFactories,
+                       List<String> nodeNames) {
+        this.mode = mode;
+        this.templates = templates;
+        this.stringTemplates = stringTemplates;
+        this.ownedFactories = ownedFactories;
+
+        // Ring points are derived from the node's host:port, not its position in the list, so reordering
+        // app.redis.shards doesn't move any key.
+        for (int shard = 0; shard < templates.size() && templates.size() > 1; shard++) {
+            for (int point = 0; point < VIRTUAL_NODES; point++) {
+                ring.put(hash(nodeNames.get(shard) + "#" + point), shard);
+            }
+        }
+
+        // The caller runs one group itself; a few threads per other shard let concurrent batches overlap.
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = templates.size() <= 1 ? null : Executors.newFixedThreadPool(4 * (templates.size() - 1), runnable -> {
+            Thread thread = new Thread(runnable, "redis-shard-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    // True when keys are spread over several nodes (cluster or sharded).
+    public boolean isDistributed() {
+        return mode != Mode.STANDALONE;
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    // Key of a short code's entry under the given prefix, e.g. key("url:", "abc") is url:abc or url:{abc}.
+    public String key(String prefix, String shortCode) {
+        return isDistributed() ? prefix + "{" + shortCode + "}" : prefix + shortCode;
+    }
+
+    public int shardOf(String key) {
+        if (ring.isEmpty()) {
+            return 0;
+        }
+        Map.Entry<Integer, Integer> point = ring.ceilingEntry(hash(hashTag(key)));
+        return (point != null ? point : ring.firstEntry()).getValue();
+    }
+
+    public RedisTemplate<String, Object> template(int shard) {
+        return templates.get(shard);
+    }
+
+    public StringRedisTemplate stringTemplate(int shard) {
+        return stringTemplates.get(shard);
+    }
+
+    public RedisTemplate<String, Object> forKey(String key) {
+        return templates.get(shardOf(key));
+    }
+
+    public StringRedisTemplate stringForKey(String key) {
+        return stringTemplates.get(shardOf(key));
+    }
+
+    // Positions of the given keys, grouped by the shard that holds them.
+    public Map<Integer, List<Integer>> groupByShard(List<String> keys) {
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            groups.computeIfAbsent(shardOf(keys.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+        return groups;
+    }
+
+    // Runs task(shard, positions) for every group, in parallel, and returns the results by shard.
+    // The calling thread runs one group itself, so a single-shard batch never changes threads.
+    public <R> Map<Integer, R> runPerShard(Map<Integer, List<Integer>> groups,
+                                           BiFunction<Integer, List<Integer>, R> task) {
+        Map<Integer, CompletableFuture<R>> futures = new LinkedHashMap<>();
+        Map.Entry<Integer, List<Integer>> local = null;
+        for (Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+            if (local == null) {
+                local = group;
+            } else {
+                futures.put(group.getKey(), CompletableFuture.supplyAsync(
+                        () -> task.apply(group.getKey(), group.getValue()), executor));
+            }
+        }
+
+        Map<Integer, R> results = new LinkedHashMap<>();
+        if (local != null) {
+            results.put(local.getKey(), task.apply(local.getKey(), local.getValue()));
+        }
+        try {
+            futures.forEach((shard, future) -> results.put(shard, future.join()));
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        return results;
+    }
+
+    // Per-shard batch whose replies come back in key order: task(shard, positions) returns one reply per position,
+    // e.g. the result of a pipeline or an MGET over the keys at those positions.
+    public List<Object> collectPerShard(List<String> keys, BiFunction<Integer, List<Integer>, List<Object>> task) {
+        Map<Integer, List<Integer>> groups = groupByShard(keys);
+        Map<Integer, List<Object>> replies = runPerShard(groups, task);
+
+        Object[] ordered = new Object[keys.size()];
+        groups.forEach((shard, positions) -> {
+            List<Object> shardReplies = replies.get(shard);
+            for (int j = 0; j < positions.size(); j++) {
+                ordered[positions.get(j)] = shardReplies.get(j);
+            }
+        });
+        return Arrays.asList(ordered);
+    }
+
+    // MGET over any number of shards; values are in key order, null for missing keys.
+    public List<Object> multiGet(List<String> keys) {
+        if (keys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return collectPerShard(keys, (shard, positions) -> {
+            List<String> shardKeys = new ArrayList<>(positions.size());
+            for (int i : positions) {
+                shardKeys.add(keys.get(i));
+            }
+            return templates.get(shard).opsForValue().multiGet(shardKeys);
+        });
+    }
+
+    // Scans every node for keys matching the pattern and hands them over in batches of up to count keys,
+    // together with the shard that holds them. Scans run one node after the other.
+    public void scan(String pattern, int count, BiConsumer<Integer, List<String>> batches) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(count).build();
+        if (mode == Mode.CLUSTER) {
+            templates.get(0).execute((RedisCallback<Void>) connection -> {
+                RedisClusterConnection clusterConnection = (RedisClusterConnection) connection;
+                for (RedisClusterNode node : clusterConnection.clusterGetNodes()) {
+                    if (node.isMaster()) {
+                        try (Cursor<byte[]> cursor = clusterConnection.scan(node, options)) {
+                            drain(cursor, count, key -> new String(key, StandardCharsets.UTF_8),
+                                    batch -> batches.accept(0, batch));
+                        }
+                    }
+                }
+                return null;
+            });
+            return;
+        }
+        for (int shard = 0; shard < templates.size(); shard++) {
+            int current = shard;
+            try (Cursor<String> cursor = templates.get(shard).scan(options)) {
+                drain(cursor, count, key -> key, batch -> batches.accept(current, batch));
+            }
+        }
+    }
+
+    // scan with every node scanned by a task of its own on the given executor, so the scan takes as long as the
+    // largest node rather than the sum of all nodes. batches is called from those tasks, concurrently.
+    // Returns once every node has been scanned.
+    public void scan(String pattern, int count, ExecutorService scanners, BiConsumer<Integer, List<String>> batches) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(count).build();
+        List<CompletableFuture<Void>> scans = new ArrayList<>();
+        if (mode == Mode.CLUSTER) {
+            List<RedisClusterNode> masters = new ArrayList<>();
+            templates.get(0).execute((RedisCallback<Void>) connection -> {
+                for (RedisClusterNode node : ((RedisClusterConnection) connection).clusterGetNodes()) {
+                    if (node.isMaster()) {
+                        masters.add(node);
+                    }
+                }
+                return null;
+            });
+            for (RedisClusterNode node : masters) {
+                RedisCallback<Void> scanNode = connection -> {
+                    try (Cursor<byte[]> cursor = ((RedisClusterConnection) connection).scan(node, options)) {
+                        drain(cursor, count, key -> new String(key, StandardCharsets.UTF_8),
+                                batch -> batches.accept(0, batch));
+                    }
+                    return null;
+                };
+                scans.add(CompletableFuture.runAsync(() -> templates.get(0).execute(scanNode), scanners));
+            }
+        } else {
+            for (int shard = 0; shard < templates.size(); shard++) {
+                int current = shard;
+                scans.add(CompletableFuture.runAsync(() -> {
+                    try (Cursor<String> cursor = templates.get(current).scan(options)) {
+                        drain(cursor, count, key -> key, batch -> batches.accept(current, batch));
+                    }
+                }, scanners));
+            }
+        }
+        try {
+            CompletableFuture.allOf(scans.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    // Number of nodes scanPage can scan: the masters in cluster mode, the shards otherwise.
+    public int scanNodes() {
+        if (mode == Mode.CLUSTER) {
+            return templates.get(0).execute((RedisCallback<Integer>) connection ->
+                    masters((RedisClusterConnection) connection).size());
+        }
+        return templates.size();
+    }
+
+    // One SCAN step on a single node (0 .. scanNodes() - 1), starting from cursor ("0" for the beginning).
+    // Unlike scan, nothing is kept between steps: a SCAN cursor is just a number that stays valid on its node, so a
+    // scan can be continued any time later, by another thread or another process. Spring Data's Cursor can't be
+    // started at a given position, so this talks to the driver underneath (Jedis or Lettuce).
+    // Cluster masters are numbered by the slots they serve rather than by node id, so a failover (a replica taking
+    // over the same slots) doesn't renumber them; resharding during a paused scan may skip or repeat keys.
+    public ScanPage scanPage(int node, String cursor, String pattern, int count) {
+        if (mode == Mode.CLUSTER) {
+            return templates.get(0).execute((RedisCallback<ScanPage>) connection -> {
+                String nodeId = masters((RedisClusterConnection) connection).get(node).getId();
+                @SuppressWarnings("unchecked")
+                RedisAdvancedClusterAsyncCommands<byte[], byte[]> commands =
+                        (RedisAdvancedClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+                // Every key of a cluster goes through the single template, so they all belong to "shard" 0.
+                return lettuceScan(0, commands.getConnection(nodeId), cursor, pattern, count);
+            });
+        }
+        return templates.get(node).execute((RedisCallback<ScanPage>) connection -> {
+            Object nativeConnection = connection.getNativeConnection();
+            if (nativeConnection instanceof Jedis) {
+                ScanResult<String> result = ((Jedis) nativeConnection).scan(cursor,
+                        new ScanParams().match(pattern).count(count));
+                return new ScanPage(node, result.getResult(), result.getCursor());
+            }
+            @SuppressWarnings("unchecked")
+            RedisKeyAsyncCommands<byte[], byte[]> commands = (RedisKeyAsyncCommands<byte[], byte[]>) nativeConnection;
+            return lettuceScan(node, commands, cursor, pattern, count);
+        });
+    }
+
+    private static ScanPage lettuceScan(int shard, RedisKeyAsyncCommands<byte[], byte[]> commands, String cursor,
+                                        String pattern, int count) {
+        KeyScanCursor<byte[]> result;
+        try {
+            result = commands.scan(ScanCursor.of(cursor), ScanArgs.Builder.matches(pattern).limit(count))
+                    .toCompletableFuture().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        List<String> keys = new ArrayList<>(result.getKeys().size());
+        for (byte[] key : result.getKeys()) {
+            keys.add(new String(key, StandardCharsets.UTF_8));
+        }
+        return new ScanPage(shard, keys, result.getCursor());
+    }
+
+    // Masters that serve slots, ordered by their first slot.
+    private static List<RedisClusterNode> masters(RedisClusterConnection connection) {
+        List<RedisClusterNode> masters = new ArrayList<>();
+        for (RedisClusterNode node : connection.clusterGetNodes()) {
+            if (node.isMaster() && !node.getSlotRange().getSlots().isEmpty()) {
+                masters.add(node);
+            }
+        }
+        masters.sort(Comparator.comparingInt(node -> node.getSlotRange().getSlots().stream()
+                .mapToInt(Integer::intValue).min().orElse(Integer.MAX_VALUE)));
+        return masters;
+    }
+
+    private static <K> void drain(Cursor<K> cursor, int count, Function<K, String> toKey,
+                                  Consumer<List<String>> batches) {
+        List<String> batch = new ArrayList<>(count);
+        while (cursor.hasNext()) {
+            batch.add(toKey.apply(cursor.next()));
+            if (batch.size() == count || !cursor.hasNext()) {
+                batches.accept(batch);
+                batch = new ArrayList<>(count);
+            }
+        }
+    }
+
+    // One step of scanPage: the keys it returned (possibly none, SCAN's COUNT is only a hint), the shard to read
+    // them from, and the cursor to continue the node's scan with, "0" once the node is done.
+    public static final class ScanPage {
+
+        private final int shard;
+        private final List<String> keys;
+        private final String cursor;
+
+        ScanPage(int shard, List<String> keys, String cursor) {
+            this.shard = shard;
+            this.keys = keys;
+            this.cursor = cursor;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+
+        public List<String> getKeys() {
+            return keys;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+
+        public boolean isNodeDone() {
+            return "0".equals(cursor);
+        }
+    }
+
+    // Redis Cluster hash tag rule: if the key contains {...} with at least one character in between, only that
+    // part is hashed.
+    static String hashTag(String key) {
+        int open = key.indexOf('{');
+        if (open >= 0) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1) {
+                return key.substring(open + 1, close);
+            }
+        }
+        return key;
+    }
+
+    private static int hash(String value) {
+        CRC32 crc = new CRC32();
+        crc.update(value.getBytes(StandardCharsets.UTF_8));
+        // Spread the 32 bits, CRC32 of similar short strings is poorly distributed in the high bits.
+        long h = crc.getValue() * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (RedisConnectionFactory factory : ownedFactories) {
+            if (factory instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) factory).destroy();
+                } catch (Exception e) {
+                    log.warn("Error closing Redis shard connection: {}", e.toString());
+                }
+            }
+        }
+    }
+}
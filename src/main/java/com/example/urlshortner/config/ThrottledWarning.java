@@ -0,0 +1,48 @@
+package com.example.urlshortner.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A warning for a failure that can repeat on every request or every tick of a background task, such as Redis being
+// unreachable. Every occurrence is counted in urlshortner.warnings{warning=<name>}, which is what dashboards and
+// alerts should use; the log gets at most one line per interval, saying how many occurrences it stands for. The
+// stack trace is only logged at debug level.
+public final class ThrottledWarning {
+
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Logger log;
+    private final Counter counter;
+    private final AtomicLong nextLogNanos = new AtomicLong(System.nanoTime());
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public ThrottledWarning(Logger log, MeterRegistry meterRegistry, String name) {
+        this.log = log;
+        this.counter = Counter.builder("urlshortner.warnings")
+                .description("Failures reported as throttled warnings")
+                .tag("warning", name)
+                .register(meterRegistry);
+    }
+
+    public void warn(String message, Throwable e) {
+        counter.increment();
+        long now = System.nanoTime();
+        long next = nextLogNanos.get();
+        // One thread per interval wins the compareAndSet and logs; the others only count.
+        if (now - next < 0 || !nextLogNanos.compareAndSet(next, now + INTERVAL_NANOS)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        long skipped = suppressed.getAndSet(0);
+        if (skipped > 0) {
+            log.warn("{}: {} ({} more since the last report)", message, e.toString(), skipped);
+        } else {
+            log.warn("{}: {}", message, e.toString());
+        }
+        log.debug(message, e);
+    }
+}
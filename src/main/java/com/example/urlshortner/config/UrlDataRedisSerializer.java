@@ -0,0 +1,188 @@
+package com.example.urlshortner.config;
+
+import com.example.urlshortner.model.UrlData;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+
+// Value serializer that stores UrlData in a compact binary layout instead of JSON.
+// GenericJackson2JsonRedisSerializer writes every field name plus an "@class" type hint into each value,
+// so a typical record is several times larger than its payload and slow to parse.
+//
+// Binary layout (version 1):
+//   byte     MAGIC (0xB1)    never the first byte of a JSON document, which is how the two formats are told apart
+//   byte     VERSION
+//   byte     flags           bit 0: expiresAt present, bit 1: redirectStatus present, bit 2: createdAt absent
+//   int64    createdAt       0 if flag bit 2 is set
+//   int64    expiresAt       only if flag bit 0 is set
+//   varint   clickCount
+//   varint   shortCode length, then its UTF-8 bytes
+//   varint   originalUrl length, then its UTF-8 bytes
+//   varint   redirectStatus  only if flag bit 1 is set
+//
+// redirectStatus came later. It is last, so readers that don't know it ignore it and still read the rest. The
+// createdAt flag came later too; its 8 bytes are still written, so readers that don't know it read 0 as before.
+//
+// Reads always accept both formats. Writes use binary only when binaryWrites is true, because instances of an
+// older version can't read it: roll out with app.storage.format=json first, then switch to binary.
+// Anything that isn't a UrlData (such as the short codes in legacy "reverse:" keys) is still written as JSON.
+public class UrlDataRedisSerializer implements RedisSerializer<Object> {
+
+    public static final byte MAGIC = (byte) 0xB1;
+    static final byte VERSION = 1;
+
+    private static final int FLAG_EXPIRES_AT = 1;
+    private static final int FLAG_REDIRECT_STATUS = 2;
+    private static final int FLAG_NO_CREATED_AT = 4;
+
+    private final GenericJackson2JsonRedisSerializer jsonSerializer;
+    private final boolean binaryWrites;
+
+    public UrlDataRedisSerializer(GenericJackson2JsonRedisSerializer jsonSerializer, boolean binaryWrites) {
+        this.jsonSerializer = jsonSerializer;
+        this.binaryWrites = binaryWrites;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (binaryWrites && value instanceof UrlData) {
+            return writeBinary((UrlData) value);
+        }
+        return jsonSerializer.serialize(value);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == MAGIC) {
+            return readBinary(bytes);
+        }
+
+        Object value = jsonSerializer.deserialize(bytes);
+        if (value instanceof UrlData) {
+            // Lets RedisUrlStore.migrateIfLegacy rewrite the value in the new format when it reads it.
+            ((UrlData) value).setLegacyEncoded(binaryWrites);
+        }
+        return value;
+    }
+
+    public static byte[] writeBinary(UrlData urlData) {
+        byte[] shortCode = urlData.getShortCode().getBytes(StandardCharsets.UTF_8);
+        byte[] originalUrl = urlData.getOriginalUrl().getBytes(StandardCharsets.UTF_8);
+        long clickCount = urlData.getClickCount() != null ? urlData.getClickCount() : 0L;
+        boolean hasExpiresAt = urlData.getExpiresAt() != null;
+        boolean hasCreatedAt = urlData.getCreatedAt() != null;
+        Integer redirectStatus = urlData.getRedirectStatus();
+
+        int size = 3 + 8 + (hasExpiresAt ? 8 : 0) + varintSize(clickCount)
+                + varintSize(shortCode.length) + shortCode.length
+                + varintSize(originalUrl.length) + originalUrl.length
+                + (redirectStatus != null ? varintSize(redirectStatus) : 0);
+
+        byte[] out = new byte[size];
+        int pos = 0;
+        out[pos++] = MAGIC;
+        out[pos++] = VERSION;
+        out[pos++] = (byte) ((hasExpiresAt ? FLAG_EXPIRES_AT : 0)
+                | (redirectStatus != null ? FLAG_REDIRECT_STATUS : 0)
+                | (hasCreatedAt ? 0 : FLAG_NO_CREATED_AT));
+        pos = writeLong(out, pos, hasCreatedAt ? urlData.getCreatedAt() : 0L);
+        if (hasExpiresAt) {
+            pos = writeLong(out, pos, urlData.getExpiresAt());
+        }
+        pos = writeVarint(out, pos, clickCount);
+        pos = writeVarint(out, pos, shortCode.length);
+        System.arraycopy(shortCode, 0, out, pos, shortCode.length);
+        pos += shortCode.length;
+        pos = writeVarint(out, pos, originalUrl.length);
+        System.arraycopy(originalUrl, 0, out, pos, originalUrl.length);
+        pos += originalUrl.length;
+        if (redirectStatus != null) {
+            writeVarint(out, pos, redirectStatus);
+        }
+        return out;
+    }
+
+    public static UrlData readBinary(byte[] in) {
+        if (in.length < 3 || in[1] != VERSION) {
+            throw new SerializationException("Unsupported UrlData binary format version " + (in.length > 1 ? in[1] : -1));
+        }
+        try {
+            int[] pos = {3};
+            UrlData urlData = new UrlData();
+            long createdAt = readLong(in, pos);
+            if ((in[2] & FLAG_NO_CREATED_AT) == 0) {
+                urlData.setCreatedAt(createdAt);
+            }
+            if ((in[2] & FLAG_EXPIRES_AT) != 0) {
+                urlData.setExpiresAt(readLong(in, pos));
+            }
+            urlData.setClickCount(readVarint(in, pos));
+            urlData.setShortCode(readString(in, pos));
+            urlData.setOriginalUrl(readString(in, pos));
+            if ((in[2] & FLAG_REDIRECT_STATUS) != 0) {
+                urlData.setRedirectStatus((int) readVarint(in, pos));
+            }
+            return urlData;
+        } catch (IndexOutOfBoundsException e) {
+            throw new SerializationException("Truncated UrlData binary value", e);
+        }
+    }
+
+    private static int writeLong(byte[] out, int pos, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out[pos++] = (byte) (value >>> shift);
+        }
+        return pos;
+    }
+
+    private static long readLong(byte[] in, int[] pos) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (in[pos[0]++] & 0xFF);
+        }
+        return value;
+    }
+
+    // Unsigned LEB128: 7 bits per byte, high bit set on every byte except the last.
+    private static int writeVarint(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long readVarint(byte[] in, int[] pos) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new SerializationException("Malformed varint in UrlData binary value");
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static String readString(byte[] in, int[] pos) {
+        int length = (int) readVarint(in, pos);
+        String value = new String(in, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return value;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.urlshortner.config;
+
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+// Opt-in virtual-thread mode, switched on with spring.threads.virtual.enabled=true.
+// Spring Boot then runs every Tomcat request (and so RedirectController) on its own virtual thread.
+// This class does the same for gRPC: by default grpc-java runs handlers on a cached pool of platform threads,
+// each of which sits blocked while UrlShortnerGrpcService waits for Jedis. On a virtual thread that wait only
+// parks the virtual thread and frees the carrier, so concurrency is bounded by the Redis pool, not by threads.
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    // GrpcServerConfigurer: hook from grpc-spring-boot-starter to customize the gRPC ServerBuilder before the
+    // server is built.
+    @Bean
+    public GrpcServerConfigurer virtualThreadGrpcServerConfigurer() {
+        return serverBuilder -> serverBuilder.executor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
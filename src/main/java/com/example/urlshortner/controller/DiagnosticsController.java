@@ -0,0 +1,200 @@
+package com.example.urlshortner.controller;
+
+import com.example.urlshortner.service.AdaptiveConcurrencyLimiter;
+import com.example.urlshortner.service.BloomFilter;
+import com.example.urlshortner.service.CacheWarmer;
+import com.example.urlshortner.service.EmbeddedUrlStore;
+import com.example.urlshortner.service.ExpirySweeper;
+import com.example.urlshortner.service.HotKeyTracker;
+import com.example.urlshortner.service.OffHeapUrlIndex;
+import com.example.urlshortner.service.RateLimiter;
+import com.example.urlshortner.service.ReverseIndex;
+import com.example.urlshortner.service.UrlCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// @RestController: like @Controller, but the return value of every handler method is written directly to the
+// response body (as JSON here) instead of being resolved to a view.
+// The paths have two segments, so they never collide with the /{shortCode} redirect mapping.
+@RestController
+@RequestMapping("/diagnostics")
+public class DiagnosticsController {
+
+    @Autowired
+    private UrlCache urlCache;
+
+    @Autowired
+    private HotKeyTracker hotKeyTracker;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    // The reverse index and the expiry sweeper only exist with the Redis store, the embedded store only without it.
+    @Autowired(required = false)
+    private ReverseIndex reverseIndex;
+
+    @Autowired(required = false)
+    private ExpirySweeper expirySweeper;
+
+    @Autowired(required = false)
+    private EmbeddedUrlStore embeddedUrlStore;
+
+    @Autowired(required = false)
+    private CacheWarmer cacheWarmer;
+
+    private volatile long applicationReadyMs = -1;
+    private volatile long jvmUptimeAtReadyMs = -1;
+
+    // Published once every runner has returned, the cache warm-up included, right before the instance reports
+    // ready. getTimeTaken counts from SpringApplication.run; the JVM's uptime also covers JVM start and class loading
+    // up to main().
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        applicationReadyMs = event.getTimeTaken().toMillis();
+        jvmUptimeAtReadyMs = ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    @GetMapping("/cache")
+    public Map<String, Object> cacheStats() {
+        CacheStats stats = urlCache.stats();
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("size", urlCache.size());
+        response.put("hits", stats.hitCount());
+        response.put("misses", stats.missCount());
+        response.put("hitRate", stats.hitRate());
+        response.put("evictions", stats.evictionCount());
+        OffHeapUrlIndex offHeap = urlCache.offHeap();
+        if (offHeap != null) {
+            // Caffeine's counters above only cover the codes that stay on heap.
+            Map<String, Object> offHeapStats = new LinkedHashMap<>();
+            offHeapStats.put("entries", offHeap.size());
+            offHeapStats.put("hits", offHeap.hits());
+            offHeapStats.put("misses", offHeap.misses());
+            offHeapStats.put("rotations", offHeap.rotations());
+            offHeapStats.put("reservedBytes", offHeap.reservedBytes());
+            offHeapStats.put("usedBytes", offHeap.usedBytes());
+            offHeapStats.put("bytesPerEntry", offHeap.size() > 0 ? offHeap.usedBytes() / offHeap.size() : 0);
+            response.put("offHeap", offHeapStats);
+        }
+        return response;
+    }
+
+    // Where startup time went: JVM start to ready, the Spring part of it and the cache warm-up within that.
+    @GetMapping("/startup")
+    public Map<String, Object> startupStats() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jvmUptimeAtReadyMs", jvmUptimeAtReadyMs);
+        response.put("applicationReadyMs", applicationReadyMs);
+        if (cacheWarmer != null) {
+            Map<String, Object> warmup = new LinkedHashMap<>();
+            warmup.put("source", cacheWarmer.source());
+            warmup.put("candidates", cacheWarmer.candidates());
+            warmup.put("warmedLinks", cacheWarmer.warmedLinks());
+            warmup.put("selectMs", cacheWarmer.selectMs());
+            warmup.put("durationMs", cacheWarmer.durationMs());
+            response.put("warmup", warmup);
+        }
+        return response;
+    }
+
+    // Memory report for the reverse index. Redis-side memory per bucket can be checked with
+    // MEMORY USAGE rev:<bucket> and OBJECT ENCODING rev:<bucket> (should be "listpack"/"ziplist").
+    @GetMapping("/reverse-index")
+    public Map<String, Object> reverseIndexStats() {
+        if (reverseIndex == null) {
+            return Map.of("available", false);
+        }
+        BloomFilter bloomFilter = reverseIndex.bloomFilter();
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("ready", reverseIndex.isReady());
+        response.put("buckets", reverseIndex.buckets());
+        response.put("migratedLegacyKeys", reverseIndex.migratedKeys());
+        response.put("bloomBits", bloomFilter.bitCount());
+        response.put("bloomBytes", bloomFilter.bitCount() / 8);
+        response.put("bloomHashes", bloomFilter.hashCount());
+        response.put("bloomFillRatio", bloomFilter.fillRatio());
+        response.put("bloomFalsePositiveEstimate", Math.pow(bloomFilter.fillRatio(), bloomFilter.hashCount()));
+        return response;
+    }
+
+    // Codes currently pinned as hot, most looked up first, with their decayed lookup count estimates.
+    @GetMapping("/hot-keys")
+    public Map<String, Object> hotKeys() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("pinned", urlCache.pinnedCount());
+        response.put("hotKeys", hotKeyTracker.hotKeys());
+        return response;
+    }
+
+    // Admission control: clients with a rate limit bucket on this instance, and where the adaptive concurrency limit
+    // stands against the Redis latency it follows. Rejections are counted in urlshortner.ratelimit.rejected and
+    // urlshortner.concurrency.shed.
+    @GetMapping("/limits")
+    public Map<String, Object> limits() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("rateLimitEnabled", rateLimiter.isEnabled());
+        response.put("createClients", rateLimiter.trackedClients(RateLimiter.Operation.CREATE));
+        response.put("lookupClients", rateLimiter.trackedClients(RateLimiter.Operation.LOOKUP));
+        response.put("concurrencyLimit", concurrencyLimiter.limit());
+        response.put("inFlight", concurrencyLimiter.inFlight());
+        response.put("redisLatencyMs", concurrencyLimiter.latestRedisMs());
+        response.put("redisLongTermLatencyMs", concurrencyLimiter.longTermRedisMs());
+        return response;
+    }
+
+    // Expired links swept by this instance since it started. Only the instance holding the sweeper lease
+    // (leader: true) sweeps; the last tick's numbers show the current sweep rate.
+    @GetMapping("/expiry")
+    public Map<String, Object> expiryStats() {
+        if (expirySweeper == null) {
+            return Map.of("available", false);
+        }
+        long tickMs = expirySweeper.lastTickMs();
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("enabled", expirySweeper.isEnabled());
+        response.put("leader", expirySweeper.isLeader());
+        response.put("backfilled", expirySweeper.isBackfilled());
+        response.put("sweptLinks", expirySweeper.sweptLinks());
+        response.put("deletedKeys", expirySweeper.deletedKeys());
+        response.put("deletedReverseEntries", expirySweeper.deletedReverseEntries());
+        response.put("reclaimedBytes", expirySweeper.reclaimedBytes());
+        response.put("lastTickKeys", expirySweeper.lastTickKeys());
+        response.put("lastTickMs", tickMs);
+        response.put("lastTickKeysPerSecond", tickMs > 0 ? expirySweeper.lastTickKeys() * 1000 / tickMs : 0);
+        return response;
+    }
+
+    // Log size of the embedded store and how much of it compaction can reclaim. With Redis, INFO memory and
+    // /diagnostics/expiry tell the same story.
+    @GetMapping("/storage")
+    public Map<String, Object> storageStats() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("engine", embeddedUrlStore != null ? "embedded" : "redis");
+        if (embeddedUrlStore != null) {
+            long logBytes = embeddedUrlStore.logBytes();
+            long garbageBytes = embeddedUrlStore.garbageBytes();
+            response.put("links", embeddedUrlStore.linkCount());
+            response.put("segments", embeddedUrlStore.segmentCount());
+            response.put("logBytes", logBytes);
+            response.put("garbageBytes", garbageBytes);
+            response.put("garbageRatio", logBytes > 0 ? (double) garbageBytes / logBytes : 0.0);
+            response.put("compactions", embeddedUrlStore.compactions());
+            response.put("reclaimedBytes", embeddedUrlStore.reclaimedBytes());
+        }
+        return response;
+    }
+}
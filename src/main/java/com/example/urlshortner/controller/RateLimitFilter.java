@@ -0,0 +1,85 @@
+package com.example.urlshortner.controller;
+
+import com.example.urlshortner.service.AdaptiveConcurrencyLimiter;
+import com.example.urlshortner.service.RateLimiter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// Admission control for redirects (GET /{shortCode}), the counterpart of RateLimitInterceptor on the gRPC side.
+//
+// A redirect takes one permit of the client's lookup limit (RateLimiter) and, while it is served, one of the
+// concurrency limit (AdaptiveConcurrencyLimiter). Without the first it gets 429 Too Many Requests, without the
+// second 503 Service Unavailable, both with a Retry-After header in seconds. The client is identified by the API
+// key header if it sent one, else by app.rate-limit.client-ip-header (the first address of e.g. X-Forwarded-For,
+// only worth setting behind a proxy that overwrites it) or the address of the connection.
+//
+// Actuator and diagnostics endpoints are not limited, so probes and scrapes keep working under load.
+// Spring Boot registers a Filter bean for every path; shouldNotFilter narrows it down. The reactive stack has no
+// servlet filters, so its redirects are not limited. It runs right before RedirectFastPathFilter, the last filter.
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    @Value("${app.rate-limit.client-ip-header:}")
+    private String clientIpHeader;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // Only single-segment paths are short codes; /actuator/..., /diagnostics/... have more.
+        String path = request.getRequestURI();
+        return !"GET".equals(request.getMethod()) || path.length() < 2 || path.indexOf('/', 1) >= 0;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long retryAfterMs = rateLimiter.tryAcquire(RateLimiter.Operation.LOOKUP, clientOf(request), 1);
+        if (retryAfterMs != RateLimiter.ADMITTED) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(RateLimiter.retryAfterSeconds(retryAfterMs)));
+            response.sendError(429, "Rate limit exceeded");
+            return;
+        }
+        if (!concurrencyLimiter.tryAcquire()) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server overloaded, retry later");
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            concurrencyLimiter.release();
+        }
+    }
+
+    private String clientOf(HttpServletRequest request) {
+        String address = null;
+        if (!clientIpHeader.isEmpty()) {
+            String forwarded = request.getHeader(clientIpHeader);
+            if (forwarded != null) {
+                int comma = forwarded.indexOf(',');
+                address = (comma < 0 ? forwarded : forwarded.substring(0, comma)).trim();
+            }
+        }
+        return RateLimiter.clientId(request.getHeader(rateLimiter.apiKeyHeader()),
+                address != null ? address : request.getRemoteAddr());
+    }
+}
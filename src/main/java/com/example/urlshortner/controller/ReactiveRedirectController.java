@@ -0,0 +1,68 @@
+package com.example.urlshortner.controller;
+
+import com.example.urlshortner.model.UrlData;
+import com.example.urlshortner.service.ClickEventService;
+import com.example.urlshortner.service.ReactiveUrlShortnerService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import reactor.core.publisher.Mono;
+
+// WebFlux version of RedirectController, active when the application runs as a reactive (Netty) web application,
+// i.e. with the "reactive" profile. Returning a Mono lets WebFlux write the response when the Redis lookup
+// completes, so the Netty event loop thread is never blocked and a handful of threads can hold tens of
+// thousands of redirects in flight. Status and caching headers come from RedirectPolicy, as on the servlet stack.
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRedirectController {
+
+    @Autowired
+    private ReactiveUrlShortnerService reactiveUrlShortnerService;
+
+    @Autowired
+    private ClickEventService clickEventService;
+
+    @Autowired
+    private RedirectPolicy redirectPolicy;
+
+    @GetMapping("/{shortCode}")
+    public Mono<ResponseEntity<Void>> redirect(@PathVariable String shortCode, ServerHttpRequest request) {
+        return reactiveUrlShortnerService.getOriginalUrl(shortCode)
+                .map(result -> {
+                    if (!result.isOk()) {
+                        return ResponseEntity.notFound().<Void>build();
+                    }
+                    recordClickEvent(shortCode, request);
+                    return redirectTo(result.getValue());
+                });
+    }
+
+    private ResponseEntity<Void> redirectTo(UrlData urlData) {
+        int status = redirectPolicy.status(urlData);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.LOCATION, urlData.getOriginalUrl());
+        headers.set(HttpHeaders.CACHE_CONTROL,
+                redirectPolicy.cacheControl(urlData, status, System.currentTimeMillis()));
+        long expires = redirectPolicy.expires(urlData, status);
+        if (expires >= 0) {
+            headers.setExpires(expires);
+        }
+        return ResponseEntity.status(status).headers(headers).build();
+    }
+
+    // Same click event as RedirectController's; the offer never blocks, so it is safe on the event loop.
+    private void recordClickEvent(String shortCode, ServerHttpRequest request) {
+        HttpHeaders headers = request.getHeaders();
+        String countryHeader = clickEventService.countryHeader();
+        clickEventService.record(shortCode, headers.getFirst(HttpHeaders.REFERER),
+                headers.getFirst(HttpHeaders.USER_AGENT),
+                request.getRemoteAddress() != null && request.getRemoteAddress().getAddress() != null
+                        ? request.getRemoteAddress().getAddress().getHostAddress() : null,
+                countryHeader.isEmpty() ? null : headers.getFirst(countryHeader));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.urlshortner.controller;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+// Answers GET /{shortCode} in the servlet filter chain, so redirects skip the DispatcherServlet: no handler mapping
+// lookup over every registered pattern, no interceptors, no argument resolution for @PathVariable and the servlet
+// objects, no return value handling. The response itself is the same (RedirectWriter writes it for both paths).
+//
+// Only plain paths are taken: one segment without escapes or matrix variables, which is what every generated and
+// custom code looks like. Anything else, and the single-segment paths other mappings own (the error page and the
+// actuator index), goes down the chain to Spring MVC as before. Runs after RateLimitFilter, so redirects taken
+// here are still admission-controlled. app.redirect.fast-path=false leaves every redirect to RedirectController.
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "app.redirect.fast-path", havingValue = "true", matchIfMissing = true)
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class RedirectFastPathFilter implements Filter {
+
+    @Autowired
+    private RedirectWriter redirectWriter;
+
+    @Value("${server.error.path:/error}")
+    private String errorPath;
+
+    @Value("${management.endpoints.web.base-path:/actuator}")
+    private String actuatorPath;
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        String shortCode = shortCodeOf(request);
+        if (shortCode == null) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        redirectWriter.redirect(shortCode, request, (HttpServletResponse) servletResponse);
+    }
+
+    // The code of a plain GET /{shortCode}, or null if Spring MVC should handle the request.
+    private String shortCodeOf(HttpServletRequest request) {
+        if (request.getDispatcherType() != DispatcherType.REQUEST || !"GET".equals(request.getMethod())
+                || !request.getContextPath().isEmpty()) {
+            return null;
+        }
+        String path = request.getRequestURI();
+        if (path.length() < 2 || path.charAt(0) != '/' || path.equals(errorPath) || path.equals(actuatorPath)) {
+            return null;
+        }
+        for (int i = 1; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '/' || c == '%' || c == ';') {
+                return null;
+            }
+        }
+        return path.substring(1);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.urlshortner.controller;
+
+import com.example.urlshortner.model.UrlData;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// RedirectPolicy decides the status and caching headers of a redirect, for the servlet and the reactive stack.
+//
+// Status: the link's own redirectStatus (chosen when it was created), else app.redirect.default-status. 301 and 308
+// are permanent, 302 and 307 temporary; 307 and 308 also tell the client to repeat the method and body.
+//
+// Caching: a response that browsers and CDNs may cache is a redirect that never reaches this service again, which
+// is the cheapest redirect there is, but also a click that analytics never see and a redirect that keeps working
+// after the link is deleted. So caching is opt-in per kind of redirect: permanent ones may be cached for
+// app.redirect.permanent-max-age-seconds, temporary ones for app.redirect.temporary-max-age-seconds (0: not at all,
+// Cache-Control: no-store). A link that expires is never cached beyond its expiry: max-age is capped at the time it
+// has left, and Expires carries the same moment for caches that only understand that header.
+//
+// The Cache-Control values of links that don't expire are the same for every request and built once here.
+@Component
+public class RedirectPolicy {
+
+    @Value("${app.redirect.default-status:302}")
+    private int defaultStatus;
+
+    @Value("${app.redirect.permanent-max-age-seconds:86400}")
+    private long permanentMaxAgeSeconds;
+
+    @Value("${app.redirect.temporary-max-age-seconds:0}")
+    private long temporaryMaxAgeSeconds;
+
+    private String permanentCacheControl;
+    private String temporaryCacheControl;
+
+    @PostConstruct
+    public void init() {
+        if (!isRedirectStatus(defaultStatus)) {
+            throw new IllegalStateException("app.redirect.default-status must be 301, 302, 307 or 308, not "
+                    + defaultStatus);
+        }
+        permanentCacheControl = cacheControl(permanentMaxAgeSeconds);
+        temporaryCacheControl = cacheControl(temporaryMaxAgeSeconds);
+    }
+
+    private static boolean isRedirectStatus(int status) {
+        return status == 301 || status == 302 || status == 307 || status == 308;
+    }
+
+    public int status(UrlData urlData) {
+        return urlData.getRedirectStatus() != null ? urlData.getRedirectStatus() : defaultStatus;
+    }
+
+    public String cacheControl(UrlData urlData, int status, long now) {
+        if (urlData.getExpiresAt() == null) {
+            return isPermanent(status) ? permanentCacheControl : temporaryCacheControl;
+        }
+        return cacheControl(Math.min(maxAgeSeconds(status), (urlData.getExpiresAt() - now) / 1000));
+    }
+
+    // The value of the Expires header, or -1 for none: only links that expire and may be cached at all get one.
+    public long expires(UrlData urlData, int status) {
+        return urlData.getExpiresAt() != null && maxAgeSeconds(status) > 0 ? urlData.getExpiresAt() : -1;
+    }
+
+    private static boolean isPermanent(int status) {
+        return status == 301 || status == 308;
+    }
+
+    private long maxAgeSeconds(int status) {
+        return isPermanent(status) ? permanentMaxAgeSeconds : temporaryMaxAgeSeconds;
+    }
+
+    private static String cacheControl(long maxAgeSeconds) {
+        return maxAgeSeconds > 0 ? "public, max-age=" + maxAgeSeconds : "no-store";
+    }
+}
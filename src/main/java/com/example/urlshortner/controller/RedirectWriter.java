@@ -0,0 +1,71 @@
+package com.example.urlshortner.controller;
+
+import com.example.urlshortner.model.UrlData;
+import com.example.urlshortner.service.ClickEventService;
+import com.example.urlshortner.service.ServiceResult;
+import com.example.urlshortner.service.UrlShortnerMetrics;
+import com.example.urlshortner.service.UrlShortnerService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+// Serves GET /{shortCode} on the servlet stack, for both ways a redirect gets here: RedirectFastPathFilter, which
+// answers it before Spring MVC sees the request, and RedirectController, the @GetMapping that takes over with
+// app.redirect.fast-path=false.
+//
+// The response is written directly (status, Location, Cache-Control and, for links that expire, Expires) rather
+// than with sendRedirect, which resets the buffer and resolves the location against the request URL first; the
+// stored URL is already absolute. Status and caching headers come from RedirectPolicy.
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RedirectWriter {
+
+    @Autowired
+    private UrlShortnerService urlShortnerService;
+
+    @Autowired
+    private RedirectPolicy redirectPolicy;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    // Null with the embedded store, which has no click analytics.
+    @Autowired(required = false)
+    private ClickEventService clickEventService;
+
+    // The time spent here is recorded in the urlshortner.redirect timer, tagged by outcome.
+    // A successful redirect also emits a click event for the analytics pipeline; that only hands references to
+    // the request's headers to a ring buffer (see ClickEventService).
+    public void redirect(String shortCode, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long start = System.nanoTime();
+        ServiceResult<UrlData> result = urlShortnerService.getOriginalUrl(shortCode);
+
+        if (result.isOk()) {
+            UrlData urlData = result.getValue();
+            if (clickEventService != null) {
+                String countryHeader = clickEventService.countryHeader();
+                clickEventService.record(shortCode, request.getHeader(HttpHeaders.REFERER),
+                        request.getHeader(HttpHeaders.USER_AGENT), request.getRemoteAddr(),
+                        countryHeader.isEmpty() ? null : request.getHeader(countryHeader));
+            }
+            int status = redirectPolicy.status(urlData);
+            response.setStatus(status);
+            response.setHeader(HttpHeaders.LOCATION, urlData.getOriginalUrl());
+            response.setHeader(HttpHeaders.CACHE_CONTROL,
+                    redirectPolicy.cacheControl(urlData, status, System.currentTimeMillis()));
+            long expires = redirectPolicy.expires(urlData, status);
+            if (expires >= 0) {
+                response.setDateHeader(HttpHeaders.EXPIRES, expires);
+            }
+        } else {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Short URL not found or expired");
+        }
+        metrics.recordRedirect(start, result.isOk());
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.urlshortner.grpc;
+
+import com.example.urlshortner.service.ServiceResult;
+import com.google.protobuf.Any;
+import com.google.rpc.Code;
+import com.google.rpc.ErrorInfo;
+import com.google.rpc.RetryInfo;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.lite.ProtoLiteUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Maps the expected failures of the service layer (ServiceResult) to gRPC errors.
+//
+// A failed unary call ends with a proper status code (ALREADY_EXISTS, NOT_FOUND, INVALID_ARGUMENT, ...) and a
+// google.rpc.Status in the standard grpc-status-details-bin trailer, carrying an ErrorInfo whose reason
+// ("CUSTOM_CODE_TAKEN", "URL_EXPIRED", ...) clients can switch on; io.grpc.protobuf.StatusProto.fromThrowable
+// decodes it on the client side. Per-item results of batch and streaming calls can't carry a status, so they use
+// prebuilt success=false responses instead.
+//
+// Everything except the trailers is built once here. Metadata is mutable and owned by the call it is sent on,
+// so a fresh one is created per error.
+final class GrpcErrors {
+
+    private static final Logger log = LoggerFactory.getLogger(GrpcErrors.class);
+
+    static final String ERROR_DOMAIN = "urlshortner";
+
+    private static final Metadata.Key<com.google.rpc.Status> STATUS_DETAILS_KEY = Metadata.Key.of(
+            "grpc-status-details-bin", ProtoLiteUtils.metadataMarshaller(com.google.rpc.Status.getDefaultInstance()));
+
+    private static final List<ServiceResult<Object>> FAILURES = List.of(
+            ServiceResult.CUSTOM_CODE_TAKEN, ServiceResult.URL_NOT_FOUND, ServiceResult.URL_EXPIRED,
+            ServiceResult.EMPTY_URL, ServiceResult.INVALID_URL, ServiceResult.INVALID_REDIRECT_STATUS,
+            ServiceResult.INVALID_TIME_RANGE, ServiceResult.INVALID_CURSOR, ServiceResult.INVALID_SNAPSHOT,
+            ServiceResult.CODES_EXHAUSTED);
+
+    // Keyed by identity: every failure is one of the shared ServiceResult constants.
+    private static final Map<ServiceResult<?>, Status> STATUSES = new IdentityHashMap<>();
+    private static final Map<ServiceResult<?>, com.google.rpc.Status> DETAILS = new IdentityHashMap<>();
+    private static final Map<ServiceResult<?>, ShortenUrlResponse> SHORTEN_RESPONSES = new IdentityHashMap<>();
+    private static final Map<ServiceResult<?>, GetOriginalUrlResponse> ORIGINAL_URL_RESPONSES = new IdentityHashMap<>();
+
+    static {
+        for (ServiceResult<Object> failure : FAILURES) {
+            Status status = Status.fromCodeValue(codeFor(failure.getStatus()).getNumber())
+                    .withDescription(failure.getMessage());
+            STATUSES.put(failure, status);
+            DETAILS.put(failure, com.google.rpc.Status.newBuilder()
+                    .setCode(status.getCode().value())
+                    .setMessage(failure.getMessage())
+                    .addDetails(Any.pack(ErrorInfo.newBuilder()
+                            .setReason(failure.getReason())
+                            .setDomain(ERROR_DOMAIN)
+                            .build()))
+                    .build());
+            SHORTEN_RESPONSES.put(failure, ShortenUrlResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage(failure.getMessage())
+                    .build());
+            ORIGINAL_URL_RESPONSES.put(failure, GetOriginalUrlResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage(failure.getMessage())
+                    .setFound(false)
+                    .build());
+        }
+    }
+
+    // Calls refused before they reach the service (RateLimitInterceptor). A rate-limited client is told when to
+    // retry in a google.rpc.RetryInfo next to the ErrorInfo.
+    private static final Status RATE_LIMITED = Status.RESOURCE_EXHAUSTED.withDescription("Rate limit exceeded");
+    private static final Status OVERLOADED = Status.UNAVAILABLE.withDescription("Server overloaded, retry later");
+    private static final Any RATE_LIMITED_INFO = Any.pack(ErrorInfo.newBuilder()
+            .setReason("RATE_LIMITED")
+            .setDomain(ERROR_DOMAIN)
+            .build());
+    private static final com.google.rpc.Status OVERLOADED_DETAILS = com.google.rpc.Status.newBuilder()
+            .setCode(Code.UNAVAILABLE.getNumber())
+            .setMessage(OVERLOADED.getDescription())
+            .addDetails(Any.pack(ErrorInfo.newBuilder()
+                    .setReason("OVERLOADED")
+                    .setDomain(ERROR_DOMAIN)
+                    .build()))
+            .build();
+
+    private GrpcErrors() {
+    }
+
+    static StatusRuntimeException toException(ServiceResult<?> failure) {
+        Metadata trailers = new Metadata();
+        trailers.put(STATUS_DETAILS_KEY, DETAILS.get(failure));
+        return new StacklessStatusException(STATUSES.get(failure), trailers);
+    }
+
+    static ShortenUrlResponse toShortenResponse(ServiceResult<?> failure) {
+        return SHORTEN_RESPONSES.get(failure);
+    }
+
+    static GetOriginalUrlResponse toOriginalUrlResponse(ServiceResult<?> failure) {
+        return ORIGINAL_URL_RESPONSES.get(failure);
+    }
+
+    static void closeRateLimited(ServerCall<?, ?> call, long retryAfterMs) {
+        com.google.rpc.Status details = com.google.rpc.Status.newBuilder()
+                .setCode(Code.RESOURCE_EXHAUSTED.getNumber())
+                .setMessage(RATE_LIMITED.getDescription())
+                .addDetails(RATE_LIMITED_INFO)
+                .addDetails(Any.pack(RetryInfo.newBuilder()
+                        .setRetryDelay(com.google.protobuf.Duration.newBuilder()
+                                .setSeconds(retryAfterMs / 1000)
+                                .setNanos((int) (retryAfterMs % 1000) * 1_000_000))
+                        .build()))
+                .build();
+        Metadata trailers = new Metadata();
+        trailers.put(STATUS_DETAILS_KEY, details);
+        call.close(RATE_LIMITED, trailers);
+    }
+
+    static void closeOverloaded(ServerCall<?, ?> call) {
+        Metadata trailers = new Metadata();
+        trailers.put(STATUS_DETAILS_KEY, OVERLOADED_DETAILS);
+        call.close(OVERLOADED, trailers);
+    }
+
+    // Unexpected failures (Redis down, bugs). The client only gets a fixed description: exception messages can
+    // name hosts, keys or stored URLs. The exception itself, with its stack trace, is logged here instead; these
+    // are rare, so that costs nothing worth saving.
+    private static final Status INTERNAL = Status.INTERNAL.withDescription("Internal error");
+
+    static StatusRuntimeException internal(Throwable e) {
+        log.error("Unexpected error in gRPC call", e);
+        return INTERNAL.withCause(e).asRuntimeException();
+    }
+
+    private static Code codeFor(ServiceResult.Status status) {
+        switch (status) {
+            case CONFLICT:
+                return Code.ALREADY_EXISTS;
+            case NOT_FOUND:
+            case EXPIRED:
+                return Code.NOT_FOUND;
+            case INVALID:
+                return Code.INVALID_ARGUMENT;
+            case EXHAUSTED:
+                return Code.RESOURCE_EXHAUSTED;
+            default:
+                throw new IllegalArgumentException("Not a failure: " + status);
+        }
+    }
+
+    // An expected failure is not a bug, so there is no point in capturing where it was raised: skipping
+    // fillInStackTrace avoids walking and materializing the whole call stack for every rejected request.
+    private static final class StacklessStatusException extends StatusRuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private StacklessStatusException(Status status, Metadata trailers) {
+            super(status, trailers);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
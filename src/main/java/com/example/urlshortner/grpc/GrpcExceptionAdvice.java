@@ -0,0 +1,19 @@
+package com.example.urlshortner.grpc;
+
+import io.grpc.StatusRuntimeException;
+import net.devh.boot.grpc.server.advice.GrpcAdvice;
+import net.devh.boot.grpc.server.advice.GrpcExceptionHandler;
+
+// @GrpcAdvice: grpc-spring-boot-starter routes exceptions thrown by any @GrpcService method (and by streaming
+// request observers) to the @GrpcExceptionHandler methods here, like @ControllerAdvice does for Spring MVC.
+// Expected failures never get here: handlers report them with GrpcErrors.toException. This only turns
+// unexpected exceptions into an INTERNAL status (GrpcErrors.internal logs them), so the handlers don't each need a
+// try/catch.
+@GrpcAdvice
+public class GrpcExceptionAdvice {
+
+    @GrpcExceptionHandler(Exception.class)
+    public StatusRuntimeException handleUnexpected(Exception e) {
+        return GrpcErrors.internal(e);
+    }
+}
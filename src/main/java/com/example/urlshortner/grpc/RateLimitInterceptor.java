@@ -0,0 +1,175 @@
+package com.example.urlshortner.grpc;
+
+import com.example.urlshortner.service.AdaptiveConcurrencyLimiter;
+import com.example.urlshortner.service.RateLimiter;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import jakarta.annotation.PostConstruct;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+
+// Admission control for the gRPC API, the counterpart of RateLimitFilter.
+//
+// Every request message is checked against the client's rate limit (RateLimiter) before the service sees it:
+// creates, deletes and their batch and streaming variants against the create limit, reads against the lookup limit.
+// A batch message takes one permit per item. The client is identified by the API key metadata entry
+// (app.rate-limit.api-key-header, lower-cased as gRPC requires) or else by its remote address. A refused call is
+// closed with RESOURCE_EXHAUSTED, an ErrorInfo with reason RATE_LIMITED and a RetryInfo saying when to retry. On a
+// StreamShortenUrls stream that closes the whole stream: the requests of the batch being collected are not created,
+// those already answered are.
+//
+// Unary calls also need a permit of AdaptiveConcurrencyLimiter for as long as they run and are closed with
+// UNAVAILABLE (reason OVERLOADED) without one. Streams are not counted: one stream can run for minutes.
+//
+// ExportUrls and ImportUrls are operator tools that move the whole database in one call, so they are not limited:
+// keep them out of reach of the public (e.g. with a proxy that only forwards the other methods).
+//
+// @GrpcGlobalServerInterceptor registers the interceptor with every service of the server; calls to other
+// services (health, reflection) pass through.
+@GrpcGlobalServerInterceptor
+public class RateLimitInterceptor implements ServerInterceptor {
+
+    private static final Map<String, RateLimiter.Operation> OPERATIONS = Map.of(
+            UrlShortenerServiceGrpc.getShortenUrlMethod().getFullMethodName(), RateLimiter.Operation.CREATE,
+            UrlShortenerServiceGrpc.getBatchShortenUrlsMethod().getFullMethodName(), RateLimiter.Operation.CREATE,
+            UrlShortenerServiceGrpc.getStreamShortenUrlsMethod().getFullMethodName(), RateLimiter.Operation.CREATE,
+            UrlShortenerServiceGrpc.getDeleteUrlMethod().getFullMethodName(), RateLimiter.Operation.CREATE,
+            UrlShortenerServiceGrpc.getGetOriginalUrlMethod().getFullMethodName(), RateLimiter.Operation.LOOKUP,
+            UrlShortenerServiceGrpc.getBatchGetOriginalUrlsMethod().getFullMethodName(), RateLimiter.Operation.LOOKUP,
+            UrlShortenerServiceGrpc.getGetUrlStatsMethod().getFullMethodName(), RateLimiter.Operation.LOOKUP,
+            UrlShortenerServiceGrpc.getGetUrlTimeSeriesMethod().getFullMethodName(), RateLimiter.Operation.LOOKUP);
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private Metadata.Key<String> apiKey;
+
+    @PostConstruct
+    public void init() {
+        apiKey = Metadata.Key.of(rateLimiter.apiKeyHeader().toLowerCase(), Metadata.ASCII_STRING_MARSHALLER);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        RateLimiter.Operation operation = OPERATIONS.get(call.getMethodDescriptor().getFullMethodName());
+        if (operation == null) {
+            return next.startCall(call, headers);
+        }
+        boolean unary = call.getMethodDescriptor().getType() == MethodDescriptor.MethodType.UNARY;
+        if (unary && !concurrencyLimiter.tryAcquire()) {
+            GrpcErrors.closeOverloaded(call);
+            return new ServerCall.Listener<>() {
+            };
+        }
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(call, headers);
+        } catch (RuntimeException e) {
+            if (unary) {
+                concurrencyLimiter.release();
+            }
+            throw e;
+        }
+        String client = RateLimiter.clientId(headers.get(apiKey), address(call));
+        return new Admission<>(listener, call, operation, client, unary);
+    }
+
+    private static String address(ServerCall<?, ?> call) {
+        SocketAddress address = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        if (address instanceof InetSocketAddress inet && inet.getAddress() != null) {
+            return inet.getAddress().getHostAddress();
+        }
+        return String.valueOf(address);
+    }
+
+    private static int permits(Object message) {
+        if (message instanceof BatchShortenUrlsRequest batch) {
+            return batch.getRequestsCount();
+        }
+        if (message instanceof BatchGetOriginalUrlsRequest batch) {
+            return batch.getShortCodesCount();
+        }
+        return 1;
+    }
+
+    // gRPC calls a listener's methods one at a time, so the flags need no synchronization.
+    private final class Admission<ReqT> extends ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT> {
+
+        private final ServerCall<ReqT, ?> call;
+        private final RateLimiter.Operation operation;
+        private final String client;
+        private boolean holdsPermit;
+        private boolean rejected;
+
+        private Admission(ServerCall.Listener<ReqT> delegate, ServerCall<ReqT, ?> call,
+                          RateLimiter.Operation operation, String client, boolean holdsPermit) {
+            super(delegate);
+            this.call = call;
+            this.operation = operation;
+            this.client = client;
+            this.holdsPermit = holdsPermit;
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            if (rejected) {
+                return;
+            }
+            long retryAfterMs = rateLimiter.tryAcquire(operation, client, permits(message));
+            if (retryAfterMs != RateLimiter.ADMITTED) {
+                // The service never sees this message nor the rest of the call, so it can't answer a call that is
+                // already closed.
+                rejected = true;
+                GrpcErrors.closeRateLimited(call, retryAfterMs);
+                return;
+            }
+            super.onMessage(message);
+        }
+
+        @Override
+        public void onHalfClose() {
+            if (!rejected) {
+                super.onHalfClose();
+            }
+        }
+
+        @Override
+        public void onReady() {
+            if (!rejected) {
+                super.onReady();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            release();
+            super.onCancel();
+        }
+
+        @Override
+        public void onComplete() {
+            release();
+            super.onComplete();
+        }
+
+        private void release() {
+            if (holdsPermit) {
+                holdsPermit = false;
+                concurrencyLimiter.release();
+            }
+        }
+    }
+}
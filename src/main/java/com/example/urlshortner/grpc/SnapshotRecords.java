@@ -0,0 +1,55 @@
+package com.example.urlshortner.grpc;
+
+import com.example.urlshortner.config.UrlDataRedisSerializer;
+import com.example.urlshortner.model.UrlData;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// The records of ExportUrls and ImportUrls chunks: each link as a varint length followed by the link in
+// UrlDataRedisSerializer's binary layout, the same bytes a protobuf "bytes" field holds after its tag. The client
+// writes the records of every chunk to a snapshot file as they are, so a snapshot is just these records one after
+// the other, readable with protobuf's CodedInputStream and nothing else.
+final class SnapshotRecords {
+
+    private SnapshotRecords() {
+    }
+
+    static ByteString encode(List<UrlData> links) {
+        ByteString.Output bytes = ByteString.newOutput();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            for (UrlData urlData : links) {
+                out.writeByteArrayNoTag(UrlDataRedisSerializer.writeBinary(urlData));
+            }
+            out.flush();
+        } catch (IOException e) {
+            // ByteString.Output is in memory and never throws.
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteString();
+    }
+
+    // Throws IllegalArgumentException for records that are truncated or not in the binary layout.
+    static List<UrlData> decode(ByteString records) {
+        List<UrlData> links = new ArrayList<>();
+        CodedInputStream in = records.newCodedInput();
+        try {
+            while (!in.isAtEnd()) {
+                byte[] record = in.readByteArray();
+                if (record.length == 0 || record[0] != UrlDataRedisSerializer.MAGIC) {
+                    throw new IllegalArgumentException("Not a binary UrlData record");
+                }
+                links.add(UrlDataRedisSerializer.readBinary(record));
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Malformed snapshot record", e);
+        }
+        return links;
+    }
+}
@@ -1,12 +1,30 @@
 package com.example.urlshortner.grpc;
 
+import com.example.urlshortner.model.ClickTimeSeries;
+import com.example.urlshortner.model.ImportSummary;
 import com.example.urlshortner.model.UrlData;
+import com.example.urlshortner.service.ReactiveUrlShortnerService;
+import com.example.urlshortner.service.ServiceResult;
+import com.example.urlshortner.service.ShortenCommand;
 import com.example.urlshortner.service.UrlShortnerService;
+import com.example.urlshortner.service.UrlStore;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import net.devh.boot.grpc.server.service.GrpcService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
 // @GrpcService: This annotation is typically provided by a library like grpc-spring-boot-starter.
 // It marks this class as a gRPC service implementation that Spring should manage and register with the gRPC server.
 @GrpcService
@@ -15,161 +33,486 @@ public class UrlShortnerGrpcService extends UrlShortenerServiceGrpc.UrlShortener
     @Autowired
     private UrlShortnerService urlShortnerService;
 
+    // Only present with app.redis.client=lettuce. When it is, lookups run without blocking the gRPC thread.
+    @Autowired(required = false)
+    private ReactiveUrlShortnerService reactiveUrlShortnerService;
+
     @Value("${app.base-url:http://localhost:8080}")
     private String baseUrl;
 
+    // The response of a successful delete never changes, so it is built once.
+    private static final DeleteUrlResponse DELETED = DeleteUrlResponse.newBuilder()
+            .setSuccess(true)
+            .setMessage("URL deleted successfully")
+            .build();
+
+    // How many requests StreamShortenUrls pulls from the client and shortens per batch.
+    @Value("${app.grpc.stream-batch-size:500}")
+    private int streamBatchSize;
+
+    // How long StreamShortenUrls holds a partial batch waiting for more requests before it shortens what it has.
+    // A client that sends one request and waits for its answer gets it after this long.
+    @Value("${app.grpc.stream-linger-ms:5}")
+    private long streamLingerMs;
+
+    // Runs the linger timers of all streams.
+    private ScheduledExecutorService lingerTimer;
+
+    // Links per ExportUrls chunk when the request doesn't ask for a size, and the most it may ask for. A chunk is one
+    // gRPC message, which must stay under the 4 MB message size limit.
+    @Value("${app.export.batch-size:500}")
+    private int exportBatchSize;
+
+    @Value("${app.export.max-batch-size:1000}")
+    private int exportMaxBatchSize;
+
+    @PostConstruct
+    public void init() {
+        lingerTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stream-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        lingerTimer.shutdownNow();
+    }
+
     // Receive a StreamObserver<ResponseType> object (e.g., StreamObserver<ShortenUrlResponse>).
     // This observer is used to send the response back to the client.
     // StreamObserver to send back one or more responses and then complete the call.
     // Send the response to the client using responseObserver.onNext(response).
     // Signal that the RPC call is complete using responseObserver.onCompleted().
+    //
+    // Expected failures (invalid URL, taken custom code, unknown code, ...) end the call with a gRPC status and
+    // ErrorInfo details built by GrpcErrors. Unexpected exceptions are not caught here: GrpcExceptionAdvice turns
+    // them into INTERNAL.
     @Override
     public void shortenUrl(ShortenUrlRequest request, StreamObserver<ShortenUrlResponse> responseObserver) {
-        try {
-            if (request.getOriginalUrl().isEmpty()) {
-                responseObserver.onNext(ShortenUrlResponse.newBuilder()
-                        .setSuccess(false).setMessage("Original URL cannot be empty")
-                        .build());
-                responseObserver.onCompleted();
-                return;
-            }
+        Long expiration = request.getExpirationSeconds() > 0 ? request.getExpirationSeconds() : null;
+        String customeCode = request.getCustomCode().isEmpty() ? null : request.getCustomCode();
+        Integer redirectStatus = request.getRedirectStatus() != 0 ? request.getRedirectStatus() : null;
 
-            if (!isValidUrl(request.getOriginalUrl())) {
-                responseObserver.onNext(ShortenUrlResponse.newBuilder()
-                        .setSuccess(false)
-                        .setMessage("Invalid Url format")
-                        .build());
-                responseObserver.onCompleted();
-                return;
-            }
+        ServiceResult<UrlData> result = urlShortnerService.shortenUrl(request.getOriginalUrl(),
+                customeCode, expiration, redirectStatus);
 
-            System.out.println("We are here!!");
-            Long expiration = request.getExpirationSeconds() > 0 ? request.getExpirationSeconds() : null;
-            String customeCode = request.getCustomCode().isEmpty() ? null : request.getCustomCode();
+        if (result.isOk()) {
+            complete(responseObserver, toShortenResponse(result.getValue()));
+        } else {
+            responseObserver.onError(GrpcErrors.toException(result));
+        }
+    }
 
-            UrlData urlData = urlShortnerService.shortenUrl(request.getOriginalUrl(),
-                    customeCode, expiration);
-            System.out.println("We are here 2.0!!");
+    @Override
+    public void getOriginalUrl(GetOriginalUrlRequest request, StreamObserver<GetOriginalUrlResponse> responseObserver) {
+        if (reactiveUrlShortnerService != null) {
+            // Reactive mode: the handler returns right away and the observer is completed from the Redis callback.
+            // GrpcExceptionAdvice doesn't see errors raised there, so they are mapped explicitly.
+            reactiveUrlShortnerService.getOriginalUrl(request.getShortCode())
+                    .subscribe(result -> complete(responseObserver, result, this::toOriginalUrlResponse),
+                            e -> responseObserver.onError(GrpcErrors.internal(e)));
+            return;
+        }
 
+        complete(responseObserver, urlShortnerService.getOriginalUrl(request.getShortCode()),
+                this::toOriginalUrlResponse);
+    }
 
-            String shortUrl = baseUrl + "/" + urlData.getShortCode();
 
-            ShortenUrlResponse response = ShortenUrlResponse.newBuilder()
-                    .setSuccess(true)
-                    .setMessage("Url shortened successfully")
-                    .setShortCode(urlData.getShortCode())
-                    .setShortUrl(shortUrl)
-                    .setOriginalUrl(urlData.getOriginalUrl())
-                    .build();
+    @Override
+    public void getUrlStats(GetUrlStatsRequest request, StreamObserver<GetUrlStatsResponse> responseObserver) {
+        if (reactiveUrlShortnerService != null) {
+            reactiveUrlShortnerService.getUrlStats(request.getShortCode())
+                    .subscribe(result -> complete(responseObserver, result, this::toUrlStatsResponse),
+                            e -> responseObserver.onError(GrpcErrors.internal(e)));
+            return;
+        }
 
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
-        } catch (Exception e) {
-            responseObserver.onNext(ShortenUrlResponse.newBuilder()
-                    .setSuccess(false)
-                    .setMessage("Error: " + e.getMessage())
-                    .build());
-            responseObserver.onCompleted();
+        complete(responseObserver, urlShortnerService.getUrlStats(request.getShortCode()), this::toUrlStatsResponse);
+    }
+
+
+    @Override
+    public void getUrlTimeSeries(GetUrlTimeSeriesRequest request,
+                                 StreamObserver<GetUrlTimeSeriesResponse> responseObserver) {
+        long to = request.getTo() > 0 ? request.getTo() : System.currentTimeMillis();
+        long from = request.getFrom() > 0 ? request.getFrom() : to - 24 * 3600 * 1000L;
+        long bucketSeconds = request.getBucketSeconds() > 0 ? request.getBucketSeconds() : 3600;
+
+        ServiceResult<ClickTimeSeries> result = urlShortnerService.getUrlTimeSeries(request.getShortCode(),
+                from, to, bucketSeconds);
+        if (result.isOk()) {
+            complete(responseObserver, toTimeSeriesResponse(result.getValue()));
+        } else {
+            responseObserver.onError(GrpcErrors.toException(result));
         }
     }
 
     @Override
-    public void getOriginalUrl(GetOriginalUrlRequest request, StreamObserver<GetOriginalUrlResponse> responseObserver) {
-        try {
-            UrlData urlData = urlShortnerService.getOriginalUrl(request.getShortCode());
-
-            if (urlData != null) {
-                GetOriginalUrlResponse response = GetOriginalUrlResponse.newBuilder()
-                        .setSuccess(true)
-                        .setMessage("URL found")
-                        .setOriginalUrl(urlData.getOriginalUrl())
-                        .setFound(true)
-                        .build();
-                responseObserver.onNext(response);
-            } else {
-                GetOriginalUrlResponse response = GetOriginalUrlResponse.newBuilder()
-                        .setSuccess(false)
-                        .setMessage("URL not found or expired")
-                        .setFound(false)
-                        .build();
-                responseObserver.onNext(response);
+    public void deleteUrl(DeleteUrlRequest request, StreamObserver<DeleteUrlResponse> responseObserver) {
+        complete(responseObserver, urlShortnerService.deleteUrl(request.getShortCode()), urlData -> DELETED);
+    }
+
+    @Override
+    public void batchShortenUrls(BatchShortenUrlsRequest request, StreamObserver<BatchShortenUrlsResponse> responseObserver) {
+        complete(responseObserver, BatchShortenUrlsResponse.newBuilder()
+                .addAllResponses(shortenAll(request.getRequestsList()))
+                .build());
+    }
+
+    // Items of a batch can fail independently, so a failed item is a success=false response with the failure's
+    // message, not a status for the whole call.
+    @Override
+    public void batchGetOriginalUrls(BatchGetOriginalUrlsRequest request,
+                                     StreamObserver<BatchGetOriginalUrlsResponse> responseObserver) {
+        List<ServiceResult<UrlData>> results = urlShortnerService.getOriginalUrls(request.getShortCodesList());
+
+        BatchGetOriginalUrlsResponse.Builder response = BatchGetOriginalUrlsResponse.newBuilder();
+        for (ServiceResult<UrlData> result : results) {
+            response.addResponses(result.isOk()
+                    ? toOriginalUrlResponse(result.getValue())
+                    : GrpcErrors.toOriginalUrlResponse(result));
+        }
+        complete(responseObserver, response.build());
+    }
+
+    // Bidirectional streaming create with flow control in both directions.
+    // disableAutoRequest() stops gRPC from pulling requests off the wire on its own; instead we ask for
+    // streamBatchSize requests up front and shorten them with one batch call per streamBatchSize requests, or
+    // per whatever arrived within streamLingerMs of the first request of a batch, so a client that waits for each
+    // answer isn't left hanging. Requests are only asked for again, as many as were answered, once the client is
+    // ready to receive more responses. A fast client therefore can't make the server buffer an unbounded number of
+    // requests or responses.
+    @Override
+    public StreamObserver<ShortenUrlRequest> streamShortenUrls(StreamObserver<ShortenUrlResponse> responseObserver) {
+        ServerCallStreamObserver<ShortenUrlResponse> serverObserver =
+                (ServerCallStreamObserver<ShortenUrlResponse>) responseObserver;
+        serverObserver.disableAutoRequest();
+
+        StreamingShortener shortener = new StreamingShortener(serverObserver);
+        serverObserver.setOnReadyHandler(shortener::onReady);
+        serverObserver.setOnCancelHandler(shortener::onCancel);
+        serverObserver.request(streamBatchSize);
+        return shortener;
+    }
+
+    // gRPC calls onNext, onReady and the other handlers one at a time, but the linger timer flushes from its own
+    // thread, so every method that touches the buffer or the call is synchronized.
+    private class StreamingShortener implements StreamObserver<ShortenUrlRequest> {
+
+        private final ServerCallStreamObserver<ShortenUrlResponse> responseObserver;
+        private final List<ShortenUrlRequest> buffer = new ArrayList<>();
+        private ScheduledFuture<?> linger;
+        // Requests answered but not asked for again yet, because the client wasn't ready for more responses.
+        private int answered;
+        private boolean closed;
+
+        private StreamingShortener(ServerCallStreamObserver<ShortenUrlResponse> responseObserver) {
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public synchronized void onNext(ShortenUrlRequest request) {
+            if (closed) {
+                return;
             }
+            buffer.add(request);
+            if (buffer.size() >= streamBatchSize) {
+                // An exception thrown here (or in onCompleted) reaches GrpcExceptionAdvice and closes the call.
+                flush();
+            } else if (linger == null) {
+                linger = lingerTimer.schedule(this::flushLingering, streamLingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
 
-            responseObserver.onCompleted();
+        // Called by gRPC when the outbound buffer has drained below its limit.
+        private synchronized void onReady() {
+            requestMore();
+        }
 
-        } catch (Exception e) {
-            responseObserver.onNext(GetOriginalUrlResponse.newBuilder()
-                    .setSuccess(false)
-                    .setMessage("Error: " + e.getMessage())
-                    .setFound(false)
-                    .build());
+        private synchronized void onCancel() {
+            close();
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            close();
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            if (closed) {
+                return;
+            }
+            flush();
+            close();
             responseObserver.onCompleted();
         }
+
+        // GrpcExceptionAdvice only sees exceptions thrown from gRPC's own callbacks, so a failure on the timer
+        // thread closes the call here.
+        private synchronized void flushLingering() {
+            linger = null;
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                close();
+                responseObserver.onError(GrpcErrors.internal(e));
+            }
+        }
+
+        private void flush() {
+            if (linger != null) {
+                linger.cancel(false);
+                linger = null;
+            }
+            if (buffer.isEmpty()) {
+                return;
+            }
+            List<ShortenUrlResponse> responses = shortenAll(buffer);
+            // Counted before sending: sending may run onReady, which must see these as answered.
+            answered += buffer.size();
+            buffer.clear();
+            for (ShortenUrlResponse response : responses) {
+                responseObserver.onNext(response);
+            }
+            requestMore();
+        }
+
+        private void requestMore() {
+            if (!closed && answered > 0 && responseObserver.isReady()) {
+                responseObserver.request(answered);
+                answered = 0;
+            }
+        }
+
+        private void close() {
+            closed = true;
+            buffer.clear();
+            if (linger != null) {
+                linger.cancel(false);
+                linger = null;
+            }
+        }
+    }
+
+    // Server-streaming export. Each chunk is one page of UrlShortnerService.exportUrls, and a page is only read when
+    // the client can take it: the onReady handler produces chunks while the call is ready and gRPC calls it again
+    // once the client has drained its buffer, so a slow client holds up the walk instead of making the server
+    // buffer the database. Every chunk carries the cursor that resumes the export after it.
+    @Override
+    public void exportUrls(ExportUrlsRequest request, StreamObserver<ExportUrlsChunk> responseObserver) {
+        ServerCallStreamObserver<ExportUrlsChunk> serverObserver =
+                (ServerCallStreamObserver<ExportUrlsChunk>) responseObserver;
+        int batchSize = request.getBatchSize() > 0 ? Math.min(request.getBatchSize(), exportMaxBatchSize)
+                : exportBatchSize;
+        Exporter exporter = new Exporter(serverObserver, request.getCursor(), batchSize);
+        serverObserver.setOnCancelHandler(exporter::onCancel);
+        serverObserver.setOnReadyHandler(exporter::onReady);
     }
 
+    private class Exporter {
 
+        private final ServerCallStreamObserver<ExportUrlsChunk> responseObserver;
+        private final int batchSize;
+        private String cursor;
+        private boolean done;
+
+        private Exporter(ServerCallStreamObserver<ExportUrlsChunk> responseObserver, String cursor, int batchSize) {
+            this.responseObserver = responseObserver;
+            this.cursor = cursor;
+            this.batchSize = batchSize;
+        }
+
+        // gRPC calls both handlers one at a time, so done needs no synchronization.
+        private void onCancel() {
+            done = true;
+        }
+
+        private void onReady() {
+            try {
+                while (!done && responseObserver.isReady()) {
+                    ServiceResult<UrlStore.ExportPage> result = urlShortnerService.exportUrls(cursor, batchSize);
+                    if (!result.isOk()) {
+                        done = true;
+                        responseObserver.onError(GrpcErrors.toException(result));
+                        return;
+                    }
+                    UrlStore.ExportPage page = result.getValue();
+                    cursor = page.getCursor();
+                    done = cursor == null;
+                    // Every link of a page may have expired; only the last chunk is sent even if it is empty.
+                    if (!page.getLinks().isEmpty() || done) {
+                        responseObserver.onNext(ExportUrlsChunk.newBuilder()
+                                .setRecords(SnapshotRecords.encode(page.getLinks()))
+                                .setCount(page.getLinks().size())
+                                .setCursor(done ? "" : cursor)
+                                .build());
+                    }
+                    if (done) {
+                        responseObserver.onCompleted();
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Thrown from a handler rather than the call itself, so GrpcExceptionAdvice wouldn't see it.
+                done = true;
+                responseObserver.onError(GrpcErrors.internal(e));
+            }
+        }
+    }
+
+    // Client-streaming import. gRPC's automatic flow control asks for the next chunk only once onNext has returned,
+    // so chunks are imported one batch call at a time while the client's further chunks wait in the transport.
+    // A malformed record ends the call with INVALID_SNAPSHOT; what was imported before it stays.
     @Override
-    public void getUrlStats(GetUrlStatsRequest request, StreamObserver<GetUrlStatsResponse> responseObserver) {
-        try {
-            UrlData urlData = urlShortnerService.getUrlStats(request.getShortCode());
-
-            if (urlData != null) {
-                GetUrlStatsResponse.Builder responseBuilder = GetUrlStatsResponse.newBuilder()
-                        .setSuccess(true)
-                        .setMessage("Stats retrieved successfully")
-                        .setOriginalUrl(urlData.getOriginalUrl())
-                        .setShortCode(urlData.getShortCode())
-                        .setClickCount(urlData.getClickCount())
-                        .setCreatedAt(urlData.getCreatedAt());
-
-                if (urlData.getExpiresAt() != null) {
-                    responseBuilder.setExpiresAt(urlData.getExpiresAt());
+    public StreamObserver<ImportUrlsChunk> importUrls(StreamObserver<ImportUrlsResponse> responseObserver) {
+        return new StreamObserver<ImportUrlsChunk>() {
+            private long imported;
+            private long existing;
+            private long expired;
+            private long invalid;
+            private boolean failed;
+
+            @Override
+            public void onNext(ImportUrlsChunk chunk) {
+                if (failed) {
+                    return;
+                }
+                List<UrlData> links;
+                try {
+                    links = SnapshotRecords.decode(chunk.getRecords());
+                } catch (IllegalArgumentException e) {
+                    failed = true;
+                    responseObserver.onError(GrpcErrors.toException(ServiceResult.INVALID_SNAPSHOT));
+                    return;
                 }
+                ImportSummary summary = urlShortnerService.importUrls(links);
+                imported += summary.getImported();
+                existing += summary.getExisting();
+                expired += summary.getExpired();
+                invalid += summary.getInvalid();
+            }
 
-                responseObserver.onNext(responseBuilder.build());
-            } else {
-                responseObserver.onNext(GetUrlStatsResponse.newBuilder()
-                        .setSuccess(false)
-                        .setMessage("URL not found or expired")
-                        .build());
+            @Override
+            public void onError(Throwable t) {
+                failed = true;
             }
 
-            responseObserver.onCompleted();
+            @Override
+            public void onCompleted() {
+                if (!failed) {
+                    complete(responseObserver, ImportUrlsResponse.newBuilder()
+                            .setImported(imported)
+                            .setExisting(existing)
+                            .setExpired(expired)
+                            .setInvalid(invalid)
+                            .build());
+                }
+            }
+        };
+    }
 
-        } catch (Exception e) {
-            responseObserver.onNext(GetUrlStatsResponse.newBuilder()
-                    .setSuccess(false)
-                    .setMessage("Error: " + e.getMessage())
-                    .build());
-            responseObserver.onCompleted();
+    // Shortens all requests with a single batch call; the service validates each one.
+    // The returned list has one response per request, in request order.
+    private List<ShortenUrlResponse> shortenAll(List<ShortenUrlRequest> requests) {
+        List<ShortenCommand> commands = new ArrayList<>(requests.size());
+        for (ShortenUrlRequest request : requests) {
+            commands.add(new ShortenCommand(request.getOriginalUrl(),
+                    request.getCustomCode().isEmpty() ? null : request.getCustomCode(),
+                    request.getExpirationSeconds() > 0 ? request.getExpirationSeconds() : null,
+                    request.getRedirectStatus() != 0 ? request.getRedirectStatus() : null));
         }
+
+        List<ServiceResult<UrlData>> results = urlShortnerService.shortenUrls(commands);
+        List<ShortenUrlResponse> responses = new ArrayList<>(results.size());
+        for (ServiceResult<UrlData> result : results) {
+            responses.add(result.isOk()
+                    ? toShortenResponse(result.getValue())
+                    : GrpcErrors.toShortenResponse(result));
+        }
+        return responses;
+    }
+
+    private <T> void complete(StreamObserver<T> responseObserver, T response) {
+        responseObserver.onNext(response);
+        responseObserver.onCompleted();
     }
 
+    // Sends the mapped value of a successful result, or ends the call with the failure's status.
+    private <T> void complete(StreamObserver<T> responseObserver, ServiceResult<UrlData> result,
+                              Function<UrlData, T> toResponse) {
+        if (result.isOk()) {
+            complete(responseObserver, toResponse.apply(result.getValue()));
+        } else {
+            responseObserver.onError(GrpcErrors.toException(result));
+        }
+    }
 
-    @Override
-    public void deleteUrl(DeleteUrlRequest request, StreamObserver<DeleteUrlResponse> responseObserver) {
-        try {
-            boolean deleted = urlShortnerService.deleteUrl(request.getShortCode());
+    private GetOriginalUrlResponse toOriginalUrlResponse(UrlData urlData) {
+        return GetOriginalUrlResponse.newBuilder()
+                .setSuccess(true)
+                .setMessage("URL found")
+                .setOriginalUrl(urlData.getOriginalUrl())
+                .setFound(true)
+                .build();
+    }
 
-            DeleteUrlResponse response = DeleteUrlResponse.newBuilder()
-                    .setSuccess(deleted)
-                    .setMessage(deleted ? "URL deleted successfully" : "URL not found")
-                    .build();
+    private GetUrlStatsResponse toUrlStatsResponse(UrlData urlData) {
+        GetUrlStatsResponse.Builder responseBuilder = GetUrlStatsResponse.newBuilder()
+                .setSuccess(true)
+                .setMessage("Stats retrieved successfully")
+                .setOriginalUrl(urlData.getOriginalUrl())
+                .setShortCode(urlData.getShortCode());
 
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+        // Links stored without them (legacy JSON values, or a binary value flagged FLAG_NO_CREATED_AT) leave the
+        // fields unset.
+        if (urlData.getClickCount() != null) {
+            responseBuilder.setClickCount(urlData.getClickCount());
+        }
+        if (urlData.getCreatedAt() != null) {
+            responseBuilder.setCreatedAt(urlData.getCreatedAt());
+        }
+        if (urlData.getExpiresAt() != null) {
+            responseBuilder.setExpiresAt(urlData.getExpiresAt());
+        }
+        if (urlData.getRedirectStatus() != null) {
+            responseBuilder.setRedirectStatus(urlData.getRedirectStatus());
+        }
+        return responseBuilder.build();
+    }
 
-        } catch (Exception e) {
-            responseObserver.onNext(DeleteUrlResponse.newBuilder()
-                    .setSuccess(false)
-                    .setMessage("Error: " + e.getMessage())
-                    .build());
-            responseObserver.onCompleted();
+    private GetUrlTimeSeriesResponse toTimeSeriesResponse(ClickTimeSeries series) {
+        GetUrlTimeSeriesResponse.Builder response = GetUrlTimeSeriesResponse.newBuilder()
+                .setShortCode(series.getShortCode())
+                .setBucketSeconds(series.getBucketSeconds())
+                .setUniqueVisitors(series.getUniqueVisitors());
+        long[] starts = series.getBucketStarts();
+        long[] clicks = series.getClicks();
+        for (int i = 0; i < starts.length; i++) {
+            response.addPoints(TimeSeriesPoint.newBuilder().setStart(starts[i]).setClicks(clicks[i]));
+        }
+        for (Map.Entry<String, Long> referrer : series.getTopReferrers().entrySet()) {
+            response.addTopReferrers(CountEntry.newBuilder().setKey(referrer.getKey()).setCount(referrer.getValue()));
+        }
+        for (Map.Entry<String, Long> country : series.getTopCountries().entrySet()) {
+            response.addTopCountries(CountEntry.newBuilder().setKey(country.getKey()).setCount(country.getValue()));
         }
+        return response.build();
     }
 
-    private boolean isValidUrl(String url) {
-        return url.startsWith("http://") || url.startsWith("https://");
+    private ShortenUrlResponse toShortenResponse(UrlData urlData) {
+        return ShortenUrlResponse.newBuilder()
+                .setSuccess(true)
+                .setMessage("Url shortened successfully")
+                .setShortCode(urlData.getShortCode())
+                .setShortUrl(baseUrl + "/" + urlData.getShortCode())
+                .setOriginalUrl(urlData.getOriginalUrl())
+                .build();
     }
 
 }
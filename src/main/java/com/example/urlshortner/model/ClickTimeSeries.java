@@ -0,0 +1,57 @@
+package com.example.urlshortner.model;
+
+import java.util.Map;
+
+// Click analytics of one link, as returned by ClickAggregator.getTimeSeries: clicks per bucket, where
+// bucketStarts[i] (epoch ms) is the start of the bucket counted in clicks[i], and all-time top lists.
+public class ClickTimeSeries {
+
+    private final String shortCode;
+    private final long bucketSeconds;
+    private final long[] bucketStarts;
+    private final long[] clicks;
+    // Most frequent first.
+    private final Map<String, Long> topReferrers;
+    private final Map<String, Long> topCountries;
+    // HyperLogLog estimate, about 1% off.
+    private final long uniqueVisitors;
+
+    public ClickTimeSeries(String shortCode, long bucketSeconds, long[] bucketStarts, long[] clicks,
+                           Map<String, Long> topReferrers, Map<String, Long> topCountries, long uniqueVisitors) {
+        this.shortCode = shortCode;
+        this.bucketSeconds = bucketSeconds;
+        this.bucketStarts = bucketStarts;
+        this.clicks = clicks;
+        this.topReferrers = topReferrers;
+        this.topCountries = topCountries;
+        this.uniqueVisitors = uniqueVisitors;
+    }
+
+    public String getShortCode() {
+        return shortCode;
+    }
+
+    public long getBucketSeconds() {
+        return bucketSeconds;
+    }
+
+    public long[] getBucketStarts() {
+        return bucketStarts;
+    }
+
+    public long[] getClicks() {
+        return clicks;
+    }
+
+    public Map<String, Long> getTopReferrers() {
+        return topReferrers;
+    }
+
+    public Map<String, Long> getTopCountries() {
+        return topCountries;
+    }
+
+    public long getUniqueVisitors() {
+        return uniqueVisitors;
+    }
+}
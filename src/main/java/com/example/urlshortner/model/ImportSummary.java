@@ -0,0 +1,34 @@
+package com.example.urlshortner.model;
+
+// What UrlShortnerService.importUrls did with a batch of links: every link is counted once, as stored, skipped
+// because its code was taken (existing), skipped because it had expired, or rejected as invalid.
+public class ImportSummary {
+
+    private final long imported;
+    private final long existing;
+    private final long expired;
+    private final long invalid;
+
+    public ImportSummary(long imported, long existing, long expired, long invalid) {
+        this.imported = imported;
+        this.existing = existing;
+        this.expired = expired;
+        this.invalid = invalid;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getExisting() {
+        return existing;
+    }
+
+    public long getExpired() {
+        return expired;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+}
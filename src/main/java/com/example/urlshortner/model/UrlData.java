@@ -1,5 +1,6 @@
 package com.example.urlshortner.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -30,6 +31,15 @@ public class UrlData implements Serializable {
     @JsonProperty("expiresAt")
     private Long expiresAt;
 
+    // HTTP status of the redirect (301, 302, 307 or 308); null for the configured default.
+    @JsonProperty("redirectStatus")
+    private Integer redirectStatus;
+
+    // Not stored: set when this value was read from Redis in the legacy JSON format while the binary format
+    // is active, so it can be rewritten in the new format (see UrlDataRedisSerializer).
+    @JsonIgnore
+    private transient boolean legacyEncoded;
+
     public UrlData() {
     }
 
@@ -49,6 +59,15 @@ public class UrlData implements Serializable {
         this.expiresAt = expirationSeconds != null ? System.currentTimeMillis() + (expirationSeconds * 1000) : null;
     }
 
+    public UrlData(UrlData other) {
+        this.originalUrl = other.originalUrl;
+        this.shortCode = other.shortCode;
+        this.clickCount = other.clickCount;
+        this.createdAt = other.createdAt;
+        this.expiresAt = other.expiresAt;
+        this.redirectStatus = other.redirectStatus;
+    }
+
     public String getOriginalUrl() {
         return originalUrl;
     }
@@ -89,6 +108,23 @@ public class UrlData implements Serializable {
         this.expiresAt = expiresAt;
     }
 
+    public Integer getRedirectStatus() {
+        return redirectStatus;
+    }
+
+    public void setRedirectStatus(Integer redirectStatus) {
+        this.redirectStatus = redirectStatus;
+    }
+
+    @JsonIgnore
+    public boolean isLegacyEncoded() {
+        return legacyEncoded;
+    }
+
+    public void setLegacyEncoded(boolean legacyEncoded) {
+        this.legacyEncoded = legacyEncoded;
+    }
+
     public boolean isExpiresAt() {
         return expiresAt != null && System.currentTimeMillis() > expiresAt;
     }
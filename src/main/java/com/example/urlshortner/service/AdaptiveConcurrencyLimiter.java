@@ -0,0 +1,194 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ThrottledWarning;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// AdaptiveConcurrencyLimiter bounds the requests being served at once and sheds the rest (503 / UNAVAILABLE) when
+// Redis slows down, instead of letting them queue for a pooled connection until every request times out.
+//
+// The limit follows Redis latency, as measured by the urlshortner.redis.commands timers (InstrumentedRedisTemplate)
+// that every Redis call already feeds. Every app.rate-limit.concurrency.window-ms the mean latency of the window is
+// compared with a long-term average of it (about 100 windows):
+//   gradient = clamp(tolerance * long-term / current, 0.5, 1)
+//   limit    = limit * gradient + sqrt(limit), smoothed
+// While Redis is as fast as usual the gradient is 1 and the limit grows by a fraction of its square root per
+// window, as long as the requests actually use half of it. When latency rises past tolerance times the usual,
+// the limit shrinks towards the concurrency Redis keeps up with. The long-term average decays quickly after a slow
+// period, so a slow Redis doesn't become the new normal. A window with fewer than min-samples Redis calls carries
+// no signal and leaves the limit alone; so does embedded storage, where the limit stays at its initial value.
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private static final String REDIS_TIMER = "urlshortner.redis.commands";
+    private static final double LONG_TERM_WINDOWS = 100;
+    private static final double SMOOTHING = 0.2;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    @Value("${app.rate-limit.concurrency.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.rate-limit.concurrency.initial-limit:100}")
+    private int initialLimit;
+
+    @Value("${app.rate-limit.concurrency.min-limit:10}")
+    private int minLimit;
+
+    @Value("${app.rate-limit.concurrency.max-limit:1000}")
+    private int maxLimit;
+
+    @Value("${app.rate-limit.concurrency.window-ms:100}")
+    private long windowMs;
+
+    @Value("${app.rate-limit.concurrency.tolerance:2.0}")
+    private double tolerance;
+
+    @Value("${app.rate-limit.concurrency.min-samples:10}")
+    private int minSamples;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    // State of the adjuster thread only.
+    private long lastCount;
+    private double lastTotalNanos;
+    private volatile double longTermNanos;
+    private volatile double latestNanos;
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+    // Runs every window-ms, so a persistent failure would otherwise log ten lines a second.
+    private ThrottledWarning adjustmentFailed;
+
+    private ScheduledExecutorService adjuster;
+
+    @PostConstruct
+    public void start() {
+        limit = initialLimit;
+        Gauge.builder("urlshortner.concurrency.limit", () -> limit)
+                .description("Requests served at once before new ones are shed")
+                .register(meterRegistry);
+        Gauge.builder("urlshortner.concurrency.in-flight", inFlight::get)
+                .register(meterRegistry);
+        adjustmentFailed = new ThrottledWarning(log, meterRegistry, "concurrency-limit-adjustment");
+        if (!enabled) {
+            return;
+        }
+        adjuster = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "concurrency-limit-adjuster");
+            thread.setDaemon(true);
+            return thread;
+        });
+        adjuster.scheduleWithFixedDelay(this::adjustQuietly, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (adjuster != null) {
+            adjuster.shutdownNow();
+        }
+    }
+
+    // Every tryAcquire that returns true must be followed by exactly one release.
+    public boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            metrics.shed();
+            return false;
+        }
+        return true;
+    }
+
+    public void release() {
+        if (enabled) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    // Mean Redis call latency of the last window that had enough calls, and its long-term average.
+    public double latestRedisMs() {
+        return latestNanos / 1_000_000;
+    }
+
+    public double longTermRedisMs() {
+        return longTermNanos / 1_000_000;
+    }
+
+    private void adjustQuietly() {
+        try {
+            adjust();
+        } catch (RuntimeException e) {
+            adjustmentFailed.warn("Concurrency limit adjustment failed", e);
+        }
+    }
+
+    private void adjust() {
+        // Summed over every template (object, string, one per shard or replica); they are created at startup,
+        // so the counts only grow.
+        long count = 0;
+        double totalNanos = 0;
+        for (Timer timer : meterRegistry.find(REDIS_TIMER).timers()) {
+            count += timer.count();
+            totalNanos += timer.totalTime(TimeUnit.NANOSECONDS);
+        }
+        long samples = count - lastCount;
+        double nanos = totalNanos - lastTotalNanos;
+        lastCount = count;
+        lastTotalNanos = totalNanos;
+        if (samples < minSamples) {
+            return;
+        }
+
+        double current = nanos / samples;
+        latestNanos = current;
+        if (longTermNanos == 0) {
+            longTermNanos = current;
+        } else {
+            longTermNanos += (current - longTermNanos) / LONG_TERM_WINDOWS;
+            if (longTermNanos > 2 * current) {
+                longTermNanos *= 0.95;
+            }
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longTermNanos / current));
+        int currentLimit = limit;
+        if (gradient == 1.0 && inFlight.get() < currentLimit / 2) {
+            // Nothing shows the limit is too low: growing it while requests don't even use half of it would only
+            // let it drift far above what Redis can take by the time the load comes.
+            return;
+        }
+        double target = currentLimit * gradient + Math.sqrt(currentLimit);
+        double smoothed = currentLimit * (1 - SMOOTHING) + target * SMOOTHING;
+        // Rounded away from the current limit, so a small limit still moves.
+        long rounded = (long) (smoothed > currentLimit ? Math.ceil(smoothed) : Math.floor(smoothed));
+        limit = (int) Math.max(minLimit, Math.min(maxLimit, rounded));
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.model.UrlData;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// CacheWarmer fills the near-cache before the instance reports ready, so a freshly deployed instance doesn't send
+// every first lookup to the store. It is an ApplicationRunner: Spring Boot only switches the readiness state
+// (GET /actuator/health/readiness) to ACCEPTING_TRAFFIC once every runner has returned, so a load balancer or a
+// Kubernetes readiness probe keeps traffic away until the cache is warm, or app.warmup.timeout-ms has passed.
+//
+// Which codes: the ones written to app.warmup.snapshot-file at the last shutdown (the near-cache's hottest
+// app.warmup.top-n codes), or, without a snapshot, the top-n codes by stored clicks (UrlStore.mostClicked, a
+// parallel SCAN + MGET over the click counters with Redis). Their links are read with batch reads (MGET) of
+// app.warmup.batch-size codes, app.warmup.parallelism of them at a time.
+@Component
+@ConditionalOnProperty(name = "app.warmup.enabled", havingValue = "true", matchIfMissing = true)
+public class CacheWarmer implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+    @Autowired
+    private UrlStore urlStore;
+
+    @Autowired
+    private UrlCache urlCache;
+
+    @Value("${app.warmup.top-n:10000}")
+    private int topN;
+
+    @Value("${app.warmup.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.warmup.parallelism:4}")
+    private int parallelism;
+
+    @Value("${app.warmup.timeout-ms:30000}")
+    private long timeoutMs;
+
+    @Value("${app.warmup.snapshot-file:}")
+    private String snapshotFile;
+
+    private volatile String source = "none";
+    private volatile int candidates;
+    private volatile int warmedLinks;
+    private volatile long selectMs;
+    private volatile long durationMs = -1;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long started = System.nanoTime();
+        AtomicInteger threadNumber = new AtomicInteger();
+        // One thread picks the codes and waits for the batches, the others read them.
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism + 1, runnable -> {
+            Thread thread = new Thread(runnable, "cache-warmer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            pool.submit(() -> warm(pool)).get(timeoutMs, TimeUnit.MILLISECONDS);
+            durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            log.info("Cache warm-up: {} codes from {} (selected in {} ms), {} links cached in {} ms", candidates,
+                    source, selectMs, warmedLinks, durationMs);
+        } catch (TimeoutException e) {
+            durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            log.warn("Cache warm-up gave up after {} ms with {} of {} links cached", timeoutMs, warmedLinks,
+                    candidates);
+        } catch (ExecutionException e) {
+            // A cold cache is slower, not broken: start anyway.
+            durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            log.warn("Cache warm-up failed: {}", e.getCause().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Void warm(ExecutorService pool) throws Exception {
+        long started = System.nanoTime();
+        List<String> shortCodes = readSnapshot();
+        if (shortCodes != null) {
+            source = "snapshot";
+        } else {
+            shortCodes = urlStore.mostClicked(topN, parallelism);
+            source = "click counts";
+        }
+        candidates = shortCodes.size();
+        selectMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        AtomicInteger warmed = new AtomicInteger();
+        List<Future<?>> batches = new ArrayList<>();
+        for (int from = 0; from < shortCodes.size(); from += batchSize) {
+            List<String> batch = shortCodes.subList(from, Math.min(from + batchSize, shortCodes.size()));
+            batches.add(pool.submit(() -> {
+                // Taken before the read, so links deleted while the batch is read aren't cached.
+                long[] generations = new long[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    generations[i] = urlCache.generation(batch.get(i));
+                }
+                List<UrlData> links = urlStore.getAll(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    UrlData urlData = links.get(i);
+                    if (urlData != null && !urlData.isExpiresAt()) {
+                        urlCache.put(batch.get(i), urlData, generations[i]);
+                        warmedLinks = warmed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> batch : batches) {
+            batch.get();
+        }
+        return null;
+    }
+
+    // The codes of the last snapshot, or null if snapshots are off or there is none yet.
+    private List<String> readSnapshot() throws IOException {
+        if (snapshotFile.isEmpty() || !Files.isRegularFile(Path.of(snapshotFile))) {
+            return null;
+        }
+        List<String> shortCodes = Files.readAllLines(Path.of(snapshotFile), StandardCharsets.UTF_8);
+        return shortCodes.subList(0, Math.min(topN, shortCodes.size()));
+    }
+
+    // Saves the hottest codes for the next start, through a temporary file and a rename, so a crash while
+    // writing leaves the previous snapshot.
+    @PreDestroy
+    public void writeSnapshot() {
+        if (snapshotFile.isEmpty()) {
+            return;
+        }
+        try {
+            List<String> shortCodes = urlCache.hottestCodes(topN);
+            Path file = Path.of(snapshotFile);
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temporary, shortCodes, StandardCharsets.UTF_8);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Wrote {} hot codes to {}", shortCodes.size(), snapshotFile);
+        } catch (IOException e) {
+            log.warn("Failed to write hot codes to {}: {}", snapshotFile, e.toString());
+        }
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public int candidates() {
+        return candidates;
+    }
+
+    public int warmedLinks() {
+        return warmedLinks;
+    }
+
+    public long selectMs() {
+        return selectMs;
+    }
+
+    // -1 until the warm-up has finished
+    public long durationMs() {
+        return durationMs;
+    }
+}
@@ -0,0 +1,449 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ConditionalOnRedisStorage;
+import com.example.urlshortner.config.RedisShards;
+import com.example.urlshortner.config.ThrottledWarning;
+import com.example.urlshortner.model.ClickTimeSeries;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ClickAggregator is the second half of the click analytics pipeline: it reads the click events ClickEventService
+// appends to the stream and rolls them up into small per-link counters, which getTimeSeries serves.
+//
+// Every instance reads through the same consumer group (GROUP), so each event is aggregated by exactly one
+// instance and adding instances spreads the work. A batch is acknowledged (XACK) only after its counters are
+// written; if writing fails, or the instance restarts, the unacknowledged events are read again from the
+// consumer's pending list (offset 0) and counted again, so delivery is at least once.
+//
+// Each instance must read as a consumer of its own: two instances sharing a name share a pending list, and each
+// would re-read and count the events the other is still working on. Without app.analytics.consumer-name the name
+// is host:pid, which is unique but changes on restart, so events left pending by a consumer that has gone quiet
+// for app.analytics.claim-idle-ms are claimed (XCLAIM with that minimum idle time, so only one instance gets
+// them) by whichever instance checks next.
+//
+// Per link, with the usual hash tag so that they live together with url:{code} on one node:
+//   analytics:ts:{code}:<day>  hash, start of each bucket (epoch seconds) -> clicks. One key per UTC day, so old
+//                              days simply expire after app.analytics.retention-days.
+//   analytics:ref:{code}       hash, referrer host -> clicks
+//   analytics:geo:{code}       hash, country -> clicks
+//   analytics:uv:{code}        HyperLogLog of (user agent hash, client network): approximate unique visitors
+//                              in 12 KB at most, however many there are.
+// The last three are kept as long as the link keeps being clicked within the retention window.
+@Service
+@ConditionalOnRedisStorage
+public class ClickAggregator implements SmartLifecycle {
+
+    static final String GROUP = "aggregator";
+    static final String BUCKETS_PREFIX = "analytics:ts:";
+    static final String REFERRERS_PREFIX = "analytics:ref:";
+    static final String COUNTRIES_PREFIX = "analytics:geo:";
+    static final String VISITORS_PREFIX = "analytics:uv:";
+
+    private static final long DAY_SECONDS = 86400;
+    // Most points a single query may return, and entries of the top referrer and country lists.
+    private static final int MAX_POINTS = 10000;
+    private static final int TOP_ENTRIES = 10;
+
+    @Autowired
+    private RedisShards redisShards;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.analytics.enabled:true}")
+    private boolean enabled;
+
+    // Width of the stored buckets; queries can ask for any multiple of it. Must divide a day.
+    @Value("${app.analytics.bucket-seconds:60}")
+    private long bucketSeconds;
+
+    @Value("${app.analytics.retention-days:7}")
+    private int retentionDays;
+
+    @Value("${app.analytics.aggregate-interval-ms:1000}")
+    private long aggregateIntervalMs;
+
+    @Value("${app.analytics.aggregate-batch-size:5000}")
+    private int aggregateBatchSize;
+
+    // Name of this instance in the consumer group, unique among the running instances. Defaults to host:pid.
+    @Value("${app.analytics.consumer-name:}")
+    private String consumerName;
+
+    // Pending events of another consumer that haven't been delivered for this long are taken over; also how often
+    // an instance looks for them. Must be well above the time a batch takes to write. 0: never.
+    @Value("${app.analytics.claim-idle-ms:300000}")
+    private long claimIdleMs;
+
+    private static final Logger log = LoggerFactory.getLogger(ClickAggregator.class);
+    // While Redis is down every tick fails the same way.
+    private ThrottledWarning aggregationFailed;
+
+    private ScheduledExecutorService aggregator;
+    private volatile boolean running;
+    private volatile boolean groupCreated;
+    // Start from the pending list: events read before a restart or a failed write that were never acknowledged.
+    private boolean readPending = true;
+    private long nextClaimMs;
+
+    @PostConstruct
+    public void init() {
+        if (DAY_SECONDS % bucketSeconds != 0) {
+            throw new IllegalStateException("app.analytics.bucket-seconds must divide a day (86400)");
+        }
+        if (consumerName == null || consumerName.isEmpty()) {
+            // The runtime name is pid@hostname.
+            String runtimeName = ManagementFactory.getRuntimeMXBean().getName();
+            consumerName = runtimeName.substring(runtimeName.indexOf('@') + 1) + ":" + ProcessHandle.current().pid();
+        }
+        aggregationFailed = new ThrottledWarning(log, meterRegistry, "click-aggregation");
+        if (!enabled) {
+            return;
+        }
+        aggregator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "click-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        aggregator.scheduleWithFixedDelay(this::aggregateQuietly, aggregateIntervalMs, aggregateIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    // Stopped with the other background writers, so a run in progress finishes while Redis is still reachable.
+    // Events it doesn't get to stay in the stream for the next run of any instance.
+    @Override
+    public void stop() {
+        if (aggregator != null) {
+            aggregator.shutdown();
+            try {
+                aggregator.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return ClickCounterService.BACKGROUND_WRITER_PHASE;
+    }
+
+    private void aggregateQuietly() {
+        try {
+            aggregate();
+        } catch (Exception e) {
+            aggregationFailed.warn("Error aggregating click events", e);
+        }
+    }
+
+    // StreamOperations.read only takes generic varargs offsets, whose implicit array creation javac flags as
+    // unchecked. An array of the one offset is safe, so the warning is suppressed here rather than on aggregate.
+    @SuppressWarnings("unchecked")
+    private static StreamOffset<String>[] offsets(StreamOffset<String> offset) {
+        return (StreamOffset<String>[]) new StreamOffset<?>[] {offset};
+    }
+
+    // Reads and rolls up batches until the stream has no new events for this group.
+    synchronized void aggregate() {
+        StringRedisTemplate streamTemplate = redisShards.stringTemplate(0);
+        if (!groupCreated) {
+            createGroup(streamTemplate);
+        }
+        if (claimIdleMs > 0 && System.currentTimeMillis() >= nextClaimMs) {
+            claimIdle(streamTemplate);
+            nextClaimMs = System.currentTimeMillis() + claimIdleMs;
+        }
+        Consumer consumer = Consumer.from(GROUP, consumerName);
+        while (true) {
+            ReadOffset offset = readPending ? ReadOffset.from("0") : ReadOffset.lastConsumed();
+            List<MapRecord<String, Object, Object>> records = streamTemplate.opsForStream().read(consumer,
+                    StreamReadOptions.empty().count(aggregateBatchSize),
+                    offsets(StreamOffset.create(ClickEventService.STREAM_KEY, offset)));
+            if (records == null || records.isEmpty()) {
+                if (!readPending) {
+                    return;
+                }
+                readPending = false;
+                continue;
+            }
+
+            try {
+                write(rollUp(records));
+            } catch (RuntimeException e) {
+                readPending = true;
+                throw e;
+            }
+            RecordId[] ids = new RecordId[records.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = records.get(i).getId();
+            }
+            streamTemplate.opsForStream().acknowledge(ClickEventService.STREAM_KEY, GROUP, ids);
+            metrics.clickEventsAggregated(records.size());
+        }
+    }
+
+    // Moves the oldest events pending on other consumers for at least claimIdleMs to this one; the next read of the
+    // pending list aggregates them. XCLAIM checks the idle time again, so an event another instance claimed or
+    // re-read meanwhile stays where it is.
+    private void claimIdle(StringRedisTemplate streamTemplate) {
+        List<RecordId> ids = new ArrayList<>();
+        for (PendingMessage pending : streamTemplate.opsForStream().pending(ClickEventService.STREAM_KEY, GROUP,
+                Range.unbounded(), aggregateBatchSize)) {
+            if (!pending.getConsumerName().equals(consumerName)
+                    && pending.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdleMs) {
+                ids.add(pending.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> claimed = streamTemplate.opsForStream().claim(
+                ClickEventService.STREAM_KEY, GROUP, consumerName, Duration.ofMillis(claimIdleMs),
+                ids.toArray(new RecordId[0]));
+        if (claimed != null && !claimed.isEmpty()) {
+            log.info("Claimed {} click events left pending by other consumers", claimed.size());
+            readPending = true;
+        }
+    }
+
+    private void createGroup(StringRedisTemplate streamTemplate) {
+        try {
+            // From the start of the stream, so events written before the first aggregator ran are counted too.
+            streamTemplate.opsForStream().createGroup(ClickEventService.STREAM_KEY, ReadOffset.from("0"), GROUP);
+        } catch (RuntimeException e) {
+            // BUSYGROUP: another instance, or an earlier run, created it. Anything else shows up on the next read.
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")
+                    && !(e.getCause() != null && String.valueOf(e.getCause().getMessage()).contains("BUSYGROUP"))) {
+                throw e;
+            }
+        }
+        groupCreated = true;
+    }
+
+    // Counters of one link within a batch of events.
+    private static final class Rollup {
+        final Map<Long, Long> buckets = new HashMap<>();
+        final Map<String, Long> referrers = new HashMap<>();
+        final Map<String, Long> countries = new HashMap<>();
+        final Set<String> visitors = new HashSet<>();
+    }
+
+    private Map<String, Rollup> rollUp(List<MapRecord<String, Object, Object>> records) {
+        Map<String, Rollup> rollups = new HashMap<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> fields = record.getValue();
+            Object shortCode = fields.get("c");
+            Object time = fields.get("t");
+            if (shortCode == null || time == null) {
+                continue;
+            }
+            Rollup rollup = rollups.computeIfAbsent(shortCode.toString(), code -> new Rollup());
+            long second = Long.parseLong(time.toString()) / 1000;
+            rollup.buckets.merge(second - second % bucketSeconds, 1L, Long::sum);
+
+            String referrer = String.valueOf(fields.getOrDefault("r", ""));
+            if (!referrer.isEmpty()) {
+                rollup.referrers.merge(referrer, 1L, Long::sum);
+            }
+            String country = String.valueOf(fields.getOrDefault("g", ""));
+            if (!country.isEmpty()) {
+                rollup.countries.merge(country, 1L, Long::sum);
+            }
+            String visitor = fields.getOrDefault("u", "") + "/" + fields.getOrDefault("n", "");
+            if (visitor.length() > 1) {
+                rollup.visitors.add(visitor);
+            }
+        }
+        return rollups;
+    }
+
+    // One pipeline per node with HINCRBYs, PFADDs and EXPIREs for every link of the batch.
+    private void write(Map<String, Rollup> rollups) {
+        List<String> shortCodes = new ArrayList<>(rollups.keySet());
+        List<String> routingKeys = new ArrayList<>(shortCodes.size());
+        for (String shortCode : shortCodes) {
+            routingKeys.add(redisShards.key(BUCKETS_PREFIX, shortCode));
+        }
+        long retentionSeconds = retentionDays * DAY_SECONDS;
+
+        redisShards.runPerShard(redisShards.groupByShard(routingKeys), (shard, positions) ->
+                redisShards.stringTemplate(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i : positions) {
+                        String shortCode = shortCodes.get(i);
+                        Rollup rollup = rollups.get(shortCode);
+
+                        // Keyed by day number: byte arrays only compare equal to themselves.
+                        Map<Long, byte[]> dayKeys = new HashMap<>();
+                        for (Map.Entry<Long, Long> bucket : rollup.buckets.entrySet()) {
+                            byte[] dayKey = dayKeys.computeIfAbsent(bucket.getKey() / DAY_SECONDS,
+                                    day -> bytes(dayKey(shortCode, day)));
+                            connection.hashCommands().hIncrBy(dayKey, bytes(Long.toString(bucket.getKey())),
+                                    bucket.getValue());
+                        }
+                        // A day key lives until its day has left the retention window.
+                        for (byte[] dayKey : dayKeys.values()) {
+                            connection.keyCommands().expire(dayKey, retentionSeconds + DAY_SECONDS);
+                        }
+                        increment(connection, redisShards.key(REFERRERS_PREFIX, shortCode), rollup.referrers,
+                                retentionSeconds);
+                        increment(connection, redisShards.key(COUNTRIES_PREFIX, shortCode), rollup.countries,
+                                retentionSeconds);
+                        if (!rollup.visitors.isEmpty()) {
+                            byte[] visitorsKey = bytes(redisShards.key(VISITORS_PREFIX, shortCode));
+                            byte[][] visitors = new byte[rollup.visitors.size()][];
+                            int v = 0;
+                            for (String visitor : rollup.visitors) {
+                                visitors[v++] = bytes(visitor);
+                            }
+                            connection.hyperLogLogCommands().pfAdd(visitorsKey, visitors);
+                            connection.keyCommands().expire(visitorsKey, retentionSeconds);
+                        }
+                    }
+                    return null;
+                }));
+    }
+
+    private static void increment(RedisConnection connection, String key,
+                                  Map<String, Long> counts, long ttlSeconds) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        byte[] rawKey = bytes(key);
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            connection.hashCommands().hIncrBy(rawKey, bytes(count.getKey()), count.getValue());
+        }
+        connection.keyCommands().expire(rawKey, ttlSeconds);
+    }
+
+    // Clicks of a link per bucketSeconds-wide bucket in [from, to) (epoch ms), plus its top referrers and countries
+    // and its approximate number of unique visitors. Buckets are aligned to multiples of their width since the
+    // epoch (UTC); from is rounded down to a bucket start. Clicks show up here within about
+    // app.analytics.drain-interval-ms + app.analytics.aggregate-interval-ms.
+    public ServiceResult<ClickTimeSeries> getTimeSeries(String shortCode, long from, long to, long bucketSeconds) {
+        if (bucketSeconds <= 0 || bucketSeconds % this.bucketSeconds != 0 || to <= from
+                || (to / 1000 - from / 1000) / bucketSeconds >= MAX_POINTS) {
+            return ServiceResult.failure(ServiceResult.INVALID_TIME_RANGE);
+        }
+        long start = from / 1000 - Math.floorMod(from / 1000, bucketSeconds);
+        long end = (to + 999) / 1000;
+        // Days before the retention window are gone anyway.
+        long firstDay = Math.max(start / DAY_SECONDS, System.currentTimeMillis() / 1000 / DAY_SECONDS - retentionDays);
+        long lastDay = (end - 1) / DAY_SECONDS;
+
+        String routingKey = redisShards.key(BUCKETS_PREFIX, shortCode);
+        List<Object> replies = redisShards.stringForKey(routingKey).executePipelined((RedisCallback<Object>) connection -> {
+            for (long day = firstDay; day <= lastDay; day++) {
+                connection.hashCommands().hGetAll(bytes(dayKey(shortCode, day)));
+            }
+            connection.hashCommands().hGetAll(bytes(redisShards.key(REFERRERS_PREFIX, shortCode)));
+            connection.hashCommands().hGetAll(bytes(redisShards.key(COUNTRIES_PREFIX, shortCode)));
+            connection.hyperLogLogCommands().pfCount(bytes(redisShards.key(VISITORS_PREFIX, shortCode)));
+            return null;
+        });
+
+        int points = (int) ((end - start + bucketSeconds - 1) / bucketSeconds);
+        long[] starts = new long[points];
+        long[] clicks = new long[points];
+        for (int i = 0; i < points; i++) {
+            starts[i] = (start + i * bucketSeconds) * 1000;
+        }
+        int days = (int) Math.max(0, lastDay - firstDay + 1);
+        for (int d = 0; d < days; d++) {
+            for (Map.Entry<?, ?> bucket : asMap(replies.get(d)).entrySet()) {
+                long second = Long.parseLong(bucket.getKey().toString());
+                if (second >= start && second < end) {
+                    clicks[(int) ((second - start) / bucketSeconds)] += Long.parseLong(bucket.getValue().toString());
+                }
+            }
+        }
+
+        Object visitors = replies.get(days + 2);
+        return ServiceResult.ok(new ClickTimeSeries(shortCode, bucketSeconds, starts, clicks,
+                top(asMap(replies.get(days))), top(asMap(replies.get(days + 1))),
+                visitors instanceof Number ? ((Number) visitors).longValue() : 0L));
+    }
+
+    // Deletes a link's analytics, along with the link itself.
+    public void discard(String shortCode) {
+        List<String> keys = new ArrayList<>();
+        long today = System.currentTimeMillis() / 1000 / DAY_SECONDS;
+        for (long day = today - retentionDays - 1; day <= today + 1; day++) {
+            keys.add(dayKey(shortCode, day));
+        }
+        keys.add(redisShards.key(REFERRERS_PREFIX, shortCode));
+        keys.add(redisShards.key(COUNTRIES_PREFIX, shortCode));
+        keys.add(redisShards.key(VISITORS_PREFIX, shortCode));
+        // All keys share the code's hash tag, so one DEL on one node covers them.
+        redisShards.stringForKey(keys.get(0)).delete(keys);
+    }
+
+    private String dayKey(String shortCode, long day) {
+        return redisShards.key(BUCKETS_PREFIX, shortCode) + ":" + day;
+    }
+
+    private static Map<?, ?> asMap(Object reply) {
+        return reply instanceof Map ? (Map<?, ?>) reply : Map.of();
+    }
+
+    private static Map<String, Long> top(Map<?, ?> counts) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.size());
+        for (Map.Entry<?, ?> count : counts.entrySet()) {
+            entries.add(Map.entry(count.getKey().toString(), Long.parseLong(count.getValue().toString())));
+        }
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(TOP_ENTRIES, entries.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
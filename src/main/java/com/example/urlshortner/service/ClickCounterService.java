@@ -0,0 +1,190 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ThrottledWarning;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// ClickCounterService takes the click-count write off the redirect path.
+// A redirect only increments an in-process counter; a background flusher periodically drains all pending
+// counts into the UrlStore in one batch; with Redis that is one pipelined batch of atomic INCRBY commands, so
+// clicks recorded on several instances for the same code add up instead of overwriting each other.
+@Service
+public class ClickCounterService implements SmartLifecycle {
+
+    // Lifecycle phase of the services that write to Redis in the background. On shutdown Spring stops lifecycle
+    // beans from the highest phase down: first the web and gRPC servers, so no more clicks come in, then these
+    // services write out what they still hold, and only then the Redis connection factories (phase 0), which
+    // refuse every command once stopped. A @PreDestroy method runs after all of that, too late to reach Redis.
+    static final int BACKGROUND_WRITER_PHASE = 1000;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Flush at least every flushIntervalMs, or earlier once flushThreshold clicks are pending.
+    @Value("${app.clicks.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${app.clicks.flush-threshold:10000}")
+    private long flushThreshold;
+
+    // LongAdder spreads concurrent increments over striped cells, so thousands of redirects for the same
+    // viral code don't all contend on a single CAS location.
+    private final ConcurrentHashMap<String, LongAdder> pending = new ConcurrentHashMap<>();
+
+    // Codes whose counter was already empty on the previous flush. They are only removed from the map if they
+    // are still empty one interval later, so removing a counter that a redirect is about to increment is rare.
+    // When it does happen the click isn't lost: see recordClick.
+    private final Map<String, Boolean> idle = new HashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(ClickCounterService.class);
+    // Every scheduled flush fails the same way while the store is unreachable.
+    private ThrottledWarning flushFailed;
+
+    private final AtomicLong pendingEvents = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private ScheduledExecutorService flusher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        flushFailed = new ThrottledWarning(log, meterRegistry, "click-flush");
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "click-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    // Runs when the application context closes (including graceful shutdown), while the store is still reachable,
+    // so the last unflushed clicks aren't lost.
+    @Override
+    public void stop() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(flushIntervalMs * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return BACKGROUND_WRITER_PHASE;
+    }
+
+    public void recordClick(String shortCode) {
+        LongAdder adder = pending.computeIfAbsent(shortCode, code -> new LongAdder());
+        adder.increment();
+        // flush may have removed the adder between the lookup and the increment. Then the click is moved to the
+        // adder that replaces it. flush also collects what it finds in an adder after removing it; sumThenReset
+        // hands every click to exactly one of the two, so it is counted once.
+        while (pending.get(shortCode) != adder) {
+            long orphaned = adder.sumThenReset();
+            if (orphaned == 0) {
+                break;
+            }
+            adder = pending.computeIfAbsent(shortCode, code -> new LongAdder());
+            adder.add(orphaned);
+        }
+
+        if (pendingEvents.incrementAndGet() >= flushThreshold && flushScheduled.compareAndSet(false, true)
+                && !flusher.isShutdown()) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    // Clicks recorded on this instance that haven't been written to the store yet.
+    public long pendingClicks(String shortCode) {
+        LongAdder adder = pending.get(shortCode);
+        return adder != null ? adder.sum() : 0L;
+    }
+
+    // Clicks already written to the store by any instance; see UrlStore.getClicks.
+    public long persistedClicks(String shortCode) {
+        return urlStore.getClicks(shortCode);
+    }
+
+    public void discard(String shortCode) {
+        pending.remove(shortCode);
+        urlStore.deleteClicks(shortCode);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            flushFailed.warn("Error flushing click counts", e);
+        }
+    }
+
+    // synchronized: the scheduled flush, a threshold-triggered flush and the shutdown flush never interleave.
+    synchronized void flush() {
+        flushScheduled.set(false);
+        pendingEvents.set(0);
+
+        Map<String, Long> deltas = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : pending.entrySet()) {
+            String shortCode = entry.getKey();
+            long delta = entry.getValue().sumThenReset();
+            if (delta > 0) {
+                deltas.put(shortCode, delta);
+                idle.remove(shortCode);
+            } else if (idle.remove(shortCode) != null) {
+                LongAdder adder = entry.getValue();
+                // Re-checked under the map's lock for the code, so an adder that counted a click since the
+                // sumThenReset above stays.
+                if (pending.compute(shortCode, (code, current) -> current == adder && adder.sum() == 0
+                        ? null : current) == null) {
+                    // Clicks of redirects that incremented it anyway, after the check (see recordClick).
+                    long late = adder.sumThenReset();
+                    if (late > 0) {
+                        deltas.put(shortCode, late);
+                    }
+                }
+            } else {
+                idle.put(shortCode, Boolean.TRUE);
+            }
+        }
+
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        // Counts the store couldn't write go back into pending, to be retried on the next flush instead of being
+        // lost.
+        urlStore.addClicks(deltas, (shortCode, delta) ->
+                pending.computeIfAbsent(shortCode, code -> new LongAdder()).add(delta));
+    }
+}
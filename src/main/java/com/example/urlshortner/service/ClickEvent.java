@@ -0,0 +1,24 @@
+package com.example.urlshortner.service;
+
+// One redirect as handed over by the web layer. It only holds references to what the request already had (header
+// values, the client address); turning them into the compact form written to the stream (referrer host, user agent
+// hash, network prefix) happens on the drainer thread, off the redirect path.
+final class ClickEvent {
+
+    final String shortCode;
+    final long timestamp;
+    final String referrer;
+    final String userAgent;
+    final String clientAddress;
+    final String country;
+
+    ClickEvent(String shortCode, long timestamp, String referrer, String userAgent, String clientAddress,
+               String country) {
+        this.shortCode = shortCode;
+        this.timestamp = timestamp;
+        this.referrer = referrer;
+        this.userAgent = userAgent;
+        this.clientAddress = clientAddress;
+        this.country = country;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.urlshortner.service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Bounded lock-free ring buffer between the redirect threads (many producers) and the click-event drainer (one
+// consumer). offer never blocks and never waits: when the ring is full it returns false and the event is dropped,
+// so a slow or unreachable Redis can cost analytics events but never redirect latency.
+//
+// Producers claim a sequence number with a CAS on tail and then publish the event into its slot; the consumer
+// takes slots in sequence order until it meets one that is still empty (claimed but not published yet, or
+// nothing left), clears them and moves head forward. A slot is only reused once head has passed it, which the
+// capacity check on tail guarantees. The capacity is a power of two so the slot index is a mask.
+final class ClickEventBuffer {
+
+    private final AtomicReferenceArray<ClickEvent> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Written by the consumer only.
+    private volatile long head;
+
+    ClickEventBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    boolean offer(ClickEvent event) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= slots.length()) {
+                return false;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        // Release store: the consumer reading the slot also sees the event's fields.
+        slots.lazySet((int) sequence & mask, event);
+        return true;
+    }
+
+    // Moves up to max events into the list, oldest first; returns how many. Must only be called from one thread.
+    int drainTo(List<ClickEvent> events, int max) {
+        long current = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) current & mask;
+            ClickEvent event = slots.get(index);
+            if (event == null) {
+                break;
+            }
+            slots.lazySet(index, null);
+            events.add(event);
+            current++;
+            drained++;
+        }
+        // The volatile write publishes the cleared slots to producers checking the capacity.
+        head = current;
+        return drained;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ConditionalOnRedisStorage;
+import com.example.urlshortner.config.RedisShards;
+import com.example.urlshortner.config.ThrottledWarning;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ClickEventService is the first half of the click analytics pipeline: every redirect hands a ClickEvent to
+// record(), which only puts it into a bounded lock-free ring buffer (ClickEventBuffer). A background drainer takes
+// the events out in batches, turns them into compact stream entries and appends them to the Redis Stream
+// STREAM_KEY with one pipelined batch of XADDs. ClickAggregator reads the stream and rolls the events up.
+//
+// A stream entry holds only short fields, so the stream stays small and the redirect path never writes to the
+// link's own value:
+//   c  short code
+//   t  click time, epoch ms
+//   r  referrer host, empty for direct traffic
+//   u  user agent, as an 8 hex digit hash
+//   g  country from app.analytics.country-header (set by a CDN or load balancer), empty if unknown
+//   n  client network: the /24 of an IPv4 address, the /48 of an IPv6 one
+//
+// Overload sheds events instead of slowing down redirects: when the buffer is full (the drainer can't keep up or
+// Redis is down) new events are dropped and counted in urlshortner.click.events{outcome="dropped"}. A batch whose
+// XADD fails is dropped too, rather than retried while newer events pile up behind it. Click counts themselves
+// don't depend on this pipeline, they still go through ClickCounterService.
+@Service
+@ConditionalOnRedisStorage
+public class ClickEventService implements SmartLifecycle {
+
+    static final String STREAM_KEY = "analytics:events";
+
+    static final byte[] FIELD_CODE = bytes("c");
+    static final byte[] FIELD_TIME = bytes("t");
+    static final byte[] FIELD_REFERRER = bytes("r");
+    static final byte[] FIELD_USER_AGENT = bytes("u");
+    static final byte[] FIELD_COUNTRY = bytes("g");
+    static final byte[] FIELD_NETWORK = bytes("n");
+
+    @Autowired
+    private RedisShards redisShards;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.analytics.enabled:true}")
+    private boolean enabled;
+
+    // Events buffered between two drains; rounded up to a power of two.
+    @Value("${app.analytics.buffer-size:65536}")
+    private int bufferSize;
+
+    @Value("${app.analytics.drain-interval-ms:100}")
+    private long drainIntervalMs;
+
+    @Value("${app.analytics.drain-batch-size:1000}")
+    private int drainBatchSize;
+
+    // The stream is trimmed to about this many entries (XADD MAXLEN ~), so it can't grow without bound if no
+    // aggregator is running.
+    @Value("${app.analytics.stream-max-length:1000000}")
+    private long streamMaxLength;
+
+    // Request header with the client's country, e.g. CF-IPCountry behind Cloudflare. Empty: no country.
+    @Value("${app.analytics.country-header:}")
+    private String countryHeader;
+
+    private static final Logger log = LoggerFactory.getLogger(ClickEventService.class);
+    // Drains run every drainIntervalMs; while Redis is down every one of them fails.
+    private ThrottledWarning drainFailed;
+
+    private ClickEventBuffer buffer;
+    private ScheduledExecutorService drainer;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        buffer = new ClickEventBuffer(bufferSize);
+        drainFailed = new ThrottledWarning(log, meterRegistry, "click-event-drain");
+        if (!enabled) {
+            return;
+        }
+        drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "click-event-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainer.scheduleWithFixedDelay(this::drainQuietly, drainIntervalMs, drainIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    // Stopped in the same phase as ClickCounterService, while Redis is still reachable, so buffered events are
+    // written.
+    @Override
+    public void stop() {
+        if (drainer != null) {
+            drainer.shutdown();
+            try {
+                drainer.awaitTermination(drainIntervalMs * 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drainQuietly();
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return ClickCounterService.BACKGROUND_WRITER_PHASE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String countryHeader() {
+        return countryHeader;
+    }
+
+    // Called on the redirect path: one CAS and an array store, never blocks. Any argument but the code may be null.
+    public void record(String shortCode, String referrer, String userAgent, String clientAddress, String country) {
+        if (!enabled) {
+            return;
+        }
+        if (!buffer.offer(new ClickEvent(shortCode, System.currentTimeMillis(), referrer, userAgent, clientAddress,
+                country))) {
+            metrics.clickEventDropped();
+        }
+    }
+
+    public int buffered() {
+        return buffer.size();
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (Exception e) {
+            drainFailed.warn("Error draining click events", e);
+        }
+    }
+
+    // synchronized: the scheduled drain and the shutdown drain never run at once (the buffer has one consumer).
+    synchronized void drain() {
+        List<ClickEvent> events = new ArrayList<>(drainBatchSize);
+        while (buffer.drainTo(events, drainBatchSize) > 0) {
+            try {
+                publish(events);
+                metrics.clickEventsPublished(events.size());
+            } catch (RuntimeException e) {
+                metrics.clickEventsDropped(events.size());
+                throw e;
+            } finally {
+                events.clear();
+            }
+        }
+    }
+
+    // One pipelined batch of XADDs on shard 0, the node that carries the global keys.
+    private void publish(List<ClickEvent> events) {
+        byte[] streamKey = STREAM_KEY.getBytes(StandardCharsets.UTF_8);
+        XAddOptions options = XAddOptions.maxlen(streamMaxLength).approximateTrimming(true);
+        redisShards.stringTemplate(0).executePipelined((RedisCallback<Object>) connection -> {
+            for (ClickEvent event : events) {
+                Map<byte[], byte[]> fields = new LinkedHashMap<>(8);
+                fields.put(FIELD_CODE, bytes(event.shortCode));
+                fields.put(FIELD_TIME, bytes(Long.toString(event.timestamp)));
+                fields.put(FIELD_REFERRER, bytes(referrerHost(event.referrer)));
+                fields.put(FIELD_USER_AGENT, bytes(userAgentHash(event.userAgent)));
+                fields.put(FIELD_COUNTRY, bytes(country(event.country)));
+                fields.put(FIELD_NETWORK, bytes(networkPrefix(event.clientAddress)));
+                connection.streamCommands().xAdd(StreamRecords.rawBytes(fields).withStreamKey(streamKey), options);
+            }
+            return null;
+        });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // https://news.example.com:8443/a?b -> news.example.com. Anything that isn't an absolute URL counts as direct.
+    static String referrerHost(String referrer) {
+        if (referrer == null) {
+            return "";
+        }
+        int start = referrer.indexOf("://");
+        if (start < 0) {
+            return "";
+        }
+        start += 3;
+        int end = start;
+        while (end < referrer.length() && "/:?#".indexOf(referrer.charAt(end)) < 0) {
+            end++;
+        }
+        // userinfo@host
+        int at = referrer.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            start = at + 1;
+        }
+        return referrer.substring(start, Math.min(end, start + 253)).toLowerCase(Locale.ROOT);
+    }
+
+    // Distinguishes browsers and bots without storing the (long, high-cardinality) header itself.
+    static String userAgentHash(String userAgent) {
+        if (userAgent == null || userAgent.isEmpty()) {
+            return "";
+        }
+        int h = userAgent.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        // Not String.format: this runs once per event and format parses its pattern every time.
+        String hex = Integer.toHexString(h);
+        return hex.length() == 8 ? hex : "00000000".substring(hex.length()) + hex;
+    }
+
+    private static String country(String country) {
+        return country == null || country.length() > 8 ? "" : country.toUpperCase(Locale.ROOT);
+    }
+
+    // The address is truncated to its network so no full client IP is stored.
+    static String networkPrefix(String address) {
+        // Only literals: getByName would resolve a host name.
+        if (address == null || address.isEmpty() || (Character.digit(address.charAt(0), 16) < 0 && address.indexOf(':') < 0)) {
+            return "";
+        }
+        try {
+            byte[] raw = InetAddress.getByName(address).getAddress();
+            if (raw.length == 4) {
+                return (raw[0] & 0xFF) + "." + (raw[1] & 0xFF) + "." + (raw[2] & 0xFF) + ".0/24";
+            }
+            return String.format("%x:%x:%x::/48", ((raw[0] & 0xFF) << 8) | (raw[1] & 0xFF),
+                    ((raw[2] & 0xFF) << 8) | (raw[3] & 0xFF), ((raw[4] & 0xFF) << 8) | (raw[5] & 0xFF));
+        } catch (UnknownHostException e) {
+            return "";
+        }
+    }
+}
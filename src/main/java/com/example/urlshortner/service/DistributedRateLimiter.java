@@ -0,0 +1,42 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ConditionalOnRedisStorage;
+import com.example.urlshortner.config.RedisShards;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// The cluster-wide half of RateLimiter: a sliding window per client kept in Redis by scripts/rate_limit.lua, so
+// every instance counts against the same limit. One EVALSHA per request, routed to the shard of the client's key.
+//
+// The limiter fails open. If Redis can't be reached the request is only limited by the local bucket: refusing
+// creates because the limiter's store is down would turn a Redis hiccup into an outage of its own. Failures are
+// counted in urlshortner.ratelimit.errors.
+@Component
+@ConditionalOnRedisStorage
+public class DistributedRateLimiter {
+
+    private static final RedisScript<Long> RATE_LIMIT_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/rate_limit.lua"), Long.class);
+
+    @Autowired
+    private RedisShards redisShards;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    // Returns RateLimiter.ADMITTED, or the ms until the client's window moves on.
+    public long tryAcquire(String key, long perWindow, long windowMs, int permits) {
+        try {
+            Long retryAfterMs = redisShards.stringForKey(key).execute(RATE_LIMIT_SCRIPT, List.of(key),
+                    Long.toString(windowMs), Long.toString(perWindow), Integer.toString(permits));
+            return retryAfterMs != null ? retryAfterMs : RateLimiter.ADMITTED;
+        } catch (RuntimeException e) {
+            metrics.rateLimitError();
+            return RateLimiter.ADMITTED;
+        }
+    }
+}
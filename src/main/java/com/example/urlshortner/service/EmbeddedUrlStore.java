@@ -0,0 +1,791 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ThrottledWarning;
+import com.example.urlshortner.config.UrlDataRedisSerializer;
+import com.example.urlshortner.model.UrlData;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// EmbeddedUrlStore keeps links on local disk instead of in Redis (app.storage.engine=embedded), for a single
+// instance that shouldn't need a Redis server. It is a log-structured store in the style of Bitcask:
+//
+// - Every change is appended to a log, split into segment files of app.storage.embedded.segment-bytes
+//   (segment-<n>.log in app.storage.embedded.dir). Nothing is ever overwritten in place.
+// - An in-memory hash index maps every short code to the location (segment, offset) of its latest record, and the
+//   digest of every URL to its code for the dedup lookup. A lookup is one hash probe and one read.
+// - Segments are memory-mapped: a read copies the value straight out of the page cache, with no system call and
+//   no lock, and an append is a memory copy. The mapping of the segment being written is flushed to disk every
+//   app.storage.embedded.fsync-interval-ms (0: after every write).
+// - On startup the log is replayed from the oldest segment to the newest to rebuild the index. A record that was
+//   only partly written when the process or the machine died fails its checksum and ends the replay of its segment.
+// - Compaction reclaims what deleted, overwritten and expired links leave behind. Whenever garbage makes up
+//   app.storage.embedded.compaction-garbage-ratio of the log, the oldest segment is rewritten: its live records are
+//   appended again at the head of the log and the file is deleted. Because only the oldest segment is ever removed,
+//   a delete marker in it can't hide anything older, so markers are simply dropped along with it.
+//
+// Record layout (big-endian):
+//   int32    length of everything after the checksum; 0 marks the end of the written part of a segment
+//   int32    CRC-32 of everything after the checksum
+//   byte     type: PUT, DELETE or CLICKS
+//   uint16   short code length, then its UTF-8 bytes
+//   PUT:     int64 expiresAt (0: never), 16-byte URL digest, the UrlData in UrlDataRedisSerializer's binary layout
+//   CLICKS:  int64 click count (the total, not an increment, so only the latest record of a code matters)
+//   DELETE:  nothing more
+//
+// Writes are serialized by the store's monitor; reads never take it. Redis-only features (the Bloom filter, click
+// analytics, the near-cache invalidation channel, replicas, range-leased codes) aren't available in this mode.
+@Component
+@ConditionalOnProperty(name = "app.storage.engine", havingValue = "embedded")
+public class EmbeddedUrlStore implements UrlStore {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte CLICKS = 3;
+
+    // length + checksum
+    private static final int HEADER_BYTES = 8;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.storage.embedded.dir:data}")
+    private String directory;
+
+    // Size of a segment file. Also the largest possible record, so it must hold the longest URL accepted.
+    @Value("${app.storage.embedded.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${app.storage.embedded.fsync-interval-ms:1000}")
+    private long fsyncIntervalMs;
+
+    @Value("${app.storage.embedded.compaction-interval-ms:10000}")
+    private long compactionIntervalMs;
+
+    @Value("${app.storage.embedded.compaction-garbage-ratio:0.5}")
+    private double compactionGarbageRatio;
+
+    // Short code -> location of its PUT record.
+    private final ConcurrentHashMap<String, Long> index = new ConcurrentHashMap<>();
+
+    // URL digest -> short code, for the dedup lookup. The 16 digest bytes are kept as a 16-char Latin-1 string,
+    // which Java stores as a compact 16-byte array: smaller than a ByteBuffer wrapper and with a cached hash code.
+    private final ConcurrentHashMap<String, String> reverse = new ConcurrentHashMap<>();
+
+    // Short code -> stored click count, and the location of the CLICKS record holding it (written under the lock).
+    private final ConcurrentHashMap<String, Long> clicks = new ConcurrentHashMap<>();
+    private final Map<String, Long> clickRecords = new HashMap<>();
+
+    private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private volatile Segment active;
+    private volatile boolean dirty;
+
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private ScheduledExecutorService maintenance;
+
+    private long compactions;
+    private long reclaimedBytes;
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedUrlStore.class);
+    // The sync and compaction ticks fail on every run while the disk is full or unwritable.
+    private ThrottledWarning syncFailed;
+    private ThrottledWarning compactionFailed;
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        syncFailed = new ThrottledWarning(log, meterRegistry, "embedded-store-sync");
+        compactionFailed = new ThrottledWarning(log, meterRegistry, "embedded-store-compaction");
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        // Two processes appending to the same log would corrupt it.
+        lockChannel = FileChannel.open(dir.resolve("LOCK"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException(dir.toAbsolutePath() + " is used by another process");
+        }
+
+        long started = System.currentTimeMillis();
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (var listing = Files.list(dir)) {
+            listing.forEach(path -> {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Integer.parseInt(matcher.group(1)), path);
+                }
+            });
+        }
+        for (Map.Entry<Integer, Path> file : files.entrySet()) {
+            Segment segment = Segment.open(file.getKey(), file.getValue(), segmentBytes);
+            segments.put(segment.id, segment);
+            replay(segment);
+            active = segment;
+        }
+        if (active == null) {
+            roll();
+        }
+        log.info("Embedded store opened {}: {} links in {} segments, replayed in {} ms", dir.toAbsolutePath(),
+                index.size(), segments.size(), System.currentTimeMillis() - started);
+
+        maintenance = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "embedded-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (fsyncIntervalMs > 0) {
+            maintenance.scheduleWithFixedDelay(this::syncQuietly, fsyncIntervalMs, fsyncIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+        maintenance.scheduleWithFixedDelay(this::compactQuietly, compactionIntervalMs, compactionIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Runs after every lifecycle bean has stopped, so the click counts ClickCounterService flushes on shutdown are
+    // in the log before it is closed.
+    @PreDestroy
+    public void close() throws IOException {
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            segments.clear();
+            index.clear();
+            reverse.clear();
+            clicks.clear();
+            clickRecords.clear();
+            active = null;
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    @Override
+    public synchronized CreateResult create(UrlData urlData, byte[] digest, boolean dedup, boolean customCode) {
+        if (dedup) {
+            String code = reverse.get(digestKey(digest));
+            UrlData existing = code != null ? get(code) : null;
+            if (existing != null) {
+                return CreateResult.existing(existing);
+            }
+        }
+        return claim(urlData, digest) ? CreateResult.CREATED : CreateResult.TAKEN;
+    }
+
+    @Override
+    public List<String> findCodes(List<String> originalUrls, List<byte[]> digests) {
+        List<String> codes = new ArrayList<>(digests.size());
+        for (byte[] digest : digests) {
+            codes.add(digest != null ? reverse.get(digestKey(digest)) : null);
+        }
+        return codes;
+    }
+
+    @Override
+    public synchronized List<Boolean> claimAll(List<UrlData> candidates) {
+        List<Boolean> claimed = new ArrayList<>(candidates.size());
+        for (UrlData urlData : candidates) {
+            claimed.add(claim(urlData, ReverseIndex.digest(urlData.getOriginalUrl())));
+        }
+        return claimed;
+    }
+
+    // Nothing to do: a PUT record carries its digest, so claimAll indexed every link it stored.
+    @Override
+    public void indexAll(List<UrlData> created) {
+    }
+
+    // An expired link is returned until compaction drops it, like Redis returns one until its TTL runs out.
+    @Override
+    public UrlData get(String shortCode) {
+        while (true) {
+            Long location = index.get(shortCode);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = segments.get(segmentOf(location));
+            if (segment != null) {
+                return readValue(segment, offsetOf(location));
+            }
+            // Compaction moved the record and removed its segment between the two lookups; the index has its
+            // new location by now.
+        }
+    }
+
+    @Override
+    public List<UrlData> getAll(List<String> shortCodes) {
+        List<UrlData> found = new ArrayList<>(shortCodes.size());
+        for (String shortCode : shortCodes) {
+            found.add(get(shortCode));
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized void delete(UrlData urlData) {
+        String shortCode = urlData.getShortCode();
+        if (index.containsKey(shortCode)) {
+            long location = append(record(DELETE, shortCode, 0));
+            applyDelete(shortCode, location);
+        }
+    }
+
+    // Counts of links that don't exist (anymore) are dropped.
+    @Override
+    public synchronized void addClicks(Map<String, Long> deltas, BiConsumer<String, Long> unwritten) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(deltas.entrySet());
+        for (int i = 0; i < entries.size(); i++) {
+            String shortCode = entries.get(i).getKey();
+            try {
+                if (index.containsKey(shortCode)) {
+                    long count = clicks.getOrDefault(shortCode, 0L) + entries.get(i).getValue();
+                    long location = append(clicksRecord(shortCode, count));
+                    applyClicks(shortCode, count, location);
+                }
+            } catch (RuntimeException e) {
+                for (Map.Entry<String, Long> entry : entries.subList(i, entries.size())) {
+                    unwritten.accept(entry.getKey(), entry.getValue());
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public long getClicks(String shortCode) {
+        return clicks.getOrDefault(shortCode, 0L);
+    }
+
+    // The totals are all in memory already; a sort is all it takes.
+    @Override
+    public List<String> mostClicked(int limit, int parallelism) {
+        return clicks.entrySet().stream()
+                .filter(entry -> index.containsKey(entry.getKey()))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    @Override
+    public synchronized void deleteClicks(String shortCode) {
+        if (clicks.containsKey(shortCode)) {
+            long location = append(clicksRecord(shortCode, 0));
+            applyClicks(shortCode, 0, location);
+        }
+    }
+
+    // The cursor is "<segment>:<offset>", a position in the log: the walk reads the log from the oldest segment to
+    // the head and returns every PUT record the index still points to. A segment compacted away in the meantime
+    // is skipped, its live records have been moved to the head, which the walk reaches last (a link moved from the
+    // part already walked is returned twice). The walk ends at the head of the log as it is when it gets there.
+    // Pages are read under the lock, so writes wait for at most one page.
+    @Override
+    public synchronized ExportPage export(String cursor, int count) {
+        int segmentId = segments.keySet().stream().min(Integer::compare).orElseThrow();
+        int offset = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            int colon = cursor.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Malformed export cursor " + cursor);
+            }
+            segmentId = Integer.parseInt(cursor.substring(0, colon));
+            offset = Integer.parseInt(cursor.substring(colon + 1));
+            Segment segment = segments.get(segmentId);
+            if (segmentId < 1 || segmentId > active.id || offset < 0
+                    || (segment != null && !isRecordAt(segment, offset))) {
+                throw new IllegalArgumentException("Export cursor " + cursor + " doesn't point to a record");
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        List<UrlData> links = new ArrayList<>(count);
+        while (links.size() < count) {
+            Segment segment = segments.get(segmentId);
+            if (segment == null || offset >= segment.size) {
+                if (segment == active) {
+                    return new ExportPage(links, null);
+                }
+                int next = segmentId;
+                segmentId = segments.keySet().stream().filter(id -> id > next).min(Integer::compare).orElseThrow();
+                offset = 0;
+                continue;
+            }
+            if (segment.buffer.get(offset + HEADER_BYTES) == PUT) {
+                long location = location(segment.id, offset);
+                String shortCode = readCode(segment.buffer, offset);
+                if (Long.valueOf(location).equals(index.get(shortCode)) && !isExpired(location, now)) {
+                    UrlData urlData = readValue(segment, offset);
+                    long stored = urlData.getClickCount() != null ? urlData.getClickCount() : 0L;
+                    urlData.setClickCount(stored + clicks.getOrDefault(shortCode, 0L));
+                    links.add(urlData);
+                }
+            }
+            offset += HEADER_BYTES + segment.buffer.getInt(offset);
+        }
+        return new ExportPage(links, segmentId + ":" + offset);
+    }
+
+    // Like claimAll, with a CLICKS record after every stored link that has clicks.
+    @Override
+    public synchronized List<Boolean> importAll(List<UrlData> links, List<Long> clickCounts) {
+        List<Boolean> stored = new ArrayList<>(links.size());
+        for (int i = 0; i < links.size(); i++) {
+            UrlData urlData = links.get(i);
+            boolean claimed = claim(urlData, ReverseIndex.digest(urlData.getOriginalUrl()));
+            if (claimed && clickCounts.get(i) > 0) {
+                applyClicks(urlData.getShortCode(), clickCounts.get(i),
+                        append(clicksRecord(urlData.getShortCode(), clickCounts.get(i))));
+            }
+            stored.add(claimed);
+        }
+        return stored;
+    }
+
+    public int linkCount() {
+        return index.size();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long logBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += segment.size;
+        }
+        return bytes;
+    }
+
+    public synchronized long garbageBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += segment.deadBytes;
+        }
+        return bytes;
+    }
+
+    public synchronized long compactions() {
+        return compactions;
+    }
+
+    public synchronized long reclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    // Stores the link if its code is free or only held by an expired link. Called with the lock held.
+    private boolean claim(UrlData urlData, byte[] digest) {
+        Long location = index.get(urlData.getShortCode());
+        if (location != null && !isExpired(location, System.currentTimeMillis())) {
+            return false;
+        }
+        long written = append(putRecord(urlData, digest));
+        applyPut(urlData.getShortCode(), digestKey(digest), written);
+        return true;
+    }
+
+    // The apply methods update the in-memory state for a record that is in the log. Writes call them right after
+    // appending, replay calls them for every record it reads, so a restarted store ends up in the same state.
+    // Every record that stops mattering is counted as garbage in its segment, which drives compaction.
+
+    private void applyPut(String shortCode, String digestKey, long location) {
+        Long previous = index.put(shortCode, location);
+        if (previous != null) {
+            forgetLink(shortCode, previous);
+        }
+        reverse.put(digestKey, shortCode);
+        // A new link under a reused code starts without clicks.
+        forgetClicks(shortCode);
+    }
+
+    private void applyDelete(String shortCode, long location) {
+        Long previous = index.remove(shortCode);
+        if (previous != null) {
+            forgetLink(shortCode, previous);
+        }
+        forgetClicks(shortCode);
+        markDead(location);
+    }
+
+    private void applyClicks(String shortCode, long count, long location) {
+        if (!index.containsKey(shortCode)) {
+            markDead(location);
+            return;
+        }
+        Long previous = clickRecords.put(shortCode, location);
+        if (previous != null) {
+            markDead(previous);
+        }
+        if (count > 0) {
+            clicks.put(shortCode, count);
+        } else {
+            clicks.remove(shortCode);
+        }
+    }
+
+    // The PUT record at location no longer backs shortCode; drops its dedup entry unless a newer link took it over.
+    private void forgetLink(String shortCode, long location) {
+        Segment segment = segments.get(segmentOf(location));
+        if (segment != null) {
+            reverse.remove(digestKey(readDigest(segment, offsetOf(location))), shortCode);
+        }
+        markDead(location);
+    }
+
+    private void forgetClicks(String shortCode) {
+        clicks.remove(shortCode);
+        Long previous = clickRecords.remove(shortCode);
+        if (previous != null) {
+            markDead(previous);
+        }
+    }
+
+    private void markDead(long location) {
+        Segment segment = segments.get(segmentOf(location));
+        if (segment != null) {
+            segment.deadBytes += HEADER_BYTES + segment.buffer.getInt(offsetOf(location));
+        }
+    }
+
+    // Appends a record body to the active segment, starting a new segment when it doesn't fit. The length is written
+    // last, so a reader of the file never sees a length in front of a body that isn't there yet.
+    private long append(byte[] body) {
+        int total = HEADER_BYTES + body.length;
+        if (total > segmentBytes) {
+            throw new IllegalArgumentException("Record of " + total + " bytes is larger than a segment ("
+                    + segmentBytes + " bytes, app.storage.embedded.segment-bytes)");
+        }
+        if (active.size + total > segmentBytes) {
+            roll();
+        }
+        Segment segment = active;
+        int offset = segment.size;
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        segment.buffer.putInt(offset + 4, (int) crc.getValue());
+        segment.buffer.put(offset + HEADER_BYTES, body);
+        segment.buffer.putInt(offset, body.length);
+        segment.size += total;
+        if (fsyncIntervalMs == 0) {
+            segment.buffer.force();
+        } else {
+            dirty = true;
+        }
+        return location(segment.id, offset);
+    }
+
+    // Seals the active segment and starts the next one.
+    private void roll() {
+        int id = active != null ? active.id + 1 : 1;
+        try {
+            if (active != null) {
+                active.buffer.force();
+            }
+            Segment segment = Segment.open(id, Paths.get(directory).resolve("segment-" + id + ".log"), segmentBytes);
+            segments.put(id, segment);
+            active = segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create log segment " + id, e);
+        }
+    }
+
+    // Rebuilds the in-memory state from one segment. Replay of a segment stops at the first record that is
+    // incomplete or fails its checksum, which is where the writer was when the process died; the bytes of that
+    // record are zeroed so the records appended after the restart can't be mistaken for its continuation.
+    private void replay(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || offset + HEADER_BYTES + length > capacity || !checksumMatches(buffer, offset, length)) {
+                int end = length > 0 ? (int) Math.min(capacity, (long) offset + HEADER_BYTES + length) : capacity;
+                log.warn("Embedded store: segment {} has a torn or corrupt record at offset {}, ignoring the rest "
+                        + "of it", segment.id, offset);
+                for (int i = offset; i < end; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            long location = location(segment.id, offset);
+            String shortCode = readCode(buffer, offset);
+            byte type = buffer.get(offset + HEADER_BYTES);
+            if (type == PUT) {
+                applyPut(shortCode, digestKey(readDigest(segment, offset)), location);
+            } else if (type == DELETE) {
+                applyDelete(shortCode, location);
+            } else if (type == CLICKS) {
+                applyClicks(shortCode, buffer.getLong(offset + HEADER_BYTES + 3 + codeBytes(buffer, offset)), location);
+            }
+            offset += HEADER_BYTES + length;
+        }
+        segment.size = offset;
+    }
+
+    // Whether a valid record starts at offset: resumed exports must not take the middle of a record for one.
+    private static boolean isRecordAt(Segment segment, int offset) {
+        if (offset == segment.size) {
+            return true;
+        }
+        if (offset > segment.size - HEADER_BYTES) {
+            return false;
+        }
+        int length = segment.buffer.getInt(offset);
+        return length > 0 && offset + HEADER_BYTES + length <= segment.size
+                && checksumMatches(segment.buffer, offset, length);
+    }
+
+    private static boolean checksumMatches(MappedByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + HEADER_BYTES, length));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    private void syncQuietly() {
+        try {
+            if (dirty) {
+                dirty = false;
+                active.buffer.force();
+            }
+        } catch (Exception e) {
+            syncFailed.warn("Error syncing embedded store", e);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            compactionFailed.warn("Error compacting embedded store", e);
+        }
+    }
+
+    // One compaction pass: forgets expired links, then rewrites the oldest segments while garbage makes up at least
+    // compactionGarbageRatio of the log. Segments started during the pass are left for the next one.
+    void compact() {
+        expireLinks();
+        int lastSealed = active.id - 1;
+        while (true) {
+            Segment oldest;
+            synchronized (this) {
+                oldest = segments.get(segments.keySet().stream().min(Integer::compare).orElseThrow());
+                long size = logBytes();
+                if (oldest.id > lastSealed || size == 0 || (double) garbageBytes() / size < compactionGarbageRatio) {
+                    return;
+                }
+            }
+            rewrite(oldest);
+        }
+    }
+
+    // Expired links are dropped from the index (not from the log, a restart brings them back until compaction
+    // removes their record), so they count as garbage and their codes are free again.
+    private void expireLinks() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Long>> expired = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : index.entrySet()) {
+            if (isExpired(entry.getValue(), now)) {
+                expired.add(entry);
+            }
+        }
+        synchronized (this) {
+            for (Map.Entry<String, Long> entry : expired) {
+                if (index.remove(entry.getKey(), entry.getValue())) {
+                    forgetLink(entry.getKey(), entry.getValue());
+                    forgetClicks(entry.getKey());
+                }
+            }
+        }
+    }
+
+    // Moves the live links of a segment to the head of the log, each followed by its click count, and deletes the
+    // segment. Delete markers and click counts in it are dropped: it is the oldest segment, so there is nothing
+    // older for a marker to hide, and every live link's count is written again right after the link itself.
+    // The lock is taken per record, so writes keep going while a segment is rewritten.
+    private void rewrite(Segment segment) {
+        long now = System.currentTimeMillis();
+        int moved = 0;
+        int offset = 0;
+        while (offset < segment.size) {
+            int length = segment.buffer.getInt(offset);
+            if (segment.buffer.get(offset + HEADER_BYTES) == PUT) {
+                long location = location(segment.id, offset);
+                String shortCode = readCode(segment.buffer, offset);
+                synchronized (this) {
+                    if (Long.valueOf(location).equals(index.get(shortCode)) && !isExpired(location, now)) {
+                        byte[] body = new byte[length];
+                        segment.buffer.get(offset + HEADER_BYTES, body);
+                        index.put(shortCode, append(body));
+                        Long count = clicks.get(shortCode);
+                        if (count != null) {
+                            applyClicks(shortCode, count, append(clicksRecord(shortCode, count)));
+                        }
+                        moved++;
+                    }
+                }
+            }
+            offset += HEADER_BYTES + length;
+        }
+        synchronized (this) {
+            // Lookups still reading from the segment keep its mapping alive until they are done.
+            segments.remove(segment.id);
+            compactions++;
+            reclaimedBytes += segment.size;
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warn("Error deleting compacted segment {}: {}", segment.path, e.toString());
+            }
+        }
+        log.info("Embedded store compacted segment {}: moved {} links, freed {} bytes in {} ms", segment.id, moved,
+                segment.size, System.currentTimeMillis() - now);
+    }
+
+    private boolean isExpired(long location, long now) {
+        Segment segment = segments.get(segmentOf(location));
+        if (segment == null) {
+            return false;
+        }
+        int offset = offsetOf(location);
+        long expiresAt = segment.buffer.getLong(offset + HEADER_BYTES + 3 + codeBytes(segment.buffer, offset));
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    private static UrlData readValue(Segment segment, int offset) {
+        int length = segment.buffer.getInt(offset);
+        int start = HEADER_BYTES + 3 + codeBytes(segment.buffer, offset) + 8 + ReverseIndex.DIGEST_BYTES;
+        byte[] value = new byte[HEADER_BYTES + length - start];
+        segment.buffer.get(offset + start, value);
+        return UrlDataRedisSerializer.readBinary(value);
+    }
+
+    private static byte[] readDigest(Segment segment, int offset) {
+        byte[] digest = new byte[ReverseIndex.DIGEST_BYTES];
+        segment.buffer.get(offset + HEADER_BYTES + 3 + codeBytes(segment.buffer, offset) + 8, digest);
+        return digest;
+    }
+
+    private static String readCode(MappedByteBuffer buffer, int offset) {
+        byte[] code = new byte[codeBytes(buffer, offset)];
+        buffer.get(offset + HEADER_BYTES + 3, code);
+        return new String(code, StandardCharsets.UTF_8);
+    }
+
+    private static int codeBytes(MappedByteBuffer buffer, int offset) {
+        return buffer.getShort(offset + HEADER_BYTES + 1) & 0xFFFF;
+    }
+
+    private static byte[] putRecord(UrlData urlData, byte[] digest) {
+        byte[] value = UrlDataRedisSerializer.writeBinary(urlData);
+        ByteBuffer body = ByteBuffer.wrap(record(PUT, urlData.getShortCode(), 8 + digest.length + value.length));
+        body.position(body.capacity() - 8 - digest.length - value.length);
+        body.putLong(urlData.getExpiresAt() != null ? urlData.getExpiresAt() : 0L).put(digest).put(value);
+        return body.array();
+    }
+
+    private static byte[] clicksRecord(String shortCode, long count) {
+        byte[] body = record(CLICKS, shortCode, 8);
+        ByteBuffer.wrap(body).putLong(body.length - 8, count);
+        return body;
+    }
+
+    // A record body with its type and code filled in and extraBytes left for the rest.
+    private static byte[] record(byte type, String shortCode, int extraBytes) {
+        byte[] code = shortCode.getBytes(StandardCharsets.UTF_8);
+        if (code.length > 0xFFFF) {
+            throw new IllegalArgumentException("Short code is too long");
+        }
+        ByteBuffer body = ByteBuffer.allocate(3 + code.length + extraBytes);
+        body.put(type).putShort((short) code.length).put(code);
+        return body.array();
+    }
+
+    private static String digestKey(byte[] digest) {
+        return new String(digest, StandardCharsets.ISO_8859_1);
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    // One log file, mapped as a whole. size is the end of its written part; the mapping itself always covers
+    // segmentBytes, so appends never have to remap (the file stays sparse until written).
+    private static final class Segment {
+
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // Both only change under the store's lock. Lookups don't need size: they only follow locations the index
+        // published after the record was written.
+        int size;
+        long deadBytes;
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(int id, Path path, int segmentBytes) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long mapped = Math.max(channel.size(), segmentBytes);
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, mapped));
+        }
+    }
+}
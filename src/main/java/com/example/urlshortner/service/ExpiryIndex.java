@@ -0,0 +1,134 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ConditionalOnRedisStorage;
+import com.example.urlshortner.config.RedisShards;
+import com.example.urlshortner.model.UrlData;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// ExpiryIndex records when every expiring link expires, so ExpirySweeper can find the expired ones without
+// scanning the keyspace.
+//
+// A url: key has a Redis TTL and disappears on its own, but nothing in Redis points from it to the link's
+// reverse index entry (a field in a shared rev: hash, which can't expire) or its clicks: counter, so those used
+// to stay behind forever. The index is split into time buckets of app.expiry.bucket-seconds:
+//   expiry:<bucket>   sorted set, one member per link expiring in that bucket (score: expiresAt in epoch ms).
+//                     The member is the link's 16-byte reverse index digest followed by the short code, which is
+//                     everything needed to clean up after it once the url: key itself is gone.
+//   expiry:buckets    sorted set of the bucket numbers that may still hold entries (score: the number), so the
+//                     sweeper jumps straight to the oldest one instead of probing empty hours.
+// Buckets keep each sorted set small, spread them over the nodes with several Redis nodes, and let a fully
+// swept bucket be forgotten with one ZREM. Links that never expire aren't indexed.
+//
+// The create script writes the entry in the same atomic step as the link; the batch path and the other modes
+// write it right after the claim, like the reverse index entry.
+@Component
+@ConditionalOnRedisStorage
+public class ExpiryIndex {
+
+    static final String BUCKET_PREFIX = "expiry:";
+    static final String BUCKETS_KEY = "expiry:buckets";
+
+    @Autowired
+    private RedisShards redisShards;
+
+    // Width of a time bucket. Changing it only affects entries written afterwards; older buckets are still swept.
+    @Value("${app.expiry.bucket-seconds:3600}")
+    private long bucketSeconds;
+
+    private long bucketMs;
+
+    @PostConstruct
+    public void init() {
+        if (bucketSeconds <= 0) {
+            throw new IllegalStateException("app.expiry.bucket-seconds must be positive");
+        }
+        bucketMs = bucketSeconds * 1000;
+    }
+
+    public long bucketOf(long epochMs) {
+        return Math.floorDiv(epochMs, bucketMs);
+    }
+
+    public static String bucketKey(long bucket) {
+        return BUCKET_PREFIX + bucket;
+    }
+
+    public static byte[] member(byte[] digest, String shortCode) {
+        byte[] code = shortCode.getBytes(StandardCharsets.UTF_8);
+        byte[] member = Arrays.copyOf(digest, ReverseIndex.DIGEST_BYTES + code.length);
+        System.arraycopy(code, 0, member, ReverseIndex.DIGEST_BYTES, code.length);
+        return member;
+    }
+
+    static byte[] digestOf(byte[] member) {
+        return Arrays.copyOf(member, ReverseIndex.DIGEST_BYTES);
+    }
+
+    static String shortCodeOf(byte[] member) {
+        return new String(member, ReverseIndex.DIGEST_BYTES, member.length - ReverseIndex.DIGEST_BYTES,
+                StandardCharsets.UTF_8);
+    }
+
+    // Indexes the expiring links among freshly created (or backfilled) ones: one pipeline per node.
+    public void addAll(Collection<UrlData> links) {
+        List<UrlData> expiring = new ArrayList<>(links.size());
+        for (UrlData urlData : links) {
+            if (urlData.getExpiresAt() != null) {
+                expiring.add(urlData);
+            }
+        }
+        if (expiring.isEmpty()) {
+            return;
+        }
+        // Every entry is routed by its bucket key. The bucket list goes to its own node, once per bucket.
+        List<String> keys = new ArrayList<>(expiring.size());
+        Set<Long> buckets = new LinkedHashSet<>();
+        for (UrlData urlData : expiring) {
+            long bucket = bucketOf(urlData.getExpiresAt());
+            keys.add(bucketKey(bucket));
+            buckets.add(bucket);
+        }
+        redisShards.runPerShard(redisShards.groupByShard(keys), (shard, positions) ->
+                redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i : positions) {
+                        UrlData urlData = expiring.get(i);
+                        connection.zSetCommands().zAdd(bytes(keys.get(i)), urlData.getExpiresAt(),
+                                member(ReverseIndex.digest(urlData.getOriginalUrl()), urlData.getShortCode()));
+                    }
+                    return null;
+                }));
+        redisShards.forKey(BUCKETS_KEY).executePipelined((RedisCallback<Object>) connection -> {
+            for (long bucket : buckets) {
+                connection.zSetCommands().zAdd(bytes(BUCKETS_KEY), bucket, bytes(Long.toString(bucket)));
+            }
+            return null;
+        });
+    }
+
+    // A deleted link leaves nothing for the sweeper to do.
+    public void remove(UrlData urlData) {
+        if (urlData.getExpiresAt() == null) {
+            return;
+        }
+        String key = bucketKey(bucketOf(urlData.getExpiresAt()));
+        byte[] member = member(ReverseIndex.digest(urlData.getOriginalUrl()), urlData.getShortCode());
+        redisShards.forKey(key).execute((RedisCallback<Long>) connection ->
+                connection.zSetCommands().zRem(bytes(key), member));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,541 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ConditionalOnRedisStorage;
+import com.example.urlshortner.config.RedisShards;
+import com.example.urlshortner.config.ThrottledWarning;
+import com.example.urlshortner.model.UrlData;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ExpirySweeper deletes what expired links leave behind, using ExpiryIndex to find them:
+//   url:<code>       normally gone already through its TTL; deleted here if it is still there (a value that was
+//                    rewritten without TTL by an older version, or one Redis hasn't evicted yet)
+//   rev:<bucket>     the link's reverse index field, if it still points to the link's code
+//   clicks:<code>    the flushed click counter
+// and then removes the link's index entries. The click analytics keys expire on their own.
+//
+// Work is incremental and bounded: every app.expiry.sweep-interval-ms one tick handles at most
+// app.expiry.sweep-batches-per-tick batches of app.expiry.sweep-batch-size links, oldest bucket first, each
+// batch costing one read pipeline and one delete pipeline per node. A backlog is therefore worked off at a
+// steady rate instead of in one burst that would stall redirects on the same Redis. Links are swept
+// app.expiry.grace-ms after they expired, so clicks recorded just before the expiry have been flushed and
+// instances whose clocks run a little ahead don't race the sweep.
+//
+// Only one instance sweeps at a time: the one holding the lease key LEASE_KEY, renewed on every tick. If it dies
+// another instance takes over when the lease expires; a tick in which two instances both think they hold it
+// (the lease changed hands in between) only repeats idempotent deletes.
+//
+// Code reuse: a custom code can be claimed again once its link expired. An entry whose code now holds a link
+// that isn't expired is therefore only removed from the index, and a reverse index field is only deleted while
+// it still points to the expired code. The check and the delete are separate round trips; losing that race
+// costs a duplicate link for a URL shortened in that millisecond, the same outcome as a reverse index miss.
+//
+// Backfill: links written before the index existed aren't in it, and older versions rewrote values without
+// their TTL on every click, so expired links stayed in Redis forever. On the first start with
+// app.expiry.backfill=true the lease holder scans the url: keys once, indexes every expiring link and restores
+// missing TTLs, then deletes rev: fields and clicks: counters whose link no longer exists. BACKFILLED_KEY marks it
+// done; delete that key (and restart) to run it again, e.g. after the last old instance is gone.
+@Service
+@ConditionalOnRedisStorage
+public class ExpirySweeper implements SmartLifecycle {
+
+    static final String LEASE_KEY = "expiry:sweeper";
+    static final String BACKFILLED_KEY = "expiry:backfilled";
+
+    private static final int SCAN_BATCH = 1000;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisShards redisShards;
+
+    @Autowired
+    private ExpiryIndex expiryIndex;
+
+    @Autowired
+    private ReverseIndex reverseIndex;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.expiry.sweep-enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.expiry.sweep-interval-ms:1000}")
+    private long sweepIntervalMs;
+
+    @Value("${app.expiry.sweep-batch-size:500}")
+    private int sweepBatchSize;
+
+    @Value("${app.expiry.sweep-batches-per-tick:10}")
+    private int sweepBatchesPerTick;
+
+    @Value("${app.expiry.grace-ms:60000}")
+    private long graceMs;
+
+    @Value("${app.expiry.backfill:true}")
+    private boolean backfill;
+
+    private static final Logger log = LoggerFactory.getLogger(ExpirySweeper.class);
+    private ThrottledWarning sweepFailed;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private long leaseMs;
+    private ScheduledExecutorService sweeper;
+    private volatile boolean running;
+
+    private volatile boolean leader;
+    private volatile boolean backfilled;
+    private final AtomicLong sweptLinks = new AtomicLong();
+    private final AtomicLong deletedKeys = new AtomicLong();
+    private final AtomicLong deletedReverseEntries = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private volatile long lastTickKeys;
+    private volatile long lastTickMs;
+
+    @PostConstruct
+    public void init() {
+        leaseMs = Math.max(10000, sweepIntervalMs * 5);
+        sweepFailed = new ThrottledWarning(log, meterRegistry, "expiry-sweep");
+        if (!enabled) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "expiry-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::tickQuietly, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    // Stopped with the other background writers: a tick in progress finishes while Redis is still reachable, and
+    // the lease is handed back so another instance can take over right away.
+    @Override
+    public void stop() {
+        if (sweeper != null) {
+            sweeper.shutdown();
+            try {
+                sweeper.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                StringRedisTemplate global = redisShards.stringTemplate(0);
+                if (instanceId.equals(global.opsForValue().get(LEASE_KEY))) {
+                    global.delete(LEASE_KEY);
+                }
+            } catch (Exception e) {
+                log.warn("Error releasing the expiry sweeper lease: {}", e.toString());
+            }
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return ClickCounterService.BACKGROUND_WRITER_PHASE;
+    }
+
+    private void tickQuietly() {
+        try {
+            tick();
+        } catch (Exception e) {
+            sweepFailed.warn("Error sweeping expired links", e);
+        }
+    }
+
+    void tick() {
+        leader = holdLease();
+        if (!leader) {
+            return;
+        }
+        if (backfill && !backfilled) {
+            backfill();
+        }
+
+        long started = System.nanoTime();
+        long keysBefore = deletedKeys.get() + deletedReverseEntries.get();
+        for (int batch = 0; batch < sweepBatchesPerTick; batch++) {
+            if (sweepBatch() < 0) {
+                break;
+            }
+        }
+        lastTickKeys = deletedKeys.get() + deletedReverseEntries.get() - keysBefore;
+        lastTickMs = (System.nanoTime() - started) / 1_000_000;
+    }
+
+    // SET NX takes a free lease; the holder extends it. Lease and marker are global keys, so they live on shard 0.
+    private boolean holdLease() {
+        StringRedisTemplate global = redisShards.stringTemplate(0);
+        if (Boolean.TRUE.equals(global.opsForValue().setIfAbsent(LEASE_KEY, instanceId, Duration.ofMillis(leaseMs)))) {
+            return true;
+        }
+        if (instanceId.equals(global.opsForValue().get(LEASE_KEY))) {
+            global.expire(LEASE_KEY, Duration.ofMillis(leaseMs));
+            return true;
+        }
+        return false;
+    }
+
+    // Sweeps up to one batch of the oldest bucket. Returns the number of links handled (0 when it only retired an
+    // empty bucket), or -1 when nothing is due.
+    int sweepBatch() {
+        long cutoff = System.currentTimeMillis() - graceMs;
+        long cutoffBucket = expiryIndex.bucketOf(cutoff);
+
+        byte[] bucketsKey = bytes(ExpiryIndex.BUCKETS_KEY);
+        Set<byte[]> oldest = redisShards.forKey(ExpiryIndex.BUCKETS_KEY).execute((RedisCallback<Set<byte[]>>)
+                connection -> connection.zSetCommands().zRangeByScore(bucketsKey, Double.NEGATIVE_INFINITY,
+                        cutoffBucket, 0, 1));
+        if (oldest == null || oldest.isEmpty()) {
+            return -1;
+        }
+        byte[] bucketMember = oldest.iterator().next();
+        long bucket = Long.parseLong(new String(bucketMember, StandardCharsets.UTF_8));
+        String key = ExpiryIndex.bucketKey(bucket);
+
+        Set<Tuple> due = redisShards.forKey(key).execute((RedisCallback<Set<Tuple>>) connection ->
+                connection.zSetCommands().zRangeByScoreWithScores(bytes(key), Double.NEGATIVE_INFINITY, cutoff,
+                        0, sweepBatchSize));
+        if (due == null || due.isEmpty()) {
+            // Every entry of a bucket before the cutoff's is due, so an empty one is done for good: no link can
+            // expire in the past any more.
+            if (bucket < cutoffBucket) {
+                redisShards.forKey(ExpiryIndex.BUCKETS_KEY).execute((RedisCallback<Long>) connection ->
+                        connection.zSetCommands().zRem(bucketsKey, bucketMember));
+                return 0;
+            }
+            return -1;
+        }
+        sweep(key, new ArrayList<>(due), cutoff);
+        return due.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sweep(String bucketKey, List<Tuple> entries, long cutoff) {
+        List<String> codes = new ArrayList<>(entries.size());
+        List<byte[]> digests = new ArrayList<>(entries.size());
+        List<String> urlKeys = new ArrayList<>(entries.size());
+        List<String> revKeys = new ArrayList<>(entries.size());
+        for (Tuple entry : entries) {
+            String code = ExpiryIndex.shortCodeOf(entry.getValue());
+            byte[] digest = ExpiryIndex.digestOf(entry.getValue());
+            codes.add(code);
+            digests.add(digest);
+            urlKeys.add(redisShards.key(RedisUrlStore.URL_PREFIX, code));
+            revKeys.add(reverseIndex.bucketKey(digest));
+        }
+
+        // Read: what each code and each reverse index field hold now.
+        List<Object> values = redisShards.collectPerShard(urlKeys, (shard, positions) ->
+                redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i : positions) {
+                        connection.stringCommands().get(bytes(urlKeys.get(i)));
+                    }
+                    return null;
+                }, RedisSerializer.byteArray()));
+        List<Object> indexedCodes = redisShards.collectPerShard(revKeys, (shard, positions) ->
+                redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i : positions) {
+                        connection.hashCommands().hGet(bytes(revKeys.get(i)), digests.get(i));
+                    }
+                    return null;
+                }, RedisSerializer.byteArray()));
+
+        // Delete: DEL for keys (field null), HDEL for reverse index fields.
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        List<String> targets = new ArrayList<>();
+        List<byte[]> fields = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] raw = (byte[]) values.get(i);
+            if (raw != null) {
+                Object current = valueSerializer.deserialize(raw);
+                if (!(current instanceof UrlData) || ((UrlData) current).getExpiresAt() == null
+                        || ((UrlData) current).getExpiresAt() > cutoff) {
+                    // The code belongs to a newer link now.
+                    continue;
+                }
+                targets.add(urlKeys.get(i));
+                fields.add(null);
+                sizes.add((long) urlKeys.get(i).length() + raw.length);
+            }
+            byte[] code = bytes(codes.get(i));
+            if (Arrays.equals((byte[]) indexedCodes.get(i), code)) {
+                targets.add(revKeys.get(i));
+                fields.add(digests.get(i));
+                sizes.add((long) ReverseIndex.DIGEST_BYTES + code.length);
+            }
+            String clicksKey = redisShards.key(RedisUrlStore.CLICKS_PREFIX, codes.get(i));
+            targets.add(clicksKey);
+            fields.add(null);
+            // Key name and a small integer.
+            sizes.add((long) clicksKey.length() + 8);
+        }
+
+        List<Object> deleted = targets.isEmpty() ? List.of() : redisShards.collectPerShard(targets,
+                (shard, positions) -> redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i : positions) {
+                        if (fields.get(i) == null) {
+                            connection.keyCommands().del(bytes(targets.get(i)));
+                        } else {
+                            connection.hashCommands().hDel(bytes(targets.get(i)), fields.get(i));
+                        }
+                    }
+                    return null;
+                }));
+
+        // The index entries go last, so links of a batch that failed halfway are swept again on the next tick.
+        byte[][] members = new byte[entries.size()][];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = entries.get(i).getValue();
+        }
+        redisShards.forKey(bucketKey).execute((RedisCallback<Long>) connection ->
+                connection.zSetCommands().zRem(bytes(bucketKey), members));
+
+        int urls = 0;
+        int reverseEntries = 0;
+        int clicks = 0;
+        long bytesFreed = 0;
+        for (int i = 0; i < targets.size(); i++) {
+            if (!(deleted.get(i) instanceof Long) || (Long) deleted.get(i) == 0) {
+                continue;
+            }
+            bytesFreed += sizes.get(i);
+            if (fields.get(i) != null) {
+                reverseEntries++;
+            } else if (targets.get(i).startsWith(RedisUrlStore.CLICKS_PREFIX)) {
+                clicks++;
+            } else {
+                urls++;
+            }
+        }
+        sweptLinks.addAndGet(entries.size());
+        deletedKeys.addAndGet(urls + clicks);
+        deletedReverseEntries.addAndGet(reverseEntries);
+        reclaimedBytes.addAndGet(bytesFreed);
+        metrics.expirySwept(entries.size(), urls, reverseEntries, clicks, bytesFreed);
+    }
+
+    private void backfill() {
+        StringRedisTemplate global = redisShards.stringTemplate(0);
+        if (Boolean.TRUE.equals(global.hasKey(BACKFILLED_KEY))) {
+            backfilled = true;
+            return;
+        }
+        long started = System.currentTimeMillis();
+        long[] indexed = indexExistingLinks();
+        long orphans = deleteOrphans(ReverseIndex.BUCKET_PREFIX) + deleteOrphans(RedisUrlStore.CLICKS_PREFIX);
+        global.opsForValue().set(BACKFILLED_KEY, Long.toString(System.currentTimeMillis()));
+        backfilled = true;
+        log.info("Expiry index backfilled: {} expiring links indexed, {} TTLs restored, {} orphaned index entries "
+                + "and counters deleted in {} ms", indexed[0], indexed[1], orphans,
+                System.currentTimeMillis() - started);
+    }
+
+    // Returns {links indexed, TTLs restored}. A link that is already expired gets indexed in its past bucket and is
+    // swept on the next ticks; only the live ones get their TTL back.
+    private long[] indexExistingLinks() {
+        long[] counts = new long[2];
+        redisShards.scan(RedisUrlStore.URL_PREFIX + "*", SCAN_BATCH, (shard, keys) -> {
+            List<Object> replies = redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.stringCommands().get(bytes(key));
+                    connection.keyCommands().pTtl(bytes(key));
+                }
+                return null;
+            }, RedisSerializer.byteArray());
+
+            @SuppressWarnings("unchecked")
+            RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+            long now = System.currentTimeMillis();
+            List<UrlData> expiring = new ArrayList<>();
+            List<String> withoutTtl = new ArrayList<>();
+            List<Long> expiresAt = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] raw = (byte[]) replies.get(2 * i);
+                Object value = raw != null ? valueSerializer.deserialize(raw) : null;
+                if (!(value instanceof UrlData) || ((UrlData) value).getExpiresAt() == null) {
+                    continue;
+                }
+                UrlData urlData = (UrlData) value;
+                expiring.add(urlData);
+                if (Long.valueOf(-1).equals(replies.get(2 * i + 1)) && urlData.getExpiresAt() > now) {
+                    withoutTtl.add(keys.get(i));
+                    expiresAt.add(urlData.getExpiresAt());
+                }
+            }
+            expiryIndex.addAll(expiring);
+            if (!withoutTtl.isEmpty()) {
+                redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i = 0; i < withoutTtl.size(); i++) {
+                        connection.keyCommands().pExpireAt(bytes(withoutTtl.get(i)), expiresAt.get(i));
+                    }
+                    return null;
+                });
+            }
+            counts[0] += expiring.size();
+            counts[1] += withoutTtl.size();
+            holdLease();
+        });
+        return counts;
+    }
+
+    // rev: fields and clicks: counters of links whose url: key is gone (expired through its TTL before the index
+    // existed, or deleted by an older version that didn't clean up).
+    @SuppressWarnings("unchecked")
+    private long deleteOrphans(String prefix) {
+        AtomicLong deleted = new AtomicLong();
+        boolean reverse = ReverseIndex.BUCKET_PREFIX.equals(prefix);
+        redisShards.scan(prefix + "*", SCAN_BATCH, (shard, keys) -> {
+            // (key, field or null, short code) of every candidate in this batch.
+            List<String> targets = new ArrayList<>();
+            List<byte[]> fields = new ArrayList<>();
+            List<String> codes = new ArrayList<>();
+            if (reverse) {
+                // Pipelined by hand: executePipelined would run the hashes through the template's hash
+                // serializers, which don't read raw digests and codes.
+                List<Object> hashes = redisShards.template(shard).execute((RedisCallback<List<Object>>) connection -> {
+                    connection.openPipeline();
+                    for (String key : keys) {
+                        connection.hashCommands().hGetAll(bytes(key));
+                    }
+                    return connection.closePipeline();
+                });
+                for (int i = 0; i < keys.size(); i++) {
+                    for (Map.Entry<byte[], byte[]> field : ((Map<byte[], byte[]>) hashes.get(i)).entrySet()) {
+                        targets.add(keys.get(i));
+                        fields.add(field.getKey());
+                        codes.add(new String(field.getValue(), StandardCharsets.UTF_8));
+                    }
+                }
+            } else {
+                for (String key : keys) {
+                    targets.add(key);
+                    fields.add(null);
+                    codes.add(codeOf(key, prefix));
+                }
+            }
+            if (targets.isEmpty()) {
+                return;
+            }
+
+            List<String> urlKeys = new ArrayList<>(codes.size());
+            for (String code : codes) {
+                urlKeys.add(redisShards.key(RedisUrlStore.URL_PREFIX, code));
+            }
+            List<Object> exists = redisShards.collectPerShard(urlKeys, (urlShard, positions) ->
+                    redisShards.template(urlShard).executePipelined((RedisCallback<Object>) connection -> {
+                        for (int i : positions) {
+                            connection.keyCommands().exists(bytes(urlKeys.get(i)));
+                        }
+                        return null;
+                    }));
+            List<Integer> orphans = new ArrayList<>();
+            for (int i = 0; i < targets.size(); i++) {
+                if (Boolean.FALSE.equals(exists.get(i))) {
+                    orphans.add(i);
+                }
+            }
+            if (!orphans.isEmpty()) {
+                redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i : orphans) {
+                        if (fields.get(i) == null) {
+                            connection.keyCommands().del(bytes(targets.get(i)));
+                        } else {
+                            connection.hashCommands().hDel(bytes(targets.get(i)), fields.get(i));
+                        }
+                    }
+                    return null;
+                });
+            }
+            deleted.addAndGet(orphans.size());
+            holdLease();
+        });
+        return deleted.get();
+    }
+
+    // clicks:abc or clicks:{abc} -> abc
+    private static String codeOf(String key, String prefix) {
+        String code = key.substring(prefix.length());
+        return code.startsWith("{") && code.endsWith("}") ? code.substring(1, code.length() - 1) : code;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    public boolean isBackfilled() {
+        return backfilled;
+    }
+
+    public long sweptLinks() {
+        return sweptLinks.get();
+    }
+
+    public long deletedKeys() {
+        return deletedKeys.get();
+    }
+
+    public long deletedReverseEntries() {
+        return deletedReverseEntries.get();
+    }
+
+    public long reclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    public long lastTickKeys() {
+        return lastTickKeys;
+    }
+
+    public long lastTickMs() {
+        return lastTickMs;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
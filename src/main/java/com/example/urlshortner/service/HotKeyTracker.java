@@ -0,0 +1,208 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ThrottledWarning;
+import com.example.urlshortner.model.UrlData;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+// HotKeyTracker finds the short codes that get most of the lookups right now (a viral link) and keeps them
+// pinned in UrlCache, refreshed from the store in the background, so they never fall out of the near-cache and never
+// cause a burst of misses when their entry expires.
+//
+// Lookups are counted in a count-min sketch: DEPTH rows of counters, each code increments one counter per row and
+// its estimate is the smallest of them. Collisions can only inflate an estimate, never hide a hot code, and the
+// memory is fixed (DEPTH * width ints) however many distinct codes are looked up. A code whose estimate reaches
+// minLookups becomes a candidate. Every refreshIntervalMs the refresher ranks the candidates, keeps the top
+// maxHotKeys, fetches them all with one batch read and pins the result, then halves every counter. With that decay a
+// code looked up r times per interval settles at an estimate of about 2r, and a code that stops being popular
+// drops out within a few intervals.
+@Component
+public class HotKeyTracker {
+
+    private static final int DEPTH = 4;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    @Autowired
+    private UrlCache urlCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.hot-keys.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.hot-keys.max:100}")
+    private int maxHotKeys;
+
+    @Value("${app.hot-keys.min-lookups:1000}")
+    private int minLookups;
+
+    @Value("${app.hot-keys.refresh-interval-ms:1000}")
+    private long refreshIntervalMs;
+
+    // Counters per row; rounded up to a power of two so the index is a mask.
+    @Value("${app.hot-keys.sketch-width:4096}")
+    private int sketchWidth;
+
+    private AtomicIntegerArray counters;
+    private int mask;
+
+    // Codes that crossed minLookups since the last refresh, at most 4 * maxHotKeys of them.
+    private final Map<String, Boolean> candidates = new ConcurrentHashMap<>();
+
+    // Result of the last refresh: hot codes with their estimates, most looked up first.
+    private volatile Map<String, Integer> hotKeys = Collections.emptyMap();
+
+    private static final Logger log = LoggerFactory.getLogger(HotKeyTracker.class);
+    private ThrottledWarning refreshFailed;
+
+    private ScheduledExecutorService refresher;
+
+    @PostConstruct
+    public void start() {
+        int width = Integer.highestOneBit(Math.max(16, sketchWidth - 1)) << 1;
+        mask = width - 1;
+        counters = new AtomicIntegerArray(DEPTH * width);
+        if (!enabled) {
+            return;
+        }
+        refreshFailed = new ThrottledWarning(log, meterRegistry, "hot-key-refresh");
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hot-key-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalMs, refreshIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    // Called for every lookup of a short code. Costs DEPTH atomic increments, no allocation.
+    public void record(String shortCode) {
+        if (!enabled) {
+            return;
+        }
+        // String caches its hashCode. The second hash is derived from the first (double hashing), and forced odd
+        // so the rows never all land on the same column.
+        int h1 = spread(shortCode.hashCode());
+        int h2 = spread(h1 + 0x9E3779B9) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(row, h1, h2)));
+        }
+        // containsKey first: a hot code hits this on every lookup, and a read doesn't contend like a write.
+        if (estimate >= minLookups && !candidates.containsKey(shortCode) && candidates.size() < maxHotKeys * 4) {
+            candidates.putIfAbsent(shortCode, Boolean.TRUE);
+        }
+    }
+
+    public Map<String, Integer> hotKeys() {
+        return hotKeys;
+    }
+
+    private int estimate(String shortCode) {
+        int h1 = spread(shortCode.hashCode());
+        int h2 = spread(h1 + 0x9E3779B9) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, h1, h2)));
+        }
+        return estimate;
+    }
+
+    private int index(int row, int h1, int h2) {
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            // The previous pins stay in place, so hot codes keep being served while the store is unreachable.
+            refreshFailed.warn("Error refreshing hot keys", e);
+        }
+    }
+
+    void refresh() {
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(candidates.size());
+        for (String shortCode : candidates.keySet()) {
+            int estimate = estimate(shortCode);
+            if (estimate >= minLookups) {
+                ranked.add(Map.entry(shortCode, estimate));
+            } else {
+                candidates.remove(shortCode);
+            }
+        }
+        ranked.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        if (ranked.size() > maxHotKeys) {
+            for (Map.Entry<String, Integer> dropped : ranked.subList(maxHotKeys, ranked.size())) {
+                candidates.remove(dropped.getKey());
+            }
+            ranked = ranked.subList(0, maxHotKeys);
+        }
+
+        // Decay. Increments racing with the halving of the same counter can be lost; the estimates only need to
+        // be right to within a refresh interval.
+        for (int i = 0; i < counters.length(); i++) {
+            int value = counters.get(i);
+            if (value != 0) {
+                counters.set(i, value >>> 1);
+            }
+        }
+
+        Map<String, Integer> hot = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : ranked) {
+            hot.put(entry.getKey(), entry.getValue());
+        }
+        hotKeys = Collections.unmodifiableMap(hot);
+
+        // Refresh-ahead: every hot code is re-read each interval, long before a near-cache entry would expire,
+        // with a single batch read (one MGET with Redis) for all of them.
+        Map<String, UrlData> pins = new HashMap<>();
+        if (!ranked.isEmpty()) {
+            List<String> shortCodes = new ArrayList<>(ranked.size());
+            for (Map.Entry<String, Integer> entry : ranked) {
+                shortCodes.add(entry.getKey());
+            }
+            List<UrlData> values = urlStore.getAll(shortCodes);
+            for (int i = 0; i < ranked.size(); i++) {
+                pins.put(shortCodes.get(i), values.get(i));
+            }
+        }
+        urlCache.pin(pins);
+    }
+}
@@ -0,0 +1,552 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.model.UrlData;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Near-cache entries outside the Java heap (app.cache.engine=offheap, see UrlCache). A heap cache costs a cache
+// node, a String key and a UrlData with its Strings and Longs per link, a few hundred bytes the GC has to trace on
+// every marking cycle. Here a link is two longs in a hash table plus one record in a slab, all in direct
+// ByteBuffers the GC never looks into.
+//
+// Keys are short codes packed into a long (see pack): up to 10 base62 characters fit, which covers every generated
+// code. Custom codes that don't fit stay in the heap cache.
+//
+// Layout:
+// - Slot table: open addressing with linear probing, 16 bytes per slot: [long key][long ref]. Key 0 is an empty
+//   slot; ref 0 a slot whose entry was removed (a tombstone, so probing continues past it).
+// - Slab: 16 MB chunks allocated as they are needed. A ref is (chunk + 1) << 32 | offset of the entry:
+//   [long key][long createdAt][long expiresAt][long clickCount][long deadline][int url length]
+//   [short redirectStatus][url UTF-8 bytes], padded to 8 bytes. Nullable longs are stored as NO_VALUE, a null
+//   redirectStatus as 0 and a cached miss as url length MISS. deadline is the wall-clock time after which the entry
+//   must no longer be served (UrlCache's per-entry TTL).
+// Entries are never updated in place: a put appends a new record and swings the slot's ref.
+//
+// Reads take no lock and allocate nothing until the hit is turned into a UrlData: the probe reads the slot with
+// acquire semantics, and a writer fills the record before it publishes the ref with release semantics. Writers
+// of one key serialize on one of STRIPES locks; writers of different keys only race for empty slots, which they
+// claim with a CAS.
+//
+// Eviction is by generation: the index is two tables of half the memory budget each. Writes go to the active
+// one; when it is full it becomes the previous generation and a new, empty one becomes active, dropping the old
+// previous one. A hit in the previous generation copies the entry into the active one, so links that are still
+// used survive the next rotation. A dropped generation is never reused, since readers may still be looking into
+// it; its direct buffers are freed once the GC finds them unreachable.
+public class OffHeapUrlIndex {
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int SLOT_BYTES = 16;
+    private static final int CHUNK_BYTES = 16 << 20;
+    private static final int HEADER_BYTES = 46;
+    private static final int URL_LENGTH_OFFSET = 40;
+    private static final int REDIRECT_STATUS_OFFSET = 44;
+    private static final long NO_VALUE = Long.MIN_VALUE;
+    private static final int MISS = -1;
+    private static final int MAX_CODE_LENGTH = 10;
+    // Fraction of the slots that may be used before the generation counts as full. Linear probing gets slow
+    // well before the table is full.
+    private static final double MAX_LOAD = 0.6;
+    // Share of a generation's budget spent on slots; the rest is slab. About 110 bytes of slab per entry for
+    // typical URLs against 16 / MAX_LOAD bytes of slots.
+    private static final int SLOT_BUDGET_DIVISOR = 5;
+    private static final int STRIPES = 64;
+    // "URL2" in the snapshot's byte order (the record layout's second version; older snapshots are ignored).
+    // Written in native order, so a snapshot from a machine of the other byte order doesn't match and is ignored.
+    private static final int SNAPSHOT_MAGIC = 0x55524c32;
+    private static final int SNAPSHOT_BUFFER_BYTES = 1 << 20;
+
+    private final long generationBytes;
+    private final Object[] stripes = new Object[STRIPES];
+
+    private volatile Generation active;
+    private volatile Generation previous;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong rotations = new AtomicLong();
+
+    public OffHeapUrlIndex(long maxBytes) {
+        this.generationBytes = Math.max(1 << 16, maxBytes / 2);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        this.active = new Generation(generationBytes);
+    }
+
+    // Bijective base62 over ShortCodeGenerator.CHARACTERS, every digit counted from 1, so codes of different
+    // lengths get different values and no code packs to 0. -1 if the code doesn't fit.
+    public static long pack(String shortCode) {
+        int length = shortCode.length();
+        if (length == 0 || length > MAX_CODE_LENGTH) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = digit(shortCode.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * ShortCodeGenerator.CHARACTERS.length() + digit + 1;
+        }
+        return value;
+    }
+
+    private static int digit(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return 26 + c - 'A';
+        }
+        if (c >= '0' && c <= '9') {
+            return 52 + c - '0';
+        }
+        return -1;
+    }
+
+    // The cached link for a packed code: a new UrlData for shortCode, notFound for a cached miss, or null if
+    // nothing (unexpired) is cached.
+    public UrlData get(long key, String shortCode, UrlData notFound) {
+        long now = System.currentTimeMillis();
+        Generation generation = active;
+        long ref = generation.lookup(key);
+        if (ref == 0) {
+            Generation older = previous;
+            if (older != null && older != generation) {
+                ref = older.lookup(key);
+                if (ref != 0 && older.deadline(ref) > now) {
+                    promote(key, older);
+                    generation = older;
+                } else {
+                    ref = 0;
+                }
+            }
+        }
+        if (ref == 0 || generation.deadline(ref) <= now) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return generation.read(ref, shortCode, notFound);
+    }
+
+    // Caches urlData (null: the code doesn't exist) for a packed code until deadline (epoch ms).
+    public void put(long key, UrlData urlData, long deadline) {
+        byte[] url = urlData != null ? urlData.getOriginalUrl().getBytes(StandardCharsets.UTF_8) : null;
+        int size = align(HEADER_BYTES + (url != null ? url.length : 0));
+        if (size > CHUNK_BYTES) {
+            return;
+        }
+        synchronized (stripe(key)) {
+            Generation generation = active;
+            long ref = generation.allocate(size);
+            if (ref < 0) {
+                generation = rotate(generation);
+                ref = generation.allocate(size);
+                if (ref < 0) {
+                    // Larger than a whole chunk of this (small) index.
+                    return;
+                }
+            }
+            ByteBuffer chunk = generation.chunk(ref);
+            int offset = offset(ref);
+            chunk.putLong(offset, key);
+            chunk.putLong(offset + 8, urlData != null ? orNoValue(urlData.getCreatedAt()) : NO_VALUE);
+            chunk.putLong(offset + 16, urlData != null ? orNoValue(urlData.getExpiresAt()) : NO_VALUE);
+            chunk.putLong(offset + 24, urlData != null ? orNoValue(urlData.getClickCount()) : NO_VALUE);
+            chunk.putLong(offset + 32, deadline);
+            chunk.putInt(offset + URL_LENGTH_OFFSET, url != null ? url.length : MISS);
+            Integer redirectStatus = urlData != null ? urlData.getRedirectStatus() : null;
+            chunk.putShort(offset + REDIRECT_STATUS_OFFSET, redirectStatus != null ? redirectStatus.shortValue() : 0);
+            if (url != null) {
+                chunk.put(offset + HEADER_BYTES, url);
+            }
+            if (!publish(generation, key, ref)) {
+                // Out of slots before out of slab: the record goes to the next generation instead.
+                copy(key, chunk, offset);
+            }
+        }
+    }
+
+    public void remove(long key) {
+        synchronized (stripe(key)) {
+            active.clear(key);
+            Generation older = previous;
+            if (older != null) {
+                older.clear(key);
+            }
+        }
+    }
+
+    // Copies the entry of key from the previous generation into the active one, unless a writer got there first
+    // or removed it meanwhile.
+    private void promote(long key, Generation older) {
+        synchronized (stripe(key)) {
+            long ref = older.lookup(key);
+            if (ref == 0 || active == older || active.lookup(key) != 0) {
+                return;
+            }
+            copy(key, older.chunk(ref), offset(ref));
+        }
+    }
+
+    // Appends an entry record (as found in a slab or a snapshot) to the active generation. Callers hold the
+    // stripe lock of key.
+    private void copy(long key, ByteBuffer source, int sourceOffset) {
+        int urlLength = source.getInt(sourceOffset + URL_LENGTH_OFFSET);
+        int size = align(HEADER_BYTES + Math.max(0, urlLength));
+        Generation generation = active;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            long ref = generation.allocate(size);
+            if (ref >= 0) {
+                generation.chunk(ref).put(offset(ref), source, sourceOffset, size);
+                if (publish(generation, key, ref)) {
+                    return;
+                }
+            }
+            // A new generation has room for it, unless it is larger than a whole chunk of this (small) index.
+            generation = rotate(generation);
+        }
+    }
+
+    // Points the slot of key at ref. False if the generation ran out of slots before it ran out of slab; the
+    // record is wasted then, and the generation counts as full so that the next write rotates.
+    private boolean publish(Generation generation, long key, long ref) {
+        int slot = generation.claim(key);
+        if (slot < 0) {
+            generation.full = true;
+            return false;
+        }
+        generation.set(slot, ref);
+        return true;
+    }
+
+    // Replaces a full active generation, unless another writer already did.
+    private synchronized Generation rotate(Generation full) {
+        if (active == full) {
+            previous = full;
+            active = new Generation(generationBytes);
+            rotations.incrementAndGet();
+        }
+        return active;
+    }
+
+    // Writes every unexpired entry to file (through a temporary file and a rename, so a crash leaves the last
+    // complete snapshot). Meant for shutdown; entries written meanwhile may or may not be included.
+    public long writeSnapshot(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        long written = 0;
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER_BYTES).order(ByteOrder.nativeOrder());
+            buffer.putInt(SNAPSHOT_MAGIC);
+            // Older generation first, so that on load the active generation's entries win.
+            for (Generation generation : new Generation[] {previous, active}) {
+                if (generation == null) {
+                    continue;
+                }
+                for (int slot = 0; slot <= generation.mask; slot++) {
+                    long ref = generation.ref(slot);
+                    if (ref == 0 || generation.deadline(ref) <= now) {
+                        continue;
+                    }
+                    ByteBuffer chunk = generation.chunk(ref);
+                    int offset = offset(ref);
+                    int size = align(HEADER_BYTES + Math.max(0, chunk.getInt(offset + URL_LENGTH_OFFSET)));
+                    if (buffer.remaining() < size) {
+                        drain(channel, buffer);
+                    }
+                    buffer.put(chunk.slice(offset, size));
+                    written++;
+                }
+            }
+            drain(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    // Loads the unexpired entries of a snapshot written by writeSnapshot. Returns how many, 0 if there is no
+    // snapshot or it isn't one.
+    public long loadSnapshot(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long loaded = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < 4 || channel.size() > Integer.MAX_VALUE) {
+                return 0;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.nativeOrder());
+            if (mapped.getInt(0) != SNAPSHOT_MAGIC) {
+                return 0;
+            }
+            int offset = 4;
+            while (offset + HEADER_BYTES <= mapped.limit()) {
+                long key = mapped.getLong(offset);
+                int size = align(HEADER_BYTES + Math.max(0, mapped.getInt(offset + URL_LENGTH_OFFSET)));
+                if (key <= 0 || offset + size > mapped.limit()) {
+                    break;
+                }
+                if (mapped.getLong(offset + 32) > now) {
+                    synchronized (stripe(key)) {
+                        copy(key, mapped, offset);
+                    }
+                    loaded++;
+                }
+                offset += size;
+            }
+        }
+        return loaded;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Entries in both generations; a promoted link counts twice until the older generation is dropped.
+    public long size() {
+        Generation older = previous;
+        return active.entries.get() + (older != null ? older.entries.get() : 0);
+    }
+
+    // Direct memory held by the generations still in use (slot tables and allocated slab chunks).
+    public long reservedBytes() {
+        Generation older = previous;
+        return active.reservedBytes() + (older != null ? older.reservedBytes() : 0);
+    }
+
+    // Memory taken by entries: slot tables plus the slab written so far, including superseded records.
+    public long usedBytes() {
+        Generation older = previous;
+        return active.usedBytes() + (older != null ? older.usedBytes() : 0);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long rotations() {
+        return rotations.get();
+    }
+
+    private Object stripe(long key) {
+        return stripes[hash(key) >>> 26];
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static int offset(long ref) {
+        return (int) ref;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private static long orNoValue(Long value) {
+        return value != null ? value : NO_VALUE;
+    }
+
+    private static Long nullable(long value) {
+        return value != NO_VALUE ? value : null;
+    }
+
+    private static final class Generation {
+        private final ByteBuffer slots;
+        private final int mask;
+        private final int maxEntries;
+        private final int chunkBytes;
+        private final long slabBytes;
+        private final AtomicReferenceArray<ByteBuffer> chunks;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicInteger usedSlots = new AtomicInteger();
+        private final AtomicInteger entries = new AtomicInteger();
+        // Set when a write found no free slot, so the next write rotates even if the slab has room.
+        private volatile boolean full;
+
+        private Generation(long budget) {
+            // Power of two, at most 2^26 slots so byte offsets into the table stay ints.
+            long wantedSlots = Math.min(1L << 26, Math.max(64, budget / SLOT_BUDGET_DIVISOR / SLOT_BYTES));
+            int capacity = Integer.highestOneBit((int) wantedSlots);
+            this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+            this.mask = capacity - 1;
+            this.maxEntries = (int) (capacity * MAX_LOAD);
+            long slab = Math.max(budget - (long) capacity * SLOT_BYTES, 4096);
+            this.chunkBytes = (int) Math.min(CHUNK_BYTES, slab);
+            int chunkCount = (int) (slab / chunkBytes);
+            this.slabBytes = (long) chunkCount * chunkBytes;
+            this.chunks = new AtomicReferenceArray<>(chunkCount);
+        }
+
+        // The published ref for key, 0 if it isn't here or was removed. Lock-free.
+        private long lookup(long key) {
+            int slot = hash(key) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long found = (long) LONGS.getAcquire(slots, slot * SLOT_BYTES);
+                if (found == key) {
+                    return ref(slot);
+                }
+                if (found == 0) {
+                    return 0;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return 0;
+        }
+
+        // The slot for key, claiming an empty one if key has none yet. -1 if the table is full.
+        // Callers hold the stripe lock of key, so no other thread claims a slot for the same key.
+        private int claim(long key) {
+            int slot = hash(key) & mask;
+            for (int probes = 0; probes <= mask; ) {
+                long found = (long) LONGS.getAcquire(slots, slot * SLOT_BYTES);
+                if (found == key) {
+                    return slot;
+                }
+                if (found == 0) {
+                    if (usedSlots.get() >= maxEntries) {
+                        return -1;
+                    }
+                    if (LONGS.compareAndSet(slots, slot * SLOT_BYTES, 0L, key)) {
+                        usedSlots.incrementAndGet();
+                        return slot;
+                    }
+                    // Another key took this slot; look at it again.
+                    continue;
+                }
+                slot = (slot + 1) & mask;
+                probes++;
+            }
+            return -1;
+        }
+
+        private long ref(int slot) {
+            return (long) LONGS.getAcquire(slots, slot * SLOT_BYTES + 8);
+        }
+
+        private void set(int slot, long ref) {
+            long old = (long) LONGS.getAndSetRelease(slots, slot * SLOT_BYTES + 8, ref);
+            if (old == 0) {
+                entries.incrementAndGet();
+            }
+        }
+
+        private void clear(long key) {
+            int slot = hash(key) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long found = (long) LONGS.getAcquire(slots, slot * SLOT_BYTES);
+                if (found == key) {
+                    if ((long) LONGS.getAndSetRelease(slots, slot * SLOT_BYTES + 8, 0L) != 0) {
+                        entries.decrementAndGet();
+                    }
+                    return;
+                }
+                if (found == 0) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        // Reserves size bytes of slab, never across a chunk boundary. -1 if the generation is full.
+        private long allocate(int size) {
+            if (full) {
+                return -1;
+            }
+            while (true) {
+                long start = tail.get();
+                long position = start % chunkBytes + size > chunkBytes ? (start / chunkBytes + 1) * chunkBytes : start;
+                if (position + size > slabBytes) {
+                    return -1;
+                }
+                if (tail.compareAndSet(start, position + size)) {
+                    int chunk = (int) (position / chunkBytes);
+                    if (chunks.get(chunk) == null) {
+                        chunks.compareAndSet(chunk, null,
+                                ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder()));
+                    }
+                    return (long) (chunk + 1) << 32 | position % chunkBytes;
+                }
+            }
+        }
+
+        private ByteBuffer chunk(long ref) {
+            return chunks.get((int) (ref >>> 32) - 1);
+        }
+
+        private long deadline(long ref) {
+            return chunk(ref).getLong(offset(ref) + 32);
+        }
+
+        private UrlData read(long ref, String shortCode, UrlData notFound) {
+            ByteBuffer chunk = chunk(ref);
+            int offset = offset(ref);
+            int urlLength = chunk.getInt(offset + URL_LENGTH_OFFSET);
+            if (urlLength == MISS) {
+                return notFound;
+            }
+            byte[] url = new byte[urlLength];
+            chunk.get(offset + HEADER_BYTES, url);
+            UrlData urlData = new UrlData();
+            urlData.setOriginalUrl(new String(url, StandardCharsets.UTF_8));
+            urlData.setShortCode(shortCode);
+            urlData.setCreatedAt(nullable(chunk.getLong(offset + 8)));
+            urlData.setExpiresAt(nullable(chunk.getLong(offset + 16)));
+            urlData.setClickCount(nullable(chunk.getLong(offset + 24)));
+            short redirectStatus = chunk.getShort(offset + REDIRECT_STATUS_OFFSET);
+            urlData.setRedirectStatus(redirectStatus != 0 ? (int) redirectStatus : null);
+            return urlData;
+        }
+
+        private long reservedBytes() {
+            long allocatedChunks = 0;
+            for (int i = 0; i < chunks.length(); i++) {
+                if (chunks.get(i) != null) {
+                    allocatedChunks++;
+                }
+            }
+            return (long) slots.capacity() + allocatedChunks * chunkBytes;
+        }
+
+        private long usedBytes() {
+            return (long) slots.capacity() + Math.min(tail.get(), slabBytes);
+        }
+    }
+}
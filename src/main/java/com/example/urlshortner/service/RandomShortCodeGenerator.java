@@ -0,0 +1,25 @@
+package com.example.urlshortner.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+
+// Draws SHORT_CODE_LENGTH random characters. Collisions get more likely as the keyspace fills up;
+// they are detected by the SET NX claim in UrlShortnerService, which simply asks for another code.
+// @ConditionalOnProperty: the bean is only created when app.shortcode.mode is "random" or not set at all.
+@Component
+@ConditionalOnProperty(name = "app.shortcode.mode", havingValue = "random", matchIfMissing = true)
+public class RandomShortCodeGenerator implements ShortCodeGenerator {
+
+    private final SecureRandom random = new SecureRandom();
+
+    @Override
+    public String nextCode() {
+        StringBuilder sb = new StringBuilder(SHORT_CODE_LENGTH);
+        for (int i = 0; i < SHORT_CODE_LENGTH; i++) {
+            sb.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.urlshortner.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Hands out codes from numeric IDs that are unique across all instances.
+// Each instance reserves a block of blockSize IDs at a time with one atomic INCRBY on a shared Redis counter,
+// then serves IDs from that block out of memory with a lock-free getAndIncrement. Only the thread that finds
+// the block exhausted goes back to Redis. IDs are encoded to base62, optionally after a bijective scramble
+// so that consecutive codes don't look sequential.
+@Component
+@ConditionalOnProperty(name = "app.shortcode.mode", havingValue = "range")
+public class RangeLeasingShortCodeGenerator implements ShortCodeGenerator {
+
+    static final String COUNTER_KEY = "shortcode:counter";
+
+    // Number of distinct SHORT_CODE_LENGTH character codes: 62^6.
+    private static final long KEYSPACE = 56_800_235_584L;
+
+    // Scramble constants. The multiplier shares no factor with 62 (so it has an inverse modulo 62^6),
+    // and is small enough that id * multiplier can't overflow a long for id < KEYSPACE.
+    // This hides the ordering of codes from casual users; it is not a security measure.
+    private static final long SCRAMBLE_MULTIPLIER = 48_271_457L;
+    private static final long SCRAMBLE_OFFSET = 19_245_839_713L;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${app.shortcode.block-size:1000}")
+    private long blockSize;
+
+    @Value("${app.shortcode.scramble:true}")
+    private boolean scramble;
+
+    // Starts out empty, so the first call leases a block.
+    private final AtomicReference<Lease> lease = new AtomicReference<>(new Lease(0, 0));
+
+    @Override
+    public String nextCode() {
+        while (true) {
+            Lease current = lease.get();
+            long id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return encode(scramble ? scramble(id) : id);
+            }
+            renew(current);
+        }
+    }
+
+    // synchronized only guards the slow path: when several threads find the same block exhausted,
+    // the first one leases a new block and the others see it has already been replaced.
+    private synchronized void renew(Lease exhausted) {
+        if (lease.get() != exhausted) {
+            return;
+        }
+        Long end = stringRedisTemplate.opsForValue().increment(COUNTER_KEY, blockSize);
+        if (end == null) {
+            throw new IllegalStateException("Could not lease a short code block from Redis");
+        }
+        lease.set(new Lease(end - blockSize, end));
+    }
+
+    // Maps each KEYSPACE sized range of IDs onto itself with an affine permutation, so the result is still
+    // unique per ID and IDs below KEYSPACE still fit in SHORT_CODE_LENGTH characters.
+    static long scramble(long id) {
+        long high = id / KEYSPACE;
+        long low = id % KEYSPACE;
+        return high * KEYSPACE + (low * SCRAMBLE_MULTIPLIER + SCRAMBLE_OFFSET) % KEYSPACE;
+    }
+
+    // Base62 with the most significant digit first, left-padded to SHORT_CODE_LENGTH characters.
+    static String encode(long value) {
+        char[] buffer = new char[13];
+        int position = buffer.length;
+        do {
+            buffer[--position] = CHARACTERS.charAt((int) (value % CHARACTERS.length()));
+            value /= CHARACTERS.length();
+        } while (value > 0);
+        while (buffer.length - position < SHORT_CODE_LENGTH) {
+            buffer[--position] = CHARACTERS.charAt(0);
+        }
+        return new String(buffer, position, buffer.length - position);
+    }
+
+    private static final class Lease {
+        private final AtomicLong next;
+        private final long end;
+
+        private Lease(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.urlshortner.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// RateLimiter caps how fast one client (an API key, or else an IP address) may create links and look them up, so a
+// single abusive client can neither fill the code space (every taken code makes the generator retry for everyone)
+// nor tie up the Redis pool with scans of random codes. RateLimitFilter applies it to redirects and
+// RateLimitInterceptor to gRPC calls.
+//
+// Every instance keeps a token bucket per client and operation: app.rate-limit.<operation>.per-second tokens are
+// added per second up to app.rate-limit.<operation>.burst, and a request takes one per link (a batch takes one per
+// item). Checking it is a map lookup and a few arithmetic operations, so the limit can stay on for redirects.
+//
+// Local buckets alone let a client spread its requests over N instances and get N times the rate. For the operations
+// in app.rate-limit.distributed-operations (creates by default) a request admitted locally is also counted in a
+// sliding window in Redis shared by all instances (DistributedRateLimiter, one script call), which enforces the
+// same rate across the cluster. Lookups stay local: a Redis round trip would cost more than the redirect itself.
+// Without Redis (embedded storage) every operation is limited locally only.
+//
+// Trusted bulk clients (import jobs calling BatchShortenUrls or StreamShortenUrls, the load generator) would hit the
+// create burst with a single batch, so the API keys in app.rate-limit.exempt-api-keys skip every limit.
+@Component
+public class RateLimiter {
+
+    public enum Operation {
+        // Creates, and the other calls that write (deletes).
+        CREATE,
+        // Redirects and every gRPC read.
+        LOOKUP
+    }
+
+    // Returned by tryAcquire when the request may proceed; anything else is the time to wait in ms.
+    public static final long ADMITTED = 0;
+
+    private static final String REDIS_KEY_PREFIX = "ratelimit:";
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    // Null with the embedded store.
+    @Autowired(required = false)
+    private DistributedRateLimiter distributedRateLimiter;
+
+    @Value("${app.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.rate-limit.create.per-second:10}")
+    private double createPerSecond;
+
+    @Value("${app.rate-limit.create.burst:100}")
+    private int createBurst;
+
+    @Value("${app.rate-limit.lookup.per-second:1000}")
+    private double lookupPerSecond;
+
+    @Value("${app.rate-limit.lookup.burst:2000}")
+    private int lookupBurst;
+
+    @Value("${app.rate-limit.distributed-operations:create}")
+    private String[] distributedOperations;
+
+    // Length of the shared sliding window; it allows per-second * window-ms / 1000 permits.
+    @Value("${app.rate-limit.window-ms:10000}")
+    private long windowMs;
+
+    // Buckets kept per operation. A client that was idle long enough to fill its bucket again loses nothing when
+    // its bucket is dropped, so the least recently seen clients are evicted beyond this.
+    @Value("${app.rate-limit.max-clients:100000}")
+    private int maxClients;
+
+    @Value("${app.rate-limit.api-key-header:X-API-Key}")
+    private String apiKeyHeader;
+
+    @Value("${app.rate-limit.exempt-api-keys:}")
+    private String[] exemptApiKeys;
+
+    private final Limit[] limits = new Limit[Operation.values().length];
+
+    // Client ids (see clientId) of the exempt API keys.
+    private Set<String> exemptClients = Set.of();
+
+    @PostConstruct
+    public void init() {
+        limits[Operation.CREATE.ordinal()] = new Limit(Operation.CREATE, createPerSecond, createBurst);
+        limits[Operation.LOOKUP.ordinal()] = new Limit(Operation.LOOKUP, lookupPerSecond, lookupBurst);
+        if (exemptApiKeys != null) {
+            exemptClients = Arrays.stream(exemptApiKeys).map(String::trim).filter(key -> !key.isEmpty())
+                    .map(key -> clientId(key, null)).collect(Collectors.toUnmodifiableSet());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Header (HTTP) or metadata key (gRPC) carrying the client's API key.
+    public String apiKeyHeader() {
+        return apiKeyHeader;
+    }
+
+    // The identity requests are counted under: the API key when the client sent one, else its address.
+    public static String clientId(String apiKey, String address) {
+        return apiKey != null && !apiKey.isEmpty() ? "key:" + apiKey : "ip:" + address;
+    }
+
+    // Takes permits for one request of the client. Returns ADMITTED, or the ms after which the client may retry
+    // (what Retry-After tells it).
+    public long tryAcquire(Operation operation, String client, int permits) {
+        return tryAcquire(operation, client, permits, System.nanoTime());
+    }
+
+    long tryAcquire(Operation operation, String client, int permits, long now) {
+        if (!enabled || exemptClients.contains(client)) {
+            return ADMITTED;
+        }
+        Limit limit = limits[operation.ordinal()];
+        Bucket bucket = limit.buckets.get(client, limit.newBucket);
+        long retryAfterMs = bucket.tryTake(permits, limit, now);
+        if (retryAfterMs == ADMITTED && bucket.redisKey != null) {
+            retryAfterMs = distributedRateLimiter.tryAcquire(bucket.redisKey, limit.perWindow, windowMs, permits);
+            if (retryAfterMs != ADMITTED) {
+                // The request doesn't go through, so it shouldn't use up the client's local tokens either.
+                bucket.refund(permits, limit);
+            }
+        }
+        if (retryAfterMs != ADMITTED) {
+            metrics.rateLimited(operation);
+        }
+        return retryAfterMs;
+    }
+
+    // The Retry-After header for a tryAcquire result: whole seconds, rounded up so the client doesn't come back
+    // before it may.
+    public static long retryAfterSeconds(long retryAfterMs) {
+        return (retryAfterMs + 999) / 1000;
+    }
+
+    // Clients with a bucket, for /diagnostics/limits.
+    public long trackedClients(Operation operation) {
+        return limits[operation.ordinal()].buckets.estimatedSize();
+    }
+
+    private final class Limit {
+
+        final double perNano;
+        final double burst;
+        final long perWindow;
+        final Cache<String, Bucket> buckets;
+        final Function<String, Bucket> newBucket;
+
+        Limit(Operation operation, double perSecond, int burst) {
+            this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            this.perWindow = Math.max(1, Math.round(perSecond * windowMs / 1000));
+            this.buckets = Caffeine.newBuilder()
+                    .maximumSize(maxClients)
+                    // Enough to refill any bucket, after which it is the same as a new one.
+                    .expireAfterAccess(Math.max(1, (long) Math.ceil(burst / perSecond)), TimeUnit.SECONDS)
+                    .build();
+            boolean distributed = distributedRateLimiter != null && Arrays.stream(distributedOperations)
+                    .anyMatch(name -> name.trim().equalsIgnoreCase(operation.name()));
+            String prefix = REDIS_KEY_PREFIX + operation.name().toLowerCase() + ":";
+            this.newBucket = client -> new Bucket(burst, distributed ? prefix + digest(client) : null);
+        }
+    }
+
+    // Tokens are refilled lazily, from the time elapsed since the last request of the client.
+    private static final class Bucket {
+
+        // Only set when the operation is also limited in Redis.
+        final String redisKey;
+        private double tokens;
+        private long refilledAt;
+
+        Bucket(double burst, String redisKey) {
+            this.redisKey = redisKey;
+            this.tokens = burst;
+            this.refilledAt = System.nanoTime();
+        }
+
+        synchronized long tryTake(int permits, Limit limit, long now) {
+            // Requests of one client on different threads can arrive with their clocks read out of order.
+            tokens = Math.min(limit.burst, tokens + Math.max(0, now - refilledAt) * limit.perNano);
+            refilledAt = Math.max(refilledAt, now);
+            // A batch larger than the burst is admitted once the bucket is full and leaves it in debt, so it is
+            // paid for by the requests that follow instead of never going through.
+            double needed = Math.min(permits, limit.burst);
+            if (tokens >= needed) {
+                tokens -= permits;
+                return ADMITTED;
+            }
+            return Math.max(1, (long) Math.ceil((needed - tokens) / limit.perNano / 1_000_000));
+        }
+
+        synchronized void refund(int permits, Limit limit) {
+            tokens = Math.min(limit.burst, tokens + permits);
+        }
+    }
+
+    // API keys are secrets, so Redis only sees a digest of the client id. It is computed once per bucket.
+    private static String digest(String client) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(client.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.RedisShards;
+import com.example.urlshortner.model.UrlData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.example.urlshortner.service.RedisUrlStore.CLICKS_PREFIX;
+import static com.example.urlshortner.service.RedisUrlStore.URL_PREFIX;
+
+// Non-blocking variant of the read paths of UrlShortnerService, for the "reactive" profile (app.redis.client=lettuce).
+// Methods return a Mono instead of a value: nothing runs until someone subscribes, and the Redis reply completes the
+// Mono on a Lettuce event loop thread, so no thread sits blocked while a lookup is in flight. Every Mono emits one
+// ServiceResult, like the blocking service returns. The near-cache and click counter are shared with the blocking
+// service.
+@Service
+@ConditionalOnProperty(name = "app.redis.client", havingValue = "lettuce")
+public class ReactiveUrlShortnerService {
+
+    @Autowired
+    private ReactiveRedisTemplate<String, Object> reactiveRedisTemplate;
+
+    @Autowired
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    @Autowired
+    private ClickCounterService clickCounterService;
+
+    @Autowired
+    private UrlCache urlCache;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    @Autowired
+    private HotKeyTracker hotKeyTracker;
+
+    // Only used for key names: the reactive templates are cluster-aware themselves, and sharded mode isn't
+    // supported with the reactive stack (see RedisConfig).
+    @Autowired
+    private RedisShards redisShards;
+
+    private final ConcurrentHashMap<String, Mono<UrlData>> inFlight = new ConcurrentHashMap<>();
+
+    public Mono<ServiceResult<UrlData>> getOriginalUrl(String shortCode) {
+        return resolve(shortCode)
+                .doOnNext(result -> {
+                    if (result.isOk()) {
+                        clickCounterService.recordClick(shortCode);
+                    }
+                    metrics.resolved(result.isOk());
+                });
+    }
+
+    // Same click count merge as UrlShortnerService.getUrlStats, with the persisted counter read reactively.
+    public Mono<ServiceResult<UrlData>> getUrlStats(String shortCode) {
+        return resolve(shortCode)
+                .flatMap(result -> !result.isOk() ? Mono.just(result)
+                        : reactiveStringRedisTemplate.opsForValue().get(redisShards.key(CLICKS_PREFIX, shortCode))
+                        .map(Long::parseLong)
+                        .defaultIfEmpty(0L)
+                        .map(persistedClicks -> {
+                            UrlData urlData = result.getValue();
+                            UrlData stats = new UrlData(urlData);
+                            long storedClicks = urlData.getClickCount() != null ? urlData.getClickCount() : 0L;
+                            stats.setClickCount(storedClicks + persistedClicks
+                                    + clickCounterService.pendingClicks(shortCode));
+                            return ServiceResult.ok(stats);
+                        }));
+    }
+
+    // Always emits exactly one result: the link, or URL_NOT_FOUND / URL_EXPIRED.
+    private Mono<ServiceResult<UrlData>> resolve(String shortCode) {
+        return getUrlData(shortCode)
+                .map(UrlShortnerService::resolve)
+                .defaultIfEmpty(ServiceResult.failure(ServiceResult.URL_NOT_FOUND));
+    }
+
+    // Same near-cache lookup and single-flight as UrlShortnerService.getUrlData: concurrent misses for a code
+    // subscribe to one shared Mono, whose cache() replays the single Redis reply to every subscriber.
+    private Mono<UrlData> getUrlData(String shortCode) {
+        hotKeyTracker.record(shortCode);
+        UrlData cached = urlCache.getIfPresent(shortCode);
+        if (cached != null) {
+            return urlCache.isNotFound(cached) ? Mono.empty() : Mono.just(cached);
+        }
+
+        Mono<UrlData> leader = inFlight.get(shortCode);
+        if (leader != null) {
+            metrics.lookupCoalesced();
+            return leader;
+        }
+        return inFlight.computeIfAbsent(shortCode, this::sharedFetch);
+    }
+
+    private Mono<UrlData> sharedFetch(String shortCode) {
+        AtomicReference<Mono<UrlData>> self = new AtomicReference<>();
+        // Taken before the read is subscribed to; see UrlCache.generation.
+        long generation = urlCache.generation(shortCode);
+        Mono<UrlData> fetch = reactiveRedisTemplate.opsForValue().get(redisShards.key(URL_PREFIX, shortCode))
+                .ofType(UrlData.class)
+                .doOnNext(urlData -> urlCache.put(shortCode, urlData, generation))
+                .switchIfEmpty(Mono.fromRunnable(() -> urlCache.put(shortCode, null, generation)))
+                // Errors are replayed to the current subscribers only: once removed, the next lookup tries again.
+                .doFinally(signal -> inFlight.remove(shortCode, self.get()))
+                .cache();
+        self.set(fetch);
+        return fetch;
+    }
+}
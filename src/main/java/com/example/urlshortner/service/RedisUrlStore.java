@@ -0,0 +1,577 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ConditionalOnRedisStorage;
+import com.example.urlshortner.config.RedisReplicas;
+import com.example.urlshortner.config.RedisShards;
+import com.example.urlshortner.config.ThrottledWarning;
+import com.example.urlshortner.model.UrlData;
+import com.example.urlshortner.service.UrlShortnerMetrics.ReplicaRead;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+// RedisUrlStore keeps links in Redis: one url:<code> key per link holding the UrlData (with the link's TTL as the
+// key's TTL), one clicks:<code> counter per link, and the ReverseIndex and ExpiryIndex entries next to them.
+// It works with a single node, Redis Cluster and client-side shards (RedisShards), and reads lookups from replicas
+// with app.redis.read-from=replica (RedisReplicas).
+@Component
+@ConditionalOnRedisStorage
+public class RedisUrlStore implements UrlStore {
+
+    static final String URL_PREFIX = "url:";
+    static final String CLICKS_PREFIX = "clicks:";
+
+    private static final int SCAN_BATCH = 1000;
+
+    private static final String STATUS_CREATED = "created";
+    private static final String STATUS_EXISTING = "existing";
+
+    // Dedup lookup modes of the create script.
+    private static final String DEDUP_NONE = "0";
+    private static final String DEDUP_INDEX = "1";
+    private static final String DEDUP_WITH_LEGACY = "2";
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> SHORTEN_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/shorten_url.lua"), List.class);
+
+    // Template already configured in RedisConfig class.
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // Which Redis node holds a key; with a single node every key maps to redisTemplate.
+    @Autowired
+    private RedisShards redisShards;
+
+    // Replicas that lookups are read from with app.redis.read-from=replica; see readUrl.
+    @Autowired
+    private RedisReplicas redisReplicas;
+
+    @Autowired
+    private ReverseIndex reverseIndex;
+
+    @Autowired
+    private ExpiryIndex expiryIndex;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Rewrite values still stored as JSON in the binary format the first time they are read.
+    @Value("${app.storage.migrate-on-read:true}")
+    private boolean migrateOnRead;
+
+    private static final Logger log = LoggerFactory.getLogger(RedisUrlStore.class);
+    // Every read of a JSON value retries its rewrite, so a failing rewrite fails on every such read.
+    private ThrottledWarning migrationFailed;
+
+    @PostConstruct
+    public void init() {
+        migrationFailed = new ThrottledWarning(log, meterRegistry, "legacy-migration");
+    }
+
+    // The whole create runs as one Lua script (scripts/shorten_url.lua), so it costs a single round trip:
+    // the dedup lookup, the SET NX claim of the code (with its TTL in the same command), the reverse index and
+    // expiry index writes and the near-cache invalidation all happen atomically. The dedup lookup is skipped for
+    // URLs the ReverseIndex Bloom filter has never seen. A key never exists without its TTL, and concurrent
+    // creates can never overwrite each other.
+    //
+    // With several Redis nodes the script can't be used: the bucket of the URL and the key of the code are on
+    // different nodes in general, and a script may only touch keys of one slot. The create then goes through the
+    // batch steps for a single link: SET NX claim and reverse index write are separate commands, so the dedup is
+    // best effort, two concurrent creates of the same new URL may both succeed.
+    @Override
+    public CreateResult create(UrlData urlData, byte[] digest, boolean dedup, boolean customCode) {
+        if (redisShards.isDistributed()) {
+            return createDistributed(urlData, digest, dedup, customCode);
+        }
+        String dedupMode = !dedup || !reverseIndex.mightContain(digest) ? DEDUP_NONE
+                : reverseIndex.checkLegacy() ? DEDUP_WITH_LEGACY : DEDUP_INDEX;
+
+        List<byte[]> reply = runShortenScript(urlData, digest, dedupMode, customCode);
+        String status = new String(reply.get(0), StandardCharsets.UTF_8);
+
+        if (STATUS_CREATED.equals(status)) {
+            reverseIndex.added(digest);
+            return CreateResult.CREATED;
+        }
+        if (STATUS_EXISTING.equals(status)) {
+            Object existing = redisTemplate.getValueSerializer().deserialize(reply.get(1));
+            if (existing instanceof UrlData) {
+                migrateIfLegacy((UrlData) existing);
+                return CreateResult.existing((UrlData) existing);
+            }
+            // The index points to a code whose link is gone: nothing to reuse, so claim the code after all.
+            return create(urlData, digest, false, customCode);
+        }
+        return CreateResult.TAKEN;
+    }
+
+    private CreateResult createDistributed(UrlData urlData, byte[] digest, boolean dedup, boolean customCode) {
+        if (dedup) {
+            String code = findCodes(List.of(urlData.getOriginalUrl()), Arrays.asList(digest)).get(0);
+            UrlData existing = code != null ? get(code) : null;
+            if (existing != null) {
+                return CreateResult.existing(existing);
+            }
+        }
+        if (!claimAll(List.of(urlData)).get(0)) {
+            return CreateResult.TAKEN;
+        }
+        indexAll(List.of(urlData));
+        if (customCode) {
+            redisShards.stringTemplate(0).convertAndSend(UrlCache.INVALIDATION_CHANNEL, urlData.getShortCode());
+        }
+        return CreateResult.CREATED;
+    }
+
+    // A custom code may have been probed before it existed and be cached as a miss on other instances, so the
+    // script publishes it on the invalidation channel. For generated codes the local put is enough: nobody asks
+    // for them before they are handed out, and a stray cached miss elsewhere expires after
+    // app.cache.negative-ttl-ms anyway.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<byte[]> runShortenScript(UrlData urlData, byte[] digest, String dedup, boolean publish) {
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        String shortCode = urlData.getShortCode();
+        Long expirationSeconds = ttlSeconds(urlData);
+
+        long expiresAt = urlData.getExpiresAt() != null ? urlData.getExpiresAt() : 0L;
+        long expiryBucket = expiryIndex.bucketOf(expiresAt);
+        List<String> keys = Arrays.asList(reverseIndex.bucketKey(digest), URL_PREFIX + shortCode,
+                ReverseIndex.LEGACY_PREFIX + urlData.getOriginalUrl(), ExpiryIndex.bucketKey(expiryBucket),
+                ExpiryIndex.BUCKETS_KEY);
+        Object[] args = {
+                URL_PREFIX.getBytes(StandardCharsets.UTF_8),
+                valueSerializer.serialize(urlData),
+                digest,
+                String.valueOf(expirationSeconds != null ? expirationSeconds : 0L).getBytes(StandardCharsets.UTF_8),
+                dedup.getBytes(StandardCharsets.UTF_8),
+                (publish ? UrlCache.INVALIDATION_CHANNEL : "").getBytes(StandardCharsets.UTF_8),
+                shortCode.getBytes(StandardCharsets.UTF_8),
+                ReverseIndex.ADDED_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                ExpiryIndex.member(digest, shortCode),
+                Long.toString(expiresAt).getBytes(StandardCharsets.UTF_8),
+                Long.toString(expiryBucket).getBytes(StandardCharsets.UTF_8)
+        };
+        // The template runs EVALSHA and only falls back to sending the script body the first time a Redis
+        // server hasn't seen it. Arguments and reply elements are passed through as raw bytes.
+        return (List<byte[]>) redisTemplate.execute(SHORTEN_SCRIPT, RedisSerializer.byteArray(),
+                (RedisSerializer) RedisSerializer.byteArray(), keys, args);
+    }
+
+    // One pipeline of dedup lookups, only for URLs the Bloom filter may have seen.
+    @Override
+    public List<String> findCodes(List<String> originalUrls, List<byte[]> digests) {
+        return reverseIndex.findCodes(originalUrls, digests);
+    }
+
+    // Pipelined SET NX of every candidate, with its TTL in the same command.
+    // With several nodes there is one pipeline per node, all sent at once.
+    @Override
+    public List<Boolean> claimAll(List<UrlData> candidates) {
+        List<String> keys = new ArrayList<>(candidates.size());
+        for (UrlData urlData : candidates) {
+            keys.add(redisShards.key(URL_PREFIX, urlData.getShortCode()));
+        }
+        List<Object> replies = redisShards.collectPerShard(keys, (shard, positions) ->
+                redisShards.template(shard).executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <K, V> Object execute(RedisOperations<K, V> operations) {
+                        ValueOperations<String, Object> ops = ((RedisOperations<String, Object>) operations).opsForValue();
+                        for (int i : positions) {
+                            UrlData urlData = candidates.get(i);
+                            Long expirationSeconds = ttlSeconds(urlData);
+                            if (expirationSeconds != null) {
+                                ops.setIfAbsent(keys.get(i), urlData, Duration.ofSeconds(expirationSeconds));
+                            } else {
+                                ops.setIfAbsent(keys.get(i), urlData);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+        List<Boolean> claimed = new ArrayList<>(replies.size());
+        for (Object reply : replies) {
+            claimed.add(Boolean.TRUE.equals(reply));
+        }
+        return claimed;
+    }
+
+    // One pipeline each of reverse index and expiry index writes.
+    @Override
+    public void indexAll(List<UrlData> created) {
+        reverseIndex.putAll(created);
+        expiryIndex.addAll(created);
+    }
+
+    @Override
+    public UrlData get(String shortCode) {
+        Object value = readUrl(redisShards.key(URL_PREFIX, shortCode));
+        if (!(value instanceof UrlData)) {
+            return null;
+        }
+        UrlData urlData = (UrlData) value;
+        migrateIfLegacy(urlData);
+        return urlData;
+    }
+
+    @Override
+    public List<UrlData> getAll(List<String> shortCodes) {
+        List<String> keys = new ArrayList<>(shortCodes.size());
+        for (String shortCode : shortCodes) {
+            keys.add(redisShards.key(URL_PREFIX, shortCode));
+        }
+        List<Object> values = readUrls(keys);
+
+        List<UrlData> found = new ArrayList<>(values.size());
+        for (Object value : values) {
+            UrlData urlData = value instanceof UrlData ? (UrlData) value : null;
+            if (urlData != null) {
+                migrateIfLegacy(urlData);
+            }
+            found.add(urlData);
+        }
+        return found;
+    }
+
+    @Override
+    public void delete(UrlData urlData) {
+        String key = redisShards.key(URL_PREFIX, urlData.getShortCode());
+        redisShards.forKey(key).delete(key);
+        reverseIndex.remove(urlData.getOriginalUrl());
+        expiryIndex.remove(urlData);
+    }
+
+    // executePipelined sends every INCRBY in one batch and reads all replies at the end, so flushing N codes costs
+    // one network round trip instead of N (one per node, in parallel, with several Redis nodes). Because INCRBY is
+    // atomic, clicks flushed by several instances for the same code add up instead of overwriting each other.
+    // A node that fails gets its counts back through unwritten; the other nodes' increments have been applied.
+    @Override
+    public void addClicks(Map<String, Long> deltas, BiConsumer<String, Long> unwritten) {
+        List<String> shortCodes = new ArrayList<>(deltas.keySet());
+        List<String> keys = new ArrayList<>(shortCodes.size());
+        for (String shortCode : shortCodes) {
+            keys.add(redisShards.key(CLICKS_PREFIX, shortCode));
+        }
+
+        Map<Integer, RuntimeException> failures = redisShards.runPerShard(redisShards.groupByShard(keys),
+                (shard, positions) -> {
+                    try {
+                        redisShards.stringTemplate(shard).executePipelined((RedisCallback<Object>) connection -> {
+                            for (int i : positions) {
+                                connection.stringCommands().incrBy(keys.get(i).getBytes(StandardCharsets.UTF_8),
+                                        deltas.get(shortCodes.get(i)));
+                            }
+                            return null;
+                        });
+                        return null;
+                    } catch (RuntimeException e) {
+                        for (int i : positions) {
+                            unwritten.accept(shortCodes.get(i), deltas.get(shortCodes.get(i)));
+                        }
+                        return e;
+                    }
+                });
+        for (RuntimeException failure : failures.values()) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    // Read from a replica when replica reads are on: the count may then miss the flushes of the last
+    // app.redis.replica.max-staleness-ms. Unlike a link, a counter missing on the replica just means no clicks yet,
+    // so there is nothing to confirm on the master.
+    @Override
+    public long getClicks(String shortCode) {
+        String key = redisShards.key(CLICKS_PREFIX, shortCode);
+        String value = null;
+        int replica = redisReplicas.pick();
+        if (replica >= 0) {
+            try {
+                value = redisReplicas.stringTemplate(replica).opsForValue().get(key);
+            } catch (RuntimeException e) {
+                redisReplicas.markDown(replica);
+                replica = -1;
+            }
+        }
+        if (replica < 0) {
+            value = redisShards.stringForKey(key).opsForValue().get(key);
+        }
+        return value != null ? Long.parseLong(value) : 0L;
+    }
+
+    @Override
+    public void deleteClicks(String shortCode) {
+        String key = redisShards.key(CLICKS_PREFIX, shortCode);
+        redisShards.stringForKey(key).delete(key);
+    }
+
+    // SCAN over the clicks: keys, every node in parallel (RedisShards.scan), with the counters of each page read by
+    // one MGET on the same pool, so pages are fetched while the scan goes on. Only the limit largest counts are kept.
+    @Override
+    public List<String> mostClicked(int limit, int parallelism) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "clicks-scan-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        PriorityQueue<Map.Entry<String, Long>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        List<CompletableFuture<Void>> pages = Collections.synchronizedList(new ArrayList<>());
+        try {
+            redisShards.scan(CLICKS_PREFIX + "*", SCAN_BATCH, pool, (shard, keys) ->
+                    pages.add(CompletableFuture.runAsync(() -> {
+                        List<String> counts = redisShards.stringTemplate(shard).opsForValue().multiGet(keys);
+                        synchronized (top) {
+                            for (int i = 0; i < keys.size(); i++) {
+                                if (counts.get(i) == null) {
+                                    continue;
+                                }
+                                top.add(Map.entry(shortCodeOf(keys.get(i)), Long.parseLong(counts.get(i))));
+                                if (top.size() > limit) {
+                                    top.poll();
+                                }
+                            }
+                        }
+                    }, pool)));
+            CompletableFuture.allOf(pages.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(top);
+        sorted.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        List<String> shortCodes = new ArrayList<>(sorted.size());
+        for (Map.Entry<String, Long> entry : sorted) {
+            shortCodes.add(entry.getKey());
+        }
+        return shortCodes;
+    }
+
+    // The cursor is "<node>:<SCAN cursor on that node>": the walk SCANs the url: keys of one node after the other
+    // (RedisShards.scanPage) and reads the links found by each SCAN step with one MGET and their counters with
+    // another, both on the node that was scanned. Only one page is ever held, whatever the size of the database.
+    // A SCAN step visits about count keys of every kind, so steps are repeated until the page holds at least half of
+    // count links (at most about one and a half times count) or the walk is over.
+    @Override
+    public ExportPage export(String cursor, int count) {
+        int nodes = redisShards.scanNodes();
+        int node = 0;
+        String scanCursor = "0";
+        if (cursor != null && !cursor.isEmpty()) {
+            int colon = cursor.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Malformed export cursor " + cursor);
+            }
+            node = Integer.parseInt(cursor.substring(0, colon));
+            scanCursor = cursor.substring(colon + 1);
+            Long.parseUnsignedLong(scanCursor);
+            if (node < 0 || node >= nodes) {
+                throw new IllegalArgumentException("Export cursor " + cursor + " names an unknown node");
+            }
+        }
+
+        List<UrlData> links = new ArrayList<>();
+        while (links.size() < Math.max(1, count / 2)) {
+            RedisShards.ScanPage page = redisShards.scanPage(node, scanCursor, URL_PREFIX + "*", count);
+            links.addAll(readForExport(page));
+            if (!page.isNodeDone()) {
+                scanCursor = page.getCursor();
+            } else if (++node < nodes) {
+                scanCursor = "0";
+            } else {
+                return new ExportPage(links, null);
+            }
+        }
+        return new ExportPage(links, node + ":" + scanCursor);
+    }
+
+    private List<UrlData> readForExport(RedisShards.ScanPage page) {
+        if (page.getKeys().isEmpty()) {
+            return List.of();
+        }
+        List<Object> values = redisShards.template(page.getShard()).opsForValue().multiGet(page.getKeys());
+        List<UrlData> links = new ArrayList<>(values.size());
+        List<String> clickKeys = new ArrayList<>(values.size());
+        for (Object value : values) {
+            // Deleted or expired since the SCAN.
+            if (value instanceof UrlData) {
+                links.add((UrlData) value);
+                clickKeys.add(redisShards.key(CLICKS_PREFIX, ((UrlData) value).getShortCode()));
+            }
+        }
+        if (links.isEmpty()) {
+            return links;
+        }
+        List<String> counts = redisShards.stringTemplate(page.getShard()).opsForValue().multiGet(clickKeys);
+        for (int i = 0; i < links.size(); i++) {
+            UrlData urlData = links.get(i);
+            long stored = urlData.getClickCount() != null ? urlData.getClickCount() : 0L;
+            urlData.setClickCount(stored + (counts.get(i) != null ? Long.parseLong(counts.get(i)) : 0L));
+        }
+        return links;
+    }
+
+    // claimAll and indexAll, then one pipeline per node setting the counters of the stored links that have clicks.
+    // SET rather than INCRBY, so the counter ends up at the snapshot's count whatever was there before.
+    @Override
+    public List<Boolean> importAll(List<UrlData> links, List<Long> clickCounts) {
+        List<Boolean> stored = claimAll(links);
+        List<UrlData> created = new ArrayList<>(links.size());
+        List<String> keys = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        for (int i = 0; i < links.size(); i++) {
+            if (stored.get(i)) {
+                created.add(links.get(i));
+                if (clickCounts.get(i) > 0) {
+                    keys.add(redisShards.key(CLICKS_PREFIX, links.get(i).getShortCode()));
+                    counts.add(clickCounts.get(i));
+                }
+            }
+        }
+        indexAll(created);
+
+        if (!keys.isEmpty()) {
+            redisShards.runPerShard(redisShards.groupByShard(keys), (shard, positions) ->
+                    redisShards.stringTemplate(shard).executePipelined((RedisCallback<Object>) connection -> {
+                        for (int i : positions) {
+                            connection.stringCommands().set(keys.get(i).getBytes(StandardCharsets.UTF_8),
+                                    Long.toString(counts.get(i)).getBytes(StandardCharsets.UTF_8));
+                        }
+                        return null;
+                    }));
+        }
+        return stored;
+    }
+
+    // clicks:abc or, in the distributed modes, clicks:{abc}
+    private static String shortCodeOf(String clicksKey) {
+        String shortCode = clicksKey.substring(CLICKS_PREFIX.length());
+        return shortCode.startsWith("{") && shortCode.endsWith("}")
+                ? shortCode.substring(1, shortCode.length() - 1) : shortCode;
+    }
+
+    // GET of a url: key. With replica reads the GET goes to a replica that is fresh enough, and only a miss there is
+    // sent to the master: the code may have been created after the replica's last replicated write, and a
+    // brand-new link must never answer 404. Most lookups are hits, so the master only sees the misses (unknown
+    // codes, which the negative cache absorbs, and links created in the last few milliseconds).
+    private Object readUrl(String key) {
+        int replica = redisReplicas.pick();
+        if (replica >= 0) {
+            try {
+                Object value = redisReplicas.template(replica).opsForValue().get(key);
+                if (value != null) {
+                    metrics.replicaRead(ReplicaRead.HIT);
+                    return value;
+                }
+                metrics.replicaRead(ReplicaRead.MISS);
+            } catch (RuntimeException e) {
+                redisReplicas.markDown(replica);
+                metrics.replicaRead(ReplicaRead.ERROR);
+            }
+        }
+        return redisShards.forKey(key).opsForValue().get(key);
+    }
+
+    // Batch version of readUrl: one MGET on a replica, then one MGET on the master for the keys it missed.
+    // Without replicas it is one MGET per node, sent in parallel.
+    private List<Object> readUrls(List<String> keys) {
+        int replica = redisReplicas.pick();
+        if (replica < 0) {
+            return redisShards.multiGet(keys);
+        }
+        List<Object> values;
+        try {
+            values = new ArrayList<>(redisReplicas.template(replica).opsForValue().multiGet(keys));
+        } catch (RuntimeException e) {
+            redisReplicas.markDown(replica);
+            metrics.replicaRead(ReplicaRead.ERROR);
+            return redisShards.multiGet(keys);
+        }
+
+        List<Integer> missed = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) == null) {
+                missed.add(i);
+            }
+        }
+        metrics.replicaRead(ReplicaRead.HIT, keys.size() - missed.size());
+        if (!missed.isEmpty()) {
+            metrics.replicaRead(ReplicaRead.MISS, missed.size());
+            List<String> missedKeys = new ArrayList<>(missed.size());
+            for (int i : missed) {
+                missedKeys.add(keys.get(i));
+            }
+            List<Object> fromMaster = redisShards.multiGet(missedKeys);
+            for (int j = 0; j < missed.size(); j++) {
+                values.set(missed.get(j), fromMaster.get(j));
+            }
+        }
+        return values;
+    }
+
+    // Lazy migration to the binary storage format: rewrites a value read in the old JSON format.
+    // SET ... KEEPTTL XX keeps the key's expiry and never recreates a key that was deleted in the meantime.
+    @SuppressWarnings("unchecked")
+    private void migrateIfLegacy(UrlData urlData) {
+        if (!migrateOnRead || !urlData.isLegacyEncoded()) {
+            return;
+        }
+        urlData.setLegacyEncoded(false);
+        String redisKey = redisShards.key(URL_PREFIX, urlData.getShortCode());
+        byte[] key = ((RedisSerializer<String>) redisTemplate.getKeySerializer()).serialize(redisKey);
+        byte[] value = ((RedisSerializer<Object>) redisTemplate.getValueSerializer()).serialize(urlData);
+        try {
+            redisShards.forKey(redisKey).execute((RedisCallback<Boolean>) connection -> connection.stringCommands()
+                    .set(key, value, Expiration.keepTtl(), RedisStringCommands.SetOption.ifPresent()));
+        } catch (Exception e) {
+            // The value stays readable as JSON, so a failed rewrite is simply retried on a later read.
+            migrationFailed.warn("Error migrating " + urlData.getShortCode() + " to binary format", e);
+        }
+    }
+
+    // Remaining lifetime of a freshly created or imported link, rounded up to whole seconds, or null if it never
+    // expires.
+    private static Long ttlSeconds(UrlData urlData) {
+        if (urlData.getExpiresAt() == null) {
+            return null;
+        }
+        long remainingMs = urlData.getExpiresAt() - System.currentTimeMillis();
+        return Math.max(1, (remainingMs + 999) / 1000);
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.config.ConditionalOnRedisStorage;
+import com.example.urlshortner.config.RedisShards;
+import com.example.urlshortner.model.UrlData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.SubscriptionListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ReverseIndex maps original URLs to their short code, so shortening the same URL twice returns the same link.
+//
+// The old layout stored one string key per link named "reverse:" + the full URL, so every long URL was kept in
+// Redis twice and each key paid the full per-key overhead. Entries now live in a fixed number of hashes
+// ("rev:" + bucket): the field is the 16-byte MD5 digest of the normalized URL and the value is the short code.
+// With few enough fields per hash (below hash-max-listpack-entries, 128 by default) Redis stores each bucket as
+// one compact listpack instead of a hash table. The digest is only a lookup key: a hit is confirmed by comparing
+// the URL stored in the UrlData it points to, so a digest collision costs a duplicate link, never a wrong one.
+//
+// Hash fields can't expire (before Redis 7.4), so the entry of an expired link is deleted by ExpirySweeper along
+// with the link, as long as it still points to the link's code. Until the sweep reaches it, a lookup finds an
+// expired link and creates a new one, which overwrites the entry.
+//
+// An in-process Bloom filter of all digests lets a create skip the lookup entirely for a URL that was
+// definitely never shortened, which is the common case. It is loaded from Redis in the background after
+// startup and kept current over pub/sub; until it is loaded every URL is looked up. Pub/sub drops messages while
+// the subscription is down, and a filter never forgets entries ExpirySweeper deleted, so the filter is also
+// rebuilt from Redis every app.reverse-index.bloom-rebuild-interval-ms and whenever the subscription is
+// re-established after a disconnect.
+//
+// With several Redis nodes (RedisShards) each bucket is a single key on whichever node holds it; batch lookups
+// and writes are grouped per node. Legacy "reverse:" keys are only handled in standalone mode: a cluster or a
+// sharded deployment starts from data written in the current layout.
+@Component
+@ConditionalOnRedisStorage
+public class ReverseIndex implements MessageListener, SubscriptionListener {
+
+    static final String BUCKET_PREFIX = "rev:";
+    static final String LEGACY_PREFIX = "reverse:";
+    static final String ADDED_CHANNEL = "urlshortner:reverse-added";
+    static final int DIGEST_BYTES = 16;
+
+    private static final int SCAN_BATCH = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(ReverseIndex.class);
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    private RedisShards redisShards;
+
+    // Keep buckets >= expected links / 100 so every bucket stays a listpack.
+    @Value("${app.reverse-index.buckets:65536}")
+    private int buckets;
+
+    @Value("${app.reverse-index.bloom-expected-urls:1000000}")
+    private long bloomExpectedUrls;
+
+    @Value("${app.reverse-index.bloom-fpp:0.01}")
+    private double bloomFpp;
+
+    // 0 rebuilds only after a lost subscription.
+    @Value("${app.reverse-index.bloom-rebuild-interval-ms:3600000}")
+    private long bloomRebuildIntervalMs;
+
+    // Moves "reverse:" keys written by older versions into the hashed index on startup.
+    // Rerun (restart) once the last old instance is gone, since those keep writing the old layout.
+    @Value("${app.reverse-index.migrate-legacy:true}")
+    private boolean migrateLegacy;
+
+    private volatile BloomFilter bloomFilter;
+    // The filter a load is filling, or null. Entries added meanwhile go into both, see add.
+    private volatile BloomFilter loading;
+
+    // True once the Bloom filter holds every entry in Redis and legacy keys have been migrated.
+    private volatile boolean ready;
+    private final AtomicLong migratedKeys = new AtomicLong();
+    private final AtomicInteger subscriptions = new AtomicInteger();
+
+    // Runs the first load and every rebuild, one at a time.
+    private ScheduledExecutorService loader;
+
+    @PostConstruct
+    public void init() {
+        bloomFilter = new BloomFilter(bloomExpectedUrls, bloomFpp);
+        listenerContainer.addMessageListener(this, new ChannelTopic(ADDED_CHANNEL));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (loader != null) {
+            loader.shutdownNow();
+        }
+    }
+
+    // Runs once the application is up (and the listener container is subscribed), on its own thread so a large
+    // index doesn't delay startup. Entries created meanwhile reach the filter through ADDED_CHANNEL.
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        loader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reverse-index-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loader.execute(this::loadQuietly);
+        if (bloomRebuildIntervalMs > 0) {
+            loader.scheduleWithFixedDelay(this::loadQuietly, bloomRebuildIntervalMs, bloomRebuildIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Fills a new filter from Redis and swaps it in. Until the first load has succeeded it also migrates legacy
+    // keys; a failed first load is retried by the next rebuild.
+    private void loadQuietly() {
+        try {
+            long started = System.currentTimeMillis();
+            boolean first = !ready;
+            if (first && migrateLegacy && !redisShards.isDistributed()) {
+                migrateLegacyKeys();
+            }
+            BloomFilter next = new BloomFilter(bloomExpectedUrls, bloomFpp);
+            // Set before the scan starts: an entry added before this line was written to Redis before it too, so
+            // the scan finds it; one added after goes into next directly.
+            loading = next;
+            long loaded;
+            try {
+                loaded = loadBloomFilter(next);
+                bloomFilter = next;
+            } finally {
+                loading = null;
+            }
+            ready = true;
+            if (first) {
+                log.info("Reverse index ready: {} entries, {} legacy keys migrated in {} ms", loaded,
+                        migratedKeys.get(), System.currentTimeMillis() - started);
+            } else {
+                log.info("Reverse index Bloom filter rebuilt: {} entries in {} ms", loaded,
+                        System.currentTimeMillis() - started);
+            }
+        } catch (Exception e) {
+            // Lookups keep going to Redis (including legacy keys), or use the previous filter, which is correct,
+            // just slower.
+            log.warn("Error loading reverse index: {}", e.toString());
+        }
+    }
+
+    // Called by the listener container every time it subscribes to a channel. Any subscription to ADDED_CHANNEL
+    // after the first follows a disconnect, during which messages were lost.
+    @Override
+    public void onChannelSubscribed(byte[] channel, long count) {
+        if (Arrays.equals(channel, bytes(ADDED_CHANNEL)) && subscriptions.incrementAndGet() > 1 && loader != null
+                && !loader.isShutdown()) {
+            log.info("Resubscribed to {}, rebuilding the reverse index Bloom filter", ADDED_CHANNEL);
+            loader.execute(this::loadQuietly);
+        }
+    }
+
+    public static byte[] digest(String originalUrl) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(normalize(originalUrl).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    // Scheme and host are case-insensitive, so "HTTPS://Example.com/a" and "https://example.com/a" share a link.
+    // Path and query are case-sensitive and kept as they are.
+    static String normalize(String originalUrl) {
+        String url = originalUrl.trim();
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            return url;
+        }
+        int authorityEnd = url.length();
+        for (int i = schemeEnd + 3; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                authorityEnd = i;
+                break;
+            }
+        }
+        return url.substring(0, authorityEnd).toLowerCase(Locale.ROOT) + url.substring(authorityEnd);
+    }
+
+    public static boolean sameUrl(String a, String b) {
+        return normalize(a).equals(normalize(b));
+    }
+
+    public String bucketKey(byte[] digest) {
+        int hash = ((digest[12] & 0xFF) << 24) | ((digest[13] & 0xFF) << 16) | ((digest[14] & 0xFF) << 8) | (digest[15] & 0xFF);
+        return BUCKET_PREFIX + Integer.remainderUnsigned(hash, buckets);
+    }
+
+    // False only if the URL was definitely never shortened.
+    public boolean mightContain(byte[] digest) {
+        return !ready || bloomFilter.mightContain(digest);
+    }
+
+    // Until migration has finished, a URL may still only be indexed under its "reverse:" key.
+    public boolean checkLegacy() {
+        return !ready && !redisShards.isDistributed();
+    }
+
+    // Records an entry written by this instance; the pub/sub message for it may arrive later.
+    public void added(byte[] digest) {
+        add(digest);
+    }
+
+    // Pipelined lookup of many URLs: the returned list has the short code for each URL, or null.
+    // URLs the Bloom filter rules out, and URLs whose digest is null, aren't sent to Redis at all.
+    public List<String> findCodes(List<String> originalUrls, List<byte[]> digests) {
+        List<String> codes = new ArrayList<>(originalUrls.size());
+        List<Integer> lookups = new ArrayList<>();
+        for (int i = 0; i < originalUrls.size(); i++) {
+            codes.add(null);
+            if (digests.get(i) != null && mightContain(digests.get(i))) {
+                lookups.add(i);
+            }
+        }
+        if (lookups.isEmpty()) {
+            return codes;
+        }
+
+        boolean legacy = checkLegacy();
+        List<String> bucketKeys = new ArrayList<>(lookups.size());
+        for (int i : lookups) {
+            bucketKeys.add(bucketKey(digests.get(i)));
+        }
+        // One pipeline per node holding any of the buckets, all sent at once.
+        List<Object> found = redisShards.collectPerShard(bucketKeys, (shard, positions) -> {
+            List<Object> replies = redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                for (int position : positions) {
+                    int i = lookups.get(position);
+                    connection.hashCommands().hGet(bytes(bucketKeys.get(position)), digests.get(i));
+                    if (legacy) {
+                        connection.stringCommands().get(bytes(LEGACY_PREFIX + originalUrls.get(i)));
+                    }
+                }
+                return null;
+            }, RedisSerializer.byteArray());
+
+            List<Object> shardCodes = new ArrayList<>(positions.size());
+            int reply = 0;
+            for (int ignored : positions) {
+                byte[] code = (byte[]) replies.get(reply++);
+                byte[] legacyCode = legacy ? (byte[]) replies.get(reply++) : null;
+                if (code != null) {
+                    shardCodes.add(new String(code, StandardCharsets.UTF_8));
+                } else if (legacyCode != null) {
+                    shardCodes.add(redisTemplate.getValueSerializer().deserialize(legacyCode));
+                } else {
+                    shardCodes.add(null);
+                }
+            }
+            return shardCodes;
+        });
+
+        for (int position = 0; position < lookups.size(); position++) {
+            codes.set(lookups.get(position), (String) found.get(position));
+        }
+        return codes;
+    }
+
+    // Writes the entries of freshly created links in one pipeline, followed by a single ADDED_CHANNEL message
+    // carrying all their digests.
+    public void putAll(Collection<UrlData> created) {
+        if (created.isEmpty()) {
+            return;
+        }
+        byte[] message = new byte[created.size() * DIGEST_BYTES];
+        int offset = 0;
+        List<byte[]> digests = new ArrayList<>(created.size());
+        for (UrlData urlData : created) {
+            byte[] digest = digest(urlData.getOriginalUrl());
+            digests.add(digest);
+            System.arraycopy(digest, 0, message, offset, DIGEST_BYTES);
+            offset += DIGEST_BYTES;
+        }
+
+        List<UrlData> entries = new ArrayList<>(created);
+        List<String> bucketKeys = new ArrayList<>(entries.size());
+        for (byte[] digest : digests) {
+            bucketKeys.add(bucketKey(digest));
+        }
+        redisShards.runPerShard(redisShards.groupByShard(bucketKeys), (shard, positions) ->
+                redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i : positions) {
+                        connection.hashCommands().hSet(bytes(bucketKeys.get(i)), digests.get(i),
+                                bytes(entries.get(i).getShortCode()));
+                    }
+                    return null;
+                }));
+        // After the writes, so a Bloom filter rebuild that misses them in Redis still gets them here.
+        for (byte[] digest : digests) {
+            add(digest);
+        }
+        // Jedis doesn't allow PUBLISH inside a pipeline, so the message goes out right after it.
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(bytes(ADDED_CHANNEL), message));
+    }
+
+    public void remove(String originalUrl) {
+        byte[] digest = digest(originalUrl);
+        boolean legacy = checkLegacy();
+        String bucketKey = bucketKey(digest);
+        redisShards.forKey(bucketKey).executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hDel(bytes(bucketKey), digest);
+            if (legacy) {
+                connection.keyCommands().del(bytes(LEGACY_PREFIX + originalUrl));
+            }
+            return null;
+        });
+    }
+
+    // Messages carry one or more 16-byte digests, published by the create script and by putAll.
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        byte[] body = message.getBody();
+        for (int offset = 0; offset + DIGEST_BYTES <= body.length; offset += DIGEST_BYTES) {
+            byte[] digest = new byte[DIGEST_BYTES];
+            System.arraycopy(body, offset, digest, 0, DIGEST_BYTES);
+            add(digest);
+        }
+    }
+
+    // The order matters: after loadQuietly swaps filters, a thread that reads loading as null reads the new filter
+    // as bloomFilter.
+    private void add(byte[] digest) {
+        BloomFilter next = loading;
+        bloomFilter.add(digest);
+        if (next != null) {
+            next.add(digest);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long migratedKeys() {
+        return migratedKeys.get();
+    }
+
+    public int buckets() {
+        return buckets;
+    }
+
+    public BloomFilter bloomFilter() {
+        return bloomFilter;
+    }
+
+    // HSETNX keeps an entry written by a new instance in the meantime; the legacy key is deleted either way.
+    private void migrateLegacyKeys() {
+        ScanOptions options = ScanOptions.scanOptions().match(LEGACY_PREFIX + "*").count(SCAN_BATCH).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            List<String> batch = new ArrayList<>(SCAN_BATCH);
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == SCAN_BATCH || !cursor.hasNext()) {
+                    migrateBatch(batch);
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void migrateBatch(List<String> keys) {
+        List<Object> codes = redisTemplate.opsForValue().multiGet(keys);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                if (codes.get(i) instanceof String) {
+                    byte[] digest = digest(key.substring(LEGACY_PREFIX.length()));
+                    connection.hashCommands().hSetNX(bytes(bucketKey(digest)), digest, bytes((String) codes.get(i)));
+                    add(digest);
+                }
+                connection.keyCommands().del(bytes(key));
+            }
+            return null;
+        });
+        migratedKeys.addAndGet(keys.size());
+    }
+
+    // Scans every node; the HKEYS of each batch of buckets go out in one pipeline to the node that holds them.
+    @SuppressWarnings("unchecked")
+    private long loadBloomFilter(BloomFilter filter) {
+        AtomicLong loaded = new AtomicLong();
+        redisShards.scan(BUCKET_PREFIX + "*", SCAN_BATCH, (shard, batch) -> {
+            List<Object> fieldSets = redisShards.template(shard).executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : batch) {
+                    connection.hashCommands().hKeys(bytes(key));
+                }
+                return null;
+            }, RedisSerializer.byteArray());
+            for (Object fields : fieldSets) {
+                for (byte[] digest : (Set<byte[]>) fields) {
+                    if (digest.length == DIGEST_BYTES) {
+                        filter.add(digest);
+                        loaded.incrementAndGet();
+                    }
+                }
+            }
+        });
+        return loaded.get();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.urlshortner.service;
+
+// Outcome of a service call: either a value (OK) or one of the expected failures below.
+// Expected failures, such as a custom code that is already taken, are part of normal traffic and a bot can trigger
+// them in a loop, so they are returned instead of thrown: no exception, no stack trace, no message string built
+// per call. Every failure is a shared constant; only OK results are allocated. Exceptions are left for the
+// unexpected, like Redis being unreachable.
+public final class ServiceResult<T> {
+
+    public enum Status {
+        OK,
+        // The custom code belongs to another link.
+        CONFLICT,
+        NOT_FOUND,
+        // The link existed but its expiration time has passed.
+        EXPIRED,
+        // The request itself is malformed, e.g. not an http(s) URL.
+        INVALID,
+        // No free generated code was found after the maximum number of attempts.
+        EXHAUSTED
+    }
+
+    public static final ServiceResult<Object> CUSTOM_CODE_TAKEN =
+            new ServiceResult<>(Status.CONFLICT, "CUSTOM_CODE_TAKEN", "Custom code already exists.");
+    public static final ServiceResult<Object> URL_NOT_FOUND =
+            new ServiceResult<>(Status.NOT_FOUND, "URL_NOT_FOUND", "URL not found");
+    public static final ServiceResult<Object> URL_EXPIRED =
+            new ServiceResult<>(Status.EXPIRED, "URL_EXPIRED", "URL has expired");
+    public static final ServiceResult<Object> EMPTY_URL =
+            new ServiceResult<>(Status.INVALID, "EMPTY_URL", "Original URL cannot be empty");
+    public static final ServiceResult<Object> INVALID_URL =
+            new ServiceResult<>(Status.INVALID, "INVALID_URL", "Invalid Url format");
+    public static final ServiceResult<Object> INVALID_REDIRECT_STATUS =
+            new ServiceResult<>(Status.INVALID, "INVALID_REDIRECT_STATUS",
+                    "Redirect status must be 301, 302, 307 or 308");
+    public static final ServiceResult<Object> INVALID_TIME_RANGE =
+            new ServiceResult<>(Status.INVALID, "INVALID_TIME_RANGE",
+                    "Time range must be non-empty with at most 10000 buckets of a multiple of the stored bucket width");
+    public static final ServiceResult<Object> INVALID_CURSOR =
+            new ServiceResult<>(Status.INVALID, "INVALID_CURSOR", "Export cursor is malformed or from another store");
+    public static final ServiceResult<Object> INVALID_SNAPSHOT =
+            new ServiceResult<>(Status.INVALID, "INVALID_SNAPSHOT", "Snapshot contains a malformed record");
+    public static final ServiceResult<Object> CODES_EXHAUSTED =
+            new ServiceResult<>(Status.EXHAUSTED, "CODES_EXHAUSTED", "Could not find a free short code");
+
+    private final Status status;
+    private final T value;
+    // Stable machine-readable name of a failure (sent to gRPC clients as ErrorInfo.reason), and its message.
+    private final String reason;
+    private final String message;
+
+    private ServiceResult(T value) {
+        this.status = Status.OK;
+        this.value = value;
+        this.reason = null;
+        this.message = null;
+    }
+
+    private ServiceResult(Status status, String reason, String message) {
+        this.status = status;
+        this.value = null;
+        this.reason = reason;
+        this.message = message;
+    }
+
+    public static <T> ServiceResult<T> ok(T value) {
+        return new ServiceResult<>(value);
+    }
+
+    // Returns one of the shared failure constants with the caller's value type; failures never carry a value,
+    // so the unchecked cast is safe.
+    @SuppressWarnings("unchecked")
+    public static <T> ServiceResult<T> failure(ServiceResult<Object> failure) {
+        return (ServiceResult<T>) failure;
+    }
+
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
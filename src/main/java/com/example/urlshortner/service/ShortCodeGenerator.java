@@ -0,0 +1,13 @@
+package com.example.urlshortner.service;
+
+// Strategy for producing new short codes. The implementation is picked with app.shortcode.mode:
+// "random" (RandomShortCodeGenerator, the default) or "range" (RangeLeasingShortCodeGenerator).
+// Codes are claimed in Redis with SET NX by UrlShortnerService, so a generator never has to check
+// whether a code is free; it only has to make collisions rare.
+public interface ShortCodeGenerator {
+
+    String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    int SHORT_CODE_LENGTH = 6;
+
+    String nextCode();
+}
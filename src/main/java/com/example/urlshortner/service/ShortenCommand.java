@@ -0,0 +1,42 @@
+package com.example.urlshortner.service;
+
+// One item of a batch create: the same arguments UrlShortnerService.shortenUrl takes.
+// customCode, expirationSeconds and redirectStatus may be null.
+public class ShortenCommand {
+
+    private final String originalUrl;
+    private final String customCode;
+    private final Long expirationSeconds;
+    private final Integer redirectStatus;
+
+    public ShortenCommand(String originalUrl, String customCode, Long expirationSeconds) {
+        this(originalUrl, customCode, expirationSeconds, null);
+    }
+
+    public ShortenCommand(String originalUrl, String customCode, Long expirationSeconds, Integer redirectStatus) {
+        this.originalUrl = originalUrl;
+        this.customCode = customCode;
+        this.expirationSeconds = expirationSeconds;
+        this.redirectStatus = redirectStatus;
+    }
+
+    public String getOriginalUrl() {
+        return originalUrl;
+    }
+
+    public String getCustomCode() {
+        return customCode;
+    }
+
+    public Long getExpirationSeconds() {
+        return expirationSeconds;
+    }
+
+    public Integer getRedirectStatus() {
+        return redirectStatus;
+    }
+
+    public boolean hasCustomCode() {
+        return customCode != null && !customCode.trim().isEmpty();
+    }
+}
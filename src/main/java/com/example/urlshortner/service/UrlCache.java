@@ -0,0 +1,354 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.model.UrlData;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// UrlCache is an in-process (L1) cache in front of Redis for short code lookups.
+// Short code mappings never change after they are created, so a hot code can be served from memory
+// instead of paying a Redis GET plus a JSON deserialize on every redirect.
+// Deletes are broadcast over a Redis pub/sub channel so every instance drops its copy. The embedded store has
+// no Redis and serves a single instance, so there the cache only invalidates locally.
+//
+// Hot codes found by HotKeyTracker are additionally pinned: kept in a small map outside Caffeine, so size
+// pressure can't evict them and they never expire, and overwritten by a fresh read from Redis every refresh
+// interval. A pinned entry is therefore at most one interval stale even if an invalidation message was missed.
+//
+// With app.cache.engine=offheap, codes that pack into a long (every generated one) are cached in an
+// OffHeapUrlIndex of app.cache.offheap.max-bytes instead of Caffeine, which then only holds custom codes.
+// The same lifetimes apply. With app.cache.offheap.snapshot-file set, the index is written there on shutdown and
+// loaded on start, so a restarted instance doesn't begin with an empty cache. Entries keep their absolute
+// deadlines, so a link deleted while the instance was down is still served for at most max-ttl-ms, as with a
+// missed invalidation message.
+@Component
+public class UrlCache implements MessageListener {
+
+    static final String INVALIDATION_CHANNEL = "urlshortner:invalidate";
+
+    private static final Logger log = LoggerFactory.getLogger(UrlCache.class);
+
+    // PUBLISH of ARGV[2..n] on channel ARGV[1].
+    private static final RedisScript<Long> PUBLISH_ALL_SCRIPT = RedisScript.of(
+            "for i = 2, #ARGV do redis.call('PUBLISH', ARGV[1], ARGV[i]) end return #ARGV - 1", Long.class);
+
+    // Marker stored for codes that don't exist in Redis (negative caching), so a scan over random codes
+    // doesn't turn into one Redis GET per request. Caffeine doesn't allow null values.
+    private static final UrlData NOT_FOUND = new UrlData();
+
+    // Rough heap cost of one entry apart from its strings: cache node, key String, UrlData and its Longs.
+    private static final int ENTRY_OVERHEAD_BYTES = 200;
+
+    // Both null with the embedded store. The listener container only exists in Redis mode (RedisConfig), so it
+    // decides whether invalidations are broadcast.
+    @Autowired(required = false)
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired(required = false)
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.cache.max-entries:100000}")
+    private long maxEntries;
+
+    @Value("${app.cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    // Upper bound on how long an entry is kept, even for links that never expire.
+    // It limits how long an instance can serve a deleted link if it missed an invalidation message.
+    @Value("${app.cache.max-ttl-ms:600000}")
+    private long maxTtlMs;
+
+    @Value("${app.cache.negative-ttl-ms:5000}")
+    private long negativeTtlMs;
+
+    // heap or offheap
+    @Value("${app.cache.engine:heap}")
+    private String engine;
+
+    @Value("${app.cache.offheap.max-bytes:268435456}")
+    private long offHeapMaxBytes;
+
+    @Value("${app.cache.offheap.snapshot-file:}")
+    private String snapshotFile;
+
+    private Cache<String, UrlData> cache;
+
+    // null unless app.cache.engine=offheap
+    private OffHeapUrlIndex offHeap;
+
+    private final Map<String, UrlData> pinned = new ConcurrentHashMap<>();
+
+    // Invalidation generations, one counter per stripe of codes (see generation). Striped so the table never grows;
+    // an invalidation of another code of the same stripe only costs a skipped put, so a later miss.
+    private static final int GENERATION_STRIPES = 4096;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @PostConstruct
+    public void init() {
+        // Caffeine can bound a cache by entry count or by weight, not both. Every entry weighs its estimated
+        // size in bytes, but never less than maxBytes / maxEntries, so the total weight limit also caps
+        // the number of entries at maxEntries.
+        int minWeight = (int) Math.max(1, maxBytes / maxEntries);
+
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String shortCode, UrlData urlData) -> Math.max(minWeight, estimateBytes(shortCode, urlData)))
+                .expireAfter(new UrlDataExpiry())
+                .recordStats()
+                .build();
+
+        if (listenerContainer != null) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATION_CHANNEL));
+        }
+
+        // Exports the recordStats() counters as cache.gets{result=hit|miss}, cache.evictions, cache.size etc.
+        // with cache="url-near-cache". They are read when Prometheus scrapes, so lookups pay nothing extra.
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "url-near-cache");
+
+        if ("offheap".equals(engine)) {
+            offHeap = new OffHeapUrlIndex(offHeapMaxBytes);
+            Gauge.builder("urlshortner.cache.offheap.entries", offHeap, OffHeapUrlIndex::size)
+                    .description("Entries in the off-heap near-cache")
+                    .register(meterRegistry);
+            Gauge.builder("urlshortner.cache.offheap.bytes", offHeap, OffHeapUrlIndex::reservedBytes)
+                    .description("Direct memory held by the off-heap near-cache")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+            if (!snapshotFile.isEmpty()) {
+                try {
+                    long started = System.nanoTime();
+                    long loaded = offHeap.loadSnapshot(Path.of(snapshotFile));
+                    log.info("Loaded {} near-cache entries from {} in {} ms", loaded, snapshotFile,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                } catch (IOException e) {
+                    log.warn("Ignoring near-cache snapshot {}: {}", snapshotFile, e.toString());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (offHeap == null || snapshotFile.isEmpty()) {
+            return;
+        }
+        try {
+            long written = offHeap.writeSnapshot(Path.of(snapshotFile));
+            log.info("Wrote {} near-cache entries to {}", written, snapshotFile);
+        } catch (IOException e) {
+            log.warn("Failed to write near-cache snapshot {}: {}", snapshotFile, e.toString());
+        }
+    }
+
+    // Returns the cached UrlData, NOT_FOUND for a cached miss (see isNotFound), or null if nothing is cached.
+    public UrlData getIfPresent(String shortCode) {
+        UrlData hot = pinned.get(shortCode);
+        if (hot != null) {
+            return hot;
+        }
+        long key = offHeap != null ? OffHeapUrlIndex.pack(shortCode) : -1;
+        return key > 0 ? offHeap.get(key, shortCode, NOT_FOUND) : cache.getIfPresent(shortCode);
+    }
+
+    public boolean isNotFound(UrlData urlData) {
+        return urlData == NOT_FOUND;
+    }
+
+    // Invalidation generation of the code. A caller that fills the cache from a store read takes it before the read
+    // and passes it to put: if the code was invalidated in between (a delete on this or another instance), the value
+    // read may be the deleted link, and the put is skipped. Without it a lookup that read the link just before the
+    // delete would cache it again right after the invalidation, and serve it for up to max-ttl-ms.
+    public long generation(String shortCode) {
+        return generations.get(stripe(shortCode));
+    }
+
+    // put of a value read from the store, unless the code was invalidated since generation was taken. The check
+    // and the put run inside Caffeine's compute for the code, as does invalidateLocally, so an invalidation can't
+    // slip in between them. Codes kept off-heap use the same compute as their lock.
+    public void put(String shortCode, UrlData urlData, long generation) {
+        cache.asMap().compute(shortCode, (code, cached) -> {
+            if (generations.get(stripe(code)) != generation) {
+                return cached;
+            }
+            long key = offHeap != null ? OffHeapUrlIndex.pack(code) : -1;
+            if (key > 0) {
+                offHeap.put(key, urlData, System.currentTimeMillis() + ttlMs(urlData != null ? urlData : NOT_FOUND));
+                return cached;
+            }
+            return urlData != null ? urlData : NOT_FOUND;
+        });
+    }
+
+    // A null urlData caches the fact that the code doesn't exist. For links the caller has just created; values
+    // read from the store go through put with a generation.
+    public void put(String shortCode, UrlData urlData) {
+        long key = offHeap != null ? OffHeapUrlIndex.pack(shortCode) : -1;
+        if (key > 0) {
+            offHeap.put(key, urlData, System.currentTimeMillis() + ttlMs(urlData != null ? urlData : NOT_FOUND));
+            return;
+        }
+        cache.put(shortCode, urlData != null ? urlData : NOT_FOUND);
+    }
+
+    // Drops the code on this instance and publishes it so every other instance drops it too.
+    public void invalidateEverywhere(String shortCode) {
+        invalidateLocally(shortCode);
+        if (listenerContainer != null) {
+            stringRedisTemplate.convertAndSend(INVALIDATION_CHANNEL, shortCode);
+        }
+    }
+
+    // invalidateEverywhere for many codes. The messages are published by one script run, a single round trip:
+    // Jedis can't pipeline PUBLISH.
+    public void invalidateEverywhere(Collection<String> shortCodes) {
+        for (String shortCode : shortCodes) {
+            invalidateLocally(shortCode);
+        }
+        if (listenerContainer != null && !shortCodes.isEmpty()) {
+            List<String> args = new ArrayList<>(shortCodes.size() + 1);
+            args.add(INVALIDATION_CHANNEL);
+            args.addAll(shortCodes);
+            stringRedisTemplate.execute(PUBLISH_ALL_SCRIPT, List.of(), args.toArray());
+        }
+    }
+
+    // Called by the listener container for every message published on INVALIDATION_CHANNEL,
+    // including the ones this instance published itself.
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidateLocally(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void invalidateLocally(String shortCode) {
+        cache.asMap().compute(shortCode, (code, cached) -> {
+            generations.incrementAndGet(stripe(code));
+            pinned.remove(code);
+            long key = offHeap != null ? OffHeapUrlIndex.pack(code) : -1;
+            if (key > 0) {
+                offHeap.remove(key);
+            }
+            return null;
+        });
+    }
+
+    private static int stripe(String shortCode) {
+        int h = shortCode.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    // Replaces the pinned entries with the given ones (null values pin a miss). Called by HotKeyTracker.
+    void pin(Map<String, UrlData> hot) {
+        pinned.keySet().retainAll(hot.keySet());
+        hot.forEach(this::putPinned);
+    }
+
+    private void putPinned(String shortCode, UrlData urlData) {
+        pinned.put(shortCode, urlData != null ? urlData : NOT_FOUND);
+    }
+
+    // Up to limit cached codes with links, most used first: the pinned hot keys, then what Caffeine's frequency
+    // sketch rates hottest. Codes in the off-heap index are left out; it has a snapshot of its own.
+    public List<String> hottestCodes(int limit) {
+        Set<String> codes = new LinkedHashSet<>();
+        pinned.forEach((shortCode, urlData) -> {
+            if (urlData != NOT_FOUND) {
+                codes.add(shortCode);
+            }
+        });
+        cache.policy().eviction().ifPresent(eviction -> eviction.hottest(limit).forEach((shortCode, urlData) -> {
+            if (urlData != NOT_FOUND) {
+                codes.add(shortCode);
+            }
+        }));
+        return codes.stream().limit(limit).toList();
+    }
+
+    public int pinnedCount() {
+        return pinned.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize() + (offHeap != null ? offHeap.size() : 0);
+    }
+
+    // null unless app.cache.engine=offheap
+    public OffHeapUrlIndex offHeap() {
+        return offHeap;
+    }
+
+    private static int estimateBytes(String shortCode, UrlData urlData) {
+        int chars = shortCode.length();
+        if (urlData != NOT_FOUND) {
+            chars += urlData.getOriginalUrl().length() + urlData.getShortCode().length();
+        }
+        return ENTRY_OVERHEAD_BYTES + chars * 2;
+    }
+
+    // Per-entry lifetime: a cached link never outlives its own expiresAt, and cached misses only live for
+    // negativeTtlMs so a code created on another instance becomes visible quickly.
+    private long ttlMs(UrlData urlData) {
+        if (urlData == NOT_FOUND) {
+            return negativeTtlMs;
+        }
+        long ttlMs = maxTtlMs;
+        if (urlData.getExpiresAt() != null) {
+            ttlMs = Math.min(ttlMs, Math.max(0, urlData.getExpiresAt() - System.currentTimeMillis()));
+        }
+        return ttlMs;
+    }
+
+    private class UrlDataExpiry implements Expiry<String, UrlData> {
+
+        @Override
+        public long expireAfterCreate(String shortCode, UrlData urlData, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(ttlMs(urlData));
+        }
+
+        @Override
+        public long expireAfterUpdate(String shortCode, UrlData urlData, long currentTime, long currentDuration) {
+            return expireAfterCreate(shortCode, urlData, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String shortCode, UrlData urlData, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
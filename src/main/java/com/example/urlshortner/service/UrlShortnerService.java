@@ -1,12 +1,24 @@
 package com.example.urlshortner.service;
 
+import com.example.urlshortner.model.ClickTimeSeries;
+import com.example.urlshortner.model.ImportSummary;
 import com.example.urlshortner.model.UrlData;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
-import java.security.SecureRandom;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 // @Service: This annotation marks the class as a Spring service component.
 // Spring's component scanning will detect this class and register it as a bean in the application context.
@@ -15,94 +27,451 @@ import java.util.concurrent.TimeUnit;
 public class UrlShortnerService {
 
     // @Autowired: This annotation enables Spring's dependency injection. Spring will automatically
-    // create and inject an instance of RedisTemplate<String, Object> into this field.
-    // Template already configured in RedisConfig class.
+    // inject the UrlStore implementation selected by app.storage.engine into this field.
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
-
-    private static final String URL_PREFIX = "url:";
-    private static final String REVERSE_PREFIX = "reverse:";
-    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-    private static final int SHORT_CODE_LENGTH = 6;
-    private final SecureRandom random = new SecureRandom();
-
-    public UrlData shortenUrl(String originalUrl, String customCode, Long expirationSeconds) {
-        String existingCode = (String) redisTemplate.opsForValue().get(REVERSE_PREFIX + originalUrl);
-        if (existingCode != null) {
-            UrlData existingData = getUrlData(existingCode);
-            if (existingData != null && !existingData.isExpiresAt()) {
-                return existingData;
+    private UrlStore urlStore;
+
+    @Autowired
+    private ClickCounterService clickCounterService;
+
+    @Autowired
+    private UrlCache urlCache;
+
+    @Autowired
+    private ShortCodeGenerator shortCodeGenerator;
+
+    @Autowired
+    private UrlShortnerMetrics metrics;
+
+    @Autowired
+    private HotKeyTracker hotKeyTracker;
+
+    // Click analytics need Redis; null with the embedded store.
+    @Autowired(required = false)
+    private ClickAggregator clickAggregator;
+
+    // Store lookups in progress, by short code; see getUrlData.
+    private final ConcurrentHashMap<String, CompletableFuture<UrlData>> inFlight = new ConcurrentHashMap<>();
+
+    private static final int MAX_GENERATE_ATTEMPTS = 10;
+
+    // The dedup lookup, the claim of the code and the dedup index write happen in one atomic step of the store
+    // (UrlStore.create); with Redis that is a single round trip. Only a generated code that collides costs another
+    // one. Fails with INVALID for a malformed URL, CONFLICT for a taken custom code and EXHAUSTED if no free code
+    // is found.
+    public ServiceResult<UrlData> shortenUrl(String originalUrl, String customCode, Long expirationSeconds) {
+        return shortenUrl(originalUrl, customCode, expirationSeconds, null);
+    }
+
+    // redirectStatus (301, 302, 307 or 308, null for app.redirect.default-status) is part of the link: asking for
+    // a URL that is already shortened with another status creates a new link rather than changing how the existing
+    // one redirects.
+    public ServiceResult<UrlData> shortenUrl(String originalUrl, String customCode, Long expirationSeconds,
+                                             Integer redirectStatus) {
+        ServiceResult<UrlData> invalid = validate(originalUrl, redirectStatus);
+        if (invalid != null) {
+            return invalid;
+        }
+
+        boolean customCodeRequested = customCode != null && !customCode.trim().isEmpty();
+        byte[] digest = ReverseIndex.digest(originalUrl);
+        boolean dedup = true;
+        int attempts = 0;
+        while (true) {
+            String shortCode;
+            if (customCodeRequested) {
+                shortCode = customCode;
+            } else if (++attempts > MAX_GENERATE_ATTEMPTS) {
+                metrics.codeGenerationExhausted();
+                return ServiceResult.failure(ServiceResult.CODES_EXHAUSTED);
+            } else {
+                shortCode = shortCodeGenerator.nextCode();
             }
+            UrlData urlData = new UrlData(originalUrl, shortCode, expirationSeconds);
+            urlData.setRedirectStatus(redirectStatus);
+
+            UrlStore.CreateResult created = urlStore.create(urlData, digest, dedup, customCodeRequested);
+
+            if (created.getOutcome() == UrlStore.Outcome.CREATED) {
+                urlCache.put(shortCode, urlData);
+                return ServiceResult.ok(urlData);
+            }
+            if (created.getOutcome() == UrlStore.Outcome.EXISTING) {
+                UrlData existing = created.getExisting();
+                if (!existing.isExpiresAt() && ReverseIndex.sameUrl(existing.getOriginalUrl(), originalUrl)
+                        && Objects.equals(existing.getRedirectStatus(), redirectStatus)) {
+                    urlCache.put(existing.getShortCode(), existing);
+                    return ServiceResult.ok(existing);
+                }
+                // Expired but not yet evicted, a digest collision or another redirect status: create a new link
+                // instead.
+                dedup = false;
+                continue;
+            }
+            if (customCodeRequested) {
+                return ServiceResult.failure(ServiceResult.CUSTOM_CODE_TAKEN);
+            }
+            // The dedup lookup already missed, so retries with a new code skip it.
+            metrics.codeGenerationRetries(1);
+            dedup = false;
+        }
+    }
+
+    // Batch version of shortenUrl for bulk imports. Rather than several round trips per URL, a whole batch costs
+    // one batch of dedup lookups, one batch read of the links they point to, one batch of claims (repeated only for
+    // generated codes that collided) and one batch of index writes; with Redis each of them is one pipeline or MGET
+    // per node.
+    // results.get(i) belongs to commands.get(i); a failed item doesn't affect the others.
+    public List<ServiceResult<UrlData>> shortenUrls(List<ShortenCommand> commands) {
+        List<ServiceResult<UrlData>> results = new ArrayList<>(Collections.nCopies(commands.size(), null));
+
+        // Invalid items get their result right away and are then treated like already shortened ones:
+        // a null URL and digest keep them out of the lookups.
+        List<String> originalUrls = new ArrayList<>(commands.size());
+        List<byte[]> digests = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            String originalUrl = commands.get(i).getOriginalUrl();
+            results.set(i, validate(originalUrl, commands.get(i).getRedirectStatus()));
+            originalUrls.add(originalUrl);
+            digests.add(results.get(i) == null ? ReverseIndex.digest(originalUrl) : null);
         }
+        List<String> existingCodes = urlStore.findCodes(originalUrls, digests);
 
-        String shortCode;
-        if (customCode != null && !customCode.trim().isEmpty()) {
-            if (redisTemplate.hasKey(URL_PREFIX + customCode)) {
-                throw new RuntimeException("Custom code already exists.");
+        Set<String> codesToLoad = new HashSet<>();
+        for (String code : existingCodes) {
+            if (code != null) {
+                codesToLoad.add(code);
             }
-            shortCode = customCode;
-        } else {
-            shortCode = generateShortCode();
-            while (redisTemplate.hasKey(URL_PREFIX + shortCode)) {
-                shortCode = generateShortCode();
+        }
+        Map<String, UrlData> existing = getUrlDataBatch(codesToLoad);
+
+        // Items whose URL is already shortened are done. Of the rest, only the first item per URL and redirect
+        // status is created; later items with both the same get the same result, just like calling shortenUrl twice
+        // would. Items with a custom code are always created under their own code, so they are left out.
+        Map<List<Object>, Integer> firstIndexByUrl = new HashMap<>();
+        List<Integer> pending = new ArrayList<>();
+        List<Integer> repeated = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+            String code = existingCodes.get(i);
+            UrlData existingData = code != null ? existing.get(code) : null;
+            if (results.get(i) != null) {
+                continue;
+            } else if (existingData != null && !existingData.isExpiresAt()
+                    && ReverseIndex.sameUrl(existingData.getOriginalUrl(), originalUrls.get(i))
+                    && Objects.equals(existingData.getRedirectStatus(), commands.get(i).getRedirectStatus())) {
+                results.set(i, ServiceResult.ok(existingData));
+            } else if (!commands.get(i).hasCustomCode()
+                    && firstIndexByUrl.putIfAbsent(urlKey(commands.get(i)), i) != null) {
+                repeated.add(i);
+            } else {
+                pending.add(i);
             }
         }
 
-        UrlData urlData = new UrlData(originalUrl, shortCode, expirationSeconds);
+        List<Integer> created = new ArrayList<>();
+        for (int attempt = 1; attempt <= MAX_GENERATE_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            List<UrlData> candidates = new ArrayList<>(pending.size());
+            for (int i : pending) {
+                ShortenCommand command = commands.get(i);
+                String shortCode = command.hasCustomCode() ? command.getCustomCode() : shortCodeGenerator.nextCode();
+                UrlData candidate = new UrlData(command.getOriginalUrl(), shortCode, command.getExpirationSeconds());
+                candidate.setRedirectStatus(command.getRedirectStatus());
+                candidates.add(candidate);
+            }
+
+            List<Boolean> claimed = urlStore.claimAll(candidates);
 
-        redisTemplate.opsForValue().set(URL_PREFIX+shortCode, urlData);
-        redisTemplate.opsForValue().set(REVERSE_PREFIX+originalUrl, shortCode);
+            List<Integer> collided = new ArrayList<>();
+            for (int j = 0; j < pending.size(); j++) {
+                int i = pending.get(j);
+                if (claimed.get(j)) {
+                    results.set(i, ServiceResult.ok(candidates.get(j)));
+                    created.add(i);
+                } else if (commands.get(i).hasCustomCode()) {
+                    results.set(i, ServiceResult.failure(ServiceResult.CUSTOM_CODE_TAKEN));
+                } else {
+                    collided.add(i);
+                }
+            }
+            if (attempt < MAX_GENERATE_ATTEMPTS) {
+                metrics.codeGenerationRetries(collided.size());
+            }
+            pending = collided;
+        }
+        for (int i : pending) {
+            metrics.codeGenerationExhausted();
+            results.set(i, ServiceResult.failure(ServiceResult.CODES_EXHAUSTED));
+        }
 
-        if (expirationSeconds != null) {
-            redisTemplate.expire(URL_PREFIX + shortCode, expirationSeconds, TimeUnit.SECONDS);
-            redisTemplate.expire(REVERSE_PREFIX + originalUrl, expirationSeconds, TimeUnit.SECONDS);
+        List<UrlData> createdData = new ArrayList<>(created.size());
+        for (int i : created) {
+            createdData.add(results.get(i).getValue());
         }
+        urlStore.indexAll(createdData);
 
-        return urlData;
+        for (int i : created) {
+            UrlData urlData = results.get(i).getValue();
+            if (commands.get(i).hasCustomCode()) {
+                urlCache.invalidateEverywhere(urlData.getShortCode());
+            }
+            urlCache.put(urlData.getShortCode(), urlData);
+        }
+        for (int i : repeated) {
+            results.set(i, results.get(firstIndexByUrl.get(urlKey(commands.get(i)))));
+        }
+
+        return results;
     }
 
-    public UrlData getOriginalUrl(String shortCode) {
-        UrlData urlData = getUrlData(shortCode);
-        if (urlData != null && !urlData.isExpiresAt()) {
-            urlData.setClickCount(urlData.getClickCount() + 1);
-            redisTemplate.opsForValue().set(URL_PREFIX + shortCode, urlData);
-            return urlData;
+    // Items of a batch that shorten the same URL with the same redirect status are one link.
+    private static List<Object> urlKey(ShortenCommand command) {
+        return Arrays.asList(command.getOriginalUrl(), command.getRedirectStatus());
+    }
+
+    // The click is only recorded in memory here; ClickCounterService flushes it to the store in the background,
+    // so a redirect costs a single read and never rewrites the stored UrlData.
+    public ServiceResult<UrlData> getOriginalUrl(String shortCode) {
+        ServiceResult<UrlData> result = resolve(getUrlData(shortCode));
+        if (result.isOk()) {
+            clickCounterService.recordClick(shortCode);
         }
-        return null;
+        metrics.resolved(result.isOk());
+        return result;
+    }
+
+    // Batch version of getOriginalUrl: near-cache hits are served from memory and all misses share one batch read.
+    // The returned list has a result per requested code.
+    public List<ServiceResult<UrlData>> getOriginalUrls(List<String> shortCodes) {
+        Map<String, UrlData> found = getUrlDataBatch(new HashSet<>(shortCodes));
+
+        List<ServiceResult<UrlData>> results = new ArrayList<>(shortCodes.size());
+        for (String shortCode : shortCodes) {
+            ServiceResult<UrlData> result = resolve(found.get(shortCode));
+            if (result.isOk()) {
+                clickCounterService.recordClick(shortCode);
+            }
+            metrics.resolved(result.isOk());
+            results.add(result);
+        }
+        return results;
+    }
+
+    // The total click count is the count stored in the UrlData itself (written by older versions),
+    // plus the counter flushed to the store, plus clicks on this instance that haven't been flushed yet.
+    public ServiceResult<UrlData> getUrlStats(String shortCode) {
+        ServiceResult<UrlData> result = resolve(getUrlData(shortCode));
+        if (!result.isOk()) {
+            return result;
+        }
+        UrlData urlData = result.getValue();
+        // Copy, because urlData may be the instance shared through the near-cache.
+        UrlData stats = new UrlData(urlData);
+        long storedClicks = urlData.getClickCount() != null ? urlData.getClickCount() : 0L;
+        stats.setClickCount(storedClicks
+                + clickCounterService.persistedClicks(shortCode)
+                + clickCounterService.pendingClicks(shortCode));
+        return ServiceResult.ok(stats);
+    }
+
+    // Click analytics of a link (see ClickAggregator.getTimeSeries); an expired link still has its history.
+    // Without analytics (the embedded store) every link has an empty history, as with app.analytics.enabled=false.
+    public ServiceResult<ClickTimeSeries> getUrlTimeSeries(String shortCode, long from, long to, long bucketSeconds) {
+        if (getUrlData(shortCode) == null) {
+            return ServiceResult.failure(ServiceResult.URL_NOT_FOUND);
+        }
+        if (clickAggregator == null) {
+            return ServiceResult.ok(new ClickTimeSeries(shortCode, bucketSeconds, new long[0], new long[0],
+                    Map.of(), Map.of(), 0L));
+        }
+        return clickAggregator.getTimeSeries(shortCode, from, to, bucketSeconds);
     }
 
-    public UrlData getUrlStats(String shortCode) {
+    // Returns the deleted link. Expired links that the store hasn't evicted yet can still be deleted.
+    public ServiceResult<UrlData> deleteUrl(String shortCode) {
         UrlData urlData = getUrlData(shortCode);
-        if (urlData != null && !urlData.isExpiresAt()) {
-            return urlData;
+        if (urlData == null) {
+            return ServiceResult.failure(ServiceResult.URL_NOT_FOUND);
+        }
+        urlStore.delete(urlData);
+        // A lookup that started before the delete must not hand its result to lookups that start after it.
+        inFlight.remove(shortCode);
+        clickCounterService.discard(shortCode);
+        if (clickAggregator != null) {
+            clickAggregator.discard(shortCode);
+        }
+        urlCache.invalidateEverywhere(shortCode);
+        return ServiceResult.ok(urlData);
+    }
+
+    // One page of an export (UrlStore.export): about count links from where cursor left off (null or empty: from
+    // the beginning), with their total click counts, and the cursor of the next page, null after the last one.
+    // Expired links are left out. Fails with INVALID for a cursor that no export of this store handed out.
+    public ServiceResult<UrlStore.ExportPage> exportUrls(String cursor, int count) {
+        UrlStore.ExportPage page;
+        try {
+            page = urlStore.export(cursor, count);
+        } catch (IllegalArgumentException e) {
+            return ServiceResult.failure(ServiceResult.INVALID_CURSOR);
+        }
+        page.getLinks().removeIf(UrlData::isExpiresAt);
+        for (UrlData urlData : page.getLinks()) {
+            urlData.setClickCount(urlData.getClickCount() + clickCounterService.pendingClicks(urlData.getShortCode()));
+        }
+        return ServiceResult.ok(page);
+    }
+
+    // Stores links read from a snapshot under their own codes, keeping their creation and expiry times, redirect
+    // status and click counts; the store rebuilds the dedup index entries and TTLs as for created links. A taken
+    // code is not an error, the link is just skipped: importing a snapshot twice, or again after an interrupted
+    // import, stores every link once. Expired links are skipped as well, invalid ones (no code, or a URL or
+    // redirect status shortenUrl would reject) are counted and skipped.
+    public ImportSummary importUrls(List<UrlData> links) {
+        List<UrlData> candidates = new ArrayList<>(links.size());
+        List<Long> clickCounts = new ArrayList<>(links.size());
+        long expired = 0;
+        long invalid = 0;
+        for (UrlData link : links) {
+            if (link.getShortCode() == null || link.getShortCode().isEmpty()
+                    || validate(link.getOriginalUrl(), link.getRedirectStatus()) != null) {
+                invalid++;
+            } else if (link.isExpiresAt()) {
+                expired++;
+            } else {
+                // The clicks go to the store's counter, the stored link starts at 0 like a created one.
+                UrlData candidate = new UrlData(link);
+                candidate.setClickCount(0L);
+                if (candidate.getCreatedAt() == null) {
+                    candidate.setCreatedAt(System.currentTimeMillis());
+                }
+                candidates.add(candidate);
+                clickCounts.add(link.getClickCount() != null ? link.getClickCount() : 0L);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return new ImportSummary(0, 0, expired, invalid);
+        }
+
+        List<Boolean> stored = urlStore.importAll(candidates, clickCounts);
+        List<String> imported = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            if (stored.get(i)) {
+                imported.add(candidates.get(i).getShortCode());
+            }
+        }
+        // Like custom codes, imported ones may have been looked up before they existed and be cached as misses.
+        urlCache.invalidateEverywhere(imported);
+        return new ImportSummary(imported.size(), candidates.size() - imported.size(), expired, invalid);
+    }
+
+    // Only http(s) URLs can be shortened; returns null for a valid URL.
+    private static ServiceResult<UrlData> validate(String originalUrl, Integer redirectStatus) {
+        if (originalUrl == null || originalUrl.isEmpty()) {
+            return ServiceResult.failure(ServiceResult.EMPTY_URL);
+        }
+        if (!originalUrl.startsWith("http://") && !originalUrl.startsWith("https://")) {
+            return ServiceResult.failure(ServiceResult.INVALID_URL);
+        }
+        if (redirectStatus != null && redirectStatus != 301 && redirectStatus != 302 && redirectStatus != 307
+                && redirectStatus != 308) {
+            return ServiceResult.failure(ServiceResult.INVALID_REDIRECT_STATUS);
         }
         return null;
     }
 
-    public boolean deleteUrl(String shortCode) {
-        UrlData urlData = getUrlData(shortCode);
-        if (urlData != null) {
-            redisTemplate.delete(URL_PREFIX + shortCode);
-            redisTemplate.delete(REVERSE_PREFIX + urlData.getOriginalUrl());
-            return true;
+    // Also used by ReactiveUrlShortnerService, so both paths report missing and expired links the same way.
+    static ServiceResult<UrlData> resolve(UrlData urlData) {
+        if (urlData == null) {
+            return ServiceResult.failure(ServiceResult.URL_NOT_FOUND);
+        }
+        if (urlData.isExpiresAt()) {
+            return ServiceResult.failure(ServiceResult.URL_EXPIRED);
         }
-        return false;
+        return ServiceResult.ok(urlData);
     }
 
+    // Looks in the near-cache first and only goes to the store on a miss. Misses are cached too.
+    //
+    // Concurrent misses for the same code are coalesced (single-flight): the first thread registers a future in
+    // inFlight and does the read, every other thread that misses meanwhile waits for that future instead of sending
+    // its own. When a viral link is not cached yet, after a restart or an eviction, thousands of concurrent
+    // redirects for it therefore cost one store read instead of thousands.
     private UrlData getUrlData(String shortCode) {
-        Object obj = redisTemplate.opsForValue().get(URL_PREFIX + shortCode);
-        if (obj instanceof UrlData) {
-            return (UrlData) obj;
+        hotKeyTracker.record(shortCode);
+        UrlData cached = urlCache.getIfPresent(shortCode);
+        if (cached != null) {
+            return urlCache.isNotFound(cached) ? null : cached;
         }
 
-        return null;
+        CompletableFuture<UrlData> fetch = new CompletableFuture<>();
+        CompletableFuture<UrlData> leader = inFlight.putIfAbsent(shortCode, fetch);
+        if (leader != null) {
+            metrics.lookupCoalesced();
+            return await(leader);
+        }
+
+        try {
+            // The previous leader may have filled the cache between our miss and our putIfAbsent.
+            cached = urlCache.getIfPresent(shortCode);
+            UrlData urlData = cached != null ? (urlCache.isNotFound(cached) ? null : cached) : fetchUrlData(shortCode);
+            fetch.complete(urlData);
+            return urlData;
+        } catch (RuntimeException e) {
+            // Waiting threads fail with the same exception; the next lookup tries again.
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(shortCode, fetch);
+        }
+    }
+
+    // The generation is taken before the read, so a delete that runs meanwhile keeps the read value out of the cache.
+    private UrlData fetchUrlData(String shortCode) {
+        long generation = urlCache.generation(shortCode);
+        UrlData urlData = urlStore.get(shortCode);
+        urlCache.put(shortCode, urlData, generation);
+        return urlData;
+    }
+
+    private static UrlData await(CompletableFuture<UrlData> fetch) {
+        try {
+            return fetch.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
     }
 
-    private String generateShortCode() {
-        StringBuilder sb = new StringBuilder(SHORT_CODE_LENGTH);
-        for (int i = 0; i < SHORT_CODE_LENGTH; i++) {
-            sb.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+    // Same as getUrlData for many codes at once: the codes missing from the near-cache are fetched with one batch
+    // read.
+    // Unknown codes are left out of the returned map.
+    private Map<String, UrlData> getUrlDataBatch(Collection<String> shortCodes) {
+        Map<String, UrlData> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String shortCode : shortCodes) {
+            hotKeyTracker.record(shortCode);
+            UrlData cached = urlCache.getIfPresent(shortCode);
+            if (cached == null) {
+                missing.add(shortCode);
+            } else if (!urlCache.isNotFound(cached)) {
+                found.put(shortCode, cached);
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        long[] generations = new long[missing.size()];
+        for (int i = 0; i < missing.size(); i++) {
+            generations[i] = urlCache.generation(missing.get(i));
+        }
+        List<UrlData> values = urlStore.getAll(missing);
+
+        for (int i = 0; i < missing.size(); i++) {
+            UrlData urlData = values.get(i);
+            urlCache.put(missing.get(i), urlData, generations[i]);
+            if (urlData != null) {
+                found.put(missing.get(i), urlData);
+            }
         }
-        return sb.toString();
+        return found;
     }
 }
@@ -0,0 +1,130 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.model.UrlData;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// UrlStore is where links and their click counters are persisted. UrlShortnerService keeps everything that doesn't
+// depend on the storage (validation, code generation and retries, the near-cache, single-flight lookups, hot keys)
+// and goes through this interface for the rest.
+//
+// Two implementations, picked with app.storage.engine:
+//   redis      RedisUrlStore, the default: one Redis, Redis Cluster or client-side shards, with replica reads.
+//   embedded   EmbeddedUrlStore: an append-only log on local disk, for a single instance without any Redis.
+// Both pass the same contract tests (UrlStoreContractTest), which pin down the behaviour described here.
+public interface UrlStore {
+
+    enum Outcome {
+        // The link was stored under its code.
+        CREATED,
+        // The dedup lookup found a link the URL was shortened to before; nothing was written.
+        EXISTING,
+        // The code belongs to another link; nothing was written.
+        TAKEN
+    }
+
+    final class CreateResult {
+
+        static final CreateResult CREATED = new CreateResult(Outcome.CREATED, null);
+        static final CreateResult TAKEN = new CreateResult(Outcome.TAKEN, null);
+
+        private final Outcome outcome;
+        private final UrlData existing;
+
+        private CreateResult(Outcome outcome, UrlData existing) {
+            this.outcome = outcome;
+            this.existing = existing;
+        }
+
+        static CreateResult existing(UrlData existing) {
+            return new CreateResult(Outcome.EXISTING, existing);
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        // The link found by the dedup lookup. It may have expired or, after a digest collision, point to another
+        // URL: the caller checks both before reusing it.
+        public UrlData getExisting() {
+            return existing;
+        }
+    }
+
+    // One page of a walk over all stored links (see export).
+    final class ExportPage {
+
+        private final List<UrlData> links;
+        private final String cursor;
+
+        ExportPage(List<UrlData> links, String cursor) {
+            this.links = links;
+            this.cursor = cursor;
+        }
+
+        // Mutable, so the caller can drop links from it.
+        public List<UrlData> getLinks() {
+            return links;
+        }
+
+        // Where the walk continues, or null after the last page.
+        public String getCursor() {
+            return cursor;
+        }
+    }
+
+    // Stores urlData unless its code is taken, as one atomic step together with the dedup index entry for digest
+    // (ReverseIndex.digest of the URL). With dedup set, the link the URL was last shortened to is looked up first
+    // and returned as EXISTING if there is one. customCode says the code was chosen by the client: it may have been
+    // looked up before it existed, so stores shared by several instances make them drop a cached miss for it.
+    CreateResult create(UrlData urlData, byte[] digest, boolean dedup, boolean customCode);
+
+    // Batch create, first step: for every URL, the code it was last shortened to, or null if there is none or
+    // the URL (or its digest) is null. A found code may have expired or belong to another URL meanwhile.
+    List<String> findCodes(List<String> originalUrls, List<byte[]> digests);
+
+    // Batch create, second step: stores every candidate whose code is free. The result has one entry per
+    // candidate, true if it was stored.
+    List<Boolean> claimAll(List<UrlData> candidates);
+
+    // Batch create, last step: adds the dedup index entries of the links claimAll stored. Until then a link can
+    // already be read, but findCodes may not return it yet.
+    void indexAll(List<UrlData> created);
+
+    // The link stored under the code, or null. A link may still be returned for a short while after it expired;
+    // callers check UrlData.isExpiresAt.
+    UrlData get(String shortCode);
+
+    // get for many codes at once; the result has one entry (possibly null) per code, in the same order.
+    List<UrlData> getAll(List<String> shortCodes);
+
+    // Removes the link and its dedup index entry. The code can be claimed again afterwards.
+    void delete(UrlData urlData);
+
+    // Adds clicks to the stored counters. Counts that couldn't be written are passed to unwritten, so the caller
+    // can retry them later, before the failure is thrown; counts written before it are not repeated.
+    void addClicks(Map<String, Long> deltas, BiConsumer<String, Long> unwritten);
+
+    // Clicks stored for the code, 0 if there are none.
+    long getClicks(String shortCode);
+
+    void deleteClicks(String shortCode);
+
+    // One page of a walk over every stored link, for exports: about count links (never none unless it is the last
+    // page), each with its stored clicks added to clickCount, starting where the page that returned cursor ended
+    // (null: at the beginning). The walk keeps no state in the store, so it can be resumed from any cursor it handed
+    // out, also after a restart. A link that exists for the whole walk is returned at least once and may be returned
+    // twice; links created or deleted during the walk may or may not be. May return links that have just expired.
+    // Throws IllegalArgumentException for a cursor this store didn't hand out.
+    ExportPage export(String cursor, int count);
+
+    // Stores every link whose code is free, as claimAll and indexAll would, and sets its stored clicks to
+    // clickCounts.get(i). The result has one entry per link, true if it was stored.
+    List<Boolean> importAll(List<UrlData> links, List<Long> clickCounts);
+
+    // Up to limit codes with the most stored clicks, most clicked first, for warming a cache at startup. May use
+    // up to parallelism threads of its own.
+    List<String> mostClicked(int limit, int parallelism);
+}
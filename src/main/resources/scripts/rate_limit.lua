@@ -0,0 +1,47 @@
+-- Sliding-window rate limit of one client, shared by every instance; used by DistributedRateLimiter.
+--
+-- KEYS[1]  state of the client's window (ratelimit:<operation>:<client digest>), a hash of
+--          w = start of the current fixed window (ms), c = permits taken in it, p = permits taken in the one before
+-- ARGV[1]  window length in ms
+-- ARGV[2]  permits allowed per window
+-- ARGV[3]  permits asked for
+--
+-- The count over the last window is estimated as c plus the share of p that still overlaps it, which keeps the state
+-- at three fields per client instead of one sorted set entry per request. Time comes from Redis, so the instances'
+-- clocks don't have to agree.
+--
+-- Returns 0 when the permits were taken, otherwise the ms until the next window starts (when the client may retry).
+
+local now = redis.call('TIME')
+local ms = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+local window = tonumber(ARGV[1])
+local limit = tonumber(ARGV[2])
+local permits = tonumber(ARGV[3])
+local start = ms - ms % window
+
+local state = redis.call('HMGET', KEYS[1], 'w', 'c', 'p')
+local current = tonumber(state[2]) or 0
+local previous = tonumber(state[3]) or 0
+local windowStart = tonumber(state[1])
+if windowStart ~= start then
+    if windowStart == start - window then
+        previous = current
+    else
+        previous = 0
+    end
+    current = 0
+end
+
+local estimate = previous * (window - (ms - start)) / window + current
+local result = 0
+-- A request for more than a whole window's permits still goes through once the window is empty, like the local
+-- token bucket admits a batch larger than its burst.
+if estimate + math.min(permits, limit) > limit then
+    result = window - (ms - start)
+else
+    current = current + permits
+end
+
+redis.call('HSET', KEYS[1], 'w', start, 'c', current, 'p', previous)
+redis.call('PEXPIRE', KEYS[1], window * 2)
+return result
@@ -0,0 +1,64 @@
+-- Creates a short link in one atomic step; used by UrlShortnerService.shortenUrl.
+--
+-- KEYS[1]  reverse index bucket of the original URL (rev:<bucket>, see ReverseIndex)
+-- KEYS[2]  key of the candidate short code (url:<code>)
+-- KEYS[3]  legacy reverse index key of the original URL (reverse:<url>)
+-- KEYS[4]  expiry index bucket of the link (expiry:<bucket>, see ExpiryIndex), unused when it never expires
+-- KEYS[5]  list of expiry index buckets (expiry:buckets)
+-- ARGV[1]  prefix of short code keys ("url:")
+-- ARGV[2]  serialized UrlData
+-- ARGV[3]  digest of the original URL, the field in KEYS[1]
+-- ARGV[4]  TTL in seconds, "0" for links that never expire
+-- ARGV[5]  dedup lookup: "0" none, "1" reverse index, "2" reverse index, then the legacy key
+-- ARGV[6]  channel to publish the raw short code on (near-cache invalidation), "" for none
+-- ARGV[7]  raw short code
+-- ARGV[8]  channel to publish the digest on, so every instance adds it to its Bloom filter
+-- ARGV[9]  expiry index member (digest followed by the short code)
+-- ARGV[10] expiresAt in epoch ms
+-- ARGV[11] expiry index bucket number
+--
+-- Returns {"existing", <stored UrlData>}, {"taken"} when the code belongs to another link, or {"created"}.
+-- "existing" only means the digest matched; the caller compares the URL in the returned UrlData.
+
+if ARGV[5] ~= '0' then
+    local code = redis.call('HGET', KEYS[1], ARGV[3])
+    if not code and ARGV[5] == '2' then
+        -- Legacy values are JSON strings.
+        local legacy = redis.call('GET', KEYS[3])
+        if legacy then
+            code = cjson.decode(legacy)
+        end
+    end
+    if code then
+        -- The mapping key is derived from the index entry, so it can't be passed in KEYS up front.
+        local data = redis.call('GET', ARGV[1] .. code)
+        if data then
+            return {'existing', data}
+        end
+    end
+end
+
+local ttl = tonumber(ARGV[4])
+local claimed
+if ttl > 0 then
+    claimed = redis.call('SET', KEYS[2], ARGV[2], 'EX', ttl, 'NX')
+else
+    claimed = redis.call('SET', KEYS[2], ARGV[2], 'NX')
+end
+if not claimed then
+    return {'taken'}
+end
+
+-- Overwrites a stale entry left behind by an expired link.
+redis.call('HSET', KEYS[1], ARGV[3], ARGV[7])
+redis.call('PUBLISH', ARGV[8], ARGV[3])
+
+if ttl > 0 then
+    redis.call('ZADD', KEYS[4], ARGV[10], ARGV[9])
+    redis.call('ZADD', KEYS[5], ARGV[11], ARGV[11])
+end
+
+if ARGV[6] ~= '' then
+    redis.call('PUBLISH', ARGV[6], ARGV[7])
+end
+return {'created'}
@@ -5,9 +5,16 @@ import com.example.urlshortner.grpc.GetUrlStatsResponse;
 import com.example.urlshortner.grpc.ShortenUrlResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 @Component
+// Lives in the test sources, so it is not in the jar and a production instance never scans it. Run it against a
+// local start with the test classpath:
+//     mvn spring-boot:test-run -Dspring-boot.run.arguments=--app.client.smoke-test=true
+// Off unless app.client.smoke-test=true even there: it creates a link over gRPC on every start, which a test
+// context must not do, and the startup would wait for it.
+@ConditionalOnProperty(name = "app.client.smoke-test", havingValue = "true")
 // CommandLineRunner is a Spring Boot interface. Any class that implements this interface and is a Spring component
 // will have its run() method executed automatically once the Spring application context has fully loaded and right
 // before the application starts taking external requests.
@@ -18,7 +25,6 @@ public class UrlShortenerClientTest implements CommandLineRunner {
 
     @Override
     public void run(String... args) throws Exception {
-        // Example usage - remove or comment out in production
         testUrlShortener();
     }
 
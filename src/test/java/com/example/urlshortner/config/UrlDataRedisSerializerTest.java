@@ -0,0 +1,124 @@
+package com.example.urlshortner.config;
+
+import com.example.urlshortner.model.UrlData;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Both value formats of UrlDataRedisSerializer: binary values must read back field for field, legacy JSON values
+// must still be readable (and flagged for migration), and a cut-off binary value must fail rather than read as
+// a different link.
+class UrlDataRedisSerializerTest {
+
+    private final UrlDataRedisSerializer binary =
+            new UrlDataRedisSerializer(new GenericJackson2JsonRedisSerializer(), true);
+    private final UrlDataRedisSerializer json =
+            new UrlDataRedisSerializer(new GenericJackson2JsonRedisSerializer(), false);
+
+    @Test
+    void binaryValueReadsBackEveryField() {
+        UrlData urlData = link();
+        urlData.setExpiresAt(1_700_000_360_000L);
+        urlData.setClickCount(300_000_000_000L);
+        urlData.setRedirectStatus(308);
+
+        byte[] bytes = binary.serialize(urlData);
+        assertEquals(UrlDataRedisSerializer.MAGIC, bytes[0]);
+        assertSameLink(urlData, (UrlData) binary.deserialize(bytes));
+        // Every instance reads binary, whatever it writes.
+        assertSameLink(urlData, (UrlData) json.deserialize(bytes));
+    }
+
+    @Test
+    void absentOptionalFieldsStayAbsent() {
+        UrlData urlData = link();
+        urlData.setCreatedAt(null);
+        urlData.setClickCount(null);
+
+        UrlData read = (UrlData) binary.deserialize(binary.serialize(urlData));
+
+        assertNull(read.getCreatedAt());
+        assertNull(read.getExpiresAt());
+        assertNull(read.getRedirectStatus());
+        assertEquals(0L, read.getClickCount());
+        assertEquals(urlData.getOriginalUrl(), read.getOriginalUrl());
+    }
+
+    @Test
+    void legacyJsonValueIsReadAndFlaggedForMigration() {
+        UrlData urlData = link();
+        urlData.setExpiresAt(1_700_000_360_000L);
+        urlData.setRedirectStatus(301);
+
+        byte[] bytes = json.serialize(urlData);
+        assertEquals('{', bytes[0]);
+
+        UrlData read = (UrlData) binary.deserialize(bytes);
+        assertSameLink(urlData, read);
+        assertTrue(read.isLegacyEncoded());
+        // With JSON writes there is nothing to migrate to.
+        assertFalse(((UrlData) json.deserialize(bytes)).isLegacyEncoded());
+    }
+
+    @Test
+    void truncatedBinaryValueFails() {
+        UrlData urlData = link();
+        urlData.setExpiresAt(1_700_000_360_000L);
+        urlData.setRedirectStatus(307);
+        byte[] bytes = binary.serialize(urlData);
+
+        // Down to the last byte, which is the trailing redirectStatus.
+        for (int length = 1; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertThrows(SerializationException.class, () -> binary.deserialize(truncated), length + " bytes");
+        }
+    }
+
+    @Test
+    void trailingRedirectStatusIsIgnoredWithoutItsFlag() {
+        UrlData urlData = link();
+        urlData.setRedirectStatus(301);
+        byte[] bytes = binary.serialize(urlData);
+
+        // What a reader from before redirectStatus sees: the flag it doesn't know is ignored, and so is the field.
+        bytes[2] &= ~2;
+        UrlData read = (UrlData) binary.deserialize(bytes);
+
+        assertNull(read.getRedirectStatus());
+        assertEquals(urlData.getOriginalUrl(), read.getOriginalUrl());
+        assertEquals(urlData.getShortCode(), read.getShortCode());
+        assertEquals(urlData.getCreatedAt(), read.getCreatedAt());
+    }
+
+    @Test
+    void unknownVersionFails() {
+        byte[] bytes = binary.serialize(link());
+        bytes[1] = 2;
+
+        assertThrows(SerializationException.class, () -> binary.deserialize(bytes));
+    }
+
+    private static UrlData link() {
+        UrlData urlData = new UrlData("https://example.com/a/long/path?q=été", "aZ09xY");
+        urlData.setCreatedAt(1_700_000_000_000L);
+        urlData.setClickCount(42L);
+        return urlData;
+    }
+
+    private static void assertSameLink(UrlData expected, UrlData actual) {
+        assertEquals(expected.getOriginalUrl(), actual.getOriginalUrl());
+        assertEquals(expected.getShortCode(), actual.getShortCode());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        assertEquals(expected.getExpiresAt(), actual.getExpiresAt());
+        assertEquals(expected.getClickCount(), actual.getClickCount());
+        assertEquals(expected.getRedirectStatus(), actual.getRedirectStatus());
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.urlshortner.grpc;
+
+import com.example.urlshortner.model.UrlData;
+import com.example.urlshortner.service.ServiceResult;
+import com.example.urlshortner.service.ShortenCommand;
+import com.example.urlshortner.service.UrlShortnerService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// UrlShortnerGrpcService over an in-process channel, with a UrlShortnerService that works without a store: every
+// StreamShortenUrls request must be answered whether the client streams many at once or waits for each answer,
+// and GetUrlStats must serve links stored without every field.
+class UrlShortnerGrpcServiceTest {
+
+    private static final int STREAM_BATCH_SIZE = 4;
+    private static final String URL_PREFIX = "https://example.com/";
+
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private UrlShortnerGrpcService grpcService;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void start() throws IOException {
+        UrlShortnerService urlShortnerService = new UrlShortnerService() {
+            @Override
+            public List<ServiceResult<UrlData>> shortenUrls(List<ShortenCommand> commands) {
+                synchronized (batchSizes) {
+                    batchSizes.add(commands.size());
+                }
+                List<ServiceResult<UrlData>> results = new ArrayList<>(commands.size());
+                for (ShortenCommand command : commands) {
+                    String shortCode = "c" + command.getOriginalUrl().substring(URL_PREFIX.length());
+                    results.add(ServiceResult.ok(new UrlData(command.getOriginalUrl(), shortCode, null)));
+                }
+                return results;
+            }
+
+            @Override
+            public ServiceResult<UrlData> getUrlStats(String shortCode) {
+                // What a legacy value without createdAt or clickCount reads back as.
+                UrlData urlData = new UrlData(URL_PREFIX + shortCode, shortCode);
+                urlData.setCreatedAt(null);
+                urlData.setClickCount(null);
+                return ServiceResult.ok(urlData);
+            }
+        };
+        grpcService = new UrlShortnerGrpcService();
+        ReflectionTestUtils.setField(grpcService, "urlShortnerService", urlShortnerService);
+        ReflectionTestUtils.setField(grpcService, "baseUrl", "http://localhost:8080");
+        ReflectionTestUtils.setField(grpcService, "streamBatchSize", STREAM_BATCH_SIZE);
+        ReflectionTestUtils.setField(grpcService, "streamLingerMs", 5L);
+        grpcService.init();
+
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).directExecutor().addService(grpcService).build().start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        grpcService.stop();
+    }
+
+    @Test
+    void clientThatWaitsForEachAnswerGetsIt() throws InterruptedException {
+        Responses responses = new Responses();
+        StreamObserver<ShortenUrlRequest> requests =
+                UrlShortenerServiceGrpc.newStub(channel).streamShortenUrls(responses);
+
+        // More round trips than the server asks for up front, so answered requests must be asked for again.
+        for (int i = 0; i < STREAM_BATCH_SIZE * 3; i++) {
+            requests.onNext(request(i));
+            ShortenUrlResponse response = responses.received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(response, "no answer to request " + i);
+            assertEquals("c" + i, response.getShortCode());
+        }
+        requests.onCompleted();
+
+        assertTrue(responses.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(responses.received.isEmpty());
+    }
+
+    @Test
+    void streamedRequestsAreShortenedInBatches() throws InterruptedException {
+        Responses responses = new Responses();
+        StreamObserver<ShortenUrlRequest> requests =
+                UrlShortenerServiceGrpc.newStub(channel).streamShortenUrls(responses);
+
+        int count = STREAM_BATCH_SIZE * 2 + 1;
+        for (int i = 0; i < count; i++) {
+            requests.onNext(request(i));
+        }
+        requests.onCompleted();
+
+        assertTrue(responses.completed.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertEquals("c" + i, responses.received.take().getShortCode());
+        }
+        synchronized (batchSizes) {
+            assertEquals(STREAM_BATCH_SIZE, batchSizes.get(0));
+        }
+    }
+
+    @Test
+    void statsOfALinkWithoutCreatedAtLeaveItUnset() {
+        GetUrlStatsResponse response = UrlShortenerServiceGrpc.newBlockingStub(channel)
+                .getUrlStats(GetUrlStatsRequest.newBuilder().setShortCode("old").build());
+
+        assertTrue(response.getSuccess());
+        assertEquals(URL_PREFIX + "old", response.getOriginalUrl());
+        assertEquals(0, response.getCreatedAt());
+        assertEquals(0, response.getClickCount());
+    }
+
+    private static ShortenUrlRequest request(int i) {
+        return ShortenUrlRequest.newBuilder().setOriginalUrl(URL_PREFIX + i).build();
+    }
+
+    private static class Responses implements StreamObserver<ShortenUrlResponse> {
+
+        final BlockingQueue<ShortenUrlResponse> received = new LinkedBlockingQueue<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onNext(ShortenUrlResponse response) {
+            received.add(response);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+            completed.countDown();
+        }
+    }
+}
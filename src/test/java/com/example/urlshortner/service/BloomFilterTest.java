@@ -0,0 +1,84 @@
+package com.example.urlshortner.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// BloomFilter's sizing formulas and the false positive rate it actually reaches with them, measured with the same
+// MD5 digests ReverseIndex feeds it. The digests are deterministic, so the measured rates are too.
+class BloomFilterTest {
+
+    @Test
+    void sizingFollowsTheFormulas() {
+        // m = -n ln(p) / ln(2)^2 = 9585059 bits for a million items at 1%, rounded up to whole words; k = 7.
+        BloomFilter filter = new BloomFilter(1_000_000, 0.01);
+        assertBits(9_585_059, filter);
+        assertEquals(7, filter.hashCount());
+
+        // About 14.4 bits and 10 hash functions per item at 0.1%.
+        BloomFilter stricter = new BloomFilter(1_000_000, 0.001);
+        assertBits(14_377_588, stricter);
+        assertEquals(10, stricter.hashCount());
+
+        // Degenerate sizes still give a usable filter.
+        BloomFilter tiny = new BloomFilter(0, 0.5);
+        assertEquals(64, tiny.bitCount());
+        assertTrue(tiny.hashCount() >= 1);
+    }
+
+    @Test
+    void falsePositiveRateMatchesTheConfiguredOne() {
+        int items = 100_000;
+        double fpp = 0.01;
+        BloomFilter filter = new BloomFilter(items, fpp);
+        for (int i = 0; i < items; i++) {
+            filter.add(digest(i));
+        }
+
+        for (int i = 0; i < items; i++) {
+            assertTrue(filter.mightContain(digest(i)), "false negative for item " + i);
+        }
+        int falsePositives = 0;
+        int probes = 200_000;
+        for (int i = items; i < items + probes; i++) {
+            if (filter.mightContain(digest(i))) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / probes;
+        assertTrue(rate > fpp * 0.7 && rate < fpp * 1.3, "false positive rate " + rate);
+
+        // A filter filled to its expected size has about half its bits set, and fillRatio ^ hashCount (the
+        // estimate /diagnostics/reverse-index reports) is close to the measured rate.
+        assertEquals(0.5, filter.fillRatio(), 0.02);
+        assertEquals(rate, Math.pow(filter.fillRatio(), filter.hashCount()), fpp * 0.3);
+    }
+
+    @Test
+    void overfilledFilterDegradesAsItsFillRatioSays() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 40_000; i++) {
+            filter.add(digest(i));
+        }
+        int falsePositives = 0;
+        for (int i = 40_000; i < 60_000; i++) {
+            if (filter.mightContain(digest(i))) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(filter.fillRatio() > 0.8, "fill ratio " + filter.fillRatio());
+        assertTrue(falsePositives / 20_000.0 > 0.2, falsePositives + " false positives");
+    }
+
+    // Rounded up to whole 64-bit words.
+    private static void assertBits(long bits, BloomFilter filter) {
+        assertEquals(0, filter.bitCount() % 64);
+        assertTrue(filter.bitCount() >= bits && filter.bitCount() < bits + 64, filter.bitCount() + " bits");
+    }
+
+    private static byte[] digest(int i) {
+        return ReverseIndex.digest("https://example.com/items/" + i);
+    }
+}
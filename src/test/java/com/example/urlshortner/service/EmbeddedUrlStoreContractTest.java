@@ -0,0 +1,150 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.model.UrlData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The contract tests against EmbeddedUrlStore, plus what only a log-structured store has to get right: rebuilding
+// its state from the log, surviving a torn write and compacting. Small segments make every test span several.
+class EmbeddedUrlStoreContractTest extends UrlStoreContractTest {
+
+    @TempDir
+    Path directory;
+
+    private EmbeddedUrlStore store;
+
+    @BeforeEach
+    void openStore() throws IOException {
+        store = new EmbeddedUrlStore();
+        ReflectionTestUtils.setField(store, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "segmentBytes", 4096);
+        ReflectionTestUtils.setField(store, "fsyncIntervalMs", 1000L);
+        // Compaction only runs when a test asks for it.
+        ReflectionTestUtils.setField(store, "compactionIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(store, "compactionGarbageRatio", 0.5);
+        store.open();
+    }
+
+    @AfterEach
+    void closeStore() throws IOException {
+        store.close();
+    }
+
+    @Override
+    protected UrlStore store() {
+        return store;
+    }
+
+    @Test
+    void restartReplaysTheLog() throws IOException {
+        UrlData kept = link(uniqueUrl(), uniqueCode(), 3600L);
+        UrlData deleted = link(uniqueUrl(), uniqueCode(), null);
+        create(kept, true);
+        create(deleted, true);
+        store.addClicks(Map.of(kept.getShortCode(), 5L, deleted.getShortCode(), 2L), (code, delta) -> { });
+        store.delete(deleted);
+
+        store.close();
+        store.open();
+
+        assertEquals(kept.getOriginalUrl(), store.get(kept.getShortCode()).getOriginalUrl());
+        assertEquals(kept.getExpiresAt(), store.get(kept.getShortCode()).getExpiresAt());
+        assertEquals(5L, store.getClicks(kept.getShortCode()));
+        assertNull(store.get(deleted.getShortCode()));
+        assertEquals(0L, store.getClicks(deleted.getShortCode()));
+        assertEquals(UrlStore.Outcome.EXISTING,
+                create(link(kept.getOriginalUrl(), uniqueCode(), null), true).getOutcome());
+    }
+
+    @Test
+    void tornRecordAtTheEndOfTheLogIsDropped() throws IOException {
+        UrlData before = link(uniqueUrl(), uniqueCode(), null);
+        create(before, false);
+        store.close();
+
+        // A record whose length promises more than was written, as after a crash in the middle of an append.
+        Path segment = directory.resolve("segment-1.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(20).putInt(100).putInt(12345).put((byte) 1).putShort((short) 4);
+            channel.write(torn.flip(), endOfLog(channel));
+        }
+
+        store.open();
+        assertEquals(before.getOriginalUrl(), store.get(before.getShortCode()).getOriginalUrl());
+
+        // Records appended after the restart must survive the next one too.
+        UrlData after = link(uniqueUrl(), uniqueCode(), null);
+        create(after, false);
+        store.close();
+        store.open();
+        assertEquals(before.getOriginalUrl(), store.get(before.getShortCode()).getOriginalUrl());
+        assertEquals(after.getOriginalUrl(), store.get(after.getShortCode()).getOriginalUrl());
+    }
+
+    @Test
+    void compactionReclaimsDeletedLinksAndKeepsLiveOnes() throws IOException {
+        List<UrlData> links = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            UrlData urlData = link(uniqueUrl(), uniqueCode(), null);
+            create(urlData, true);
+            links.add(urlData);
+        }
+        store.addClicks(Map.of(links.get(0).getShortCode(), 9L), (code, delta) -> { });
+        for (int i = 1; i < links.size(); i += 4) {
+            store.delete(links.get(i));
+            store.delete(links.get(i + 1));
+            store.delete(links.get(i + 2));
+        }
+        long logBytes = store.logBytes();
+
+        ReflectionTestUtils.setField(store, "compactionGarbageRatio", 0.1);
+        store.compact();
+
+        assertTrue(store.compactions() > 0);
+        assertTrue(store.logBytes() < logBytes / 2, "log shrank from " + logBytes + " to " + store.logBytes());
+        store.close();
+        store.open();
+        for (int i = 0; i < links.size(); i++) {
+            UrlData urlData = store.get(links.get(i).getShortCode());
+            if (i % 4 == 0) {
+                assertEquals(links.get(i).getOriginalUrl(), urlData.getOriginalUrl());
+            } else {
+                assertNull(urlData);
+            }
+        }
+        assertEquals(9L, store.getClicks(links.get(0).getShortCode()));
+        assertEquals(links.size() / 4, store.linkCount());
+    }
+
+    private static long endOfLog(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        long offset = 0;
+        while (true) {
+            header.clear();
+            channel.read(header, offset);
+            int length = header.flip().getInt();
+            if (length == 0) {
+                return offset;
+            }
+            offset += 8 + length;
+        }
+    }
+}
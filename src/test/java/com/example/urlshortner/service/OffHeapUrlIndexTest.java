@@ -0,0 +1,272 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.model.UrlData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// OffHeapUrlIndex with the smallest budget it takes (two generations of 64 KB, a few hundred links each), so that
+// a test can write its way through rotations: the key packing, what survives a rotation and what doesn't,
+// snapshots, and lock-free reads racing writers.
+class OffHeapUrlIndexTest {
+
+    private static final long MAX_BYTES = 128 << 10;
+    private static final UrlData NOT_FOUND = new UrlData();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void packIsABijectionOntoThePositiveLongs() {
+        // Every code of up to three characters, in order of length and then of digit, packs to the next value.
+        String characters = ShortCodeGenerator.CHARACTERS;
+        long expected = 0;
+        for (int length = 1; length <= 3; length++) {
+            char[] code = new char[length];
+            for (int n = 0; n < Math.pow(characters.length(), length); n++) {
+                for (int i = length - 1, rest = n; i >= 0; i--, rest /= characters.length()) {
+                    code[i] = characters.charAt(rest % characters.length());
+                }
+                assertEquals(++expected, OffHeapUrlIndex.pack(new String(code)), new String(code));
+            }
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            char[] code = new char[1 + random.nextInt(10)];
+            for (int j = 0; j < code.length; j++) {
+                code[j] = characters.charAt(random.nextInt(characters.length()));
+            }
+            long key = OffHeapUrlIndex.pack(new String(code));
+            assertTrue(key > 0);
+            assertEquals(new String(code), unpack(key));
+        }
+    }
+
+    @Test
+    void packRejectsCodesThatDoNotFit() {
+        assertTrue(OffHeapUrlIndex.pack("9999999999") > 0);
+        assertEquals(-1, OffHeapUrlIndex.pack("aaaaaaaaaaa"));
+        assertEquals(-1, OffHeapUrlIndex.pack(""));
+        assertEquals(-1, OffHeapUrlIndex.pack("my-link"));
+        assertEquals(-1, OffHeapUrlIndex.pack("café"));
+    }
+
+    @Test
+    void entriesStayReadableAcrossARotation() {
+        OffHeapUrlIndex index = new OffHeapUrlIndex(MAX_BYTES);
+        List<String> codes = fillUntilRotations(index, 1, "r");
+
+        // The first generation is now the previous one; nothing written to either may be lost. Every read from
+        // the previous generation promotes the entry, so reading all of them would fill the active one again.
+        assertEquals(codes.size(), index.size());
+        assertSampleReadable(index, codes);
+
+        String old = codes.get(0);
+        index.put(OffHeapUrlIndex.pack(old), link(old, 1), deadline());
+        assertUrl(old, 1, index.get(OffHeapUrlIndex.pack(old), old, NOT_FOUND));
+
+        String removed = codes.get(1);
+        index.remove(OffHeapUrlIndex.pack(removed));
+        assertNull(index.get(OffHeapUrlIndex.pack(removed), removed, NOT_FOUND));
+
+        String missing = "missing";
+        index.put(OffHeapUrlIndex.pack(missing), null, deadline());
+        assertSame(NOT_FOUND, index.get(OffHeapUrlIndex.pack(missing), missing, NOT_FOUND));
+    }
+
+    @Test
+    void entriesUsedSinceTheLastRotationSurviveTheNext() {
+        OffHeapUrlIndex index = new OffHeapUrlIndex(MAX_BYTES);
+        List<String> codes = fillUntilRotations(index, 1, "p");
+        String used = codes.get(0);
+        String unused = codes.get(1);
+
+        assertUrl(used, 0, index.get(OffHeapUrlIndex.pack(used), used, NOT_FOUND));
+        fillUntilRotations(index, 2, "q");
+
+        assertUrl(used, 0, index.get(OffHeapUrlIndex.pack(used), used, NOT_FOUND));
+        assertNull(index.get(OffHeapUrlIndex.pack(unused), unused, NOT_FOUND));
+    }
+
+    @Test
+    void expiredEntriesAreNotServed() {
+        OffHeapUrlIndex index = new OffHeapUrlIndex(MAX_BYTES);
+        long key = OffHeapUrlIndex.pack("gone");
+        index.put(key, link("gone", 0), System.currentTimeMillis() - 1);
+
+        assertNull(index.get(key, "gone", NOT_FOUND));
+    }
+
+    @Test
+    void snapshotLoadsIntoANewIndex() throws IOException {
+        OffHeapUrlIndex index = new OffHeapUrlIndex(MAX_BYTES);
+        List<String> codes = fillUntilRotations(index, 1, "s");
+        index.put(OffHeapUrlIndex.pack("expired"), link("expired", 0), System.currentTimeMillis() - 1);
+        index.put(OffHeapUrlIndex.pack("missing"), null, deadline());
+        UrlData full = link("full", 2);
+        full.setExpiresAt(1_700_000_360_000L);
+        full.setRedirectStatus(308);
+        index.put(OffHeapUrlIndex.pack("full"), full, deadline());
+        Path file = directory.resolve("index.snapshot");
+
+        assertEquals(codes.size() + 2, index.writeSnapshot(file));
+        OffHeapUrlIndex loaded = new OffHeapUrlIndex(MAX_BYTES);
+        assertEquals(codes.size() + 2, loaded.loadSnapshot(file));
+
+        assertEquals(codes.size() + 2, loaded.size());
+        assertSampleReadable(loaded, codes);
+        assertNull(loaded.get(OffHeapUrlIndex.pack("expired"), "expired", NOT_FOUND));
+        assertSame(NOT_FOUND, loaded.get(OffHeapUrlIndex.pack("missing"), "missing", NOT_FOUND));
+        UrlData read = loaded.get(OffHeapUrlIndex.pack("full"), "full", NOT_FOUND);
+        assertEquals(full.getOriginalUrl(), read.getOriginalUrl());
+        assertEquals(full.getCreatedAt(), read.getCreatedAt());
+        assertEquals(full.getExpiresAt(), read.getExpiresAt());
+        assertEquals(full.getClickCount(), read.getClickCount());
+        assertEquals(308, read.getRedirectStatus());
+    }
+
+    @Test
+    void snapshotWithAnotherMagicIsIgnored() throws IOException {
+        OffHeapUrlIndex index = new OffHeapUrlIndex(MAX_BYTES);
+        index.put(OffHeapUrlIndex.pack("abc"), link("abc", 0), deadline());
+        Path file = directory.resolve("index.snapshot");
+        assertEquals(1, index.writeSnapshot(file));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // "URL1", the previous record layout.
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(0x55524c31).flip();
+            channel.write(magic, 0);
+        }
+
+        OffHeapUrlIndex loaded = new OffHeapUrlIndex(MAX_BYTES);
+        assertEquals(0, loaded.loadSnapshot(file));
+        assertNull(loaded.get(OffHeapUrlIndex.pack("abc"), "abc", NOT_FOUND));
+        assertEquals(0, loaded.loadSnapshot(directory.resolve("absent.snapshot")));
+    }
+
+    @Test
+    void concurrentReadersOnlySeeCompleteEntries() throws Exception {
+        OffHeapUrlIndex index = new OffHeapUrlIndex(MAX_BYTES);
+        String[] codes = new String[500];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = "k" + i;
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<Integer>> workers = new ArrayList<>();
+            for (int w = 0; w < 2; w++) {
+                workers.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int writes = 0;
+                    while (!stop.get()) {
+                        String code = codes[random.nextInt(codes.length)];
+                        long key = OffHeapUrlIndex.pack(code);
+                        switch (random.nextInt(8)) {
+                            case 0 -> index.remove(key);
+                            case 1 -> index.put(key, null, deadline());
+                            default -> index.put(key, link(code, random.nextInt(1000)), deadline());
+                        }
+                        writes++;
+                    }
+                    return writes;
+                }));
+            }
+            for (int r = 0; r < 4; r++) {
+                workers.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int hits = 0;
+                    while (!stop.get()) {
+                        String code = codes[random.nextInt(codes.length)];
+                        UrlData read = index.get(OffHeapUrlIndex.pack(code), code, NOT_FOUND);
+                        if (read != null && read != NOT_FOUND) {
+                            // A torn record would show another code's URL or lose the fields written with it.
+                            assertTrue(read.getOriginalUrl().startsWith("https://example.com/" + code + "/"),
+                                    read.getOriginalUrl());
+                            assertEquals(1_700_000_000_000L, read.getCreatedAt());
+                            hits++;
+                        }
+                    }
+                    return hits;
+                }));
+            }
+            Thread.sleep(1_000);
+            stop.set(true);
+            for (Future<Integer> worker : workers) {
+                assertTrue(worker.get(10, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(index.rotations() > 0);
+    }
+
+    // Writes links named prefix + n until the index has rotated that many times in all; returns their codes.
+    private static List<String> fillUntilRotations(OffHeapUrlIndex index, long rotations, String prefix) {
+        List<String> codes = new ArrayList<>();
+        while (index.rotations() < rotations) {
+            String code = prefix + codes.size();
+            index.put(OffHeapUrlIndex.pack(code), link(code, 0), deadline());
+            codes.add(code);
+        }
+        return codes;
+    }
+
+    private static UrlData link(String code, int version) {
+        UrlData urlData = new UrlData("https://example.com/" + code + "/" + version, code);
+        urlData.setCreatedAt(1_700_000_000_000L);
+        urlData.setClickCount((long) version);
+        return urlData;
+    }
+
+    private static void assertUrl(String code, int version, UrlData read) {
+        assertNotNull(read, code);
+        assertEquals("https://example.com/" + code + "/" + version, read.getOriginalUrl());
+        assertEquals(code, read.getShortCode());
+    }
+
+    // Every tenth code and the last one.
+    private static void assertSampleReadable(OffHeapUrlIndex index, List<String> codes) {
+        for (int i = 0; i < codes.size(); i += 10) {
+            assertUrl(codes.get(i), 0, index.get(OffHeapUrlIndex.pack(codes.get(i)), codes.get(i), NOT_FOUND));
+        }
+        String last = codes.get(codes.size() - 1);
+        assertUrl(last, 0, index.get(OffHeapUrlIndex.pack(last), last, NOT_FOUND));
+    }
+
+    private static long deadline() {
+        return System.currentTimeMillis() + 600_000;
+    }
+
+    private static String unpack(long key) {
+        String characters = ShortCodeGenerator.CHARACTERS;
+        StringBuilder code = new StringBuilder();
+        while (key > 0) {
+            key--;
+            code.append(characters.charAt((int) (key % characters.length())));
+            key /= characters.length();
+        }
+        return code.reverse().toString();
+    }
+}
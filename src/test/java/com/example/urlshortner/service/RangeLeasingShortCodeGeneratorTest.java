@@ -0,0 +1,144 @@
+package com.example.urlshortner.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// RangeLeasingShortCodeGenerator without Redis: the scramble must be a permutation of every KEYSPACE sized range of
+// IDs, and generators sharing a counter (other instances, or this one after a restart) must never hand out the
+// same code, within a leased block or across block boundaries. The shared counter is an AtomicLong behind a
+// mocked INCRBY.
+class RangeLeasingShortCodeGeneratorTest {
+
+    private static final long KEYSPACE = (long) Math.pow(ShortCodeGenerator.CHARACTERS.length(),
+            ShortCodeGenerator.SHORT_CODE_LENGTH);
+
+    private final AtomicLong counter = new AtomicLong();
+
+    @Test
+    void scrambleIsABijectionOfEachKeyspaceRange() {
+        // An affine map modulo KEYSPACE is a permutation exactly when its multiplier is invertible; both constants
+        // can be read off the images of 0 and 1.
+        long offset = RangeLeasingShortCodeGenerator.scramble(0);
+        BigInteger multiplier = BigInteger.valueOf(
+                Math.floorMod(RangeLeasingShortCodeGenerator.scramble(1) - offset, KEYSPACE));
+        BigInteger modulus = BigInteger.valueOf(KEYSPACE);
+        assertEquals(BigInteger.ONE, multiplier.gcd(modulus));
+        long inverse = multiplier.modInverse(modulus).longValueExact();
+
+        Random random = new Random(7);
+        List<Long> ids = new ArrayList<>(List.of(0L, 1L, KEYSPACE - 1, KEYSPACE, KEYSPACE + 1, 3 * KEYSPACE - 1));
+        for (int i = 0; i < 100_000; i++) {
+            ids.add(Math.floorMod(random.nextLong(), 5 * KEYSPACE));
+        }
+        for (long id : ids) {
+            long scrambled = RangeLeasingShortCodeGenerator.scramble(id);
+            assertEquals(id / KEYSPACE, scrambled / KEYSPACE, "id " + id);
+            long low = BigInteger.valueOf(scrambled % KEYSPACE - offset).multiply(BigInteger.valueOf(inverse))
+                    .mod(modulus).longValueExact();
+            assertEquals(id, id / KEYSPACE * KEYSPACE + low, "id " + id);
+        }
+    }
+
+    @Test
+    void leasedRangesAcrossTheKeyspaceBoundaryGiveDistinctCodes() {
+        // Blocks leased just before and after the counter passes KEYSPACE, where codes grow a seventh character.
+        counter.set(KEYSPACE - 2_500);
+        RangeLeasingShortCodeGenerator generator = generator(1_000);
+
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < 5_000; i++) {
+            String code = generator.nextCode();
+            assertTrue(codes.add(code), "duplicate " + code);
+            assertEquals(i < 2_500 ? 6 : 7, code.length(), code);
+        }
+        assertEquals(KEYSPACE + 2_500, counter.get());
+    }
+
+    @Test
+    void generatorsSharingTheCounterNeverRepeatACode() throws Exception {
+        Set<String> codes = ConcurrentHashMap.newKeySet();
+        // Three instances at once, each with several threads, and block sizes that don't divide each other.
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int instance = 0; instance < 3; instance++) {
+                RangeLeasingShortCodeGenerator generator = generator(97 + instance * 300);
+                for (int thread = 0; thread < 2; thread++) {
+                    workers.add(executor.submit(() -> {
+                        for (int i = 0; i < 20_000; i++) {
+                            String code = generator.nextCode();
+                            assertTrue(codes.add(code), "duplicate " + code);
+                        }
+                    }));
+                }
+            }
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // A restarted instance leases a fresh block: the unused rest of its old ones is skipped, never reissued.
+        for (int restart = 0; restart < 5; restart++) {
+            RangeLeasingShortCodeGenerator generator = generator(1_000);
+            for (int i = 0; i < 10; i++) {
+                String code = generator.nextCode();
+                assertTrue(codes.add(code), "duplicate " + code);
+            }
+        }
+        assertEquals(6 * 20_000 + 5 * 10, codes.size());
+    }
+
+    @Test
+    void unscrambledCodesAreTheCounterInBase62() {
+        RangeLeasingShortCodeGenerator generator = generator(10);
+        ReflectionTestUtils.setField(generator, "scramble", false);
+
+        assertEquals("aaaaaa", generator.nextCode());
+        assertEquals("aaaaab", generator.nextCode());
+        assertEquals("999999", RangeLeasingShortCodeGenerator.encode(KEYSPACE - 1));
+        assertEquals("baaaaaa", RangeLeasingShortCodeGenerator.encode(KEYSPACE));
+    }
+
+    @SuppressWarnings("unchecked")
+    private RangeLeasingShortCodeGenerator generator(long blockSize) {
+        ValueOperations<String, String> operations = mock(ValueOperations.class);
+        when(operations.increment(eq(RangeLeasingShortCodeGenerator.COUNTER_KEY), anyLong()))
+                .thenAnswer(invocation -> counter.addAndGet(invocation.getArgument(1, Long.class)));
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate() {
+            @Override
+            public ValueOperations<String, String> opsForValue() {
+                return operations;
+            }
+        };
+
+        RangeLeasingShortCodeGenerator generator = new RangeLeasingShortCodeGenerator();
+        ReflectionTestUtils.setField(generator, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(generator, "blockSize", blockSize);
+        ReflectionTestUtils.setField(generator, "scramble", true);
+        return generator;
+    }
+}
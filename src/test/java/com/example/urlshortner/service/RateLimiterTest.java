@@ -0,0 +1,150 @@
+package com.example.urlshortner.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// RateLimiter's token buckets on a clock the test moves (10 creates per second, bursts of 100), and its handling of
+// the shared Redis window through a DistributedRateLimiter whose answers the test picks. The API key "importer" is
+// exempt.
+class RateLimiterTest {
+
+    private static final RateLimiter.Operation CREATE = RateLimiter.Operation.CREATE;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // What the stand-in for Redis answers; ADMITTED unless a test says otherwise.
+    private final AtomicLong distributedAnswer = new AtomicLong(RateLimiter.ADMITTED);
+    // Ahead of the real clock that new buckets start from, so that they are full at the start of every test.
+    private final long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    private UrlShortnerMetrics metrics;
+    private RateLimiter rateLimiter;
+
+    @BeforeEach
+    void create() {
+        metrics = new UrlShortnerMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", meterRegistry);
+        metrics.init();
+        rateLimiter = newRateLimiter(metrics, null);
+    }
+
+    @Test
+    void emptyBucketRefillsAtTheConfiguredRate() {
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "client", 100, at(0)));
+        assertEquals(100, rateLimiter.tryAcquire(CREATE, "client", 1, at(0)));
+
+        // 2.5 tokens after 250 ms: two creates, then half a token short.
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "client", 1, at(250)));
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "client", 1, at(250)));
+        assertEquals(50, rateLimiter.tryAcquire(CREATE, "client", 1, at(250)));
+
+        // Never refilled past the burst.
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "client", 100, at(60_000)));
+        assertEquals(100, rateLimiter.tryAcquire(CREATE, "client", 1, at(60_000)));
+
+        // Other clients have their own buckets.
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "other", 100, at(60_000)));
+        assertEquals(3.0, meterRegistry.counter("urlshortner.ratelimit.rejected", "operation", "create").count());
+    }
+
+    @Test
+    void batchLargerThanTheBurstLeavesTheBucketInDebt() {
+        // A full bucket admits 250 permits and is left 150 short.
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "client", 250, at(0)));
+        assertEquals(15_100, rateLimiter.tryAcquire(CREATE, "client", 1, at(0)));
+
+        // Out of debt with one token after 15.1 s, but the next large batch waits for a full bucket.
+        assertEquals(9_900, rateLimiter.tryAcquire(CREATE, "client", 250, at(15_100)));
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "client", 250, at(25_000)));
+    }
+
+    @Test
+    void waitIsRoundedUpToWholeMillisecondsAndSeconds() {
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "client", 100, at(0)));
+        // A millionth of a token short.
+        long atAlmostATenth = start + TimeUnit.MILLISECONDS.toNanos(100) - 100;
+        assertEquals(1, rateLimiter.tryAcquire(CREATE, "client", 1, atAlmostATenth));
+
+        assertEquals(1, RateLimiter.retryAfterSeconds(1));
+        assertEquals(1, RateLimiter.retryAfterSeconds(1_000));
+        assertEquals(2, RateLimiter.retryAfterSeconds(1_001));
+        assertEquals(16, RateLimiter.retryAfterSeconds(15_100));
+    }
+
+    @Test
+    void requestRejectedByTheSharedWindowKeepsItsLocalTokens() {
+        DistributedRateLimiter distributedRateLimiter = new DistributedRateLimiter() {
+            @Override
+            public long tryAcquire(String key, long perWindow, long windowMs, int permits) {
+                return distributedAnswer.get();
+            }
+        };
+        RateLimiter distributed = newRateLimiter(metrics, distributedRateLimiter);
+
+        distributedAnswer.set(4_000);
+        assertEquals(4_000, distributed.tryAcquire(CREATE, "client", 100, at(0)));
+        assertEquals(4_000, distributed.tryAcquire(CREATE, "client", 100, at(0)));
+
+        // Other instances' traffic has moved on; the local bucket is still full.
+        distributedAnswer.set(RateLimiter.ADMITTED);
+        assertEquals(RateLimiter.ADMITTED, distributed.tryAcquire(CREATE, "client", 100, at(0)));
+        assertEquals(100, distributed.tryAcquire(CREATE, "client", 1, at(0)));
+
+        // Lookups are only limited locally.
+        distributedAnswer.set(4_000);
+        assertEquals(RateLimiter.ADMITTED, distributed.tryAcquire(RateLimiter.Operation.LOOKUP, "client", 1, at(0)));
+    }
+
+    @Test
+    void disabledLimiterAdmitsEverything() {
+        ReflectionTestUtils.setField(rateLimiter, "enabled", false);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, "client", 1_000, at(0)));
+        }
+    }
+
+    @Test
+    void exemptApiKeysSkipTheLimits() {
+        // Keys other than the exempt one, and an address that happens to look like it, are still limited.
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, RateLimiter.clientId("other", null), 100,
+                at(0)));
+        assertEquals(100, rateLimiter.tryAcquire(CREATE, RateLimiter.clientId("other", null), 1, at(0)));
+        assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, RateLimiter.clientId(null, "importer"),
+                100, at(0)));
+        assertEquals(100, rateLimiter.tryAcquire(CREATE, RateLimiter.clientId(null, "importer"), 1, at(0)));
+
+        String importer = RateLimiter.clientId("importer", "10.0.0.1");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(RateLimiter.ADMITTED, rateLimiter.tryAcquire(CREATE, importer, 1_000, at(0)));
+        }
+    }
+
+    private long at(long ms) {
+        return start + TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    private static RateLimiter newRateLimiter(UrlShortnerMetrics metrics,
+                                              DistributedRateLimiter distributedRateLimiter) {
+        RateLimiter rateLimiter = new RateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "metrics", metrics);
+        ReflectionTestUtils.setField(rateLimiter, "distributedRateLimiter", distributedRateLimiter);
+        ReflectionTestUtils.setField(rateLimiter, "enabled", true);
+        ReflectionTestUtils.setField(rateLimiter, "createPerSecond", 10.0);
+        ReflectionTestUtils.setField(rateLimiter, "createBurst", 100);
+        ReflectionTestUtils.setField(rateLimiter, "lookupPerSecond", 1000.0);
+        ReflectionTestUtils.setField(rateLimiter, "lookupBurst", 2000);
+        ReflectionTestUtils.setField(rateLimiter, "distributedOperations", new String[] {"create"});
+        ReflectionTestUtils.setField(rateLimiter, "windowMs", 10_000L);
+        ReflectionTestUtils.setField(rateLimiter, "maxClients", 1000);
+        ReflectionTestUtils.setField(rateLimiter, "apiKeyHeader", "X-API-Key");
+        ReflectionTestUtils.setField(rateLimiter, "exemptApiKeys", new String[] {"importer", " "});
+        rateLimiter.init();
+        return rateLimiter;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.UrlShortnerApplication;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+// The contract tests against RedisUrlStore, wired by Spring as in production, on an embedded redis-server started
+// on a free port (skipped where its binary can't run).
+class RedisUrlStoreContractTest extends UrlStoreContractTest {
+
+    private static RedisServer redisServer;
+    private static ConfigurableApplicationContext context;
+
+    @BeforeAll
+    static void start() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try {
+            redisServer = RedisServer.newRedisServer()
+                    .port(port)
+                    .setting("save \"\"")
+                    .setting("appendonly no")
+                    .build();
+            redisServer.start();
+        } catch (IOException | RuntimeException e) {
+            Assumptions.abort("embedded redis-server unavailable: " + e.getMessage());
+        }
+        // Passed as command line arguments, which override application.properties.
+        context = new SpringApplicationBuilder(UrlShortnerApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.redis.host=localhost", "--spring.redis.port=" + port, "--grpc.server.port=-1");
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        if (context != null) {
+            context.close();
+        }
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @Override
+    protected UrlStore store() {
+        return context.getBean(UrlStore.class);
+    }
+}
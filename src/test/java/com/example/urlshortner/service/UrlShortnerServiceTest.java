@@ -0,0 +1,210 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.model.UrlData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// UrlShortnerService over an EmbeddedUrlStore, wired by hand: lookups that race a delete must never leave the
+// deleted link in the near-cache, and a batch must create the links shortenUrl would.
+class UrlShortnerServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private EmbeddedUrlStore store;
+    private UrlCache urlCache;
+    private UrlShortnerService service;
+
+    // Set by a test to stop a store read between reading the link and returning it.
+    private volatile CountDownLatch readDone;
+    private volatile CountDownLatch resumeRead;
+
+    @AfterEach
+    void closeStore() throws IOException {
+        store.close();
+    }
+
+    @Test
+    void lookupThatReadTheLinkBeforeADeleteDoesNotCacheIt() throws Exception {
+        open("heap");
+        UrlData urlData = create("https://example.com/raced", "raced1");
+        readDone = new CountDownLatch(1);
+        resumeRead = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ServiceResult<UrlData>> lookup = executor.submit(() -> service.getOriginalUrl("raced1"));
+            assertTrue(readDone.await(10, TimeUnit.SECONDS));
+
+            // Another instance deletes the link while the lookup holds what it read; its invalidation arrives here.
+            store.delete(urlData);
+            urlCache.onMessage(new DefaultMessage(UrlCache.INVALIDATION_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                    "raced1".getBytes(StandardCharsets.UTF_8)), null);
+            resumeRead.countDown();
+
+            // The lookup itself started before the delete, so it may still see the link.
+            assertTrue(lookup.get(10, TimeUnit.SECONDS).isOk());
+        } finally {
+            executor.shutdownNow();
+        }
+        readDone = null;
+
+        assertFalse(service.getOriginalUrl("raced1").isOk());
+        assertFalse(service.getOriginalUrls(List.of("raced1")).get(0).isOk());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "offheap"})
+    void concurrentLookupsAndDeleteLeaveNothingCached(String engine) throws Exception {
+        open(engine);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 200; round++) {
+                String shortCode = "race" + round;
+                create("https://example.com/race/" + round, shortCode);
+                CountDownLatch start = new CountDownLatch(1);
+
+                Future<?> single = executor.submit(() -> lookUp(start, () -> service.getOriginalUrl(shortCode)));
+                Future<?> batch = executor.submit(() -> lookUp(start,
+                        () -> service.getOriginalUrls(List.of(shortCode))));
+                Future<ServiceResult<UrlData>> delete = executor.submit(() -> {
+                    start.await();
+                    return service.deleteUrl(shortCode);
+                });
+                start.countDown();
+                assertTrue(delete.get(10, TimeUnit.SECONDS).isOk());
+                single.get(10, TimeUnit.SECONDS);
+                batch.get(10, TimeUnit.SECONDS);
+
+                assertFalse(service.getOriginalUrl(shortCode).isOk(), "round " + round);
+                assertFalse(service.getOriginalUrls(List.of(shortCode)).get(0).isOk(), "round " + round);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void batchCreatesOneLinkPerUrlAndRedirectStatus() throws IOException {
+        open("heap");
+        List<ServiceResult<UrlData>> results = service.shortenUrls(List.of(
+                new ShortenCommand("https://example.com/batch", null, null),
+                new ShortenCommand("https://example.com/batch", null, null, 301),
+                new ShortenCommand("https://example.com/batch", null, null),
+                new ShortenCommand("https://example.com/batch", "mine1", null),
+                new ShortenCommand("https://example.com/batch", "mine2", null),
+                new ShortenCommand("https://example.com/batch", null, null, 301)));
+
+        for (ServiceResult<UrlData> result : results) {
+            assertTrue(result.isOk());
+        }
+        String plain = results.get(0).getValue().getShortCode();
+        String permanent = results.get(1).getValue().getShortCode();
+        assertNotEquals(plain, permanent);
+        assertEquals(plain, results.get(2).getValue().getShortCode());
+        assertEquals(permanent, results.get(5).getValue().getShortCode());
+        assertEquals(301, results.get(1).getValue().getRedirectStatus());
+        assertEquals("mine1", results.get(3).getValue().getShortCode());
+        assertEquals("mine2", results.get(4).getValue().getShortCode());
+        assertEquals(301, service.getOriginalUrl(permanent).getValue().getRedirectStatus());
+        assertTrue(service.getOriginalUrl("mine2").isOk());
+    }
+
+    private static Void lookUp(CountDownLatch start, Runnable lookup) throws InterruptedException {
+        start.await();
+        for (int i = 0; i < 50; i++) {
+            lookup.run();
+        }
+        return null;
+    }
+
+    private UrlData create(String originalUrl, String shortCode) {
+        UrlData urlData = new UrlData(originalUrl, shortCode, null);
+        assertEquals(UrlStore.Outcome.CREATED,
+                store.create(urlData, ReverseIndex.digest(originalUrl), false, false).getOutcome());
+        return urlData;
+    }
+
+    private void open(String engine) throws IOException {
+        store = new EmbeddedUrlStore() {
+            @Override
+            public UrlData get(String shortCode) {
+                UrlData urlData = super.get(shortCode);
+                CountDownLatch done = readDone;
+                if (done != null) {
+                    done.countDown();
+                    try {
+                        resumeRead.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return urlData;
+            }
+        };
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(store, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "segmentBytes", 1 << 20);
+        ReflectionTestUtils.setField(store, "fsyncIntervalMs", 1000L);
+        ReflectionTestUtils.setField(store, "compactionIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(store, "compactionGarbageRatio", 0.5);
+        store.open();
+
+        urlCache = new UrlCache();
+        ReflectionTestUtils.setField(urlCache, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(urlCache, "maxEntries", 10_000L);
+        ReflectionTestUtils.setField(urlCache, "maxBytes", 16L << 20);
+        ReflectionTestUtils.setField(urlCache, "maxTtlMs", 600_000L);
+        ReflectionTestUtils.setField(urlCache, "negativeTtlMs", 5_000L);
+        ReflectionTestUtils.setField(urlCache, "engine", engine);
+        ReflectionTestUtils.setField(urlCache, "offHeapMaxBytes", 16L << 20);
+        ReflectionTestUtils.setField(urlCache, "snapshotFile", "");
+        urlCache.init();
+
+        UrlShortnerMetrics metrics = new UrlShortnerMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", meterRegistry);
+        metrics.init();
+
+        HotKeyTracker hotKeyTracker = new HotKeyTracker();
+        ReflectionTestUtils.setField(hotKeyTracker, "enabled", false);
+
+        ClickCounterService clickCounterService = new ClickCounterService();
+        ReflectionTestUtils.setField(clickCounterService, "urlStore", store);
+        // Clicks stay pending; nothing here needs them flushed.
+        ReflectionTestUtils.setField(clickCounterService, "flushThreshold", Long.MAX_VALUE);
+
+        AtomicInteger codes = new AtomicInteger();
+        ShortCodeGenerator shortCodeGenerator = () -> "gen" + codes.incrementAndGet();
+
+        service = new UrlShortnerService();
+        ReflectionTestUtils.setField(service, "shortCodeGenerator", shortCodeGenerator);
+        ReflectionTestUtils.setField(service, "urlStore", store);
+        ReflectionTestUtils.setField(service, "urlCache", urlCache);
+        ReflectionTestUtils.setField(service, "metrics", metrics);
+        ReflectionTestUtils.setField(service, "hotKeyTracker", hotKeyTracker);
+        ReflectionTestUtils.setField(service, "clickCounterService", clickCounterService);
+    }
+}
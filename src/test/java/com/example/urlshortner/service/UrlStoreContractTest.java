@@ -0,0 +1,178 @@
+package com.example.urlshortner.service;
+
+import com.example.urlshortner.model.UrlData;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The behaviour every UrlStore implementation has to provide (see UrlStore). A subclass per implementation
+// supplies the store; every test uses codes and URLs of its own, so they can share one store.
+abstract class UrlStoreContractTest {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    protected abstract UrlStore store();
+
+    @Test
+    void createdLinkCanBeRead() {
+        UrlData urlData = link(uniqueUrl(), uniqueCode(), null);
+
+        assertEquals(UrlStore.Outcome.CREATED, create(urlData, false).getOutcome());
+
+        UrlData stored = store().get(urlData.getShortCode());
+        assertNotNull(stored);
+        assertEquals(urlData.getOriginalUrl(), stored.getOriginalUrl());
+        assertEquals(urlData.getShortCode(), stored.getShortCode());
+        assertEquals(urlData.getCreatedAt(), stored.getCreatedAt());
+        assertNull(stored.getExpiresAt());
+    }
+
+    @Test
+    void unknownCodeReadsAsNull() {
+        assertNull(store().get(uniqueCode()));
+    }
+
+    @Test
+    void takenCodeIsNotOverwritten() {
+        String shortCode = uniqueCode();
+        UrlData first = link(uniqueUrl(), shortCode, null);
+        create(first, false);
+
+        assertEquals(UrlStore.Outcome.TAKEN, create(link(uniqueUrl(), shortCode, null), false).getOutcome());
+        assertEquals(first.getOriginalUrl(), store().get(shortCode).getOriginalUrl());
+    }
+
+    @Test
+    void dedupReturnsTheLinkTheUrlWasShortenedTo() {
+        String url = uniqueUrl();
+        UrlData first = link(url, uniqueCode(), null);
+        create(first, true);
+
+        UrlData second = link(url, uniqueCode(), null);
+        UrlStore.CreateResult result = create(second, true);
+
+        assertEquals(UrlStore.Outcome.EXISTING, result.getOutcome());
+        assertEquals(first.getShortCode(), result.getExisting().getShortCode());
+        assertNull(store().get(second.getShortCode()));
+    }
+
+    @Test
+    void createWithoutDedupStoresAnotherLinkForTheSameUrl() {
+        String url = uniqueUrl();
+        create(link(url, uniqueCode(), null), true);
+
+        UrlData second = link(url, uniqueCode(), null);
+        assertEquals(UrlStore.Outcome.CREATED, create(second, false).getOutcome());
+        assertNotNull(store().get(second.getShortCode()));
+    }
+
+    @Test
+    void getAllKeepsTheOrderOfTheCodes() {
+        UrlData a = link(uniqueUrl(), uniqueCode(), null);
+        UrlData b = link(uniqueUrl(), uniqueCode(), 3600L);
+        create(a, false);
+        create(b, false);
+
+        List<UrlData> found = store().getAll(List.of(b.getShortCode(), uniqueCode(), a.getShortCode()));
+
+        assertEquals(3, found.size());
+        assertEquals(b.getOriginalUrl(), found.get(0).getOriginalUrl());
+        assertEquals(b.getExpiresAt(), found.get(0).getExpiresAt());
+        assertNull(found.get(1));
+        assertEquals(a.getOriginalUrl(), found.get(2).getOriginalUrl());
+    }
+
+    @Test
+    void batchCreateClaimsFreeCodesAndIndexesThem() {
+        UrlData existing = link(uniqueUrl(), uniqueCode(), null);
+        create(existing, false);
+        UrlData fresh = link(uniqueUrl(), uniqueCode(), null);
+        UrlData collision = link(uniqueUrl(), existing.getShortCode(), null);
+
+        List<Boolean> claimed = store().claimAll(List.of(fresh, collision));
+        assertEquals(List.of(true, false), claimed);
+        store().indexAll(List.of(fresh));
+
+        String unknownUrl = uniqueUrl();
+        List<String> codes = store().findCodes(
+                Arrays.asList(fresh.getOriginalUrl(), unknownUrl, null),
+                Arrays.asList(ReverseIndex.digest(fresh.getOriginalUrl()), ReverseIndex.digest(unknownUrl), null));
+        assertEquals(Arrays.asList(fresh.getShortCode(), null, null), codes);
+        assertEquals(existing.getOriginalUrl(), store().get(existing.getShortCode()).getOriginalUrl());
+    }
+
+    @Test
+    void deleteFreesTheCodeAndForgetsTheUrl() {
+        UrlData urlData = link(uniqueUrl(), uniqueCode(), 3600L);
+        create(urlData, true);
+
+        store().delete(urlData);
+
+        assertNull(store().get(urlData.getShortCode()));
+        assertNull(store().findCodes(List.of(urlData.getOriginalUrl()),
+                List.of(ReverseIndex.digest(urlData.getOriginalUrl()))).get(0));
+        assertEquals(UrlStore.Outcome.CREATED,
+                create(link(uniqueUrl(), urlData.getShortCode(), null), true).getOutcome());
+    }
+
+    @Test
+    void clicksAddUpUntilDeleted() {
+        UrlData a = link(uniqueUrl(), uniqueCode(), null);
+        UrlData b = link(uniqueUrl(), uniqueCode(), null);
+        create(a, false);
+        create(b, false);
+
+        store().addClicks(Map.of(a.getShortCode(), 3L, b.getShortCode(), 1L), this::unexpected);
+        store().addClicks(Map.of(a.getShortCode(), 4L), this::unexpected);
+
+        assertEquals(7L, store().getClicks(a.getShortCode()));
+        assertEquals(1L, store().getClicks(b.getShortCode()));
+        assertEquals(0L, store().getClicks(uniqueCode()));
+
+        store().deleteClicks(a.getShortCode());
+        assertEquals(0L, store().getClicks(a.getShortCode()));
+        assertEquals(1L, store().getClicks(b.getShortCode()));
+    }
+
+    @Test
+    void codeOfAnExpiredLinkCanBeClaimedAgain() throws InterruptedException {
+        UrlData expiring = link(uniqueUrl(), uniqueCode(), 1L);
+        create(expiring, false);
+
+        Thread.sleep(1500);
+
+        UrlData stale = store().get(expiring.getShortCode());
+        assertTrue(stale == null || stale.isExpiresAt());
+        UrlData replacement = link(uniqueUrl(), expiring.getShortCode(), null);
+        assertEquals(UrlStore.Outcome.CREATED, create(replacement, false).getOutcome());
+        assertEquals(replacement.getOriginalUrl(), store().get(expiring.getShortCode()).getOriginalUrl());
+    }
+
+    protected UrlStore.CreateResult create(UrlData urlData, boolean dedup) {
+        return store().create(urlData, ReverseIndex.digest(urlData.getOriginalUrl()), dedup, false);
+    }
+
+    protected static UrlData link(String originalUrl, String shortCode, Long expirationSeconds) {
+        return new UrlData(originalUrl, shortCode, expirationSeconds);
+    }
+
+    protected static String uniqueCode() {
+        return "c" + Long.toString(System.nanoTime() % 1_000_000_000L, 36) + SEQUENCE.incrementAndGet();
+    }
+
+    protected static String uniqueUrl() {
+        return "https://example.com/" + SEQUENCE.incrementAndGet() + "/" + System.nanoTime();
+    }
+
+    private void unexpected(String shortCode, Long delta) {
+        throw new AssertionError("Clicks of " + shortCode + " not written");
+    }
+}